@@ -0,0 +1,325 @@
+package com.ianhanniballake.recipebook.model;
+
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+import android.content.ContentValues;
+import android.content.res.Resources;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ianhanniballake.recipebook.R;
+
+/**
+ * Benchmarks parsing the ingredient lines of the sample recipes, on the device as the parser needs the application's
+ * resources. Each benchmark is warmed up before it is measured, and the average time per operation is logged.
+ */
+public class IngredientParserBenchmark extends AndroidTestCase
+{
+	/**
+	 * Copy of Ingredient.setFromRaw(Resources, String) as it was before it scanned the text in place, creating a
+	 * substring for every token, catching a NumberFormatException for every token that is not a number and loading the
+	 * units as a new array for every line
+	 */
+	private static class LegacyIngredient
+	{
+		/**
+		 * Units recognized before the unit lexicon, as they were listed in the removed units resource array
+		 */
+		private static final String[] UNITS = { "teaspoon", "t", "tsp", "tablespoon", "T", "tbsp", "oz", "cup",
+				"quart", "pint", "gram", "gallon", "pound", "lb" };
+		/**
+		 * Item name of the ingredient
+		 */
+		private String item;
+		/**
+		 * Preparation instructions of the ingredient
+		 */
+		private String preparation;
+		/**
+		 * Whole quantity of the ingredient
+		 */
+		private int quantity;
+		/**
+		 * Denominator of the fractional quantity of the ingredient
+		 */
+		private int quantityDenominator;
+		/**
+		 * Numerator of the fractional quantity of the ingredient
+		 */
+		private int quantityNumerator;
+		/**
+		 * Unit of the ingredient
+		 */
+		private String unit;
+
+		/**
+		 * Creates a new LegacyIngredient
+		 */
+		LegacyIngredient()
+		{
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = quantity;
+			hash = 31 * hash + quantityNumerator;
+			hash = 31 * hash + quantityDenominator;
+			hash = 31 * hash + (unit == null ? 0 : unit.hashCode());
+			hash = 31 * hash + (item == null ? 0 : item.hashCode());
+			return 31 * hash + (preparation == null ? 0 : preparation.hashCode());
+		}
+
+		/**
+		 * Parses an ingredient from the given rawText, using the default values loaded from the Resources if the
+		 * string does not contain all components
+		 * 
+		 * @param resources
+		 *            Resources for loading default values
+		 * @param rawText
+		 *            Raw text to parse
+		 */
+		void setFromRaw(final Resources resources, final String rawText)
+		{
+			int startIndex = 0;
+			int endIndex = rawText.indexOf(' ', startIndex);
+			if (rawText.isEmpty() || endIndex == -1)
+			{
+				quantity = resources.getInteger(R.integer.default_ingredient_quantity);
+				quantityNumerator = resources.getInteger(R.integer.default_ingredient_quantity_numerator);
+				quantityDenominator = resources.getInteger(R.integer.default_ingredient_quantity_denominator);
+				unit = resources.getString(R.string.default_ingredient_unit);
+				item = rawText;
+				preparation = resources.getString(R.string.default_ingredient_preparation);
+				return;
+			}
+			try
+			{
+				quantity = Integer.parseInt(rawText.substring(startIndex, endIndex));
+				startIndex = endIndex + 1;
+			} catch (final NumberFormatException e)
+			{
+				// Don't change startIndex to retry that token
+				quantity = resources.getInteger(R.integer.default_ingredient_quantity);
+			}
+			endIndex = rawText.indexOf('/', startIndex);
+			if (endIndex != -1)
+				try
+				{
+					// Ensure both parse correctly before assigning them to our
+					// class variables
+					final int numerator = Integer.parseInt(rawText.substring(startIndex, endIndex));
+					final int tempStartIndex = endIndex + 1;
+					endIndex = rawText.indexOf(' ', tempStartIndex);
+					final int denominator = Integer.parseInt(rawText.substring(tempStartIndex, endIndex));
+					startIndex = endIndex + 1;
+					// Assign to our class variables
+					quantityNumerator = numerator;
+					quantityDenominator = denominator;
+				} catch (final NumberFormatException e)
+				{
+					// Don't change startIndex to retry that token
+					quantityNumerator = resources.getInteger(R.integer.default_ingredient_quantity_numerator);
+					quantityDenominator = resources.getInteger(R.integer.default_ingredient_quantity_denominator);
+				}
+			endIndex = rawText.indexOf(' ', startIndex);
+			if (endIndex == -1)
+				unit = resources.getString(R.string.default_ingredient_unit);
+			else
+			{
+				String possibleUnit = rawText.substring(startIndex, endIndex);
+				// Strip off periods or final S's (lbs. -> lb, etc)
+				if (possibleUnit.endsWith("s."))
+					possibleUnit = possibleUnit.substring(0, possibleUnit.length() - 2);
+				else if (possibleUnit.endsWith("."))
+					possibleUnit = possibleUnit.substring(0, possibleUnit.length() - 1);
+				// The units array was loaded from the resources, as a new array, on every call
+				if (Arrays.asList(LegacyIngredient.UNITS.clone()).contains(possibleUnit))
+				{
+					unit = possibleUnit;
+					startIndex = endIndex + 1;
+				}
+				else
+					unit = resources.getString(R.string.default_ingredient_unit);
+			}
+			endIndex = Math.max(rawText.indexOf(';', startIndex), rawText.indexOf(',', startIndex));
+			// Take everything until the end of the string as the item if there
+			// is no preparation
+			if (endIndex == -1)
+				endIndex = rawText.length();
+			item = rawText.substring(startIndex, endIndex).trim();
+			startIndex = endIndex + 1;
+			endIndex = rawText.length();
+			if (endIndex > startIndex)
+				preparation = rawText.substring(startIndex, endIndex).trim();
+			else
+				preparation = resources.getString(R.string.default_ingredient_preparation);
+		}
+	}
+
+	/**
+	 * Number of lines in the cookbook sized list of ingredients
+	 */
+	private static final int COOKBOOK_LINES = 5000;
+	/**
+	 * Ingredient lines of the sample recipes, as they are typed
+	 */
+	private static final String[] LINES = { "5 Boneless Chicken Breast, with or without skin",
+			"4 Bacon, cut into 1 inch pieces", "1/2 lb Button Mushroom", "1 Garlic Clove, minced",
+			"1 tsp Tomato Paste", "1 1/2 cup Marsala, sub other red wine", "1 1/2 tbsp Lemon Juice",
+			"4 tbsp Butter; sub ghee", "2 tbsp Parsley, minced", "2 tbsp Cooking Fat", "2 cup Bisquick Baking Mix",
+			"2/3 cup Milk", "1/2 cup Chedder Cheese, shredded", "1/4 cup Butter, sub margarine",
+			"1/4 tsp Garlic Powder", "1 cup Coconut Flour", "1/2 cup Coconut Oil", "3 tbsp Honey", "4 Eggs",
+			"1/2 tsp Vanilla Extract", "1/8 tsp Sea Salt", "1/2 cup Unsweetened Coconut, shredded",
+			"3/4 cup Gluten Free Chocolate Chips, sub regular chocolate chips", "2 cups Ricotta",
+			"1/2 cup Parmesan Cheese, finely grated", "2 tsp. Black Pepper, freshly grated", "2 Eggs",
+			"1 1/4 Flour", "1/2 T Salt", "1 T Butter", "4 Tablespoons Butter, softened", "1 c Parsley, chopped",
+			"2 Garlic Cloves, minced" };
+	/**
+	 * Number of measured iterations of each benchmark
+	 */
+	private static final int MEASUREMENT_ITERATIONS = 20;
+	/**
+	 * Number of iterations of each benchmark run before measuring, so that it is measured once compiled
+	 */
+	private static final int WARMUP_ITERATIONS = 10;
+
+	/**
+	 * Sum of the hash codes of every result, so that no parsing can be skipped as unused
+	 */
+	private int sink;
+
+	/**
+	 * Parses each of the given lines once with the given parser
+	 * 
+	 * @param parser
+	 *            Parser to use
+	 * @param lines
+	 *            Lines to parse
+	 */
+	private void parseLines(final IngredientParser parser, final String[] lines)
+	{
+		for (final String line : lines)
+			sink += parser.parse(line).hashCode();
+	}
+
+	/**
+	 * Parses each of the given lines once as they were parsed before the text was scanned in place
+	 * 
+	 * @param resources
+	 *            Resources to load the default values from
+	 * @param lines
+	 *            Lines to parse
+	 */
+	private void parseLinesLegacy(final Resources resources, final String[] lines)
+	{
+		for (final String line : lines)
+		{
+			final LegacyIngredient ingredient = new LegacyIngredient();
+			ingredient.setFromRaw(resources, line);
+			sink += ingredient.hashCode();
+		}
+	}
+
+	/**
+	 * Parses every sample line once with a new parser for each line, as editing did before the parser was reused
+	 * 
+	 * @param resources
+	 *            Resources to load each parser's default values from
+	 */
+	private void parseLinesWithNewParsers(final Resources resources)
+	{
+		for (final String line : IngredientParserBenchmark.LINES)
+			sink += new IngredientParser(resources).parse(line).hashCode();
+	}
+
+	/**
+	 * Logs the average time of a benchmark operation
+	 * 
+	 * @param name
+	 *            Name of the benchmark
+	 * @param elapsedNanos
+	 *            Total time of the measured iterations
+	 * @param operationsPerIteration
+	 *            Number of operations in each iteration
+	 */
+	private void report(final String name, final long elapsedNanos, final int operationsPerIteration)
+	{
+		final long operations = (long) IngredientParserBenchmark.MEASUREMENT_ITERATIONS * operationsPerIteration;
+		Log.i(IngredientParserBenchmark.class.getSimpleName(), name + ": " + elapsedNanos / operations + " ns/op over "
+				+ operations + " operations (sink " + sink + ")");
+	}
+
+	/**
+	 * Benchmarks parsing the same cookbook sized list of ingredients three ways: one line at a time as the lines were
+	 * parsed before the text was scanned in place, one line at a time with a single parser, and as one block of text at
+	 * once, as when importing, across several threads
+	 * 
+	 * @throws InterruptedIOException
+	 *             If the benchmark is interrupted
+	 */
+	public void testParseCookbook() throws InterruptedIOException
+	{
+		final Resources resources = getContext().getResources();
+		final String[] cookbook = new String[IngredientParserBenchmark.COOKBOOK_LINES];
+		final StringBuilder sb = new StringBuilder();
+		for (int line = 0; line < IngredientParserBenchmark.COOKBOOK_LINES; line++)
+		{
+			cookbook[line] = IngredientParserBenchmark.LINES[line % IngredientParserBenchmark.LINES.length];
+			sb.append(cookbook[line]).append('\n');
+		}
+		final String text = sb.toString();
+		for (int iteration = 0; iteration < IngredientParserBenchmark.WARMUP_ITERATIONS; iteration++)
+			parseLinesLegacy(resources, cookbook);
+		long start = System.nanoTime();
+		for (int iteration = 0; iteration < IngredientParserBenchmark.MEASUREMENT_ITERATIONS; iteration++)
+			parseLinesLegacy(resources, cookbook);
+		report("parseCookbookLegacy", System.nanoTime() - start, IngredientParserBenchmark.COOKBOOK_LINES);
+		final IngredientParser parser = new IngredientParser(resources);
+		for (int iteration = 0; iteration < IngredientParserBenchmark.WARMUP_ITERATIONS; iteration++)
+			parseLines(parser, cookbook);
+		start = System.nanoTime();
+		for (int iteration = 0; iteration < IngredientParserBenchmark.MEASUREMENT_ITERATIONS; iteration++)
+			parseLines(parser, cookbook);
+		report("parseCookbookByLine", System.nanoTime() - start, IngredientParserBenchmark.COOKBOOK_LINES);
+		for (int iteration = 0; iteration < IngredientParserBenchmark.WARMUP_ITERATIONS; iteration++)
+			sink += parser.parse(1, text).length;
+		start = System.nanoTime();
+		for (int iteration = 0; iteration < IngredientParserBenchmark.MEASUREMENT_ITERATIONS; iteration++)
+		{
+			final ContentValues[] values = parser.parse(1, text);
+			assertEquals(IngredientParserBenchmark.COOKBOOK_LINES, values.length);
+			sink += values.length;
+		}
+		report("parseCookbookBlock", System.nanoTime() - start, IngredientParserBenchmark.COOKBOOK_LINES);
+	}
+
+	/**
+	 * Benchmarks parsing each line with a new parser, loading the default values from the resources every time
+	 */
+	public void testParseLineNewParser()
+	{
+		final Resources resources = getContext().getResources();
+		for (int iteration = 0; iteration < IngredientParserBenchmark.WARMUP_ITERATIONS; iteration++)
+			parseLinesWithNewParsers(resources);
+		final long start = System.nanoTime();
+		for (int iteration = 0; iteration < IngredientParserBenchmark.MEASUREMENT_ITERATIONS; iteration++)
+			parseLinesWithNewParsers(resources);
+		report("parseLineNewParser", System.nanoTime() - start, IngredientParserBenchmark.LINES.length);
+	}
+
+	/**
+	 * Benchmarks parsing each line with the same parser, as while editing ingredients
+	 */
+	public void testParseLineReusedParser()
+	{
+		final IngredientParser parser = new IngredientParser(getContext().getResources());
+		for (int iteration = 0; iteration < IngredientParserBenchmark.WARMUP_ITERATIONS; iteration++)
+			parseLines(parser, IngredientParserBenchmark.LINES);
+		final long start = System.nanoTime();
+		for (int iteration = 0; iteration < IngredientParserBenchmark.MEASUREMENT_ITERATIONS; iteration++)
+			parseLines(parser, IngredientParserBenchmark.LINES);
+		report("parseLineReusedParser", System.nanoTime() - start, IngredientParserBenchmark.LINES.length);
+	}
+}
@@ -0,0 +1,185 @@
+package com.ianhanniballake.recipebook.model;
+
+import java.io.InterruptedIOException;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.ianhanniballake.recipebook.provider.RecipeContract;
+
+/**
+ * Tests parsing raw ingredient text with an {@link IngredientParser}
+ */
+public class IngredientParserTest extends AndroidTestCase
+{
+	/**
+	 * Checks the values of a parsed ingredient
+	 * 
+	 * @param values
+	 *            Values of the parsed ingredient
+	 * @param quantity
+	 *            Expected whole number quantity
+	 * @param numerator
+	 *            Expected numerator of the fractional quantity
+	 * @param denominator
+	 *            Expected denominator of the fractional quantity
+	 * @param unit
+	 *            Expected unit
+	 * @param unitId
+	 *            Expected canonical unit
+	 * @param item
+	 *            Expected item
+	 * @param preparation
+	 *            Expected preparation
+	 */
+	private static void assertIngredient(final ContentValues values, final int quantity, final int numerator,
+			final int denominator, final String unit, final int unitId, final String item, final String preparation)
+	{
+		assertEquals(item, quantity, values.getAsInteger(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY).intValue());
+		assertEquals(item, numerator, values.getAsInteger(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR)
+				.intValue());
+		assertEquals(item, denominator,
+				values.getAsInteger(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR).intValue());
+		assertEquals(item, unit, values.getAsString(RecipeContract.Ingredients.COLUMN_NAME_UNIT));
+		assertEquals(item, unitId, values.getAsInteger(RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID).intValue());
+		assertEquals(item, values.getAsString(RecipeContract.Ingredients.COLUMN_NAME_ITEM));
+		assertEquals(item, preparation, values.getAsString(RecipeContract.Ingredients.COLUMN_NAME_PREPARATION));
+	}
+
+	/**
+	 * Parser under test, with the default values of the application's resources
+	 */
+	private IngredientParser parser;
+
+	/**
+	 * Checks a single parsed line
+	 * 
+	 * @param rawText
+	 *            Raw text to parse
+	 * @param quantity
+	 *            Expected whole number quantity
+	 * @param numerator
+	 *            Expected numerator of the fractional quantity
+	 * @param denominator
+	 *            Expected denominator of the fractional quantity
+	 * @param unit
+	 *            Expected unit
+	 * @param unitId
+	 *            Expected canonical unit
+	 * @param item
+	 *            Expected item
+	 * @param preparation
+	 *            Expected preparation
+	 */
+	private void assertParsed(final String rawText, final int quantity, final int numerator, final int denominator,
+			final String unit, final int unitId, final String item, final String preparation)
+	{
+		IngredientParserTest.assertIngredient(parser.parse(rawText).toContentValues(1), quantity, numerator,
+				denominator, unit, unitId, item, preparation);
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		parser = new IngredientParser(getContext().getResources());
+	}
+
+	/**
+	 * Text without a quantity or unit is all item, with the default values for the rest
+	 */
+	public void testDefaults()
+	{
+		assertParsed("Salt", 0, 0, 1, "", RecipeContract.Units.NONE, "Salt", "");
+		assertParsed("Salt and pepper", 0, 0, 1, "", RecipeContract.Units.NONE, "Salt and pepper", "");
+		assertParsed("2 handfuls spinach", 2, 0, 1, "", RecipeContract.Units.NONE, "handfuls spinach", "");
+		assertParsed("", 0, 0, 1, "", RecipeContract.Units.NONE, "", "");
+	}
+
+	/**
+	 * Fractions, with or without a whole number, are stored as a proper fraction in lowest terms
+	 */
+	public void testFractions()
+	{
+		assertParsed("1 1/2 cups flour", 1, 1, 2, "cups", RecipeContract.Units.CUP, "flour", "");
+		assertParsed("3/2 cups flour", 1, 1, 2, "cups", RecipeContract.Units.CUP, "flour", "");
+		assertParsed("3/4 cup sugar", 0, 3, 4, "cup", RecipeContract.Units.CUP, "sugar", "");
+		assertParsed("2/4 cup sugar", 0, 1, 2, "cup", RecipeContract.Units.CUP, "sugar", "");
+		assertParsed("1 4/4 cup sugar", 2, 0, 1, "cup", RecipeContract.Units.CUP, "sugar", "");
+		assertParsed("1/8 tsp Sea Salt", 0, 1, 8, "tsp", RecipeContract.Units.TEASPOON, "Sea Salt", "");
+	}
+
+	/**
+	 * Multiple lines are parsed in order, skipping blank lines, with the same results whether they are parsed on one
+	 * thread or several
+	 * 
+	 * @throws InterruptedIOException
+	 *             If the test is interrupted
+	 */
+	public void testParseLines() throws InterruptedIOException
+	{
+		final ContentValues[] values = parser.parse(5, "2 cups Ricotta\n\n1/2 cup Parmesan Cheese, finely grated\n"
+				+ "   \n2 Eggs\n");
+		assertEquals(3, values.length);
+		IngredientParserTest.assertIngredient(values[0], 2, 0, 1, "cups", RecipeContract.Units.CUP, "Ricotta", "");
+		IngredientParserTest.assertIngredient(values[1], 0, 1, 2, "cup", RecipeContract.Units.CUP, "Parmesan Cheese",
+				"finely grated");
+		IngredientParserTest.assertIngredient(values[2], 2, 0, 1, "", RecipeContract.Units.NONE, "Eggs", "");
+		for (final ContentValues value : values)
+			assertEquals(5, value.getAsLong(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID).longValue());
+		final StringBuilder text = new StringBuilder();
+		for (int line = 0; line < 2000; line++)
+			text.append(line + 1).append(" ").append(line % 3 == 0 ? "T" : "t").append(" item ").append(line)
+					.append(", prep\n");
+		final ContentValues[] lines = parser.parse(5, text.toString());
+		assertEquals(2000, lines.length);
+		for (int line = 0; line < 2000; line++)
+			assertEquals(parser.parse((line + 1) + " " + (line % 3 == 0 ? "T" : "t") + " item " + line + ", prep")
+					.toContentValues(5), lines[line]);
+	}
+
+	/**
+	 * Plurals of units are recognized whatever their case, and kept as written in the lexicon
+	 */
+	public void testPlurals()
+	{
+		assertParsed("2 cups Ricotta", 2, 0, 1, "cups", RecipeContract.Units.CUP, "Ricotta", "");
+		assertParsed("2 tablespoons Butter", 2, 0, 1, "tablespoons", RecipeContract.Units.TABLESPOON, "Butter", "");
+		assertParsed("2 Tablespoons Butter", 2, 0, 1, "tablespoons", RecipeContract.Units.TABLESPOON, "Butter", "");
+		assertParsed("3 pounds Beef", 3, 0, 1, "pounds", RecipeContract.Units.POUND, "Beef", "");
+		assertParsed("3 lbs Beef", 3, 0, 1, "lbs", RecipeContract.Units.POUND, "Beef", "");
+	}
+
+	/**
+	 * The preparation follows the first comma or semicolon after the item
+	 */
+	public void testPreparation()
+	{
+		assertParsed("5 Boneless Chicken Breast, with or without skin", 5, 0, 1, "", RecipeContract.Units.NONE,
+				"Boneless Chicken Breast", "with or without skin");
+		assertParsed("2 tbsp Parsley; minced", 2, 0, 1, "tbsp", RecipeContract.Units.TABLESPOON, "Parsley", "minced");
+		assertParsed("1 cup Parsley ,  chopped ", 1, 0, 1, "cup", RecipeContract.Units.CUP, "Parsley", "chopped");
+	}
+
+	/**
+	 * Single letter units are case-sensitive, as "t" is a teaspoon while "T" is a tablespoon
+	 */
+	public void testSingleLetterUnits()
+	{
+		assertParsed("1 t Salt", 1, 0, 1, "t", RecipeContract.Units.TEASPOON, "Salt", "");
+		assertParsed("1 T Sugar", 1, 0, 1, "T", RecipeContract.Units.TABLESPOON, "Sugar", "");
+		assertParsed("1 c Rice", 1, 0, 1, "c", RecipeContract.Units.CUP, "Rice", "");
+		assertParsed("1 C Rice", 1, 0, 1, "", RecipeContract.Units.NONE, "C Rice", "");
+	}
+
+	/**
+	 * Abbreviated units may end with a period
+	 */
+	public void testTrailingPeriods()
+	{
+		assertParsed("2 tsp. Vanilla Extract", 2, 0, 1, "tsp", RecipeContract.Units.TEASPOON, "Vanilla Extract", "");
+		assertParsed("1 lbs. Beef", 1, 0, 1, "lbs", RecipeContract.Units.POUND, "Beef", "");
+		assertParsed("1 T. Honey", 1, 0, 1, "T", RecipeContract.Units.TABLESPOON, "Honey", "");
+		assertParsed("1 oz. Chocolate", 1, 0, 1, "oz", RecipeContract.Units.OUNCE, "Chocolate", "");
+	}
+}
@@ -0,0 +1,220 @@
+package com.ianhanniballake.recipebook.provider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.test.ProviderTestCase2;
+
+/**
+ * Tests scaling ingredients through {@link RecipeContract.Ingredients#QUERY_PARAMETER_SCALE}
+ */
+public class IngredientScalerTest extends ProviderTestCase2<RecipeProvider>
+{
+	/**
+	 * Columns read from each scaled ingredient
+	 */
+	private static final String[] PROJECTION = { RecipeContract.Ingredients.COLUMN_NAME_QUANTITY,
+			RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR,
+			RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR,
+			RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_VALUE, RecipeContract.Ingredients.COLUMN_NAME_UNIT,
+			RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID, RecipeContract.Ingredients.COLUMN_NAME_ITEM };
+
+	/**
+	 * ID of the recipe the test ingredients belong to
+	 */
+	private long recipeId;
+
+	/**
+	 * Creates a new IngredientScalerTest
+	 */
+	public IngredientScalerTest()
+	{
+		super(RecipeProvider.class, RecipeContract.AUTHORITY);
+	}
+
+	/**
+	 * Checks the current row of a cursor of scaled ingredients
+	 * 
+	 * @param c
+	 *            Cursor positioned on the row, with the {@link #PROJECTION} columns
+	 * @param quantity
+	 *            Expected whole number quantity
+	 * @param numerator
+	 *            Expected numerator of the fractional quantity
+	 * @param denominator
+	 *            Expected denominator of the fractional quantity
+	 * @param unit
+	 *            Expected unit
+	 * @param unitId
+	 *            Expected canonical unit
+	 */
+	private void assertIngredient(final Cursor c, final int quantity, final int numerator, final int denominator,
+			final String unit, final int unitId)
+	{
+		final String item = c.getString(6);
+		assertEquals(item, quantity, c.getInt(0));
+		assertEquals(item, numerator, c.getInt(1));
+		assertEquals(item, denominator, c.getInt(2));
+		assertEquals(item, quantity + (double) numerator / denominator, c.getDouble(3), 0.000001);
+		assertEquals(item, unit, c.getString(4));
+		assertEquals(item, unitId, c.getInt(5));
+	}
+
+	/**
+	 * Checks that querying the test recipe's ingredients with the given scale is rejected
+	 * 
+	 * @param scale
+	 *            Scale query parameter
+	 */
+	private void assertInvalidScale(final String scale)
+	{
+		final Uri uri = RecipeContract.Ingredients.CONTENT_URI.buildUpon()
+				.appendQueryParameter(RecipeContract.Ingredients.QUERY_PARAMETER_RECIPE_ID, Long.toString(recipeId))
+				.appendQueryParameter(RecipeContract.Ingredients.QUERY_PARAMETER_SCALE, scale).build();
+		try
+		{
+			getMockContentResolver().query(uri, IngredientScalerTest.PROJECTION, null, null, null).close();
+			fail("Scale " + scale + " accepted");
+		} catch (final IllegalArgumentException e)
+		{
+			// Expected
+		}
+	}
+
+	/**
+	 * Adds an ingredient to the test recipe
+	 * 
+	 * @param quantity
+	 *            Whole number quantity
+	 * @param numerator
+	 *            Numerator of the fractional quantity
+	 * @param denominator
+	 *            Denominator of the fractional quantity
+	 * @param unit
+	 *            Unit as written
+	 * @param item
+	 *            Item
+	 */
+	private void insertIngredient(final int quantity, final int numerator, final int denominator, final String unit,
+			final String item)
+	{
+		final ContentValues values = new ContentValues();
+		values.put(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID, recipeId);
+		values.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY, quantity);
+		values.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR, numerator);
+		values.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR, denominator);
+		values.put(RecipeContract.Ingredients.COLUMN_NAME_UNIT, unit);
+		values.put(RecipeContract.Ingredients.COLUMN_NAME_ITEM, item);
+		getMockContentResolver().insert(RecipeContract.Ingredients.CONTENT_URI, values);
+	}
+
+	/**
+	 * Queries the test recipe's ingredients scaled between the given servings
+	 * 
+	 * @param recipeServings
+	 *            Servings the recipe makes
+	 * @param servings
+	 *            Servings to scale to
+	 * @return Cursor of the scaled ingredients in the order they were added
+	 */
+	private Cursor queryScaled(final int recipeServings, final int servings)
+	{
+		return getMockContentResolver().query(
+				RecipeContract.Ingredients.buildScaledUri(recipeId, recipeServings, servings),
+				IngredientScalerTest.PROJECTION, null, null, BaseColumns._ID);
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		final ContentValues values = new ContentValues();
+		values.put(RecipeContract.Recipes.COLUMN_NAME_TITLE, "Scaled");
+		values.put(RecipeContract.Recipes.COLUMN_NAME_SERVINGS, 4);
+		recipeId = ContentUris.parseId(getMockContentResolver().insert(RecipeContract.Recipes.CONTENT_URI, values));
+	}
+
+	/**
+	 * Scaling 4 servings to 40 multiplies exactly and moves volumes to the unit they would be measured in, written in
+	 * the style of the original unit
+	 */
+	public void testFourToFortyServings()
+	{
+		insertIngredient(1, 1, 2, "cup", "flour");
+		insertIngredient(0, 1, 2, "tsp", "salt");
+		insertIngredient(0, 3, 4, "tsp.", "baking powder");
+		insertIngredient(2, 0, 0, "T", "butter");
+		insertIngredient(6, 0, 0, "teaspoons", "sugar");
+		insertIngredient(1, 1, 3, "lb", "chicken");
+		final Cursor c = queryScaled(4, 40);
+		try
+		{
+			assertEquals(6, c.getCount());
+			assertTrue(c.moveToNext());
+			assertIngredient(c, 15, 0, 1, "cup", RecipeContract.Units.CUP);
+			assertTrue(c.moveToNext());
+			assertIngredient(c, 5, 0, 1, "tsp", RecipeContract.Units.TEASPOON);
+			assertTrue(c.moveToNext());
+			// 7 1/2 teaspoons is 2 1/2 tablespoons
+			assertIngredient(c, 2, 1, 2, "tbsp.", RecipeContract.Units.TABLESPOON);
+			assertTrue(c.moveToNext());
+			// 20 tablespoons is 1 1/4 cups
+			assertIngredient(c, 1, 1, 4, "c", RecipeContract.Units.CUP);
+			assertTrue(c.moveToNext());
+			assertIngredient(c, 1, 1, 4, "cups", RecipeContract.Units.CUP);
+			assertTrue(c.moveToNext());
+			assertIngredient(c, 13, 1, 3, "lb", RecipeContract.Units.POUND);
+		} finally
+		{
+			c.close();
+		}
+	}
+
+	/**
+	 * Scales that are not positive numbers are rejected
+	 */
+	public void testInvalidScale()
+	{
+		insertIngredient(1, 0, 0, "cup", "flour");
+		assertInvalidScale("0");
+		assertInvalidScale("0/4");
+		assertInvalidScale("-2");
+		assertInvalidScale("-1/2");
+		assertInvalidScale("1/0");
+		assertInvalidScale("two");
+	}
+
+	/**
+	 * Scales that make a quantity too large to represent exactly are rejected rather than wrapping around
+	 */
+	public void testOverflow()
+	{
+		insertIngredient(3, 0, 0, "cup", "flour");
+		assertInvalidScale(Integer.toString(Integer.MAX_VALUE));
+		insertIngredient(0, 1, 3, "cup", "sugar");
+		assertInvalidScale("1/" + Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Scaling by 1 leaves every ingredient as written, even volumes that could be measured in a larger unit
+	 */
+	public void testSameServings()
+	{
+		insertIngredient(3, 0, 0, "tsp", "salt");
+		insertIngredient(4, 0, 0, "tablespoons", "butter");
+		final Cursor c = queryScaled(4, 4);
+		try
+		{
+			assertEquals(2, c.getCount());
+			assertTrue(c.moveToNext());
+			assertIngredient(c, 3, 0, 1, "tsp", RecipeContract.Units.TEASPOON);
+			assertTrue(c.moveToNext());
+			assertIngredient(c, 4, 0, 1, "tablespoons", RecipeContract.Units.TABLESPOON);
+		} finally
+		{
+			c.close();
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package com.ianhanniballake.recipebook.provider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.IsolatedContext;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+/**
+ * Tests the change notifications sent by the {@link RecipeProvider}, counting the notifications an observer of the
+ * whole provider receives when a recipe is saved
+ */
+public class NotificationCoalescerTest extends AndroidTestCase
+{
+	/**
+	 * ContentResolver that records every change notification instead of ignoring them, as MockContentResolver does
+	 */
+	private static class CountingContentResolver extends MockContentResolver
+	{
+		/**
+		 * Notified URIs, in the order they were notified
+		 */
+		final ArrayList<Uri> notifiedUris = new ArrayList<Uri>();
+		/**
+		 * Whether each notification requested a sync
+		 */
+		final ArrayList<Boolean> syncToNetwork = new ArrayList<Boolean>();
+
+		@Override
+		public void notifyChange(final Uri uri, final ContentObserver observer, final boolean sync)
+		{
+			notifiedUris.add(uri);
+			syncToNetwork.add(sync);
+		}
+	}
+
+	/**
+	 * Number of ingredients in a saved recipe
+	 */
+	private static final int INGREDIENT_COUNT = 50;
+	/**
+	 * Number of instructions in a saved recipe
+	 */
+	private static final int INSTRUCTION_COUNT = 5;
+
+	/**
+	 * Adds the operations inserting a recipe's ingredients and instructions, as the recipe editor saves them
+	 * 
+	 * @param operations
+	 *            Operations to add to
+	 * @param recipeId
+	 *            ID of the recipe, or -1 if the recipe is inserted by the first operation
+	 * @param asSyncAdapter
+	 *            Whether the operations are made by the sync adapter
+	 */
+	private static void addIngredientsAndInstructions(final ArrayList<ContentProviderOperation> operations,
+			final long recipeId, final boolean asSyncAdapter)
+	{
+		final Uri ingredientsUri = asSyncAdapter ? RecipeContract
+				.asSyncAdapter(RecipeContract.Ingredients.CONTENT_ID_URI_BASE)
+				: RecipeContract.Ingredients.CONTENT_ID_URI_BASE;
+		for (int index = 0; index < NotificationCoalescerTest.INGREDIENT_COUNT; index++)
+		{
+			final ContentValues values = new ContentValues();
+			values.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY, index % 4 + 1);
+			values.put(RecipeContract.Ingredients.COLUMN_NAME_UNIT, "cup");
+			values.put(RecipeContract.Ingredients.COLUMN_NAME_ITEM, "Ingredient " + index);
+			final ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(ingredientsUri);
+			if (recipeId == -1)
+				builder.withValueBackReference(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID, 0);
+			else
+				values.put(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID, recipeId);
+			operations.add(builder.withValues(values).build());
+		}
+		final Uri instructionsUri = asSyncAdapter ? RecipeContract
+				.asSyncAdapter(RecipeContract.Instructions.CONTENT_ID_URI_BASE)
+				: RecipeContract.Instructions.CONTENT_ID_URI_BASE;
+		for (int index = 0; index < NotificationCoalescerTest.INSTRUCTION_COUNT; index++)
+		{
+			final ContentValues values = new ContentValues();
+			values.put(RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION, "Step " + index);
+			final ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(instructionsUri);
+			if (recipeId == -1)
+				builder.withValueBackReference(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID, 0);
+			else
+				values.put(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID, recipeId);
+			operations.add(builder.withValues(values).build());
+		}
+	}
+
+	/**
+	 * Creates the values of a recipe
+	 * 
+	 * @param title
+	 *            Title of the recipe
+	 * @return The recipe's values
+	 */
+	private static ContentValues createRecipeValues(final String title)
+	{
+		final ContentValues values = new ContentValues();
+		values.put(RecipeContract.Recipes.COLUMN_NAME_TITLE, title);
+		values.put(RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION, "Saved with "
+				+ NotificationCoalescerTest.INGREDIENT_COUNT + " ingredients");
+		return values;
+	}
+
+	/**
+	 * Provider under test
+	 */
+	private RecipeProvider provider;
+	/**
+	 * Resolver recording the provider's notifications
+	 */
+	private CountingContentResolver resolver;
+
+	/**
+	 * Checks the notifications sent since the last check
+	 * 
+	 * @param syncToNetwork
+	 *            Whether every notification is expected to request a sync
+	 * @param expectedUris
+	 *            URIs expected to be notified, in order
+	 */
+	private void assertNotified(final boolean syncToNetwork, final Uri... expectedUris)
+	{
+		assertEquals(Arrays.asList(expectedUris), resolver.notifiedUris);
+		for (final Boolean sync : resolver.syncToNetwork)
+			assertEquals(syncToNetwork, sync.booleanValue());
+		resolver.notifiedUris.clear();
+		resolver.syncToNetwork.clear();
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		resolver = new CountingContentResolver();
+		final Context context = new IsolatedContext(resolver, new RenamingDelegatingContext(getContext(), "test."));
+		context.deleteDatabase(RecipeProvider.DATABASE_NAME);
+		provider = new RecipeProvider();
+		provider.attachInfo(context, null);
+		resolver.addProvider(RecipeContract.AUTHORITY, provider);
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		provider.shutdown();
+		super.tearDown();
+	}
+
+	/**
+	 * Saving changes to a recipe's ingredients and instructions, replacing all of them, notifies the recipes,
+	 * the ingredients, and the instructions once each. The recipes are notified as a whole, for the search results
+	 * 
+	 * @throws Exception
+	 *             If the batch could not be applied
+	 */
+	public void testEditedRecipeSave() throws Exception
+	{
+		final Uri recipeUri = resolver.insert(RecipeContract.Recipes.CONTENT_ID_URI_BASE,
+				NotificationCoalescerTest.createRecipeValues("Stew"));
+		resolver.notifiedUris.clear();
+		resolver.syncToNetwork.clear();
+		final long recipeId = ContentUris.parseId(recipeUri);
+		final String[] recipeSelectionArgs = { Long.toString(recipeId) };
+		final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		operations.add(ContentProviderOperation.newUpdate(recipeUri)
+				.withValues(NotificationCoalescerTest.createRecipeValues("Beef Stew")).build());
+		operations.add(ContentProviderOperation.newDelete(RecipeContract.Ingredients.CONTENT_ID_URI_BASE)
+				.withSelection(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + "=?", recipeSelectionArgs).build());
+		operations.add(ContentProviderOperation.newDelete(RecipeContract.Instructions.CONTENT_ID_URI_BASE)
+				.withSelection(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID + "=?", recipeSelectionArgs).build());
+		NotificationCoalescerTest.addIngredientsAndInstructions(operations, recipeId, false);
+		resolver.applyBatch(RecipeContract.AUTHORITY, operations);
+		assertNotified(true, RecipeContract.Recipes.CONTENT_URI, RecipeContract.Ingredients.CONTENT_URI,
+				RecipeContract.Instructions.CONTENT_URI);
+	}
+
+	/**
+	 * A batch that fails is rolled back, so no notifications are sent for the operations applied before it failed
+	 * 
+	 * @throws Exception
+	 *             If the batch could not be built
+	 */
+	public void testFailedBatchNotifiesNothing() throws Exception
+	{
+		final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		operations.add(ContentProviderOperation.newInsert(RecipeContract.Recipes.CONTENT_ID_URI_BASE)
+				.withValues(NotificationCoalescerTest.createRecipeValues("Souffle")).build());
+		NotificationCoalescerTest.addIngredientsAndInstructions(operations, -1, false);
+		operations.add(ContentProviderOperation
+				.newUpdate(ContentUris.withAppendedId(RecipeContract.Recipes.CONTENT_ID_URI_BASE, Integer.MAX_VALUE))
+				.withValues(NotificationCoalescerTest.createRecipeValues("Missing")).withExpectedCount(1).build());
+		try
+		{
+			resolver.applyBatch(RecipeContract.AUTHORITY, operations);
+			fail("Batch updating a missing recipe applied");
+		} catch (final OperationApplicationException e)
+		{
+			// Expected
+		}
+		assertNotified(true);
+	}
+
+	/**
+	 * Saving a new recipe notifies the recipes, the ingredients, and the instructions once each, rather than once
+	 * per row. The recipes are notified as a whole, for the search results
+	 * 
+	 * @throws Exception
+	 *             If the batch could not be applied
+	 */
+	public void testNewRecipeSave() throws Exception
+	{
+		final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		operations.add(ContentProviderOperation.newInsert(RecipeContract.Recipes.CONTENT_ID_URI_BASE)
+				.withValues(NotificationCoalescerTest.createRecipeValues("Paella")).build());
+		NotificationCoalescerTest.addIngredientsAndInstructions(operations, -1, false);
+		final ContentProviderResult[] results = resolver.applyBatch(RecipeContract.AUTHORITY, operations);
+		assertEquals(1 + NotificationCoalescerTest.INGREDIENT_COUNT + NotificationCoalescerTest.INSTRUCTION_COUNT,
+				results.length);
+		assertNotified(true, RecipeContract.Recipes.CONTENT_URI, RecipeContract.Ingredients.CONTENT_URI,
+				RecipeContract.Instructions.CONTENT_URI);
+	}
+
+	/**
+	 * Changes made outside of a batch are notified immediately, with every change to an ingredient also notifying the
+	 * search results
+	 */
+	public void testSingleInsertNotifiesImmediately()
+	{
+		final Uri recipeUri = resolver.insert(RecipeContract.Recipes.CONTENT_ID_URI_BASE,
+				NotificationCoalescerTest.createRecipeValues("Toast"));
+		assertNotified(true, recipeUri);
+		final ContentValues values = new ContentValues();
+		values.put(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID, ContentUris.parseId(recipeUri));
+		values.put(RecipeContract.Ingredients.COLUMN_NAME_ITEM, "Bread");
+		final Uri ingredientUri = resolver.insert(RecipeContract.Ingredients.CONTENT_ID_URI_BASE, values);
+		assertNotified(true, ingredientUri, RecipeContract.Recipes.CONTENT_URI);
+		values.put(RecipeContract.Ingredients.COLUMN_NAME_ITEM, "Rye Bread");
+		resolver.update(ingredientUri, values, null, null);
+		assertNotified(true, ingredientUri, RecipeContract.Recipes.CONTENT_URI);
+		resolver.delete(ingredientUri, null, null);
+		assertNotified(true, ingredientUri, RecipeContract.Recipes.CONTENT_URI);
+	}
+
+	/**
+	 * Changes made by the sync adapter are coalesced the same way, without requesting another sync
+	 * 
+	 * @throws Exception
+	 *             If the batch could not be applied
+	 */
+	public void testSyncAdapterSave() throws Exception
+	{
+		final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		operations.add(ContentProviderOperation
+				.newInsert(RecipeContract.asSyncAdapter(RecipeContract.Recipes.CONTENT_ID_URI_BASE))
+				.withValues(NotificationCoalescerTest.createRecipeValues("Risotto")).build());
+		NotificationCoalescerTest.addIngredientsAndInstructions(operations, -1, true);
+		resolver.applyBatch(RecipeContract.AUTHORITY, operations);
+		assertNotified(false, RecipeContract.Recipes.CONTENT_URI, RecipeContract.Ingredients.CONTENT_URI,
+				RecipeContract.Instructions.CONTENT_URI);
+	}
+}
@@ -0,0 +1,190 @@
+package com.ianhanniballake.recipebook.provider;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the packed {@link Rational} arithmetic: reduction to lowest terms, normalization of mixed numbers, overflow
+ * detection and unpacking
+ */
+public class RationalTest extends TestCase
+{
+	/**
+	 * Sums are reduced to lowest terms
+	 */
+	public void testAdd()
+	{
+		assertEquals(Rational.reduce(5, 6), Rational.add(Rational.reduce(1, 2), Rational.reduce(1, 3)));
+		assertEquals(Rational.ONE, Rational.add(Rational.reduce(1, 2), Rational.reduce(1, 2)));
+		assertEquals(Rational.ZERO, Rational.add(Rational.reduce(1, 2), Rational.reduce(-1, 2)));
+		assertEquals(Rational.reduce(1, 4), Rational.add(Rational.reduce(3, 4), Rational.reduce(-1, 2)));
+	}
+
+	/**
+	 * Sums that do not fit in a packed quantity throw rather than wrapping around
+	 */
+	public void testAddOverflow()
+	{
+		try
+		{
+			Rational.add(Rational.valueOf(Integer.MAX_VALUE), Rational.ONE);
+			fail("Sum overflowed");
+		} catch (final ArithmeticException e)
+		{
+			// Expected
+		}
+		try
+		{
+			Rational.add(Rational.reduce(1, Integer.MAX_VALUE), Rational.reduce(1, Integer.MAX_VALUE - 1));
+			fail("Sum overflowed");
+		} catch (final ArithmeticException e)
+		{
+			// Expected
+		}
+	}
+
+	/**
+	 * Quantities are ordered by value whatever their denominators
+	 */
+	public void testCompare()
+	{
+		assertTrue(Rational.compare(Rational.reduce(1, 3), Rational.reduce(1, 2)) < 0);
+		assertTrue(Rational.compare(Rational.reduce(3, 2), Rational.ONE) > 0);
+		assertTrue(Rational.compare(Rational.reduce(-1, 2), Rational.ZERO) < 0);
+		assertEquals(0, Rational.compare(Rational.reduce(2, 4), Rational.reduce(1, 2)));
+	}
+
+	/**
+	 * Mixed numbers are normalized, so that equal quantities are packed the same however they are written
+	 */
+	public void testFromMixed()
+	{
+		assertEquals(Rational.fromMixed(1, 1, 2), Rational.fromMixed(0, 3, 2));
+		assertEquals(Rational.reduce(3, 2), Rational.fromMixed(1, 1, 2));
+		assertEquals(Rational.reduce(1, 2), Rational.fromMixed(0, 2, 4));
+		assertEquals(Rational.valueOf(2), Rational.fromMixed(1, 4, 4));
+		assertEquals(Rational.valueOf(2), Rational.fromMixed(2, 0, 1));
+		// The fractional part is ignored without a positive denominator
+		assertEquals(Rational.valueOf(2), Rational.fromMixed(2, 1, 0));
+		assertEquals(Rational.ZERO, Rational.fromMixed(0, 0, 1));
+	}
+
+	/**
+	 * Products are reduced to lowest terms
+	 */
+	public void testMultiply()
+	{
+		assertEquals(Rational.reduce(1, 3), Rational.multiply(Rational.reduce(1, 2), Rational.reduce(2, 3)));
+		assertEquals(Rational.valueOf(5), Rational.multiply(Rational.reduce(5, 2), Rational.valueOf(2)));
+		assertEquals(Rational.reduce(-3, 4), Rational.multiply(Rational.reduce(-3, 2), Rational.reduce(1, 2)));
+		assertEquals(Rational.ZERO, Rational.multiply(Rational.reduce(7, 8), Rational.ZERO));
+	}
+
+	/**
+	 * Products that do not fit in a packed quantity throw rather than wrapping around
+	 */
+	public void testMultiplyOverflow()
+	{
+		try
+		{
+			Rational.multiply(Rational.valueOf(Integer.MAX_VALUE), Rational.valueOf(2));
+			fail("Product overflowed");
+		} catch (final ArithmeticException e)
+		{
+			// Expected
+		}
+		try
+		{
+			Rational.multiply(Rational.reduce(1, Integer.MAX_VALUE), Rational.reduce(1, 2));
+			fail("Product overflowed");
+		} catch (final ArithmeticException e)
+		{
+			// Expected
+		}
+	}
+
+	/**
+	 * Whole numbers, fractions, mixed numbers and decimals are parsed exactly
+	 */
+	public void testParse()
+	{
+		assertEquals(Rational.ZERO, Rational.parse("0"));
+		assertEquals(Rational.valueOf(10), Rational.parse(" 10 "));
+		assertEquals(Rational.reduce(-1, 2), Rational.parse("-1/2"));
+		assertEquals(Rational.reduce(3, 2), Rational.parse("1.5"));
+		assertEquals(Rational.reduce(5, 2), Rational.parse("5/2"));
+		assertEquals(Rational.reduce(5, 2), Rational.parse("2 1/2"));
+		assertEquals(Rational.reduce(1, 8), Rational.parse("0.125"));
+	}
+
+	/**
+	 * Text that is not a quantity, or does not fit in a packed quantity, throws NumberFormatException
+	 */
+	public void testParseInvalid()
+	{
+		final String[] invalid = { "1/0", "", "a pinch", "1/2 cup", "half", "1.2.3", "0.0000000001", "4294967296" };
+		for (final String text : invalid)
+			try
+			{
+				Rational.parse(text);
+				fail("Parsed " + text);
+			} catch (final NumberFormatException e)
+			{
+				// Expected
+			}
+	}
+
+	/**
+	 * Fractions are reduced with a positive denominator, and a zero denominator throws
+	 */
+	public void testReduce()
+	{
+		assertEquals(Rational.reduce(-1, 2), Rational.reduce(1, -2));
+		assertEquals(Rational.reduce(1, 2), Rational.reduce(-2, -4));
+		assertEquals(Rational.ZERO, Rational.reduce(0, 5));
+		try
+		{
+			Rational.reduce(1, 0);
+			fail("Zero denominator reduced");
+		} catch (final ArithmeticException e)
+		{
+			// Expected
+		}
+	}
+
+	/**
+	 * Unpacked parts give back the quantity, including as the whole number and proper fraction stored for ingredients
+	 */
+	public void testRoundTrip()
+	{
+		final long[] quantities = { Rational.ZERO, Rational.ONE, Rational.reduce(3, 2), Rational.reduce(-3, 2),
+				Rational.reduce(1, 8), Rational.valueOf(-7), Rational.reduce(Integer.MAX_VALUE, 2),
+				Rational.reduce(Integer.MIN_VALUE, 3) };
+		for (final long quantity : quantities)
+		{
+			final int numerator = Rational.numerator(quantity);
+			final int denominator = Rational.denominator(quantity);
+			assertTrue(denominator > 0);
+			assertEquals(quantity, Rational.reduce(numerator, denominator));
+			final int whole = Rational.wholePart(quantity);
+			assertEquals(quantity, Rational.fromMixed(whole, numerator - whole * denominator, denominator));
+		}
+		assertEquals(3, Rational.numerator(Rational.reduce(6, 4)));
+		assertEquals(2, Rational.denominator(Rational.reduce(6, 4)));
+		assertEquals(1, Rational.wholePart(Rational.reduce(3, 2)));
+		assertEquals(-1, Rational.wholePart(Rational.reduce(-3, 2)));
+		assertEquals(0, Rational.wholePart(Rational.reduce(1, 2)));
+	}
+
+	/**
+	 * Quantities are formatted as mixed numbers
+	 */
+	public void testToString()
+	{
+		assertEquals("1 1/2", Rational.toString(Rational.reduce(3, 2)));
+		assertEquals("1/2", Rational.toString(Rational.reduce(1, 2)));
+		assertEquals("-1/2", Rational.toString(Rational.reduce(-1, 2)));
+		assertEquals("-1 1/2", Rational.toString(Rational.reduce(-3, 2)));
+		assertEquals("2", Rational.toString(Rational.valueOf(2)));
+		assertEquals("0", Rational.toString(Rational.ZERO));
+	}
+}
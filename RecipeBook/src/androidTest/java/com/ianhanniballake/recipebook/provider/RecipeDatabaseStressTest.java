@@ -0,0 +1,311 @@
+package com.ianhanniballake.recipebook.provider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.provider.BaseColumns;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+/**
+ * Stress tests the recipe database with a sync sized write workload running alongside the reads of the recipe list and
+ * recipe details, reporting the read latency percentiles with the rollback journal used before and with write-ahead
+ * logging
+ */
+public class RecipeDatabaseStressTest extends AndroidTestCase
+{
+	/**
+	 * Number of batches written, each in its own transaction as the sync adapter applies them
+	 */
+	private static final int BATCH_COUNT = 20;
+	/**
+	 * Number of ingredients of each written recipe
+	 */
+	private static final int INGREDIENTS_PER_RECIPE = 15;
+	/**
+	 * Number of instructions of each written recipe
+	 */
+	private static final int INSTRUCTIONS_PER_RECIPE = 8;
+	/**
+	 * Number of recipes written in each batch
+	 */
+	private static final int RECIPES_PER_BATCH = 10;
+
+	/**
+	 * Gets the given percentile of the given latencies, using the nearest rank
+	 * 
+	 * @param sortedLatencies
+	 *            Latencies, sorted in ascending order
+	 * @param percent
+	 *            Percentile to get, from 1 to 100
+	 * @return The latency of the given percentile
+	 */
+	private static long percentile(final long[] sortedLatencies, final int percent)
+	{
+		final int rank = (int) Math.ceil(percent / 100.0 * sortedLatencies.length);
+		return sortedLatencies[Math.max(rank, 1) - 1];
+	}
+
+	/**
+	 * Reads the details of a recipe as the recipe detail fragments do: the recipe, its ingredients, and its
+	 * instructions
+	 * 
+	 * @param db
+	 *            Database to read
+	 * @param recipeId
+	 *            ID of the recipe to read
+	 */
+	private static void readDetail(final SQLiteDatabase db, final long recipeId)
+	{
+		final String[] selectionArgs = { Long.toString(recipeId) };
+		final Cursor recipe = db.query(RecipeContract.Recipes.TABLE_NAME, null, BaseColumns._ID + "=?", selectionArgs,
+				null, null, null);
+		try
+		{
+			recipe.getCount();
+		} finally
+		{
+			recipe.close();
+		}
+		final Cursor ingredients = db.query(RecipeContract.Ingredients.TABLE_NAME, null,
+				RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + "=?", selectionArgs, null, null, null);
+		try
+		{
+			ingredients.getCount();
+		} finally
+		{
+			ingredients.close();
+		}
+		final Cursor instructions = db.query(RecipeContract.Instructions.TABLE_NAME, null,
+				RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID + "=?", selectionArgs, null, null, null);
+		try
+		{
+			instructions.getCount();
+		} finally
+		{
+			instructions.close();
+		}
+	}
+
+	/**
+	 * Reads the recipe list as the recipe list does
+	 * 
+	 * @param db
+	 *            Database to read
+	 */
+	private static void readList(final SQLiteDatabase db)
+	{
+		final Cursor c = db.query(RecipeContract.Recipes.TABLE_NAME, new String[] { BaseColumns._ID,
+				RecipeContract.Recipes.COLUMN_NAME_TITLE, RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION }, null, null,
+				null, null, RecipeContract.Recipes.DEFAULT_SORT_ORDER);
+		try
+		{
+			c.getCount();
+		} finally
+		{
+			c.close();
+		}
+	}
+
+	/**
+	 * Logs the read latency percentiles of a workload
+	 * 
+	 * @param name
+	 *            Name of the workload
+	 * @param sortedLatencies
+	 *            Latencies of the workload's reads, in nanoseconds, sorted in ascending order
+	 */
+	private static void report(final String name, final long[] sortedLatencies)
+	{
+		Log.i(RecipeDatabaseStressTest.class.getSimpleName(), name + ": " + sortedLatencies.length + " reads, p50 "
+				+ RecipeDatabaseStressTest.percentile(sortedLatencies, 50) / 1000 + " us, p90 "
+				+ RecipeDatabaseStressTest.percentile(sortedLatencies, 90) / 1000 + " us, p99 "
+				+ RecipeDatabaseStressTest.percentile(sortedLatencies, 99) / 1000 + " us, max "
+				+ sortedLatencies[sortedLatencies.length - 1] / 1000 + " us");
+	}
+
+	/**
+	 * Converts a list of latencies into an array
+	 * 
+	 * @param latencies
+	 *            Latencies to convert
+	 * @return The latencies as an array
+	 */
+	private static long[] toArray(final ArrayList<Long> latencies)
+	{
+		final long[] result = new long[latencies.size()];
+		for (int index = 0; index < result.length; index++)
+			result[index] = latencies.get(index);
+		return result;
+	}
+
+	/**
+	 * Writes a batch of recipes with their ingredients and instructions in a single transaction, as a sync does,
+	 * checkpointing afterwards with the provider's checkpoint policy
+	 * 
+	 * @param helper
+	 *            Helper of the database to write to
+	 * @param batch
+	 *            Index of the batch
+	 */
+	private static void writeBatch(final RecipeProvider.DatabaseHelper helper, final int batch)
+	{
+		final SQLiteDatabase db = helper.getWritableDatabase();
+		int operationCount = 0;
+		db.beginTransaction();
+		try
+		{
+			final ContentValues values = new ContentValues();
+			for (int recipe = 0; recipe < RecipeDatabaseStressTest.RECIPES_PER_BATCH; recipe++)
+			{
+				values.clear();
+				values.put(RecipeContract.Recipes.COLUMN_NAME_TITLE, "Recipe " + batch + "-" + recipe);
+				values.put(RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION, "Synced in batch " + batch);
+				values.put(RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID, "drive-" + batch + "-" + recipe);
+				final long recipeId = db.insert(RecipeContract.Recipes.TABLE_NAME, null, values);
+				operationCount++;
+				for (int ingredient = 0; ingredient < RecipeDatabaseStressTest.INGREDIENTS_PER_RECIPE; ingredient++)
+				{
+					values.clear();
+					values.put(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID, recipeId);
+					values.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY, ingredient + 1);
+					values.put(RecipeContract.Ingredients.COLUMN_NAME_UNIT, "cup");
+					values.put(RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID, RecipeContract.Units.CUP);
+					values.put(RecipeContract.Ingredients.COLUMN_NAME_ITEM, "Ingredient " + ingredient);
+					db.insert(RecipeContract.Ingredients.TABLE_NAME, null, values);
+					operationCount++;
+				}
+				for (int instruction = 0; instruction < RecipeDatabaseStressTest.INSTRUCTIONS_PER_RECIPE; instruction++)
+				{
+					values.clear();
+					values.put(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID, recipeId);
+					values.put(RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION, "Step " + instruction);
+					db.insert(RecipeContract.Instructions.TABLE_NAME, null, values);
+					operationCount++;
+				}
+			}
+			RecipeProvider.DatabaseHelper.refreshSearchTable(db);
+			db.setTransactionSuccessful();
+		} finally
+		{
+			db.endTransaction();
+		}
+		helper.checkpointAfterBatch(db, operationCount);
+	}
+
+	/**
+	 * Runs the write workload on this thread while the recipe list and a recipe's details are read over and over on
+	 * other threads, timing every read
+	 * 
+	 * @param writeAheadLogging
+	 *            Whether to use write-ahead logging, or the rollback journal
+	 * @return The latency of every read, in nanoseconds, sorted in ascending order
+	 * @throws Exception
+	 *             If a read failed
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private long[] runWorkload(final boolean writeAheadLogging) throws Exception
+	{
+		final Context context = new RenamingDelegatingContext(getContext(), "test.");
+		context.deleteDatabase(RecipeProvider.DATABASE_NAME);
+		final RecipeProvider.DatabaseHelper helper = new RecipeProvider.DatabaseHelper(context);
+		if (!writeAheadLogging)
+			helper.setWriteAheadLoggingEnabled(false);
+		final SQLiteDatabase db = helper.getWritableDatabase();
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try
+		{
+			final String journalMode = DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null);
+			assertEquals(writeAheadLogging, "wal".equalsIgnoreCase(journalMode));
+			final AtomicBoolean writing = new AtomicBoolean(true);
+			final Future<long[]> listReads = executor.submit(new Callable<long[]>()
+			{
+				@Override
+				public long[] call()
+				{
+					final ArrayList<Long> latencies = new ArrayList<Long>();
+					while (writing.get())
+					{
+						final long start = System.nanoTime();
+						RecipeDatabaseStressTest.readList(helper.getReadableDatabase());
+						latencies.add(System.nanoTime() - start);
+					}
+					return RecipeDatabaseStressTest.toArray(latencies);
+				}
+			});
+			final Future<long[]> detailReads = executor.submit(new Callable<long[]>()
+			{
+				@Override
+				public long[] call()
+				{
+					final ArrayList<Long> latencies = new ArrayList<Long>();
+					// Cycle through the sample recipes, which are there from the start
+					for (long recipeId = 1; writing.get(); recipeId = recipeId % 5 + 1)
+					{
+						final long start = System.nanoTime();
+						RecipeDatabaseStressTest.readDetail(helper.getReadableDatabase(), recipeId);
+						latencies.add(System.nanoTime() - start);
+					}
+					return RecipeDatabaseStressTest.toArray(latencies);
+				}
+			});
+			try
+			{
+				for (int batch = 0; batch < RecipeDatabaseStressTest.BATCH_COUNT; batch++)
+					RecipeDatabaseStressTest.writeBatch(helper, batch);
+			} finally
+			{
+				writing.set(false);
+			}
+			final long[] list = listReads.get(1, TimeUnit.MINUTES);
+			final long[] detail = detailReads.get(1, TimeUnit.MINUTES);
+			assertEquals(5 + RecipeDatabaseStressTest.BATCH_COUNT * RecipeDatabaseStressTest.RECIPES_PER_BATCH,
+					DatabaseUtils.queryNumEntries(db, RecipeContract.Recipes.TABLE_NAME));
+			final long[] latencies = new long[list.length + detail.length];
+			System.arraycopy(list, 0, latencies, 0, list.length);
+			System.arraycopy(detail, 0, latencies, list.length, detail.length);
+			Arrays.sort(latencies);
+			return latencies;
+		} finally
+		{
+			executor.shutdownNow();
+			helper.close();
+			context.deleteDatabase(RecipeProvider.DATABASE_NAME);
+		}
+	}
+
+	/**
+	 * Reads during a sync complete with both the rollback journal and write-ahead logging, logging the read latency
+	 * percentiles of each. Write-ahead logging can only be turned off before the database is opened from API 16, so
+	 * older versions only run the write-ahead logging workload.
+	 * 
+	 * @throws Exception
+	 *             If a read failed
+	 */
+	public void testReadLatencyDuringSync() throws Exception
+	{
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+		{
+			final long[] rollbackJournal = runWorkload(false);
+			assertTrue(rollbackJournal.length > 0);
+			RecipeDatabaseStressTest.report("Rollback journal", rollbackJournal);
+		}
+		final long[] writeAheadLog = runWorkload(true);
+		assertTrue(writeAheadLog.length > 0);
+		RecipeDatabaseStressTest.report("Write-ahead logging", writeAheadLog);
+	}
+}
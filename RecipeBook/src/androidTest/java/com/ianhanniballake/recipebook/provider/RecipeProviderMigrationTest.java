@@ -0,0 +1,285 @@
+package com.ianhanniballake.recipebook.provider;
+
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.test.ProviderTestCase2;
+
+/**
+ * Tests upgrading a populated database from the oldest version that can be upgraded in place, version 3, to the
+ * current version: the upgraded schema must match a newly created database and existing rows must be backfilled and
+ * searchable
+ */
+public class RecipeProviderMigrationTest extends ProviderTestCase2<RecipeProvider>
+{
+	/**
+	 * Reads the schema of a database: every table, index, and trigger, and the columns of every table. Columns are
+	 * sorted by name, as columns added by a migration come after those of the original table
+	 * 
+	 * @param db
+	 *            Database to read
+	 * @return Map of each schema object's type and name to its sorted column definitions
+	 */
+	private static TreeMap<String, TreeSet<String>> readSchema(final SQLiteDatabase db)
+	{
+		final TreeMap<String, TreeSet<String>> schema = new TreeMap<String, TreeSet<String>>();
+		final Cursor objects = db.rawQuery("SELECT type, name FROM sqlite_master WHERE name NOT LIKE 'sqlite_%'"
+				+ " AND name<>'android_metadata'", null);
+		try
+		{
+			while (objects.moveToNext())
+			{
+				final String type = objects.getString(0);
+				final String name = objects.getString(1);
+				final TreeSet<String> columns = new TreeSet<String>();
+				if ("table".equals(type))
+				{
+					final Cursor tableInfo = db.rawQuery("PRAGMA table_info(" + name + ")", null);
+					try
+					{
+						while (tableInfo.moveToNext())
+							columns.add(tableInfo.getString(1) + " " + tableInfo.getString(2) + " notnull="
+									+ tableInfo.getInt(3) + " default=" + tableInfo.getString(4) + " pk="
+									+ tableInfo.getInt(5));
+					} finally
+					{
+						tableInfo.close();
+					}
+				}
+				schema.put(type + " " + name, columns);
+			}
+		} finally
+		{
+			objects.close();
+		}
+		return schema;
+	}
+
+	/**
+	 * Creates a new RecipeProviderMigrationTest
+	 */
+	public RecipeProviderMigrationTest()
+	{
+		super(RecipeProvider.class, RecipeContract.AUTHORITY);
+	}
+
+	/**
+	 * Checks an ingredient's backfilled columns
+	 * 
+	 * @param item
+	 *            Item of the ingredient
+	 * @param unitId
+	 *            Expected canonical unit
+	 * @param quantityValue
+	 *            Expected quantity as a single number
+	 */
+	private void assertIngredient(final String item, final int unitId, final double quantityValue)
+	{
+		final Cursor c = getMockContentResolver().query(
+				RecipeContract.Ingredients.CONTENT_URI,
+				new String[] { RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID,
+						RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_VALUE },
+				RecipeContract.Ingredients.COLUMN_NAME_ITEM + "=?", new String[] { item }, null);
+		try
+		{
+			assertTrue(item, c.moveToFirst());
+			assertEquals(item, unitId, c.getInt(0));
+			assertEquals(item, quantityValue, c.getDouble(1), 0.000001);
+		} finally
+		{
+			c.close();
+		}
+	}
+
+	/**
+	 * Checks the titles of the recipes matching a search
+	 * 
+	 * @param query
+	 *            Search query
+	 * @param expectedTitles
+	 *            Titles of the recipes expected to match, in any order
+	 */
+	private void assertSearch(final String query, final String... expectedTitles)
+	{
+		final Cursor c = getMockContentResolver().query(
+				Uri.withAppendedPath(RecipeContract.Recipes.CONTENT_SEARCH_URI_BASE, query),
+				new String[] { RecipeContract.Recipes.COLUMN_NAME_TITLE }, null, null, null);
+		try
+		{
+			final TreeSet<String> titles = new TreeSet<String>();
+			while (c.moveToNext())
+				titles.add(c.getString(0));
+			final TreeSet<String> expected = new TreeSet<String>();
+			for (final String title : expectedTitles)
+				expected.add(title);
+			assertEquals(query, expected, titles);
+		} finally
+		{
+			c.close();
+		}
+	}
+
+	/**
+	 * Creates a version 3 database, as created by that version's onCreate, in place of the provider's database, with
+	 * rows in every table
+	 */
+	private void createVersion3Database()
+	{
+		final Context context = getMockContext();
+		context.deleteDatabase(RecipeProvider.DATABASE_NAME);
+		final SQLiteDatabase db = context.openOrCreateDatabase(RecipeProvider.DATABASE_NAME, 0, null);
+		try
+		{
+			db.execSQL("CREATE TABLE recipes (_id INTEGER PRIMARY KEY AUTOINCREMENT,title TEXT,description TEXT, "
+					+ "drive_id TEXT);");
+			db.execSQL("CREATE TABLE ingredients (_id INTEGER PRIMARY KEY AUTOINCREMENT,recipe_id INTEGER,"
+					+ "quantity INTEGER,quantity_numerator INTEGER,quantity_denominator INTEGER,unit TEXT,item TEXT,"
+					+ "preparation TEXT, CONSTRAINT fk_recipe_ingredient FOREIGN KEY (recipe_id) REFERENCES recipes "
+					+ "(_id) ON DELETE CASCADE);");
+			db.execSQL("CREATE TABLE instructions (_id INTEGER PRIMARY KEY AUTOINCREMENT,recipe_id INTEGER,"
+					+ "instruction TEXT, CONSTRAINT fk_recipe_instruction FOREIGN KEY (recipe_id) REFERENCES recipes "
+					+ "(_id) ON DELETE CASCADE);");
+			db.execSQL("INSERT INTO recipes (_id, title, description, drive_id) VALUES "
+					+ "(1, 'Paella', 'Spanish rice dish', NULL)");
+			db.execSQL("INSERT INTO recipes (_id, title, description, drive_id) VALUES "
+					+ "(2, 'Shortbread', 'Buttery biscuits', 'drive-2')");
+			db.execSQL("INSERT INTO ingredients (recipe_id, quantity, quantity_numerator, quantity_denominator, unit,"
+					+ " item, preparation) VALUES (1, 1, 1, 2, 'cups', 'rice', NULL)");
+			db.execSQL("INSERT INTO ingredients (recipe_id, quantity, quantity_numerator, quantity_denominator, unit,"
+					+ " item, preparation) VALUES (1, 0, 3, 4, 'tsp.', 'saffron', 'crushed')");
+			db.execSQL("INSERT INTO ingredients (recipe_id, quantity, quantity_numerator, quantity_denominator, unit,"
+					+ " item, preparation) VALUES (1, 1, 0, 1, 'handful', 'parsley', 'chopped')");
+			db.execSQL("INSERT INTO ingredients (recipe_id, quantity, quantity_numerator, quantity_denominator, unit,"
+					+ " item, preparation) VALUES (2, 2, 0, 1, 'c', 'flour', NULL)");
+			db.execSQL("INSERT INTO ingredients (recipe_id, quantity, quantity_numerator, quantity_denominator, unit,"
+					+ " item, preparation) VALUES (2, 1, 0, 1, 'T', 'sugar', NULL)");
+			db.execSQL("INSERT INTO instructions (recipe_id, instruction) VALUES (1, 'Simmer the stock')");
+			db.execSQL("INSERT INTO instructions (recipe_id, instruction) VALUES (2, 'Bake until golden')");
+			db.setVersion(3);
+		} finally
+		{
+			db.close();
+		}
+	}
+
+	/**
+	 * Existing ingredients are given their canonical unit and quantity as a single number
+	 */
+	public void testBackfillsIngredients()
+	{
+		createVersion3Database();
+		assertIngredient("rice", RecipeContract.Units.CUP, 1.5);
+		assertIngredient("saffron", RecipeContract.Units.TEASPOON, 0.75);
+		assertIngredient("parsley", RecipeContract.Units.NONE, 1);
+		assertIngredient("flour", RecipeContract.Units.CUP, 2);
+		assertIngredient("sugar", RecipeContract.Units.TABLESPOON, 1);
+	}
+
+	/**
+	 * Existing recipes are searchable by their title, description, ingredients, and instructions, and stay
+	 * searchable as they change
+	 */
+	public void testBackfillsSearch()
+	{
+		createVersion3Database();
+		assertSearch("paella", "Paella");
+		assertSearch("buttery", "Shortbread");
+		assertSearch("saffron", "Paella");
+		assertSearch("crushed", "Paella");
+		assertSearch("golden", "Shortbread");
+		assertSearch("stock rice", "Paella");
+		assertSearch("zucchini");
+		getMockContentResolver().delete(RecipeContract.Ingredients.CONTENT_URI,
+				RecipeContract.Ingredients.COLUMN_NAME_ITEM + "=?", new String[] { "saffron" });
+		assertSearch("saffron");
+		assertSearch("rice", "Paella");
+	}
+
+	/**
+	 * Existing recipes are kept with their Drive IDs, marked as having local changes so that they are uploaded,
+	 * with no synced version or checksum and unknown servings, and with no deleted recipes waiting to be synced
+	 */
+	public void testKeepsRecipes()
+	{
+		createVersion3Database();
+		final Cursor c = getMockContentResolver().query(
+				RecipeContract.Recipes.CONTENT_URI,
+				new String[] { RecipeContract.Recipes.COLUMN_NAME_TITLE, RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID,
+						RecipeContract.Recipes.COLUMN_NAME_DIRTY, RecipeContract.Recipes.COLUMN_NAME_SYNC_BASE,
+						RecipeContract.Recipes.COLUMN_NAME_SYNC_CHECKSUM,
+						RecipeContract.Recipes.COLUMN_NAME_SERVINGS }, null, null, BaseColumns._ID);
+		try
+		{
+			assertEquals(2, c.getCount());
+			assertTrue(c.moveToNext());
+			assertEquals("Paella", c.getString(0));
+			assertTrue(c.isNull(1));
+			assertEquals(1, c.getInt(2));
+			assertTrue(c.isNull(3));
+			assertTrue(c.isNull(4));
+			assertEquals(0, c.getInt(5));
+			assertTrue(c.moveToNext());
+			assertEquals("Shortbread", c.getString(0));
+			assertEquals("drive-2", c.getString(1));
+			assertEquals(1, c.getInt(2));
+			assertTrue(c.isNull(4));
+			assertEquals(0, c.getInt(5));
+		} finally
+		{
+			c.close();
+		}
+		final Cursor deleted = getMockContentResolver().query(RecipeContract.DeletedRecipes.CONTENT_URI, null, null,
+				null, null);
+		try
+		{
+			assertEquals(0, deleted.getCount());
+		} finally
+		{
+			deleted.close();
+		}
+	}
+
+	/**
+	 * A newly created database gives its sample ingredients their canonical unit, as an upgraded one does
+	 */
+	public void testNewDatabaseUnits()
+	{
+		getMockContext().deleteDatabase(RecipeProvider.DATABASE_NAME);
+		assertIngredient("Tomato Paste", RecipeContract.Units.TEASPOON, 1);
+		assertIngredient("Garlic Powder", RecipeContract.Units.TEASPOON, 0.25);
+	}
+
+	/**
+	 * The upgraded database has the same tables, columns, indexes, and triggers as a newly created database
+	 */
+	public void testUpgradedSchemaMatchesNewSchema()
+	{
+		createVersion3Database();
+		// Opening the provider's database runs the upgrade
+		getMockContentResolver().query(RecipeContract.Recipes.CONTENT_URI, null, null, null, null).close();
+		final SQLiteDatabase upgraded = getMockContext().openOrCreateDatabase(RecipeProvider.DATABASE_NAME, 0, null);
+		final TreeMap<String, TreeSet<String>> upgradedSchema;
+		try
+		{
+			assertEquals(RecipeProvider.DATABASE_VERSION, upgraded.getVersion());
+			upgradedSchema = RecipeProviderMigrationTest.readSchema(upgraded);
+		} finally
+		{
+			upgraded.close();
+		}
+		final SQLiteDatabase created = SQLiteDatabase.create(null);
+		try
+		{
+			new RecipeProvider.DatabaseHelper(getContext()).onCreate(created);
+			assertEquals(RecipeProviderMigrationTest.readSchema(created), upgradedSchema);
+		} finally
+		{
+			created.close();
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package com.ianhanniballake.recipebook.provider;
+
+import java.util.HashMap;
+
+import android.annotation.TargetApi;
+import android.app.SearchManager;
+import android.content.ContentUris;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.Debug;
+import android.provider.BaseColumns;
+import android.test.ProviderTestCase2;
+import android.test.mock.MockContentResolver;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * Benchmarks querying recipes through the {@link RecipeProvider} against the query path it used before, which matched
+ * the URI once per branch of its dispatch, built a new projection map for every query, and wrote the recipe ID into
+ * the SQL. Both paths are queried through a ContentResolver. Each benchmark is warmed up before it is measured, and
+ * the average time and allocations per query are logged.
+ */
+public class RecipeProviderQueryBenchmark extends ProviderTestCase2<RecipeProvider>
+{
+	/**
+	 * RecipeProvider answering recipe queries with a copy of the query path it used before
+	 */
+	public static class LegacyRecipeProvider extends RecipeProvider
+	{
+		/**
+		 * The incoming URI matches the Ingredient ID URI pattern
+		 */
+		private static final int INGREDIENT_ID = 4;
+		/**
+		 * The incoming URI matches the Ingredients URI pattern
+		 */
+		private static final int INGREDIENTS = 3;
+		/**
+		 * The incoming URI matches the Instruction ID URI pattern
+		 */
+		private static final int INSTRUCTION_ID = 6;
+		/**
+		 * The incoming URI matches the Instructions URI pattern
+		 */
+		private static final int INSTRUCTIONS = 5;
+		/**
+		 * The incoming URI matches the Recipe ID URI pattern
+		 */
+		private static final int RECIPE_ID = 2;
+		/**
+		 * The incoming URI matches the Recipe search URI pattern
+		 */
+		private static final int RECIPE_SEARCH = 8;
+		/**
+		 * The incoming URI matches the Recipes URI pattern
+		 */
+		private static final int RECIPES = 1;
+		/**
+		 * The incoming URI matches the search suggestion URI pattern
+		 */
+		private static final int SEARCH = 7;
+		/**
+		 * A UriMatcher instance
+		 */
+		private static final UriMatcher uriMatcher = LegacyRecipeProvider.buildUriMatcher();
+
+		/**
+		 * Creates the UriMatcher as the provider did before
+		 * 
+		 * @return A UriMatcher for every URI pattern of the provider
+		 */
+		private static UriMatcher buildUriMatcher()
+		{
+			final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
+			matcher.addURI(RecipeContract.AUTHORITY, "recipes", LegacyRecipeProvider.RECIPES);
+			matcher.addURI(RecipeContract.AUTHORITY, "recipes/#", LegacyRecipeProvider.RECIPE_ID);
+			matcher.addURI(RecipeContract.AUTHORITY, "recipes/search/*", LegacyRecipeProvider.RECIPE_SEARCH);
+			matcher.addURI(RecipeContract.AUTHORITY, "ingredients", LegacyRecipeProvider.INGREDIENTS);
+			matcher.addURI(RecipeContract.AUTHORITY, "ingredients/#", LegacyRecipeProvider.INGREDIENT_ID);
+			matcher.addURI(RecipeContract.AUTHORITY, "instructions", LegacyRecipeProvider.INSTRUCTIONS);
+			matcher.addURI(RecipeContract.AUTHORITY, "instructions/#", LegacyRecipeProvider.INSTRUCTION_ID);
+			matcher.addURI(RecipeContract.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY, LegacyRecipeProvider.SEARCH);
+			return matcher;
+		}
+
+		/**
+		 * Handle to a new DatabaseHelper, used by the copied recipe query
+		 */
+		private RecipeProvider.DatabaseHelper databaseHelper;
+
+		@Override
+		public boolean onCreate()
+		{
+			super.onCreate();
+			databaseHelper = new RecipeProvider.DatabaseHelper(getContext());
+			return true;
+		}
+
+		@Override
+		public Cursor query(final Uri uri, final String[] projection, final String selection,
+				final String[] selectionArgs, final String sortOrder)
+		{
+			if (LegacyRecipeProvider.uriMatcher.match(uri) == LegacyRecipeProvider.RECIPES
+					|| LegacyRecipeProvider.uriMatcher.match(uri) == LegacyRecipeProvider.RECIPE_ID
+					|| LegacyRecipeProvider.uriMatcher.match(uri) == LegacyRecipeProvider.RECIPE_SEARCH)
+				return queryRecipe(uri, projection, selection, selectionArgs, sortOrder);
+			// Other URIs are not benchmarked
+			return super.query(uri, projection, selection, selectionArgs, sortOrder);
+		}
+
+		@Override
+		@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+		public Cursor query(final Uri uri, final String[] projection, final String selection,
+				final String[] selectionArgs, final String sortOrder, final CancellationSignal cancellationSignal)
+		{
+			if (LegacyRecipeProvider.uriMatcher.match(uri) == LegacyRecipeProvider.SEARCH)
+				return super.query(uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+			return query(uri, projection, selection, selectionArgs, sortOrder);
+		}
+
+		/**
+		 * Queries for recipe(s) as the provider did before its projection maps were shared and recipe IDs were bound
+		 * 
+		 * @param uri
+		 *            The URI to query
+		 * @param projection
+		 *            The list of columns to put into the cursor. If null all columns are included.
+		 * @param selection
+		 *            A selection criteria to apply when filtering rows. If null then all rows are included.
+		 * @param selectionArgs
+		 *            You may include ?s in selection, which will be replaced by the values from selectionArgs
+		 * @param sortOrder
+		 *            How the rows in the cursor should be sorted. If null the default sort order is used.
+		 * @return A Cursor or null.
+		 */
+		private Cursor queryRecipe(final Uri uri, final String[] projection, final String selection,
+				final String[] selectionArgs, final String sortOrder)
+		{
+			final SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+			qb.setTables(RecipeContract.Recipes.TABLE_NAME);
+			final HashMap<String, String> allColumnProjectionMap = new HashMap<String, String>();
+			allColumnProjectionMap.put(BaseColumns._ID, BaseColumns._ID);
+			allColumnProjectionMap.put(RecipeContract.Recipes.COLUMN_NAME_TITLE,
+					RecipeContract.Recipes.COLUMN_NAME_TITLE);
+			allColumnProjectionMap.put(RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION,
+					RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION);
+			allColumnProjectionMap.put(RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID,
+					RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID);
+			qb.setProjectionMap(allColumnProjectionMap);
+			String defaultOrderBy = RecipeContract.Recipes.DEFAULT_SORT_ORDER;
+			switch (LegacyRecipeProvider.uriMatcher.match(uri))
+			{
+				case RECIPES:
+					break;
+				case RECIPE_ID:
+					qb.appendWhere(BaseColumns._ID + "="
+							+ uri.getPathSegments().get(RecipeContract.Recipes.RECIPE_ID_PATH_POSITION));
+					break;
+				case RECIPE_SEARCH:
+					final String query = uri.getPathSegments().get(RecipeContract.Recipes.SEARCH_QUERY_PATH_POSITION);
+					final String matchQuery = RecipeProvider.buildMatchQuery(query, null);
+					if (!matchQuery.isEmpty())
+					{
+						qb.setTables(RecipeContract.Recipes.TABLE_NAME + " INNER JOIN (SELECT docid, "
+								+ RecipeProvider.buildSearchRank(query) + " AS " + RecipeProvider.SEARCH_RANK
+								+ " FROM " + RecipeProvider.SEARCH_TABLE_NAME + " WHERE "
+								+ RecipeProvider.SEARCH_TABLE_NAME + " MATCH "
+								+ DatabaseUtils.sqlEscapeString(matchQuery) + ") ON "
+								+ RecipeContract.Recipes.TABLE_NAME + "." + BaseColumns._ID + "=docid");
+						defaultOrderBy = RecipeProvider.SEARCH_RANK + " DESC, "
+								+ RecipeContract.Recipes.DEFAULT_SORT_ORDER;
+					}
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown URI " + uri);
+			}
+			String orderBy;
+			if (TextUtils.isEmpty(sortOrder))
+				orderBy = defaultOrderBy;
+			else
+				orderBy = sortOrder;
+			final SQLiteDatabase db = databaseHelper.getReadableDatabase();
+			final Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+			c.setNotificationUri(getContext().getContentResolver(), uri);
+			return c;
+		}
+
+		@Override
+		public void shutdown()
+		{
+			databaseHelper.close();
+			super.shutdown();
+		}
+	}
+
+	/**
+	 * A query to benchmark
+	 */
+	private interface Query
+	{
+		/**
+		 * Runs the query and reads its results
+		 * 
+		 * @param resolver
+		 *            Resolver to query
+		 * @param iteration
+		 *            Index of the iteration, used to vary the queried recipe
+		 */
+		void run(MockContentResolver resolver, int iteration);
+	}
+
+	/**
+	 * Number of measured iterations of each benchmark
+	 */
+	private static final int MEASUREMENT_ITERATIONS = 2000;
+	/**
+	 * Columns queried, as shown by the recipe list
+	 */
+	private static final String[] PROJECTION = { BaseColumns._ID, RecipeContract.Recipes.COLUMN_NAME_TITLE,
+			RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION };
+	/**
+	 * Number of sample recipes, whose IDs are 1 to this number
+	 */
+	private static final int SAMPLE_RECIPE_COUNT = 5;
+	/**
+	 * Number of iterations of each benchmark run before measuring, so that it is measured once compiled
+	 */
+	private static final int WARMUP_ITERATIONS = 500;
+
+	/**
+	 * Gets the URI of the sample recipe queried by an iteration
+	 * 
+	 * @param iteration
+	 *            Index of the iteration
+	 * @return The recipe's URI
+	 */
+	private static Uri getRecipeUri(final int iteration)
+	{
+		return ContentUris.withAppendedId(RecipeContract.Recipes.CONTENT_ID_URI_BASE, iteration
+				% RecipeProviderQueryBenchmark.SAMPLE_RECIPE_COUNT + 1);
+	}
+
+	/**
+	 * Provider using the previous query path
+	 */
+	private LegacyRecipeProvider legacyProvider;
+	/**
+	 * Resolver querying the provider using the previous query path
+	 */
+	private MockContentResolver legacyResolver;
+
+	/**
+	 * Creates a new RecipeProviderQueryBenchmark
+	 */
+	public RecipeProviderQueryBenchmark()
+	{
+		super(RecipeProvider.class, RecipeContract.AUTHORITY);
+	}
+
+	/**
+	 * Measures a query through the given resolver, logging its average time and allocations
+	 * 
+	 * @param name
+	 *            Name of the benchmark
+	 * @param resolver
+	 *            Resolver to query
+	 * @param query
+	 *            Query to measure
+	 */
+	private void measure(final String name, final MockContentResolver resolver, final Query query)
+	{
+		for (int iteration = 0; iteration < RecipeProviderQueryBenchmark.WARMUP_ITERATIONS; iteration++)
+			query.run(resolver, iteration);
+		Debug.startAllocCounting();
+		try
+		{
+			Debug.resetThreadAllocCount();
+			Debug.resetThreadAllocSize();
+			final long start = System.nanoTime();
+			for (int iteration = 0; iteration < RecipeProviderQueryBenchmark.MEASUREMENT_ITERATIONS; iteration++)
+				query.run(resolver, iteration);
+			final long elapsedNanos = System.nanoTime() - start;
+			final int allocations = Debug.getThreadAllocCount();
+			final int allocatedBytes = Debug.getThreadAllocSize();
+			Log.i(RecipeProviderQueryBenchmark.class.getSimpleName(), name + ": " + elapsedNanos
+					/ RecipeProviderQueryBenchmark.MEASUREMENT_ITERATIONS + " ns/op, " + allocations
+					/ RecipeProviderQueryBenchmark.MEASUREMENT_ITERATIONS + " allocations/op, " + allocatedBytes
+					/ RecipeProviderQueryBenchmark.MEASUREMENT_ITERATIONS + " bytes/op");
+		} finally
+		{
+			Debug.stopAllocCounting();
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		// Start from the sample recipes alone
+		getMockContext().deleteDatabase(RecipeProvider.DATABASE_NAME);
+		legacyProvider = new LegacyRecipeProvider();
+		legacyProvider.attachInfo(getMockContext(), null);
+		legacyResolver = new MockContentResolver();
+		legacyResolver.addProvider(RecipeContract.AUTHORITY, legacyProvider);
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		legacyProvider.shutdown();
+		super.tearDown();
+	}
+
+	/**
+	 * Benchmarks querying a single recipe by its ID, as the recipe detail screens do
+	 */
+	public void testQueryRecipeById()
+	{
+		final Query query = new Query()
+		{
+			@Override
+			public void run(final MockContentResolver resolver, final int iteration)
+			{
+				final Cursor c = resolver.query(RecipeProviderQueryBenchmark.getRecipeUri(iteration),
+						RecipeProviderQueryBenchmark.PROJECTION, null, null, null);
+				assertEquals(1, c.getCount());
+				c.close();
+			}
+		};
+		measure("queryRecipeByIdBefore", legacyResolver, query);
+		measure("queryRecipeById", getMockContentResolver(), query);
+	}
+
+	/**
+	 * Benchmarks querying every recipe, as the recipe list does
+	 */
+	public void testQueryRecipes()
+	{
+		final Query query = new Query()
+		{
+			@Override
+			public void run(final MockContentResolver resolver, final int iteration)
+			{
+				final Cursor c = resolver.query(RecipeContract.Recipes.CONTENT_URI,
+						RecipeProviderQueryBenchmark.PROJECTION, null, null, null);
+				assertEquals(RecipeProviderQueryBenchmark.SAMPLE_RECIPE_COUNT, c.getCount());
+				c.close();
+			}
+		};
+		measure("queryRecipesBefore", legacyResolver, query);
+		measure("queryRecipes", getMockContentResolver(), query);
+	}
+}
@@ -0,0 +1,291 @@
+package com.ianhanniballake.recipebook.provider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import android.annotation.TargetApi;
+import android.app.SearchManager;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+import android.test.AndroidTestCase;
+import android.test.IsolatedContext;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+/**
+ * Tests the {@link RecipeSuggestionEngine} against recipes inserted through the {@link RecipeProvider}: narrowing
+ * longer queries from cached results, invalidating the cache when recipes change, and abandoning superseded queries
+ */
+public class RecipeSuggestionEngineTest extends AndroidTestCase
+{
+	/**
+	 * ContentResolver that passes change notifications on to a real ContentResolver instead of ignoring them, as
+	 * MockContentResolver does, so that registered observers are notified
+	 */
+	private static class NotifyingContentResolver extends MockContentResolver
+	{
+		/**
+		 * Real ContentResolver sending the notifications
+		 */
+		private final ContentResolver target;
+
+		/**
+		 * Creates a new NotifyingContentResolver
+		 * 
+		 * @param target
+		 *            Real ContentResolver sending the notifications
+		 */
+		NotifyingContentResolver(final ContentResolver target)
+		{
+			this.target = target;
+		}
+
+		@Override
+		public void notifyChange(final Uri uri, final ContentObserver observer, final boolean sync)
+		{
+			target.notifyChange(uri, observer, false);
+		}
+	}
+
+	/**
+	 * Maximum time to wait for a change notification to invalidate the cache
+	 */
+	private static final long NOTIFICATION_TIMEOUT_MILLIS = 5000;
+
+	/**
+	 * Database of the engine under test
+	 */
+	private RecipeProvider.DatabaseHelper databaseHelper;
+	/**
+	 * Engine under test
+	 */
+	RecipeSuggestionEngine engine;
+	/**
+	 * Provider the recipes are inserted through
+	 */
+	private RecipeProvider provider;
+	/**
+	 * Resolver the recipes are inserted through
+	 */
+	private NotifyingContentResolver resolver;
+	/**
+	 * Query started from within the next database access of the engine, superseding the query making that access, or
+	 * null to not start a query
+	 */
+	String supersedingQuery;
+	/**
+	 * Suggestions returned by the superseding query
+	 */
+	Cursor supersedingResult;
+
+	/**
+	 * Checks the titles of the suggestions in the given cursor, closing the cursor
+	 * 
+	 * @param suggestions
+	 *            Cursor returned by the engine
+	 * @param expectedTitles
+	 *            Titles expected, best match first
+	 */
+	private void assertSuggestions(final Cursor suggestions, final String... expectedTitles)
+	{
+		assertNotNull(suggestions);
+		try
+		{
+			assertEquals(Arrays.asList(expectedTitles), getTitles(suggestions));
+		} finally
+		{
+			suggestions.close();
+		}
+	}
+
+	/**
+	 * Waits for the suggestions of the given query to match the expected titles, as happens once the change
+	 * notification invalidating the cache is delivered
+	 * 
+	 * @param query
+	 *            Query to run
+	 * @param expectedTitles
+	 *            Titles expected, best match first
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	private void awaitSuggestions(final String query, final String... expectedTitles) throws InterruptedException
+	{
+		final long deadline = SystemClock.uptimeMillis() + RecipeSuggestionEngineTest.NOTIFICATION_TIMEOUT_MILLIS;
+		ArrayList<String> titles;
+		do
+		{
+			final Cursor suggestions = engine.query(query, 10, null);
+			try
+			{
+				titles = getTitles(suggestions);
+			} finally
+			{
+				suggestions.close();
+			}
+			if (titles.equals(Arrays.asList(expectedTitles)))
+				return;
+			Thread.sleep(20);
+		} while (SystemClock.uptimeMillis() < deadline);
+		assertEquals(Arrays.asList(expectedTitles), titles);
+	}
+
+	/**
+	 * Returns the titles of the suggestions in the given cursor
+	 * 
+	 * @param suggestions
+	 *            Cursor returned by the engine
+	 * @return Titles of the suggestions, in order
+	 */
+	private ArrayList<String> getTitles(final Cursor suggestions)
+	{
+		final int titleColumn = suggestions.getColumnIndexOrThrow(SearchManager.SUGGEST_COLUMN_TEXT_1);
+		final ArrayList<String> titles = new ArrayList<String>();
+		suggestions.moveToPosition(-1);
+		while (suggestions.moveToNext())
+			titles.add(suggestions.getString(titleColumn));
+		return titles;
+	}
+
+	/**
+	 * Inserts a recipe through the provider
+	 * 
+	 * @param title
+	 *            Title of the recipe
+	 * @param description
+	 *            Description of the recipe
+	 */
+	private void insertRecipe(final String title, final String description)
+	{
+		final ContentValues values = new ContentValues();
+		values.put(RecipeContract.Recipes.COLUMN_NAME_TITLE, title);
+		values.put(RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION, description);
+		resolver.insert(RecipeContract.Recipes.CONTENT_URI, values);
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		resolver = new NotifyingContentResolver(getContext().getContentResolver());
+		final Context context = new IsolatedContext(resolver, new RenamingDelegatingContext(getContext(), "test."));
+		context.deleteDatabase(RecipeProvider.DATABASE_NAME);
+		provider = new RecipeProvider();
+		provider.attachInfo(context, null);
+		resolver.addProvider(RecipeContract.AUTHORITY, provider);
+		insertRecipe("Zucchini Bread", "Quick loaf");
+		insertRecipe("Zucchini Fritters", "Crisp and golden");
+		insertRecipe("Zuppa Toscana", "Tuscan soup");
+		databaseHelper = new RecipeProvider.DatabaseHelper(context)
+		{
+			@Override
+			public SQLiteDatabase getReadableDatabase()
+			{
+				final String query = supersedingQuery;
+				if (query != null)
+				{
+					supersedingQuery = null;
+					supersedingResult = engine.query(query, 10, null);
+				}
+				return super.getReadableDatabase();
+			}
+		};
+		engine = new RecipeSuggestionEngine(databaseHelper);
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		databaseHelper.close();
+		provider.shutdown();
+		super.tearDown();
+	}
+
+	/**
+	 * A query that has already been cancelled throws rather than returning suggestions
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	public void testCancelledQuery()
+	{
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+			return;
+		final CancellationSignal cancellationSignal = new CancellationSignal();
+		cancellationSignal.cancel();
+		try
+		{
+			engine.query("zu", 10, cancellationSignal).close();
+			fail("Cancelled query returned suggestions");
+		} catch (final OperationCanceledException e)
+		{
+			// Expected
+		}
+	}
+
+	/**
+	 * Changes to recipes and ingredients notified through the ContentResolver invalidate the cached results
+	 * 
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for a notification
+	 */
+	public void testChangesInvalidateCache() throws InterruptedException
+	{
+		engine.registerObserver(resolver);
+		assertSuggestions(engine.query("zucc", 10, null), "Zucchini Bread", "Zucchini Fritters");
+		insertRecipe("Zucchini Muffins", "Breakfast");
+		awaitSuggestions("zucc", "Zucchini Bread", "Zucchini Fritters", "Zucchini Muffins");
+		final Cursor zuppa = resolver.query(RecipeContract.Recipes.CONTENT_URI,
+				new String[] { BaseColumns._ID }, RecipeContract.Recipes.COLUMN_NAME_TITLE + "=?",
+				new String[] { "Zuppa Toscana" }, null);
+		final long zuppaId;
+		try
+		{
+			assertTrue(zuppa.moveToFirst());
+			zuppaId = zuppa.getLong(0);
+		} finally
+		{
+			zuppa.close();
+		}
+		final ContentValues ingredient = new ContentValues();
+		ingredient.put(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID, zuppaId);
+		ingredient.put(RecipeContract.Ingredients.COLUMN_NAME_ITEM, "zucchini");
+		resolver.insert(RecipeContract.Ingredients.CONTENT_URI, ingredient);
+		// Matching only by an ingredient ranks below matching by title
+		awaitSuggestions("zucc", "Zucchini Bread", "Zucchini Fritters", "Zucchini Muffins", "Zuppa Toscana");
+	}
+
+	/**
+	 * Longer queries are narrowed from the cached results of shorter queries until the cache is invalidated
+	 */
+	public void testNarrowsCachedResults()
+	{
+		assertSuggestions(engine.query("zu", 10, null), "Zucchini Bread", "Zucchini Fritters", "Zuppa Toscana");
+		// No observer is registered, so the cached results of "zu" do not include this recipe
+		insertRecipe("Zucchini Muffins", "Breakfast");
+		assertSuggestions(engine.query("zucc", 10, null), "Zucchini Bread", "Zucchini Fritters");
+		assertSuggestions(engine.query("zucchini fr", 10, null), "Zucchini Fritters");
+		engine.invalidate();
+		assertSuggestions(engine.query("zucc", 10, null), "Zucchini Bread", "Zucchini Fritters", "Zucchini Muffins");
+	}
+
+	/**
+	 * A query superseded by a newer query while reading the database returns nothing and does not cache its partial
+	 * results
+	 */
+	public void testSupersededQuery()
+	{
+		supersedingQuery = "zucchini";
+		assertNull(engine.query("zu", 10, null));
+		assertSuggestions(supersedingResult, "Zucchini Bread", "Zucchini Fritters");
+		assertSuggestions(engine.query("zu", 10, null), "Zucchini Bread", "Zucchini Fritters", "Zuppa Toscana");
+	}
+}
@@ -0,0 +1,122 @@
+package com.ianhanniballake.recipebook.sync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.api.client.extensions.android.http.AndroidHttp;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+import com.ianhanniballake.recipebook.R;
+
+/**
+ * Benchmarks downloading changed files from a {@link LocalDriveServer} with a fixed latency per request, one file at a
+ * time and with the configured number of concurrent downloads, checking that the contents are delivered in order
+ */
+public class DriveDownloaderBenchmark extends AndroidTestCase
+{
+	/**
+	 * Number of files downloaded by each run
+	 */
+	private static final int FILE_COUNT = 40;
+	/**
+	 * Delay before every response of the server, in milliseconds
+	 */
+	private static final long LATENCY_MILLIS = 50;
+	/**
+	 * Maximum time in milliseconds to wait for each download
+	 */
+	private static final int TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * Expected content of each file, in order
+	 */
+	private byte[][] contents;
+	/**
+	 * Drive service sending its requests to the server
+	 */
+	private Drive driveService;
+	/**
+	 * Files to download, in order
+	 */
+	private ArrayList<File> files;
+	/**
+	 * Stand-in for Drive
+	 */
+	private LocalDriveServer server;
+
+	/**
+	 * Downloads every file with the given number of concurrent downloads, checking each content is delivered in the
+	 * order of the files
+	 * 
+	 * @param concurrency
+	 *            Number of files downloaded at once
+	 * @return Time taken in milliseconds
+	 * @throws Exception
+	 *             If a file could not be downloaded
+	 */
+	private long download(final int concurrency) throws Exception
+	{
+		final DriveDownloader downloader = new DriveDownloader(driveService, concurrency,
+				DriveDownloaderBenchmark.TIMEOUT_MILLIS);
+		try
+		{
+			final long start = System.nanoTime();
+			downloader.start(files);
+			for (int index = 0; index < DriveDownloaderBenchmark.FILE_COUNT; index++)
+				assertTrue("File " + index + " out of order", Arrays.equals(contents[index], downloader.next()));
+			return (System.nanoTime() - start) / 1000000;
+		} finally
+		{
+			downloader.shutdown();
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		server = new LocalDriveServer();
+		contents = new byte[DriveDownloaderBenchmark.FILE_COUNT][];
+		files = new ArrayList<File>(DriveDownloaderBenchmark.FILE_COUNT);
+		for (int index = 0; index < DriveDownloaderBenchmark.FILE_COUNT; index++)
+		{
+			contents[index] = ("{\"title\":\"Recipe " + index + "\"}").getBytes("UTF-8");
+			final String fileId = server.addFile("Recipe " + index + ".json", contents[index]);
+			files.add(new File().setId(fileId).setDownloadUrl(
+					server.getRootUrl() + LocalDriveServer.DOWNLOAD_PATH.substring(1) + fileId));
+		}
+		driveService = new Drive.Builder(AndroidHttp.newCompatibleTransport(), new GsonFactory(), null)
+				.setApplicationName(DriveDownloaderBenchmark.class.getSimpleName()).setRootUrl(server.getRootUrl())
+				.build();
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		server.shutdown();
+		super.tearDown();
+	}
+
+	/**
+	 * Times downloading every file one at a time and then with the configured number of concurrent downloads
+	 * 
+	 * @throws Exception
+	 *             If a file could not be downloaded
+	 */
+	public void testDownloadThroughput() throws Exception
+	{
+		final int concurrency = getContext().getResources().getInteger(R.integer.sync_download_concurrency);
+		// Warm up the HTTP stack before the server is slowed down
+		download(concurrency);
+		server.setLatencyMillis(DriveDownloaderBenchmark.LATENCY_MILLIS);
+		final long sequentialMillis = download(1);
+		final long concurrentMillis = download(concurrency);
+		Log.i(DriveDownloaderBenchmark.class.getSimpleName(), DriveDownloaderBenchmark.FILE_COUNT + " files at "
+				+ DriveDownloaderBenchmark.LATENCY_MILLIS + "ms latency: " + sequentialMillis + "ms with 1 download, "
+				+ concurrentMillis + "ms with " + concurrency + " concurrent downloads");
+	}
+}
@@ -0,0 +1,919 @@
+package com.ianhanniballake.recipebook.sync;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Local stand-in for the parts of the Drive v2 API used by {@link SyncAdapter}, served over HTTP on the loopback
+ * interface: getting the appdata folder, paging through the changes feed, uploading, downloading, and deleting files.
+ * As with Drive, the changes feed only lists the latest change to each file. Every response can be delayed and
+ * requests can be failed on purpose, so that retries and timeouts are exercised as they would be against Drive.
+ */
+class LocalDriveServer
+{
+	/**
+	 * Response to a single request
+	 */
+	private static class Response
+	{
+		/**
+		 * Body of the response
+		 */
+		final byte[] body;
+		/**
+		 * Content type of the body
+		 */
+		final String contentType;
+		/**
+		 * HTTP status code
+		 */
+		final int statusCode;
+
+		/**
+		 * Creates a new Response
+		 * 
+		 * @param statusCode
+		 *            HTTP status code
+		 * @param contentType
+		 *            Content type of the body
+		 * @param body
+		 *            Body of the response
+		 */
+		Response(final int statusCode, final String contentType, final byte[] body)
+		{
+			this.statusCode = statusCode;
+			this.contentType = contentType;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Entry of the changes feed
+	 */
+	private static class StoredChange
+	{
+		/**
+		 * Whether the file was deleted by this change
+		 */
+		final boolean deleted;
+		/**
+		 * ID of the changed file
+		 */
+		final String fileId;
+		/**
+		 * ID of the change, increasing with each change
+		 */
+		final long id;
+
+		/**
+		 * Creates a new StoredChange
+		 * 
+		 * @param id
+		 *            ID of the change
+		 * @param fileId
+		 *            ID of the changed file
+		 * @param deleted
+		 *            Whether the file was deleted by this change
+		 */
+		StoredChange(final long id, final String fileId, final boolean deleted)
+		{
+			this.id = id;
+			this.fileId = fileId;
+			this.deleted = deleted;
+		}
+	}
+
+	/**
+	 * File in the appdata folder
+	 */
+	private static class StoredFile
+	{
+		/**
+		 * Content of the file
+		 */
+		byte[] content;
+		/**
+		 * ID of the file
+		 */
+		final String id;
+		/**
+		 * MIME type of the file
+		 */
+		String mimeType;
+		/**
+		 * Number of times the file has been written, used as its head revision ID
+		 */
+		int revision;
+		/**
+		 * Title of the file
+		 */
+		String title;
+
+		/**
+		 * Creates a new, empty StoredFile
+		 * 
+		 * @param id
+		 *            ID of the file
+		 */
+		StoredFile(final String id)
+		{
+			this.id = id;
+		}
+	}
+
+	/**
+	 * ID of the appdata folder
+	 */
+	static final String APPDATA_FOLDER_ID = "appdata-folder";
+	/**
+	 * Path of the changes feed
+	 */
+	private static final String CHANGES_PATH = "/drive/v2/changes";
+	/**
+	 * Path prefix of file downloads, followed by the file ID
+	 */
+	static final String DOWNLOAD_PATH = "/download/";
+	/**
+	 * Path prefix of file metadata requests, followed by the file ID
+	 */
+	static final String FILES_PATH = "/drive/v2/files/";
+	/**
+	 * Path of the appdata folder's alias
+	 */
+	private static final String FOLDER_PATH = "/drive/v2/files/appdata";
+	/**
+	 * MIME type of JSON responses
+	 */
+	private static final String JSON_MIME_TYPE = "application/json; charset=UTF-8";
+	/**
+	 * Read timeout of each connection, so that a stalled client does not keep a thread forever
+	 */
+	private static final int SOCKET_TIMEOUT_MILLIS = 30000;
+	/**
+	 * Path of file uploads, followed by the file ID when updating an existing file
+	 */
+	static final String UPLOAD_PATH = "/upload/drive/v2/files";
+
+	/**
+	 * Hashes content the same way as Drive's md5Checksum
+	 * 
+	 * @param content
+	 *            Content to hash
+	 * @return Hex encoded MD5 hash of the content
+	 */
+	private static String md5(final byte[] content)
+	{
+		try
+		{
+			final byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+			final StringBuilder hex = new StringBuilder();
+			for (final byte b : digest)
+				hex.append(String.format(Locale.US, "%02x", b & 0xff));
+			return hex.toString();
+		} catch (final NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Parses the query parameters of a request target
+	 * 
+	 * @param query
+	 *            Query part of the request target, without the leading '?', or null if there is none
+	 * @return Map of parameter name to its decoded value
+	 * @throws IOException
+	 *             If a parameter could not be decoded
+	 */
+	private static Map<String, String> parseQuery(final String query) throws IOException
+	{
+		final HashMap<String, String> parameters = new HashMap<String, String>();
+		if (query == null)
+			return parameters;
+		for (final String parameter : query.split("&"))
+		{
+			final int equals = parameter.indexOf('=');
+			if (equals < 0)
+				parameters.put(URLDecoder.decode(parameter, "UTF-8"), "");
+			else
+				parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+						URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+		}
+		return parameters;
+	}
+
+	/**
+	 * Reads a request body, undoing any chunked transfer encoding and gzip content encoding
+	 * 
+	 * @param in
+	 *            Stream positioned at the start of the body
+	 * @param headers
+	 *            Headers of the request, keyed by lowercase name
+	 * @return The body, empty if the request has none
+	 * @throws IOException
+	 *             If the body could not be read
+	 */
+	private static byte[] readBody(final InputStream in, final Map<String, String> headers) throws IOException
+	{
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding")))
+			while (true)
+			{
+				final String sizeLine = LocalDriveServer.readLine(in);
+				if (sizeLine == null)
+					throw new EOFException("Missing chunk");
+				final int semicolon = sizeLine.indexOf(';');
+				final int size = Integer.parseInt((semicolon < 0 ? sizeLine : sizeLine.substring(0, semicolon)).trim(),
+						16);
+				if (size == 0)
+				{
+					// Skip any trailers
+					String trailer;
+					while ((trailer = LocalDriveServer.readLine(in)) != null && trailer.length() > 0)
+						continue;
+					break;
+				}
+				LocalDriveServer.readFully(in, body, size);
+				LocalDriveServer.readLine(in);
+			}
+		else if (headers.containsKey("content-length"))
+			LocalDriveServer.readFully(in, body, Integer.parseInt(headers.get("content-length")));
+		if (!"gzip".equalsIgnoreCase(headers.get("content-encoding")))
+			return body.toByteArray();
+		final GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()));
+		final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int read;
+		while ((read = gzip.read(buffer)) >= 0)
+			decoded.write(buffer, 0, read);
+		return decoded.toByteArray();
+	}
+
+	/**
+	 * Copies exactly the given number of bytes
+	 * 
+	 * @param in
+	 *            Stream to read from
+	 * @param out
+	 *            Stream to write to
+	 * @param length
+	 *            Number of bytes to copy
+	 * @throws IOException
+	 *             If the stream ends early
+	 */
+	private static void readFully(final InputStream in, final ByteArrayOutputStream out, final int length)
+			throws IOException
+	{
+		final byte[] buffer = new byte[4096];
+		int remaining = length;
+		while (remaining > 0)
+		{
+			final int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+			if (read < 0)
+				throw new EOFException("Expected " + remaining + " more bytes");
+			out.write(buffer, 0, read);
+			remaining -= read;
+		}
+	}
+
+	/**
+	 * Reads a line of a request's head
+	 * 
+	 * @param in
+	 *            Stream to read from
+	 * @return The line without its line terminator, or null if the stream ended
+	 * @throws IOException
+	 *             If the line could not be read
+	 */
+	private static String readLine(final InputStream in) throws IOException
+	{
+		final StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) >= 0 && c != '\n')
+			if (c != '\r')
+				line.append((char) c);
+		return c < 0 && line.length() == 0 ? null : line.toString();
+	}
+
+	/**
+	 * Builds a Drive style JSON error response
+	 * 
+	 * @param statusCode
+	 *            HTTP status code
+	 * @param reason
+	 *            Drive reason of the error, i.e., "notFound"
+	 * @param message
+	 *            Message describing the error
+	 * @return The error response
+	 * @throws IOException
+	 *             If the error could not be written
+	 */
+	private static Response toErrorResponse(final int statusCode, final String reason, final String message)
+			throws IOException
+	{
+		final StringWriter json = new StringWriter();
+		final JsonWriter writer = new JsonWriter(json);
+		writer.beginObject().name("error").beginObject();
+		writer.name("errors").beginArray().beginObject();
+		writer.name("domain").value("global").name("reason").value(reason).name("message").value(message);
+		writer.endObject().endArray();
+		writer.name("code").value(statusCode).name("message").value(message);
+		writer.endObject().endObject();
+		writer.close();
+		return new Response(statusCode, LocalDriveServer.JSON_MIME_TYPE, json.toString().getBytes("UTF-8"));
+	}
+
+	/**
+	 * Next change ID
+	 */
+	private long nextChangeId = 1;
+	/**
+	 * Next number used to build a file ID
+	 */
+	private int nextFileNumber = 1;
+	/**
+	 * Changes feed, in the order of the changes, with only the latest change of each file
+	 */
+	private final ArrayList<StoredChange> changes = new ArrayList<StoredChange>();
+	/**
+	 * Executor accepting connections and handling each connection on its own thread
+	 */
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	/**
+	 * Number of upcoming requests to fail
+	 */
+	private int failureCount = 0;
+	/**
+	 * HTTP status code of failed requests
+	 */
+	private int failureStatusCode = 503;
+	/**
+	 * Files in the appdata folder, keyed by ID
+	 */
+	private final LinkedHashMap<String, StoredFile> files = new LinkedHashMap<String, StoredFile>();
+	/**
+	 * Delay before every response, in milliseconds
+	 */
+	private long latencyMillis = 0;
+	/**
+	 * Maximum number of changes per page of the changes feed, unless the request asks for fewer
+	 */
+	private int pageSize = 100;
+	/**
+	 * Method and path of every request received, in order
+	 */
+	private final ArrayList<String> requests = new ArrayList<String>();
+	/**
+	 * Socket accepting connections on the loopback interface
+	 */
+	private final ServerSocket serverSocket;
+
+	/**
+	 * Creates a new LocalDriveServer listening on a free port of the loopback interface, with an empty appdata folder
+	 * 
+	 * @throws IOException
+	 *             If the server socket could not be opened
+	 */
+	LocalDriveServer() throws IOException
+	{
+		serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				while (!serverSocket.isClosed())
+					try
+					{
+						final Socket socket = serverSocket.accept();
+						executor.execute(new Runnable()
+						{
+							@Override
+							public void run()
+							{
+								handle(socket);
+							}
+						});
+					} catch (final IOException e)
+					{
+						// The server socket was closed by shutdown
+					}
+			}
+		});
+	}
+
+	/**
+	 * Adds a file to the appdata folder, as if another device uploaded it
+	 * 
+	 * @param title
+	 *            Title of the file
+	 * @param content
+	 *            Content of the file
+	 * @return ID of the new file
+	 */
+	synchronized String addFile(final String title, final byte[] content)
+	{
+		final StoredFile file = new StoredFile("file" + nextFileNumber++);
+		file.title = title;
+		file.mimeType = "application/json";
+		files.put(file.id, file);
+		writeFile(file, content);
+		return file.id;
+	}
+
+	/**
+	 * Deletes a file from the appdata folder, as if another device deleted it
+	 * 
+	 * @param fileId
+	 *            ID of the file to delete
+	 * @return Whether the file existed
+	 */
+	synchronized boolean deleteFile(final String fileId)
+	{
+		if (files.remove(fileId) == null)
+			return false;
+		recordChange(fileId, true);
+		return true;
+	}
+
+	/**
+	 * Fails the next requests, whatever they are, with the given status code
+	 * 
+	 * @param count
+	 *            Number of requests to fail
+	 * @param statusCode
+	 *            HTTP status code to fail them with
+	 */
+	synchronized void failRequests(final int count, final int statusCode)
+	{
+		failureCount = count;
+		failureStatusCode = statusCode;
+	}
+
+	/**
+	 * Finds a file by its title
+	 * 
+	 * @param title
+	 *            Title of the file
+	 * @return ID of the file, or null if there is no file with the title
+	 */
+	synchronized String findFile(final String title)
+	{
+		for (final StoredFile file : files.values())
+			if (file.title.equals(title))
+				return file.id;
+		return null;
+	}
+
+	/**
+	 * Gets the content of a file
+	 * 
+	 * @param fileId
+	 *            ID of the file
+	 * @return Content of the file, or null if there is no such file
+	 */
+	synchronized byte[] getContent(final String fileId)
+	{
+		final StoredFile file = files.get(fileId);
+		return file == null ? null : file.content;
+	}
+
+	/**
+	 * Gets the number of files in the appdata folder
+	 * 
+	 * @return The number of files
+	 */
+	synchronized int getFileCount()
+	{
+		return files.size();
+	}
+
+	/**
+	 * Counts every request received so far
+	 * 
+	 * @return Number of requests, including failed ones
+	 */
+	synchronized int getRequestCount()
+	{
+		return requests.size();
+	}
+
+	/**
+	 * Counts the requests received so far with the given method and a path starting with the given prefix
+	 * 
+	 * @param method
+	 *            HTTP method, i.e., "GET"
+	 * @param pathPrefix
+	 *            Prefix of the path, i.e., {@link #DOWNLOAD_PATH}
+	 * @return Number of matching requests, including failed ones
+	 */
+	synchronized int getRequestCount(final String method, final String pathPrefix)
+	{
+		int count = 0;
+		for (final String request : requests)
+			if (request.startsWith(method + " " + pathPrefix))
+				count++;
+		return count;
+	}
+
+	/**
+	 * Gets the root URL to pass to the Drive service so that its requests are sent to this server
+	 * 
+	 * @return Root URL of this server
+	 */
+	String getRootUrl()
+	{
+		return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+	}
+
+	/**
+	 * Handles a single connection, reading one request and writing its response before closing the connection
+	 * 
+	 * @param socket
+	 *            Connected socket
+	 */
+	private void handle(final Socket socket)
+	{
+		try
+		{
+			socket.setSoTimeout(LocalDriveServer.SOCKET_TIMEOUT_MILLIS);
+			final InputStream in = new BufferedInputStream(socket.getInputStream());
+			final String requestLine = LocalDriveServer.readLine(in);
+			if (requestLine == null)
+				return;
+			final String[] parts = requestLine.split(" ");
+			final HashMap<String, String> headers = new HashMap<String, String>();
+			String line;
+			while ((line = LocalDriveServer.readLine(in)) != null && line.length() > 0)
+			{
+				final int colon = line.indexOf(':');
+				if (colon > 0)
+					headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1)
+							.trim());
+			}
+			final byte[] body = LocalDriveServer.readBody(in, headers);
+			final String target = parts[1];
+			final int question = target.indexOf('?');
+			final String path = question < 0 ? target : target.substring(0, question);
+			final Map<String, String> query = LocalDriveServer.parseQuery(question < 0 ? null : target
+					.substring(question + 1));
+			final Response response = respond(parts[0], path, query, headers.get("content-type"), body);
+			final OutputStream out = socket.getOutputStream();
+			final String head = "HTTP/1.1 " + response.statusCode + " " + (response.statusCode < 400 ? "OK" : "Error")
+					+ "\r\nContent-Type: " + response.contentType + "\r\nContent-Length: " + response.body.length
+					+ "\r\nConnection: close\r\n\r\n";
+			out.write(head.getBytes("ISO-8859-1"));
+			out.write(response.body);
+			out.flush();
+		} catch (final IOException e)
+		{
+			Log.w(LocalDriveServer.class.getSimpleName(), "Error handling request", e);
+		} finally
+		{
+			try
+			{
+				socket.close();
+			} catch (final IOException e)
+			{
+				// Nothing more to do with the connection
+			}
+		}
+	}
+
+	/**
+	 * Records a change to a file, replacing any earlier change to the same file
+	 * 
+	 * @param fileId
+	 *            ID of the changed file
+	 * @param deleted
+	 *            Whether the file was deleted
+	 */
+	private void recordChange(final String fileId, final boolean deleted)
+	{
+		final Iterator<StoredChange> iterator = changes.iterator();
+		while (iterator.hasNext())
+			if (iterator.next().fileId.equals(fileId))
+				iterator.remove();
+		changes.add(new StoredChange(nextChangeId++, fileId, deleted));
+	}
+
+	/**
+	 * Builds the response to a request, after the configured latency and any injected failure
+	 * 
+	 * @param method
+	 *            HTTP method of the request
+	 * @param path
+	 *            Path of the request
+	 * @param query
+	 *            Query parameters of the request
+	 * @param contentType
+	 *            Content type of the request body, or null if it has none
+	 * @param body
+	 *            Body of the request
+	 * @return The response
+	 * @throws IOException
+	 *             If the response could not be written
+	 */
+	private Response respond(final String method, final String path, final Map<String, String> query,
+			final String contentType, final byte[] body) throws IOException
+	{
+		final long delayMillis;
+		int failWith = 0;
+		synchronized (this)
+		{
+			requests.add(method + " " + path);
+			delayMillis = latencyMillis;
+			if (failureCount > 0)
+			{
+				failureCount--;
+				failWith = failureStatusCode;
+			}
+		}
+		if (delayMillis > 0)
+			try
+			{
+				Thread.sleep(delayMillis);
+			} catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		if (failWith != 0)
+			return LocalDriveServer.toErrorResponse(failWith, "backendError", "Injected failure");
+		synchronized (this)
+		{
+			if ("GET".equals(method) && LocalDriveServer.FOLDER_PATH.equals(path))
+			{
+				final StringWriter json = new StringWriter();
+				final JsonWriter writer = new JsonWriter(json);
+				writer.beginObject().name("kind").value("drive#file").name("id")
+						.value(LocalDriveServer.APPDATA_FOLDER_ID).name("title").value("Application Data")
+						.name("mimeType").value("application/vnd.google-apps.folder").endObject();
+				writer.close();
+				return new Response(200, LocalDriveServer.JSON_MIME_TYPE, json.toString().getBytes("UTF-8"));
+			}
+			if ("GET".equals(method) && LocalDriveServer.CHANGES_PATH.equals(path))
+				return respondChanges(query);
+			if ("POST".equals(method) && LocalDriveServer.UPLOAD_PATH.equals(path))
+			{
+				final StoredFile file = new StoredFile("file" + nextFileNumber++);
+				files.put(file.id, file);
+				return respondUpload(file, contentType, body);
+			}
+			if ("PUT".equals(method) && path.startsWith(LocalDriveServer.UPLOAD_PATH + "/"))
+			{
+				final StoredFile file = files.get(path.substring(LocalDriveServer.UPLOAD_PATH.length() + 1));
+				if (file == null)
+					return LocalDriveServer.toErrorResponse(404, "notFound", "File not found: " + path);
+				return respondUpload(file, contentType, body);
+			}
+			if ("DELETE".equals(method) && path.startsWith(LocalDriveServer.FILES_PATH))
+			{
+				if (!deleteFile(path.substring(LocalDriveServer.FILES_PATH.length())))
+					return LocalDriveServer.toErrorResponse(404, "notFound", "File not found: " + path);
+				return new Response(204, LocalDriveServer.JSON_MIME_TYPE, new byte[0]);
+			}
+			if ("GET".equals(method) && path.startsWith(LocalDriveServer.DOWNLOAD_PATH))
+			{
+				final StoredFile file = files.get(path.substring(LocalDriveServer.DOWNLOAD_PATH.length()));
+				if (file == null)
+					return LocalDriveServer.toErrorResponse(404, "notFound", "File not found: " + path);
+				return new Response(200, file.mimeType, file.content);
+			}
+			return LocalDriveServer.toErrorResponse(404, "notFound", "Unsupported request: " + method + " " + path);
+		}
+	}
+
+	/**
+	 * Builds a page of the changes feed. The page token is the ID of the first change of the page
+	 * 
+	 * @param query
+	 *            Query parameters of the request: startChangeId, pageToken, and maxResults, all optional
+	 * @return The page of changes
+	 * @throws IOException
+	 *             If the page could not be written
+	 */
+	private Response respondChanges(final Map<String, String> query) throws IOException
+	{
+		long startChangeId = 1;
+		if (query.containsKey("pageToken"))
+			startChangeId = Long.parseLong(query.get("pageToken"));
+		else if (query.containsKey("startChangeId"))
+			startChangeId = Long.parseLong(query.get("startChangeId"));
+		int maxResults = pageSize;
+		if (query.containsKey("maxResults"))
+			maxResults = Math.min(maxResults, Integer.parseInt(query.get("maxResults")));
+		final StringWriter json = new StringWriter();
+		final JsonWriter writer = new JsonWriter(json);
+		writer.beginObject().name("kind").value("drive#changeList");
+		writer.name("largestChangeId").value(Long.toString(nextChangeId - 1));
+		writer.name("items").beginArray();
+		int count = 0;
+		String nextPageToken = null;
+		for (final StoredChange change : changes)
+		{
+			if (change.id < startChangeId)
+				continue;
+			if (count == maxResults)
+			{
+				nextPageToken = Long.toString(change.id);
+				break;
+			}
+			writer.beginObject().name("kind").value("drive#change");
+			writer.name("id").value(Long.toString(change.id)).name("fileId").value(change.fileId);
+			writer.name("deleted").value(change.deleted);
+			if (!change.deleted)
+			{
+				writer.name("file");
+				writeFileMetadata(writer, files.get(change.fileId));
+			}
+			writer.endObject();
+			count++;
+		}
+		writer.endArray();
+		if (nextPageToken != null)
+			writer.name("nextPageToken").value(nextPageToken);
+		writer.endObject();
+		writer.close();
+		return new Response(200, LocalDriveServer.JSON_MIME_TYPE, json.toString().getBytes("UTF-8"));
+	}
+
+	/**
+	 * Stores an upload to a file, either a multipart upload of metadata and content or a media upload of content only
+	 * 
+	 * @param file
+	 *            File being uploaded to
+	 * @param contentType
+	 *            Content type of the request body
+	 * @param body
+	 *            Body of the request
+	 * @return The file's metadata
+	 * @throws IOException
+	 *             If the upload could not be read or the response could not be written
+	 */
+	private Response respondUpload(final StoredFile file, final String contentType, final byte[] body)
+			throws IOException
+	{
+		byte[] content = body;
+		if (contentType != null && contentType.startsWith("multipart/"))
+		{
+			// Multipart uploads are the JSON metadata followed by the content. ISO-8859-1 maps bytes to chars one to
+			// one, so the content can be split out as a string and converted back to the exact bytes
+			String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+			if (boundary.startsWith("\""))
+				boundary = boundary.substring(1, boundary.indexOf('"', 1));
+			final String[] parts = new String(body, "ISO-8859-1").split("--" + boundary);
+			final ArrayList<String> partBodies = new ArrayList<String>();
+			for (final String part : parts)
+			{
+				final int headEnd = part.indexOf("\r\n\r\n");
+				if (headEnd < 0)
+					continue;
+				String partBody = part.substring(headEnd + 4);
+				if (partBody.endsWith("\r\n"))
+					partBody = partBody.substring(0, partBody.length() - 2);
+				partBodies.add(partBody);
+			}
+			if (partBodies.size() != 2)
+				return LocalDriveServer.toErrorResponse(400, "badRequest", "Expected metadata and content");
+			final JsonObject metadata = new JsonParser().parse(
+					new String(partBodies.get(0).getBytes("ISO-8859-1"), "UTF-8")).getAsJsonObject();
+			if (metadata.has("title"))
+				file.title = metadata.get("title").getAsString();
+			if (metadata.has("mimeType"))
+				file.mimeType = metadata.get("mimeType").getAsString();
+			content = partBodies.get(1).getBytes("ISO-8859-1");
+		}
+		if (file.title == null)
+			file.title = "Untitled";
+		if (file.mimeType == null)
+			file.mimeType = "application/octet-stream";
+		writeFile(file, content);
+		final StringWriter json = new StringWriter();
+		final JsonWriter writer = new JsonWriter(json);
+		writeFileMetadata(writer, file);
+		writer.close();
+		return new Response(200, LocalDriveServer.JSON_MIME_TYPE, json.toString().getBytes("UTF-8"));
+	}
+
+	/**
+	 * Sets the delay before every response, simulating a slow network
+	 * 
+	 * @param latencyMillis
+	 *            Delay in milliseconds
+	 */
+	synchronized void setLatencyMillis(final long latencyMillis)
+	{
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * Sets the maximum number of changes per page of the changes feed
+	 * 
+	 * @param pageSize
+	 *            Maximum number of changes per page
+	 */
+	synchronized void setPageSize(final int pageSize)
+	{
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Stops accepting connections. Requests already being handled are left to finish
+	 */
+	void shutdown()
+	{
+		try
+		{
+			serverSocket.close();
+		} catch (final IOException e)
+		{
+			Log.w(LocalDriveServer.class.getSimpleName(), "Error closing server socket", e);
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Replaces the content of a file, as if another device uploaded a new version of it
+	 * 
+	 * @param fileId
+	 *            ID of the file
+	 * @param content
+	 *            New content of the file
+	 * @return Whether the file exists
+	 */
+	synchronized boolean updateFile(final String fileId, final byte[] content)
+	{
+		final StoredFile file = files.get(fileId);
+		if (file == null)
+			return false;
+		writeFile(file, content);
+		return true;
+	}
+
+	/**
+	 * Writes new content to a file, recording the change
+	 * 
+	 * @param file
+	 *            File to write to
+	 * @param content
+	 *            New content of the file
+	 */
+	private void writeFile(final StoredFile file, final byte[] content)
+	{
+		file.content = content;
+		file.revision++;
+		recordChange(file.id, false);
+	}
+
+	/**
+	 * Writes a file's metadata as a Drive file resource
+	 * 
+	 * @param writer
+	 *            Writer to write to
+	 * @param file
+	 *            File to write
+	 * @throws IOException
+	 *             If the metadata could not be written
+	 */
+	private void writeFileMetadata(final JsonWriter writer, final StoredFile file) throws IOException
+	{
+		writer.beginObject().name("kind").value("drive#file").name("id").value(file.id);
+		writer.name("title").value(file.title).name("mimeType").value(file.mimeType);
+		writer.name("md5Checksum").value(LocalDriveServer.md5(file.content));
+		writer.name("fileSize").value(Integer.toString(file.content.length));
+		writer.name("headRevisionId").value(Integer.toString(file.revision));
+		writer.name("downloadUrl").value(getRootUrl() + LocalDriveServer.DOWNLOAD_PATH.substring(1) + file.id);
+		writer.name("appDataContents").value(true);
+		writer.name("labels").beginObject().name("trashed").value(false).endObject();
+		writer.name("parents").beginArray().beginObject().name("id").value(LocalDriveServer.APPDATA_FOLDER_ID)
+				.endObject().endArray();
+		writer.endObject();
+	}
+}
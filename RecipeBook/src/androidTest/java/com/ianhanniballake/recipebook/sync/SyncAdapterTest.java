@@ -0,0 +1,450 @@
+package com.ianhanniballake.recipebook.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.accounts.Account;
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.preference.PreferenceManager;
+import android.provider.BaseColumns;
+import android.test.ProviderTestCase2;
+
+import com.google.android.gms.auth.GoogleAuthException;
+import com.ianhanniballake.recipebook.provider.RecipeContract;
+import com.ianhanniballake.recipebook.provider.RecipeProvider;
+
+/**
+ * Tests full syncs by running {@link SyncAdapter#onPerformSync(Account, Bundle, String, ContentProviderClient,
+ * SyncResult)} against a {@link LocalDriveServer} in place of Drive
+ */
+public class SyncAdapterTest extends ProviderTestCase2<RecipeProvider>
+{
+	/**
+	 * Account synced by every test
+	 */
+	private static final Account ACCOUNT = new Account("sync-test@example.com", "com.google");
+	/**
+	 * Columns read from each synced recipe
+	 */
+	private static final String[] PROJECTION = { BaseColumns._ID, RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION,
+			RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID, RecipeContract.Recipes.COLUMN_NAME_DIRTY };
+
+	/**
+	 * Builds the JSON of a recipe with a single ingredient and instruction, as uploaded by another device
+	 * 
+	 * @param title
+	 *            Title of the recipe
+	 * @param description
+	 *            Description of the recipe
+	 * @return The recipe's JSON
+	 * @throws IOException
+	 *             If the JSON could not be encoded
+	 */
+	private static byte[] buildRecipe(final String title, final String description) throws IOException
+	{
+		return ("{\"description\":\"" + description + "\",\"ingredients\":[{\"item\":\"flour\",\"quantity\":2,"
+				+ "\"quantityDenominator\":1,\"quantityNumerator\":0,\"unit\":\"cups\"}],"
+				+ "\"instructions\":[{\"instruction\":\"Mix well\"}],\"title\":\"" + title + "\"}").getBytes("UTF-8");
+	}
+
+	/**
+	 * Tokens invalidated by the sync adapter, in order
+	 */
+	final List<String> invalidatedTokens = Collections.synchronizedList(new ArrayList<String>());
+	/**
+	 * Client of the provider under test, passed to the sync adapter
+	 */
+	private ContentProviderClient provider;
+	/**
+	 * Stand-in for Drive
+	 */
+	private LocalDriveServer server;
+	/**
+	 * Sync adapter under test, sending its Drive requests to the server
+	 */
+	private SyncAdapter syncAdapter;
+	/**
+	 * Number of tokens handed out to the sync adapter
+	 */
+	final AtomicInteger tokenCount = new AtomicInteger();
+
+	/**
+	 * Creates a new SyncAdapterTest
+	 */
+	public SyncAdapterTest()
+	{
+		super(RecipeProvider.class, RecipeContract.AUTHORITY);
+	}
+
+	/**
+	 * Checks the synced state of a recipe
+	 * 
+	 * @param title
+	 *            Title of the recipe
+	 * @param description
+	 *            Expected description
+	 * @param fileId
+	 *            Expected Drive file ID
+	 * @throws RemoteException
+	 *             If the provider could not be reached
+	 */
+	private void assertSynced(final String title, final String description, final String fileId)
+			throws RemoteException
+	{
+		final Cursor c = queryRecipe(title);
+		try
+		{
+			assertTrue(title + " missing", c.moveToFirst());
+			assertEquals(title, description, c.getString(1));
+			assertEquals(title, fileId, c.getString(2));
+			assertEquals(title, 0, c.getInt(3));
+			assertEquals(title, 1, countRows(RecipeContract.Ingredients.CONTENT_URI,
+					RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + "=?", c.getLong(0)));
+			assertEquals(title, 1, countRows(RecipeContract.Instructions.CONTENT_URI,
+					RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID + "=?", c.getLong(0)));
+		} finally
+		{
+			c.close();
+		}
+	}
+
+	/**
+	 * Removes the account's sync state, so that each test starts with a first sync
+	 */
+	private void clearSyncState()
+	{
+		PreferenceManager.getDefaultSharedPreferences(getContext()).edit()
+				.remove(SyncAdapter.PREF_DRIVE_APPDATA_ID + "_" + SyncAdapterTest.ACCOUNT.name)
+				.remove(SyncAdapter.PREF_DRIVE_START_CHANGE_ID + "_" + SyncAdapterTest.ACCOUNT.name).commit();
+	}
+
+	/**
+	 * Counts the rows of a table with the given ID
+	 * 
+	 * @param uri
+	 *            URI of the table
+	 * @param selection
+	 *            Selection with a single argument
+	 * @param id
+	 *            Argument of the selection
+	 * @return Number of matching rows
+	 * @throws RemoteException
+	 *             If the provider could not be reached
+	 */
+	private int countRows(final Uri uri, final String selection, final long id) throws RemoteException
+	{
+		final Cursor c = provider.query(uri, new String[] { BaseColumns._ID }, selection,
+				new String[] { Long.toString(id) }, null);
+		try
+		{
+			return c.getCount();
+		} finally
+		{
+			c.close();
+		}
+	}
+
+	/**
+	 * Adds a recipe locally, as the user would
+	 * 
+	 * @param title
+	 *            Title of the recipe
+	 * @param description
+	 *            Description of the recipe
+	 * @return ID of the recipe
+	 */
+	private long insertLocalRecipe(final String title, final String description)
+	{
+		final ContentValues values = new ContentValues();
+		values.put(RecipeContract.Recipes.COLUMN_NAME_TITLE, title);
+		values.put(RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION, description);
+		final long recipeId = ContentUris.parseId(getMockContentResolver().insert(
+				RecipeContract.Recipes.CONTENT_URI, values));
+		values.clear();
+		values.put(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID, recipeId);
+		values.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY, 1);
+		values.put(RecipeContract.Ingredients.COLUMN_NAME_ITEM, "egg");
+		getMockContentResolver().insert(RecipeContract.Ingredients.CONTENT_URI, values);
+		values.clear();
+		values.put(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID, recipeId);
+		values.put(RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION, "Beat the egg");
+		getMockContentResolver().insert(RecipeContract.Instructions.CONTENT_URI, values);
+		return recipeId;
+	}
+
+	/**
+	 * Queries a recipe by its title
+	 * 
+	 * @param title
+	 *            Title of the recipe
+	 * @return Cursor of the recipes with the title, with the {@link #PROJECTION} columns
+	 * @throws RemoteException
+	 *             If the provider could not be reached
+	 */
+	private Cursor queryRecipe(final String title) throws RemoteException
+	{
+		return provider.query(RecipeContract.Recipes.CONTENT_URI, SyncAdapterTest.PROJECTION,
+				RecipeContract.Recipes.COLUMN_NAME_TITLE + "=?", new String[] { title }, null);
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		clearSyncState();
+		server = new LocalDriveServer();
+		syncAdapter = new SyncAdapter(getContext(), false, new TokenProvider()
+		{
+			@Override
+			public String getToken(final Account account) throws IOException, GoogleAuthException
+			{
+				return "test-token-" + tokenCount.incrementAndGet();
+			}
+
+			@Override
+			public void invalidateToken(final String token) throws IOException, GoogleAuthException
+			{
+				invalidatedTokens.add(token);
+			}
+		}, server.getRootUrl());
+		provider = getMockContentResolver().acquireContentProviderClient(RecipeContract.AUTHORITY);
+	}
+
+	/**
+	 * Runs a full sync of the test account
+	 * 
+	 * @return Result of the sync, which is checked to have no errors
+	 */
+	private SyncResult sync()
+	{
+		final SyncResult syncResult = new SyncResult();
+		syncAdapter.onPerformSync(SyncAdapterTest.ACCOUNT, new Bundle(), RecipeContract.AUTHORITY, provider,
+				syncResult);
+		assertFalse(syncResult.toDebugString(), syncResult.hasError());
+		return syncResult;
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		provider.release();
+		server.shutdown();
+		clearSyncState();
+		super.tearDown();
+	}
+
+	/**
+	 * Recipes deleted locally have their Drive files deleted, even if the file changed remotely in the meantime
+	 * 
+	 * @throws Exception
+	 *             If the provider could not be reached
+	 */
+	public void testDeletesLocallyDeletedRecipes() throws Exception
+	{
+		final long recipeId = insertLocalRecipe("Omelette", "Fluffy");
+		sync();
+		final String fileId = server.findFile("Omelette.json");
+		assertNotNull(fileId);
+		getMockContentResolver().delete(
+				ContentUris.withAppendedId(RecipeContract.Recipes.CONTENT_ID_URI_BASE, recipeId), null, null);
+		server.updateFile(fileId, SyncAdapterTest.buildRecipe("Omelette", "Edited elsewhere"));
+		sync();
+		assertNull(server.getContent(fileId));
+		final Cursor c = queryRecipe("Omelette");
+		try
+		{
+			assertEquals(0, c.getCount());
+		} finally
+		{
+			c.close();
+		}
+		final Cursor deleted = provider.query(RecipeContract.DeletedRecipes.CONTENT_URI, null, null, null, null);
+		try
+		{
+			assertEquals(0, deleted.getCount());
+		} finally
+		{
+			deleted.close();
+		}
+	}
+
+	/**
+	 * Remote recipes are downloaded across several pages of changes and batches of writes, and a sync with no new
+	 * changes downloads nothing
+	 * 
+	 * @throws Exception
+	 *             If the provider could not be reached
+	 */
+	public void testDownloadsRemoteRecipes() throws Exception
+	{
+		final int recipeCount = 45;
+		final String[] fileIds = new String[recipeCount];
+		for (int index = 0; index < recipeCount; index++)
+			fileIds[index] = server.addFile("Recipe " + index + ".json",
+					SyncAdapterTest.buildRecipe("Recipe " + index, "Remote " + index));
+		server.setPageSize(10);
+		final SyncResult syncResult = sync();
+		assertEquals(recipeCount, syncResult.stats.numInserts);
+		for (int index = 0; index < recipeCount; index++)
+			assertSynced("Recipe " + index, "Remote " + index, fileIds[index]);
+		assertEquals(5, server.getRequestCount("GET", "/drive/v2/changes"));
+		assertEquals(recipeCount, server.getRequestCount("GET", LocalDriveServer.DOWNLOAD_PATH));
+		// Recipes stored from Drive are not local changes, so nothing is uploaded back
+		assertEquals(0, server.getRequestCount("POST", LocalDriveServer.UPLOAD_PATH));
+		assertEquals(0, server.getRequestCount("PUT", LocalDriveServer.UPLOAD_PATH));
+		sync();
+		assertEquals(recipeCount, server.getRequestCount("GET", LocalDriveServer.DOWNLOAD_PATH));
+	}
+
+	/**
+	 * A token rejected on every request is refreshed once per request rather than retried forever, and the sync fails
+	 * 
+	 * @throws Exception
+	 *             If the provider could not be reached
+	 */
+	public void testGivesUpOnRejectedTokens() throws Exception
+	{
+		server.addFile("Stew.json", SyncAdapterTest.buildRecipe("Stew", "Hearty"));
+		server.failRequests(Integer.MAX_VALUE, 401);
+		final SyncResult syncResult = new SyncResult();
+		syncAdapter.onPerformSync(SyncAdapterTest.ACCOUNT, new Bundle(), RecipeContract.AUTHORITY, provider,
+				syncResult);
+		assertTrue(syncResult.toDebugString(), syncResult.hasError());
+		assertFalse(invalidatedTokens.isEmpty());
+		// Each request is tried once more with a new token, and not again
+		assertEquals(2 * invalidatedTokens.size(), server.getRequestCount());
+	}
+
+	/**
+	 * A recipe changed both locally and remotely keeps both changes, locally and on Drive
+	 * 
+	 * @throws Exception
+	 *             If the provider could not be reached
+	 */
+	public void testMergesLocalAndRemoteChanges() throws Exception
+	{
+		final String fileId = server.addFile("Pancakes.json", SyncAdapterTest.buildRecipe("Pancakes", "Original"));
+		sync();
+		final Cursor c = queryRecipe("Pancakes");
+		final long recipeId;
+		try
+		{
+			assertTrue(c.moveToFirst());
+			recipeId = c.getLong(0);
+		} finally
+		{
+			c.close();
+		}
+		final ContentValues values = new ContentValues();
+		values.put(RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION, "Local");
+		getMockContentResolver().update(
+				ContentUris.withAppendedId(RecipeContract.Recipes.CONTENT_ID_URI_BASE, recipeId), values, null, null);
+		server.updateFile(fileId, SyncAdapterTest.buildRecipe("Buttermilk Pancakes", "Original"));
+		sync();
+		assertSynced("Buttermilk Pancakes", "Local", fileId);
+		final String uploaded = new String(server.getContent(fileId), "UTF-8");
+		assertTrue(uploaded, uploaded.contains("Buttermilk Pancakes"));
+		assertTrue(uploaded, uploaded.contains("Local"));
+	}
+
+	/**
+	 * A token rejected once is invalidated and replaced by a new token, which is then kept for the next sync
+	 * 
+	 * @throws Exception
+	 *             If the provider could not be reached
+	 */
+	public void testRefreshesRejectedToken() throws Exception
+	{
+		final String fileId = server.addFile("Stew.json", SyncAdapterTest.buildRecipe("Stew", "Hearty"));
+		server.failRequests(1, 401);
+		sync();
+		assertSynced("Stew", "Hearty", fileId);
+		assertEquals(Arrays.asList("test-token-1"), invalidatedTokens);
+		assertEquals(2, tokenCount.get());
+		sync();
+		assertEquals(1, invalidatedTokens.size());
+		assertEquals(2, tokenCount.get());
+	}
+
+	/**
+	 * Remote updates and deletes are applied to the recipes stored from the changed files
+	 * 
+	 * @throws Exception
+	 *             If the provider could not be reached
+	 */
+	public void testRemoteUpdatesAndDeletes() throws Exception
+	{
+		final String fileId = server.addFile("Soup.json", SyncAdapterTest.buildRecipe("Soup", "Thin"));
+		sync();
+		assertSynced("Soup", "Thin", fileId);
+		server.updateFile(fileId, SyncAdapterTest.buildRecipe("Soup", "Thick"));
+		assertEquals(1, sync().stats.numUpdates);
+		assertSynced("Soup", "Thick", fileId);
+		server.deleteFile(fileId);
+		assertEquals(1, sync().stats.numDeletes);
+		final Cursor c = queryRecipe("Soup");
+		try
+		{
+			assertEquals(0, c.getCount());
+		} finally
+		{
+			c.close();
+		}
+	}
+
+	/**
+	 * Server errors on a slow connection are retried within the sync rather than failing it
+	 * 
+	 * @throws Exception
+	 *             If the provider could not be reached
+	 */
+	public void testRetriesServerErrors() throws Exception
+	{
+		final String fileId = server.addFile("Bread.json", SyncAdapterTest.buildRecipe("Bread", "Crusty"));
+		server.setLatencyMillis(100);
+		server.failRequests(2, 503);
+		sync();
+		assertSynced("Bread", "Crusty", fileId);
+	}
+
+	/**
+	 * Local recipes are uploaded, and the change made by the upload is skipped by the next sync rather than
+	 * downloaded again
+	 * 
+	 * @throws Exception
+	 *             If the provider could not be reached
+	 */
+	public void testUploadsLocalRecipes() throws Exception
+	{
+		insertLocalRecipe("Omelette", "Fluffy");
+		sync();
+		final String fileId = server.findFile("Omelette.json");
+		assertNotNull(fileId);
+		final String uploaded = new String(server.getContent(fileId), "UTF-8");
+		assertTrue(uploaded, uploaded.contains("Fluffy"));
+		final Cursor c = queryRecipe("Omelette");
+		try
+		{
+			assertTrue(c.moveToFirst());
+			assertEquals(fileId, c.getString(2));
+			assertEquals(0, c.getInt(3));
+		} finally
+		{
+			c.close();
+		}
+		assertEquals(1, sync().stats.numSkippedEntries);
+		assertEquals(0, server.getRequestCount("GET", LocalDriveServer.DOWNLOAD_PATH));
+		assertEquals(1, server.getFileCount());
+	}
+}
@@ -1,25 +1,23 @@
 package com.ianhanniballake.recipebook.auth;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.List;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.os.AsyncTask;
-import android.provider.BaseColumns;
 import android.util.Log;
 
 import com.google.android.gms.plus.PlusClient;
-import com.google.gson.Gson;
 import com.ianhanniballake.recipebook.BuildConfig;
-import com.ianhanniballake.recipebook.model.Ingredient;
-import com.ianhanniballake.recipebook.model.Instruction;
-import com.ianhanniballake.recipebook.model.Recipe;
-import com.ianhanniballake.recipebook.provider.RecipeContract;
+import com.ianhanniballake.recipebook.model.RecipeExporter;
 
 class SyncDriveAsyncTask extends AsyncTask<PlusClient, Void, Void>
 {
+	private static final String EXPORT_FILE_NAME = "recipes.json";
 	private final WeakReference<Context> contextWeakRef;
 
 	public SyncDriveAsyncTask(final Context context)
@@ -33,38 +31,31 @@ class SyncDriveAsyncTask extends AsyncTask<PlusClient, Void, Void>
 		final Context context = contextWeakRef.get();
 		if (context == null)
 			return null;
-		final Gson gson = new Gson();
-		final Cursor cursor = context.getContentResolver().query(RecipeContract.Recipes.CONTENT_URI, null, null, null,
-				null);
-		while (cursor.moveToNext())
+		// Stream the whole library straight from a single export query to the file to upload, without building
+		// any intermediate model objects or strings
+		final File exportFile = new File(context.getCacheDir(), SyncDriveAsyncTask.EXPORT_FILE_NAME);
+		OutputStream out = null;
+		try
 		{
-			final Long recipeId = cursor.getLong(cursor.getColumnIndex(BaseColumns._ID));
-			final String[] recipeIdArgs = { Long.toString(recipeId) };
-			final Cursor ingredientCursor = context.getContentResolver().query(RecipeContract.Ingredients.CONTENT_URI,
-					null, RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + "=?", recipeIdArgs, null);
-			final List<Ingredient> ingredients = new ArrayList<Ingredient>();
-			while (ingredientCursor.moveToNext())
-				ingredients.add(new Ingredient(ingredientCursor));
-			ingredientCursor.close();
-			final Cursor instructionCursor = context.getContentResolver().query(
-					RecipeContract.Instructions.CONTENT_URI, null,
-					RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID + "=?", recipeIdArgs, null);
-			final List<Instruction> instructions = new ArrayList<Instruction>();
-			while (instructionCursor.moveToNext())
-			{
-				final String instruction = instructionCursor.getString(instructionCursor
-						.getColumnIndex(RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION));
-				instructions.add(new Instruction(instruction));
-			}
-			instructionCursor.close();
-			final Recipe recipe = new Recipe(cursor, ingredients, instructions);
+			out = new BufferedOutputStream(new FileOutputStream(exportFile));
+			final int count = RecipeExporter.exportRecipes(context.getContentResolver(), out);
 			if (BuildConfig.DEBUG)
-				Log.d(SyncDriveAsyncTask.class.getSimpleName(), "Recipe " + recipe.getTitle());
-			final String recipeJson = gson.toJson(recipe);
-			Log.d(SyncDriveAsyncTask.class.getSimpleName(), "To JSON: " + recipeJson);
-			Log.d(SyncDriveAsyncTask.class.getSimpleName(), "From JSON: " + gson.fromJson(recipeJson, Recipe.class));
+				Log.d(SyncDriveAsyncTask.class.getSimpleName(), "Exported " + count + " recipes ("
+						+ exportFile.length() + " bytes)");
+		} catch (final IOException e)
+		{
+			Log.e(SyncDriveAsyncTask.class.getSimpleName(), "Error exporting recipes", e);
+		} finally
+		{
+			if (out != null)
+				try
+				{
+					out.close();
+				} catch (final IOException e)
+				{
+					Log.e(SyncDriveAsyncTask.class.getSimpleName(), "Error closing " + exportFile, e);
+				}
 		}
-		cursor.close();
 		return null;
 	}
 
@@ -1,19 +1,66 @@
 package com.ianhanniballake.recipebook.model;
 
-import java.util.Arrays;
-
 import android.content.ContentValues;
-import android.content.res.Resources;
 import android.database.Cursor;
+import android.text.TextUtils;
 
-import com.ianhanniballake.recipebook.R;
+import com.ianhanniballake.recipebook.provider.Rational;
 import com.ianhanniballake.recipebook.provider.RecipeContract;
+import com.ianhanniballake.recipebook.provider.UnitLexicon;
 
 /**
  * Class that manages the conversion to and from the string representation of ingredients to individual components
  */
 public class Ingredient
 {
+	/**
+	 * Parses the non-negative whole number spelled by the given range of text
+	 * 
+	 * @param text
+	 *            Text containing the possible number
+	 * @param start
+	 *            Index of the first character of the possible number
+	 * @param end
+	 *            Index after the last character of the possible number
+	 * @return The number, or -1 if the range is empty, contains anything other than digits, or does not fit in an int
+	 */
+	private static int parseNumber(final String text, final int start, final int end)
+	{
+		if (start >= end)
+			return -1;
+		int number = 0;
+		for (int index = start; index < end; index++)
+		{
+			final char c = text.charAt(index);
+			if (c < '0' || c > '9' || number > (Integer.MAX_VALUE - (c - '0')) / 10)
+				return -1;
+			number = number * 10 + c - '0';
+		}
+		return number;
+	}
+
+	/**
+	 * Gets the given range of text with leading and trailing whitespace removed, creating only the resulting string
+	 * 
+	 * @param text
+	 *            Text to take the range from
+	 * @param start
+	 *            Index of the first character of the range
+	 * @param end
+	 *            Index after the last character of the range
+	 * @return The trimmed range
+	 */
+	private static String trimmedSubstring(final String text, final int start, final int end)
+	{
+		int trimmedStart = start;
+		int trimmedEnd = end;
+		while (trimmedStart < trimmedEnd && text.charAt(trimmedStart) <= ' ')
+			trimmedStart++;
+		while (trimmedEnd > trimmedStart && text.charAt(trimmedEnd - 1) <= ' ')
+			trimmedEnd--;
+		return text.substring(trimmedStart, trimmedEnd);
+	}
+
 	/**
 	 * Actual item that makes up this ingredient
 	 */
@@ -38,6 +85,11 @@ public class Ingredient
 	 * Unit of quantity
 	 */
 	private String unit;
+	/**
+	 * Canonical unit of quantity, one of the {@link RecipeContract.Units} constants. Derived from the unit, so not
+	 * serialized
+	 */
+	private transient int unitId;
 
 	/**
 	 * Creates a new, empty Ingredient
@@ -60,107 +112,146 @@ public class Ingredient
 		quantityDenominator = cursor.getInt(cursor
 				.getColumnIndex(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR));
 		unit = cursor.getString(cursor.getColumnIndex(RecipeContract.Ingredients.COLUMN_NAME_UNIT));
+		final int unitIdIndex = cursor.getColumnIndex(RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID);
+		unitId = unitIdIndex == -1 ? UnitLexicon.getUnitId(unit) : cursor.getInt(unitIdIndex);
 		item = cursor.getString(cursor.getColumnIndex(RecipeContract.Ingredients.COLUMN_NAME_ITEM));
 		preparation = cursor.getString(cursor.getColumnIndex(RecipeContract.Ingredients.COLUMN_NAME_PREPARATION));
 	}
 
+	@Override
+	public boolean equals(final Object o)
+	{
+		if (!(o instanceof Ingredient))
+			return false;
+		final Ingredient other = (Ingredient) o;
+		return quantity == other.quantity && quantityNumerator == other.quantityNumerator
+				&& quantityDenominator == other.quantityDenominator && TextUtils.equals(unit, other.unit)
+				&& TextUtils.equals(item, other.item) && TextUtils.equals(preparation, other.preparation);
+	}
+
 	/**
-	 * Parses an ingredient from the given rawText, using the default values loaded from the Resources if the string
-	 * does not contain all components
+	 * Gets the exact quantity of this ingredient, the whole number quantity plus any fractional quantity
 	 * 
-	 * @param resources
-	 *            Resources for loading default values
-	 * @param rawText
-	 *            Raw text to parse
+	 * @return The quantity, packed as a {@link Rational}
+	 * @throws ArithmeticException
+	 *             If the quantity is too large to pack
 	 */
-	public Ingredient(final Resources resources, final String rawText)
+	public long getQuantity()
+	{
+		return Rational.fromMixed(quantity, quantityNumerator, quantityDenominator);
+	}
+
+	@Override
+	public int hashCode()
 	{
-		setFromRaw(resources, rawText);
+		int hash = quantity;
+		hash = 31 * hash + quantityNumerator;
+		hash = 31 * hash + quantityDenominator;
+		hash = 31 * hash + (unit == null ? 0 : unit.hashCode());
+		hash = 31 * hash + (item == null ? 0 : item.hashCode());
+		return 31 * hash + (preparation == null ? 0 : preparation.hashCode());
 	}
 
 	/**
-	 * Parses an ingredient from the given rawText, using the default values loaded from the Resources if the string
-	 * does not contain all components
+	 * Parses an ingredient from the given rawText, using the default values of the given parser if the string
+	 * does not contain all components. The text is scanned in place: the only strings created are the item and
+	 * preparation, and numbers are parsed without exceptions for tokens that are not numeric.
 	 * 
-	 * @param resources
-	 *            Resources for loading default values
+	 * @param parser
+	 *            Parser holding the default values
 	 * @param rawText
 	 *            Raw text to parse
 	 */
-	public void setFromRaw(final Resources resources, final String rawText)
+	public void setFromRaw(final IngredientParser parser, final String rawText)
 	{
+		final int length = rawText.length();
 		int startIndex = 0;
-		int endIndex = rawText.indexOf(' ', startIndex);
-		if (rawText.isEmpty() || endIndex == -1)
+		int endIndex = rawText.indexOf(' ');
+		if (length == 0 || endIndex == -1)
 		{
-			quantity = resources.getInteger(R.integer.default_ingredient_quantity);
-			quantityNumerator = resources.getInteger(R.integer.default_ingredient_quantity_numerator);
-			quantityDenominator = resources.getInteger(R.integer.default_ingredient_quantity_denominator);
-			unit = resources.getString(R.string.default_ingredient_unit);
+			quantity = parser.defaultQuantity;
+			quantityNumerator = parser.defaultQuantityNumerator;
+			quantityDenominator = parser.defaultQuantityDenominator;
+			unit = parser.defaultUnit;
+			unitId = parser.defaultUnitId;
 			item = rawText;
-			preparation = resources.getString(R.string.default_ingredient_preparation);
+			preparation = parser.defaultPreparation;
 			return;
 		}
-		try
+		final int wholeQuantity = Ingredient.parseNumber(rawText, startIndex, endIndex);
+		if (wholeQuantity >= 0)
 		{
-			quantity = Integer.parseInt(rawText.substring(startIndex, endIndex));
+			quantity = wholeQuantity;
 			startIndex = endIndex + 1;
-		} catch (final NumberFormatException e)
+		}
+		else
+			// Don't change startIndex to retry that token
+			quantity = parser.defaultQuantity;
+		endIndex = rawText.indexOf(' ', startIndex);
+		final int tokenEndIndex = endIndex == -1 ? length : endIndex;
+		final int slashIndex = rawText.indexOf('/', startIndex);
+		final int numerator = slashIndex == -1 || slashIndex > tokenEndIndex ? -1 : Ingredient.parseNumber(rawText,
+				startIndex, slashIndex);
+		final int denominator = numerator < 0 ? -1 : Ingredient.parseNumber(rawText, slashIndex + 1, tokenEndIndex);
+		if (denominator >= 0)
+		{
+			quantityNumerator = numerator;
+			quantityDenominator = denominator;
+			startIndex = Math.min(tokenEndIndex + 1, length);
+			// Store the quantity in lowest terms with a proper fraction, so that "3/2" and "1 1/2" are the same
+			if (denominator > 0)
+				try
+				{
+					setQuantity(getQuantity());
+				} catch (final ArithmeticException e)
+				{
+					// Keep the quantity as written if it is too large to normalize
+				}
+		}
+		else
 		{
 			// Don't change startIndex to retry that token
-			quantity = resources.getInteger(R.integer.default_ingredient_quantity);
+			quantityNumerator = parser.defaultQuantityNumerator;
+			quantityDenominator = parser.defaultQuantityDenominator;
 		}
-		endIndex = rawText.indexOf('/', startIndex);
-		if (endIndex != -1)
-			try
-			{
-				// Ensure both parse correctly before assigning them to our
-				// class variables
-				final int numerator = Integer.parseInt(rawText.substring(startIndex, endIndex));
-				final int tempStartIndex = endIndex + 1;
-				endIndex = rawText.indexOf(' ', tempStartIndex);
-				final int denominator = Integer.parseInt(rawText.substring(tempStartIndex, endIndex));
-				startIndex = endIndex + 1;
-				// Assign to our class variables
-				quantityNumerator = numerator;
-				quantityDenominator = denominator;
-			} catch (final NumberFormatException e)
-			{
-				// Don't change startIndex to retry that token
-				quantityNumerator = resources.getInteger(R.integer.default_ingredient_quantity_numerator);
-				quantityDenominator = resources.getInteger(R.integer.default_ingredient_quantity_denominator);
-			}
 		endIndex = rawText.indexOf(' ', startIndex);
-		if (endIndex == -1)
-			unit = resources.getString(R.string.default_ingredient_unit);
+		// The lexicon recognizes plurals and abbreviations (lbs. -> lb, etc)
+		final String possibleUnit = endIndex == -1 ? null : UnitLexicon.getAlias(rawText, startIndex, endIndex);
+		if (possibleUnit != null)
+		{
+			unit = possibleUnit;
+			unitId = UnitLexicon.getUnitId(rawText, startIndex, endIndex);
+			startIndex = endIndex + 1;
+		}
 		else
 		{
-			String possibleUnit = rawText.substring(startIndex, endIndex);
-			// Strip off periods or final S's (lbs. -> lb, etc)
-			if (possibleUnit.endsWith("s."))
-				possibleUnit = possibleUnit.substring(0, possibleUnit.length() - 2);
-			else if (possibleUnit.endsWith("."))
-				possibleUnit = possibleUnit.substring(0, possibleUnit.length() - 1);
-			if (Arrays.asList(resources.getStringArray(R.array.units)).contains(possibleUnit))
-			{
-				unit = possibleUnit;
-				startIndex = endIndex + 1;
-			}
-			else
-				unit = resources.getString(R.string.default_ingredient_unit);
+			unit = parser.defaultUnit;
+			unitId = parser.defaultUnitId;
 		}
 		endIndex = Math.max(rawText.indexOf(';', startIndex), rawText.indexOf(',', startIndex));
 		// Take everything until the end of the string as the item if there
 		// is no preparation
 		if (endIndex == -1)
-			endIndex = rawText.length();
-		item = rawText.substring(startIndex, endIndex).trim();
+			endIndex = length;
+		item = Ingredient.trimmedSubstring(rawText, startIndex, endIndex);
 		startIndex = endIndex + 1;
-		endIndex = rawText.length();
-		if (endIndex > startIndex)
-			preparation = rawText.substring(startIndex, endIndex).trim();
+		if (length > startIndex)
+			preparation = Ingredient.trimmedSubstring(rawText, startIndex, length);
 		else
-			preparation = resources.getString(R.string.default_ingredient_preparation);
+			preparation = parser.defaultPreparation;
+	}
+
+	/**
+	 * Sets the quantity of this ingredient, storing it as a whole number and a proper fraction in lowest terms
+	 * 
+	 * @param rational
+	 *            The quantity, packed as a {@link Rational}
+	 */
+	public void setQuantity(final long rational)
+	{
+		quantity = Rational.wholePart(rational);
+		quantityDenominator = Rational.denominator(rational);
+		quantityNumerator = Rational.numerator(rational) - quantity * quantityDenominator;
 	}
 
 	/**
@@ -178,6 +269,7 @@ public class Ingredient
 		contentValues.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR, quantityNumerator);
 		contentValues.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR, quantityDenominator);
 		contentValues.put(RecipeContract.Ingredients.COLUMN_NAME_UNIT, unit);
+		contentValues.put(RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID, unitId);
 		contentValues.put(RecipeContract.Ingredients.COLUMN_NAME_ITEM, item);
 		contentValues.put(RecipeContract.Ingredients.COLUMN_NAME_PREPARATION, preparation);
 		return contentValues;
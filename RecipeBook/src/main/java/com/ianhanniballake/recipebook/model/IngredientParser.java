@@ -0,0 +1,230 @@
+package com.ianhanniballake.recipebook.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.content.ContentValues;
+import android.content.res.Resources;
+
+import com.ianhanniballake.recipebook.R;
+import com.ianhanniballake.recipebook.provider.UnitLexicon;
+
+/**
+ * Parses raw ingredient text, one ingredient per line, loading the default values from the Resources only once for
+ * every line parsed. Large blocks of text, such as an imported cookbook, are parsed on several threads, producing
+ * ContentValues ready for {@link android.content.ContentResolver#bulkInsert(android.net.Uri, ContentValues[])}.
+ */
+public class IngredientParser
+{
+	/**
+	 * Parses a range of lines into the matching range of the results
+	 */
+	private class ParseTask implements Callable<Void>
+	{
+		/**
+		 * Index after the last line to parse
+		 */
+		private final int end;
+		/**
+		 * Lines to parse
+		 */
+		private final List<String> lines;
+		/**
+		 * ID of the recipe the ingredients belong to
+		 */
+		private final long recipeId;
+		/**
+		 * Results to fill in, one per line
+		 */
+		private final ContentValues[] results;
+		/**
+		 * Index of the first line to parse
+		 */
+		private final int start;
+
+		/**
+		 * Creates a new ParseTask
+		 * 
+		 * @param recipeId
+		 *            ID of the recipe the ingredients belong to
+		 * @param lines
+		 *            Lines to parse
+		 * @param results
+		 *            Results to fill in, one per line
+		 * @param start
+		 *            Index of the first line to parse
+		 * @param end
+		 *            Index after the last line to parse
+		 */
+		ParseTask(final long recipeId, final List<String> lines, final ContentValues[] results, final int start,
+				final int end)
+		{
+			this.recipeId = recipeId;
+			this.lines = lines;
+			this.results = results;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Void call()
+		{
+			for (int index = start; index < end; index++)
+				results[index] = parse(lines.get(index)).toContentValues(recipeId);
+			return null;
+		}
+	}
+
+	/**
+	 * Minimum number of lines parsed by each thread, below which starting another thread costs more than it saves
+	 */
+	private static final int MIN_LINES_PER_THREAD = 250;
+
+	/**
+	 * Default ingredient preparation
+	 */
+	final String defaultPreparation;
+	/**
+	 * Default whole number quantity
+	 */
+	final int defaultQuantity;
+	/**
+	 * Default denominator of a fractional quantity
+	 */
+	final int defaultQuantityDenominator;
+	/**
+	 * Default numerator of a fractional quantity
+	 */
+	final int defaultQuantityNumerator;
+	/**
+	 * Default unit of quantity
+	 */
+	final String defaultUnit;
+	/**
+	 * Canonical unit of the default unit
+	 */
+	final int defaultUnitId;
+
+	/**
+	 * Creates a new IngredientParser, loading the default values from the given Resources
+	 * 
+	 * @param resources
+	 *            Resources for loading default values
+	 */
+	public IngredientParser(final Resources resources)
+	{
+		defaultQuantity = resources.getInteger(R.integer.default_ingredient_quantity);
+		defaultQuantityNumerator = resources.getInteger(R.integer.default_ingredient_quantity_numerator);
+		defaultQuantityDenominator = resources.getInteger(R.integer.default_ingredient_quantity_denominator);
+		defaultUnit = resources.getString(R.string.default_ingredient_unit);
+		defaultUnitId = UnitLexicon.getUnitId(defaultUnit);
+		defaultPreparation = resources.getString(R.string.default_ingredient_preparation);
+	}
+
+	/**
+	 * Parses every non-blank line read from the given Reader as an ingredient of the given recipe
+	 * 
+	 * @param recipeId
+	 *            ID of the recipe the ingredients belong to
+	 * @param reader
+	 *            Reader to read the lines from. The reader is not closed
+	 * @return ContentValues of each ingredient, in the order of their lines
+	 * @throws IOException
+	 *             If the lines could not be read, or the thread was interrupted while parsing
+	 */
+	public ContentValues[] parse(final long recipeId, final Reader reader) throws IOException
+	{
+		final BufferedReader lineReader = reader instanceof BufferedReader ? (BufferedReader) reader
+				: new BufferedReader(reader);
+		final ArrayList<String> lines = new ArrayList<String>();
+		String line;
+		while ((line = lineReader.readLine()) != null)
+			if (line.trim().length() > 0)
+				lines.add(line);
+		final ContentValues[] results = new ContentValues[lines.size()];
+		final int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), lines.size()
+				/ IngredientParser.MIN_LINES_PER_THREAD);
+		if (threadCount <= 1)
+		{
+			new ParseTask(recipeId, lines, results, 0, lines.size()).call();
+			return results;
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool(threadCount - 1);
+		final ArrayList<Future<Void>> tasks = new ArrayList<Future<Void>>(threadCount - 1);
+		try
+		{
+			final int linesPerThread = (lines.size() + threadCount - 1) / threadCount;
+			for (int start = linesPerThread; start < lines.size(); start += linesPerThread)
+				tasks.add(executor.submit(new ParseTask(recipeId, lines, results, start, Math.min(start
+						+ linesPerThread, lines.size()))));
+			// This thread parses the first range while the other threads parse the rest
+			new ParseTask(recipeId, lines, results, 0, linesPerThread).call();
+			for (final Future<Void> task : tasks)
+				task.get();
+		} catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while parsing ingredients");
+		} catch (final ExecutionException e)
+		{
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException("Error parsing ingredients", cause);
+		} finally
+		{
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	/**
+	 * Parses every non-blank line of the given text as an ingredient of the given recipe
+	 * 
+	 * @param recipeId
+	 *            ID of the recipe the ingredients belong to
+	 * @param text
+	 *            Text with one ingredient per line
+	 * @return ContentValues of each ingredient, in the order of their lines
+	 * @throws InterruptedIOException
+	 *             If the thread was interrupted while parsing
+	 */
+	public ContentValues[] parse(final long recipeId, final String text) throws InterruptedIOException
+	{
+		try
+		{
+			return parse(recipeId, new StringReader(text));
+		} catch (final InterruptedIOException e)
+		{
+			throw e;
+		} catch (final IOException e)
+		{
+			// A StringReader only fails once closed
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Parses a single ingredient
+	 * 
+	 * @param rawText
+	 *            Raw text to parse
+	 * @return The parsed ingredient
+	 */
+	public Ingredient parse(final String rawText)
+	{
+		final Ingredient ingredient = new Ingredient();
+		ingredient.setFromRaw(this, rawText);
+		return ingredient;
+	}
+}
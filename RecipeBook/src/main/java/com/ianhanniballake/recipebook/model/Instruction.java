@@ -1,6 +1,7 @@
 package com.ianhanniballake.recipebook.model;
 
 import android.content.ContentValues;
+import android.text.TextUtils;
 
 import com.ianhanniballake.recipebook.provider.RecipeContract;
 
@@ -29,6 +30,20 @@ public class Instruction
 		this.instruction = instruction;
 	}
 
+	@Override
+	public boolean equals(final Object o)
+	{
+		if (!(o instanceof Instruction))
+			return false;
+		return TextUtils.equals(instruction, ((Instruction) o).instruction);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return instruction == null ? 0 : instruction.hashCode();
+	}
+
 	/**
 	 * Setter for the instruction text
 	 * 
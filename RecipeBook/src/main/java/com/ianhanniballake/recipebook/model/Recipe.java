@@ -1,8 +1,10 @@
 package com.ianhanniballake.recipebook.model;
 
+import java.util.Collections;
 import java.util.List;
 
 import android.database.Cursor;
+import android.text.TextUtils;
 
 import com.ianhanniballake.recipebook.provider.RecipeContract;
 
@@ -43,6 +45,51 @@ public class Recipe
 		this.instructions = instructions;
 	}
 
+	/**
+	 * Creates a new Recipe from its fields
+	 * 
+	 * @param title
+	 *            title of this recipe
+	 * @param description
+	 *            description of this recipe
+	 * @param ingredients
+	 *            ingredients for this recipe
+	 * @param instructions
+	 *            instructions for this recipe
+	 */
+	public Recipe(final String title, final String description, final List<Ingredient> ingredients,
+			final List<Instruction> instructions)
+	{
+		this.title = title;
+		this.description = description;
+		this.ingredients = ingredients;
+		this.instructions = instructions;
+	}
+
+	/**
+	 * Two recipes are equal if they have the same title, description, ingredients, and instructions, regardless of
+	 * their Drive Id. A missing list of ingredients or instructions is equal to an empty one
+	 */
+	@Override
+	public boolean equals(final Object o)
+	{
+		if (!(o instanceof Recipe))
+			return false;
+		final Recipe other = (Recipe) o;
+		return TextUtils.equals(title, other.title) && TextUtils.equals(description, other.description)
+				&& getIngredients().equals(other.getIngredients()) && getInstructions().equals(other.getInstructions());
+	}
+
+	/**
+	 * Getter for the description
+	 * 
+	 * @return description of this recipe
+	 */
+	public String getDescription()
+	{
+		return description;
+	}
+
 	/**
 	 * Getter for the Drive Id
 	 * 
@@ -53,6 +100,30 @@ public class Recipe
 		return driveId;
 	}
 
+	/**
+	 * Getter for the ingredients
+	 * 
+	 * @return ingredients for this recipe, never null
+	 */
+	public List<Ingredient> getIngredients()
+	{
+		if (ingredients == null)
+			return Collections.emptyList();
+		return ingredients;
+	}
+
+	/**
+	 * Getter for the instructions
+	 * 
+	 * @return instructions for this recipe, never null
+	 */
+	public List<Instruction> getInstructions()
+	{
+		if (instructions == null)
+			return Collections.emptyList();
+		return instructions;
+	}
+
 	/**
 	 * Getter for the title
 	 * 
@@ -63,6 +134,15 @@ public class Recipe
 		return title;
 	}
 
+	@Override
+	public int hashCode()
+	{
+		int hash = title == null ? 0 : title.hashCode();
+		hash = 31 * hash + (description == null ? 0 : description.hashCode());
+		hash = 31 * hash + getIngredients().hashCode();
+		return 31 * hash + getInstructions().hashCode();
+	}
+
 	@Override
 	public String toString()
 	{
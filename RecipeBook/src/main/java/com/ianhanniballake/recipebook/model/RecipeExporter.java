@@ -0,0 +1,299 @@
+package com.ianhanniballake.recipebook.model;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.google.gson.stream.JsonWriter;
+import com.ianhanniballake.recipebook.provider.RecipeContract;
+
+/**
+ * Writes recipes as JSON straight from a {@link RecipeContract.Export} cursor without building intermediate model
+ * objects, so that memory use does not depend on the size of the library. The JSON matches the Gson serialization of
+ * {@link Recipe}, {@link Ingredient}, and {@link Instruction} and can be read back with {@link RecipeImporter}.
+ */
+public class RecipeExporter
+{
+	/**
+	 * JSON name of the recipe description
+	 */
+	static final String NAME_DESCRIPTION = "description";
+	/**
+	 * JSON name of the recipe's ingredients
+	 */
+	static final String NAME_INGREDIENTS = "ingredients";
+	/**
+	 * JSON name of the instruction text
+	 */
+	static final String NAME_INSTRUCTION = "instruction";
+	/**
+	 * JSON name of the recipe's instructions
+	 */
+	static final String NAME_INSTRUCTIONS = "instructions";
+	/**
+	 * JSON name of the ingredient item
+	 */
+	static final String NAME_ITEM = "item";
+	/**
+	 * JSON name of the ingredient preparation
+	 */
+	static final String NAME_PREPARATION = "preparation";
+	/**
+	 * JSON name of the ingredient whole number quantity
+	 */
+	static final String NAME_QUANTITY = "quantity";
+	/**
+	 * JSON name of the ingredient quantity's fractional denominator
+	 */
+	static final String NAME_QUANTITY_DENOMINATOR = "quantityDenominator";
+	/**
+	 * JSON name of the ingredient quantity's fractional numerator
+	 */
+	static final String NAME_QUANTITY_NUMERATOR = "quantityNumerator";
+	/**
+	 * JSON name of the recipe title
+	 */
+	static final String NAME_TITLE = "title";
+	/**
+	 * JSON name of the ingredient unit
+	 */
+	static final String NAME_UNIT = "unit";
+
+	/**
+	 * Exports the whole recipe library as a JSON array of recipes
+	 * 
+	 * @param resolver
+	 *            ContentResolver to read the recipes from
+	 * @param out
+	 *            Stream to write the JSON to. The stream is flushed but not closed
+	 * @return The number of recipes written
+	 * @throws IOException
+	 *             If the JSON could not be written
+	 */
+	public static int exportRecipes(final ContentResolver resolver, final OutputStream out) throws IOException
+	{
+		final Cursor cursor = resolver.query(RecipeContract.Export.CONTENT_URI, null, null, null, null);
+		if (cursor == null)
+			throw new IOException("Unable to query " + RecipeContract.Export.CONTENT_URI);
+		try
+		{
+			final JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+			final RecipeExporter exporter = new RecipeExporter(cursor);
+			int count = 0;
+			writer.beginArray();
+			while (exporter.writeNext(writer))
+				count++;
+			writer.endArray();
+			writer.flush();
+			return count;
+		} finally
+		{
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Export cursor, positioned on the last row written
+	 */
+	private final Cursor cursor;
+	/**
+	 * Index of the description column
+	 */
+	private final int descriptionIndex;
+	/**
+	 * Index of the instruction column
+	 */
+	private final int instructionIndex;
+	/**
+	 * Index of the item column
+	 */
+	private final int itemIndex;
+	/**
+	 * Index of the preparation column
+	 */
+	private final int preparationIndex;
+	/**
+	 * Index of the quantity denominator column
+	 */
+	private final int quantityDenominatorIndex;
+	/**
+	 * Index of the quantity column
+	 */
+	private final int quantityIndex;
+	/**
+	 * Index of the quantity numerator column
+	 */
+	private final int quantityNumeratorIndex;
+	/**
+	 * ID of the recipe last written, or -1 if no recipe has been written
+	 */
+	private long recipeId = -1;
+	/**
+	 * Index of the recipe ID column
+	 */
+	private final int recipeIdIndex;
+	/**
+	 * Index of the row type column
+	 */
+	private final int rowTypeIndex;
+	/**
+	 * Index of the title column
+	 */
+	private final int titleIndex;
+	/**
+	 * Index of the unit column
+	 */
+	private final int unitIndex;
+
+	/**
+	 * Creates a new RecipeExporter, resolving the column indexes of the cursor once for all rows
+	 * 
+	 * @param cursor
+	 *            Cursor returned by querying {@link RecipeContract.Export#CONTENT_URI} with all columns in the default
+	 *            sort order, positioned before the first recipe to write
+	 */
+	public RecipeExporter(final Cursor cursor)
+	{
+		this.cursor = cursor;
+		rowTypeIndex = cursor.getColumnIndexOrThrow(RecipeContract.Export.COLUMN_NAME_ROW_TYPE);
+		recipeIdIndex = cursor.getColumnIndexOrThrow(RecipeContract.Export.COLUMN_NAME_RECIPE_ID);
+		titleIndex = cursor.getColumnIndexOrThrow(RecipeContract.Recipes.COLUMN_NAME_TITLE);
+		descriptionIndex = cursor.getColumnIndexOrThrow(RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION);
+		quantityIndex = cursor.getColumnIndexOrThrow(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY);
+		quantityNumeratorIndex = cursor
+				.getColumnIndexOrThrow(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR);
+		quantityDenominatorIndex = cursor
+				.getColumnIndexOrThrow(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR);
+		unitIndex = cursor.getColumnIndexOrThrow(RecipeContract.Ingredients.COLUMN_NAME_UNIT);
+		itemIndex = cursor.getColumnIndexOrThrow(RecipeContract.Ingredients.COLUMN_NAME_ITEM);
+		preparationIndex = cursor.getColumnIndexOrThrow(RecipeContract.Ingredients.COLUMN_NAME_PREPARATION);
+		instructionIndex = cursor.getColumnIndexOrThrow(RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION);
+	}
+
+	/**
+	 * Gets the ID of the recipe last written by {@link #writeNext(JsonWriter)}
+	 * 
+	 * @return The ID of the recipe last written, or -1 if no recipe has been written
+	 */
+	public long getRecipeId()
+	{
+		return recipeId;
+	}
+
+	/**
+	 * Writes the ingredient in the current row as a JSON object
+	 * 
+	 * @param writer
+	 *            Writer to write to
+	 * @throws IOException
+	 *             If the JSON could not be written
+	 */
+	private void writeIngredient(final JsonWriter writer) throws IOException
+	{
+		writer.beginObject();
+		writeString(writer, RecipeExporter.NAME_ITEM, itemIndex);
+		writeString(writer, RecipeExporter.NAME_PREPARATION, preparationIndex);
+		writer.name(RecipeExporter.NAME_QUANTITY).value(cursor.getInt(quantityIndex));
+		writer.name(RecipeExporter.NAME_QUANTITY_DENOMINATOR).value(cursor.getInt(quantityDenominatorIndex));
+		writer.name(RecipeExporter.NAME_QUANTITY_NUMERATOR).value(cursor.getInt(quantityNumeratorIndex));
+		writeString(writer, RecipeExporter.NAME_UNIT, unitIndex);
+		writer.endObject();
+	}
+
+	/**
+	 * Writes the next recipe in the cursor, along with its ingredients and instructions, as a JSON object. Ingredients
+	 * and instructions whose recipe no longer exists are skipped.
+	 * 
+	 * @param writer
+	 *            Writer to write to
+	 * @return Whether a recipe was written, false if there are no more recipes
+	 * @throws IOException
+	 *             If the JSON could not be written
+	 */
+	public boolean writeNext(final JsonWriter writer) throws IOException
+	{
+		while (cursor.moveToNext())
+			if (cursor.getInt(rowTypeIndex) == RecipeContract.Export.ROW_TYPE_RECIPE)
+			{
+				writeRecipe(writer);
+				return true;
+			}
+		return false;
+	}
+
+	/**
+	 * Writes the recipe in the current row, followed by the ingredients and instructions in the rows after it, leaving
+	 * the cursor on the recipe's last row
+	 * 
+	 * @param writer
+	 *            Writer to write to
+	 * @throws IOException
+	 *             If the JSON could not be written
+	 */
+	private void writeRecipe(final JsonWriter writer) throws IOException
+	{
+		recipeId = cursor.getLong(recipeIdIndex);
+		// Fields are written in the same order as Gson, which puts the title last
+		final String title = cursor.getString(titleIndex);
+		writer.beginObject();
+		writeString(writer, RecipeExporter.NAME_DESCRIPTION, descriptionIndex);
+		writer.name(RecipeExporter.NAME_INGREDIENTS).beginArray();
+		boolean writingInstructions = false;
+		while (cursor.moveToNext())
+		{
+			final int rowType = cursor.getInt(rowTypeIndex);
+			if (rowType == RecipeContract.Export.ROW_TYPE_RECIPE || cursor.getLong(recipeIdIndex) != recipeId)
+			{
+				// Leave the next recipe's rows for the next call to writeNext
+				cursor.moveToPrevious();
+				break;
+			}
+			if (rowType == RecipeContract.Export.ROW_TYPE_INGREDIENT && !writingInstructions)
+				writeIngredient(writer);
+			else if (rowType == RecipeContract.Export.ROW_TYPE_INSTRUCTION)
+			{
+				if (!writingInstructions)
+				{
+					writer.endArray();
+					writer.name(RecipeExporter.NAME_INSTRUCTIONS).beginArray();
+					writingInstructions = true;
+				}
+				writer.beginObject();
+				writeString(writer, RecipeExporter.NAME_INSTRUCTION, instructionIndex);
+				writer.endObject();
+			}
+		}
+		if (!writingInstructions)
+		{
+			writer.endArray();
+			writer.name(RecipeExporter.NAME_INSTRUCTIONS).beginArray();
+		}
+		writer.endArray();
+		if (title != null)
+			writer.name(RecipeExporter.NAME_TITLE).value(title);
+		writer.endObject();
+	}
+
+	/**
+	 * Writes the given string column of the current row, omitting it if null as Gson does
+	 * 
+	 * @param writer
+	 *            Writer to write to
+	 * @param name
+	 *            JSON name of the value
+	 * @param columnIndex
+	 *            Index of the column to write
+	 * @throws IOException
+	 *             If the JSON could not be written
+	 */
+	private void writeString(final JsonWriter writer, final String name, final int columnIndex) throws IOException
+	{
+		final String value = cursor.getString(columnIndex);
+		if (value != null)
+			writer.name(name).value(value);
+	}
+}
@@ -0,0 +1,300 @@
+package com.ianhanniballake.recipebook.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.ianhanniballake.recipebook.provider.RecipeContract;
+
+/**
+ * Reads recipes written by {@link RecipeExporter} (or the Gson serialization of {@link Recipe}) one recipe at a time,
+ * converting each straight into the operations that insert it into the RecipeProvider without building intermediate
+ * model objects, so that memory use does not depend on the size of the library.
+ */
+public class RecipeImporter
+{
+	/**
+	 * Number of recipes inserted per batch by {@link #importRecipes(ContentResolver, InputStream)}
+	 */
+	private static final int IMPORT_BATCH_SIZE = 20;
+
+	/**
+	 * Imports every recipe from the given JSON, which may be either a single recipe or an array of recipes, inserting
+	 * them into the RecipeProvider in batches
+	 * 
+	 * @param resolver
+	 *            ContentResolver to insert the recipes with
+	 * @param in
+	 *            Stream to read the JSON from. The stream is not closed
+	 * @return The number of recipes imported
+	 * @throws IOException
+	 *             If the JSON could not be read
+	 * @throws RemoteException
+	 *             If the RecipeProvider could not be reached
+	 * @throws OperationApplicationException
+	 *             If a recipe could not be inserted
+	 */
+	public static int importRecipes(final ContentResolver resolver, final InputStream in) throws IOException,
+			RemoteException, OperationApplicationException
+	{
+		final RecipeImporter importer = new RecipeImporter(in);
+		final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		int count = 0;
+		while (importer.readNext(operations))
+		{
+			count++;
+			if (count % RecipeImporter.IMPORT_BATCH_SIZE == 0)
+			{
+				resolver.applyBatch(RecipeContract.AUTHORITY, operations);
+				operations.clear();
+			}
+		}
+		if (!operations.isEmpty())
+			resolver.applyBatch(RecipeContract.AUTHORITY, operations);
+		return count;
+	}
+
+	/**
+	 * Whether the JSON is an array of recipes rather than a single recipe
+	 */
+	private boolean array = false;
+	/**
+	 * Reader of the JSON
+	 */
+	private final JsonReader reader;
+	/**
+	 * Whether the first recipe has been read, at which point it is known whether the JSON is an array
+	 */
+	private boolean started = false;
+
+	/**
+	 * Creates a new RecipeImporter
+	 * 
+	 * @param in
+	 *            Stream to read the JSON from
+	 * @throws IOException
+	 *             If the stream does not support UTF-8
+	 */
+	public RecipeImporter(final InputStream in) throws IOException
+	{
+		reader = new JsonReader(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+	}
+
+	/**
+	 * Reads an ingredient object, adding the operation inserting it
+	 * 
+	 * @param operations
+	 *            Operations to add to
+	 * @param uri
+	 *            URI to insert the ingredient with
+	 * @param recipeIndex
+	 *            Index of the operation inserting the ingredient's recipe, used if recipeId is negative
+	 * @param recipeId
+	 *            ID of the ingredient's existing recipe, or a negative value if the recipe is being inserted
+	 * @throws IOException
+	 *             If the JSON could not be read
+	 */
+	private void readIngredient(final ArrayList<ContentProviderOperation> operations, final Uri uri,
+			final int recipeIndex, final long recipeId) throws IOException
+	{
+		final ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(uri);
+		if (recipeId < 0)
+			builder.withValueBackReference(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID, recipeIndex);
+		else
+			builder.withValue(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID, recipeId);
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			final String name = reader.nextName();
+			if (reader.peek() == JsonToken.NULL)
+				reader.skipValue();
+			else if (RecipeExporter.NAME_ITEM.equals(name))
+				builder.withValue(RecipeContract.Ingredients.COLUMN_NAME_ITEM, reader.nextString());
+			else if (RecipeExporter.NAME_PREPARATION.equals(name))
+				builder.withValue(RecipeContract.Ingredients.COLUMN_NAME_PREPARATION, reader.nextString());
+			else if (RecipeExporter.NAME_QUANTITY.equals(name))
+				builder.withValue(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY, reader.nextInt());
+			else if (RecipeExporter.NAME_QUANTITY_DENOMINATOR.equals(name))
+				builder.withValue(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR, reader.nextInt());
+			else if (RecipeExporter.NAME_QUANTITY_NUMERATOR.equals(name))
+				builder.withValue(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR, reader.nextInt());
+			else if (RecipeExporter.NAME_UNIT.equals(name))
+				builder.withValue(RecipeContract.Ingredients.COLUMN_NAME_UNIT, reader.nextString());
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		operations.add(builder.build());
+	}
+
+	/**
+	 * Reads an instruction object, adding the operation inserting it
+	 * 
+	 * @param operations
+	 *            Operations to add to
+	 * @param uri
+	 *            URI to insert the instruction with
+	 * @param recipeIndex
+	 *            Index of the operation inserting the instruction's recipe, used if recipeId is negative
+	 * @param recipeId
+	 *            ID of the instruction's existing recipe, or a negative value if the recipe is being inserted
+	 * @throws IOException
+	 *             If the JSON could not be read
+	 */
+	private void readInstruction(final ArrayList<ContentProviderOperation> operations, final Uri uri,
+			final int recipeIndex, final long recipeId) throws IOException
+	{
+		final ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(uri);
+		if (recipeId < 0)
+			builder.withValueBackReference(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID, recipeIndex);
+		else
+			builder.withValue(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID, recipeId);
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			final String name = reader.nextName();
+			if (reader.peek() != JsonToken.NULL && RecipeExporter.NAME_INSTRUCTION.equals(name))
+				builder.withValue(RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION, reader.nextString());
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		operations.add(builder.build());
+	}
+
+	/**
+	 * Reads the next recipe, adding the operations inserting the recipe followed by its ingredients and instructions.
+	 * Ingredients and instructions reference the recipe by the index of its insert operation, so operations for
+	 * several recipes can be applied in a single batch.
+	 * 
+	 * @param operations
+	 *            Operations to add to
+	 * @return Whether a recipe was read, false if there are no more recipes
+	 * @throws IOException
+	 *             If the JSON could not be read
+	 */
+	public boolean readNext(final ArrayList<ContentProviderOperation> operations) throws IOException
+	{
+		return readNext(operations, null, -1, null, null);
+	}
+
+	/**
+	 * Reads the next recipe, adding the operations that store it. If recipeId is negative, the recipe is inserted as in
+	 * {@link #readNext(ArrayList)}. Otherwise the existing recipe is updated and its ingredients and instructions are
+	 * replaced. Operations are only added once the whole recipe has been read, so a recipe that fails to parse adds
+	 * no operations. Recipes read with a Drive file ID are stored as the sync adapter, so they are not counted as local
+	 * changes needing to be uploaded.
+	 * 
+	 * @param operations
+	 *            Operations to add to
+	 * @param driveId
+	 *            Google Drive file ID to store with the recipe, or null to leave it unset
+	 * @param recipeId
+	 *            ID of the existing recipe to replace, or a negative value to insert a new recipe
+	 * @param syncBase
+	 *            JSON of the recipe as last synced with Drive to store as the base of later merges, or null to leave it
+	 *            unset
+	 * @param syncChecksum
+	 *            MD5 checksum of the Drive file syncBase was read from, stored along with syncBase. Null if not known
+	 * @return Whether a recipe was read, false if there are no more recipes
+	 * @throws IOException
+	 *             If the JSON could not be read
+	 */
+	public boolean readNext(final ArrayList<ContentProviderOperation> operations, final String driveId,
+			final long recipeId, final String syncBase, final String syncChecksum) throws IOException
+	{
+		if (!started)
+		{
+			started = true;
+			array = reader.peek() == JsonToken.BEGIN_ARRAY;
+			if (array)
+				reader.beginArray();
+		}
+		else if (!array)
+			return false;
+		if (array && !reader.hasNext())
+		{
+			reader.endArray();
+			// Any further calls return false
+			array = false;
+			return false;
+		}
+		final int recipeIndex = operations.size();
+		Uri recipeUri = RecipeContract.Recipes.CONTENT_URI;
+		Uri ingredientsUri = RecipeContract.Ingredients.CONTENT_URI;
+		Uri instructionsUri = RecipeContract.Instructions.CONTENT_URI;
+		if (recipeId >= 0)
+			recipeUri = ContentUris.withAppendedId(RecipeContract.Recipes.CONTENT_ID_URI_BASE, recipeId);
+		if (driveId != null)
+		{
+			recipeUri = RecipeContract.asSyncAdapter(recipeUri);
+			ingredientsUri = RecipeContract.asSyncAdapter(ingredientsUri);
+			instructionsUri = RecipeContract.asSyncAdapter(instructionsUri);
+		}
+		final ContentProviderOperation.Builder recipe;
+		if (recipeId < 0)
+			recipe = ContentProviderOperation.newInsert(recipeUri);
+		else
+			recipe = ContentProviderOperation.newUpdate(recipeUri);
+		if (driveId != null)
+			recipe.withValue(RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID, driveId);
+		if (syncBase != null)
+		{
+			recipe.withValue(RecipeContract.Recipes.COLUMN_NAME_SYNC_BASE, syncBase);
+			recipe.withValue(RecipeContract.Recipes.COLUMN_NAME_SYNC_CHECKSUM, syncChecksum);
+		}
+		// The recipe's insert must come before the inserts referencing it, so ingredients and instructions are
+		// collected separately while reading
+		final ArrayList<ContentProviderOperation> children = new ArrayList<ContentProviderOperation>();
+		if (recipeId >= 0)
+		{
+			final String[] selectionArgs = { Long.toString(recipeId) };
+			children.add(ContentProviderOperation.newDelete(ingredientsUri)
+					.withSelection(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + "=?", selectionArgs).build());
+			children.add(ContentProviderOperation.newDelete(instructionsUri)
+					.withSelection(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID + "=?", selectionArgs).build());
+		}
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			final String name = reader.nextName();
+			if (reader.peek() == JsonToken.NULL)
+				reader.skipValue();
+			else if (RecipeExporter.NAME_TITLE.equals(name))
+				recipe.withValue(RecipeContract.Recipes.COLUMN_NAME_TITLE, reader.nextString());
+			else if (RecipeExporter.NAME_DESCRIPTION.equals(name))
+				recipe.withValue(RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION, reader.nextString());
+			else if (RecipeExporter.NAME_INGREDIENTS.equals(name))
+			{
+				reader.beginArray();
+				while (reader.hasNext())
+					readIngredient(children, ingredientsUri, recipeIndex, recipeId);
+				reader.endArray();
+			}
+			else if (RecipeExporter.NAME_INSTRUCTIONS.equals(name))
+			{
+				reader.beginArray();
+				while (reader.hasNext())
+					readInstruction(children, instructionsUri, recipeIndex, recipeId);
+				reader.endArray();
+			}
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		operations.add(recipe.build());
+		operations.addAll(children);
+		return true;
+	}
+}
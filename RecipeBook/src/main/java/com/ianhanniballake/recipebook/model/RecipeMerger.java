@@ -0,0 +1,211 @@
+package com.ianhanniballake.recipebook.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.text.TextUtils;
+
+/**
+ * Three-way merge of two versions of a recipe changed independently since a common base version, such as local
+ * changes not yet uploaded and changes made on another device. The title is merged as a whole, the description line by
+ * line, and the ingredients and instructions item by item, so that changes to different lines are all kept. Where both
+ * versions changed the same title or lines differently the local version wins, as the merged recipe is uploaded over
+ * the remote version.
+ */
+public class RecipeMerger
+{
+	/**
+	 * Separator of the lines of a description
+	 */
+	private static final String LINE_SEPARATOR = "\n";
+
+	/**
+	 * Matches the items of base to those of other using their longest common subsequence
+	 * 
+	 * @param base
+	 *            Base list
+	 * @param other
+	 *            Changed list
+	 * @return For each item of base, the index of the matching item in other, or -1 if the item was removed or changed
+	 */
+	private static <T> int[] match(final List<T> base, final List<T> other)
+	{
+		final int baseSize = base.size();
+		final int otherSize = other.size();
+		// lengths[i][j] is the length of the longest common subsequence of base from i and other from j
+		final int[][] lengths = new int[baseSize + 1][otherSize + 1];
+		for (int i = baseSize - 1; i >= 0; i--)
+			for (int j = otherSize - 1; j >= 0; j--)
+				if (base.get(i).equals(other.get(j)))
+					lengths[i][j] = lengths[i + 1][j + 1] + 1;
+				else
+					lengths[i][j] = Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+		final int[] matches = new int[baseSize];
+		Arrays.fill(matches, -1);
+		int i = 0;
+		int j = 0;
+		while (i < baseSize && j < otherSize)
+			if (base.get(i).equals(other.get(j)))
+			{
+				matches[i] = j;
+				i++;
+				j++;
+			}
+			else if (lengths[i + 1][j] >= lengths[i][j + 1])
+				i++;
+			else
+				j++;
+		return matches;
+	}
+
+	/**
+	 * Number of conflicts resolved in favor of the local version
+	 */
+	private int conflictCount = 0;
+
+	/**
+	 * Gets the number of conflicts found by all merges so far, each resolved in favor of the local version
+	 * 
+	 * @return The number of conflicts
+	 */
+	public int getConflictCount()
+	{
+		return conflictCount;
+	}
+
+	/**
+	 * Merges the local and remote versions of a recipe
+	 * 
+	 * @param base
+	 *            Version both were changed from, or an empty recipe if there is no common version
+	 * @param local
+	 *            Local version
+	 * @param remote
+	 *            Remote version
+	 * @return The merged recipe
+	 */
+	public Recipe merge(final Recipe base, final Recipe local, final Recipe remote)
+	{
+		final String title = mergeValue(base.getTitle(), local.getTitle(), remote.getTitle());
+		final String description = mergeText(base.getDescription(), local.getDescription(), remote.getDescription());
+		final List<Ingredient> ingredients = mergeLines(base.getIngredients(), local.getIngredients(),
+				remote.getIngredients());
+		final List<Instruction> instructions = mergeLines(base.getInstructions(), local.getInstructions(),
+				remote.getInstructions());
+		return new Recipe(title, description, ingredients, instructions);
+	}
+
+	/**
+	 * Merges a run of lines between two lines unchanged in both versions
+	 * 
+	 * @param merged
+	 *            Merged lines to add to
+	 * @param base
+	 *            Base lines of the run
+	 * @param local
+	 *            Local lines of the run
+	 * @param remote
+	 *            Remote lines of the run
+	 */
+	private <T> void mergeChunk(final List<T> merged, final List<T> base, final List<T> local, final List<T> remote)
+	{
+		if (local.equals(remote) || remote.equals(base))
+			merged.addAll(local);
+		else if (local.equals(base))
+			merged.addAll(remote);
+		else if (base.isEmpty())
+		{
+			// Both versions added lines at the same place, so keep the lines of both
+			merged.addAll(local);
+			for (final T line : remote)
+				if (!local.contains(line))
+					merged.add(line);
+		}
+		else
+		{
+			conflictCount++;
+			merged.addAll(local);
+		}
+	}
+
+	/**
+	 * Merges lists of lines. Lines left unchanged by both versions anchor the merge: the runs of lines between them are
+	 * merged independently, so that changes in different runs are all kept
+	 * 
+	 * @param base
+	 *            Base lines
+	 * @param local
+	 *            Local lines
+	 * @param remote
+	 *            Remote lines
+	 * @return The merged lines
+	 */
+	private <T> List<T> mergeLines(final List<T> base, final List<T> local, final List<T> remote)
+	{
+		final int[] localMatches = RecipeMerger.match(base, local);
+		final int[] remoteMatches = RecipeMerger.match(base, remote);
+		final ArrayList<T> merged = new ArrayList<T>(Math.max(local.size(), remote.size()));
+		int baseStart = 0;
+		int localStart = 0;
+		int remoteStart = 0;
+		for (int index = 0; index <= base.size(); index++)
+		{
+			final boolean end = index == base.size();
+			if (!end && (localMatches[index] < 0 || remoteMatches[index] < 0))
+				continue;
+			final int localEnd = end ? local.size() : localMatches[index];
+			final int remoteEnd = end ? remote.size() : remoteMatches[index];
+			mergeChunk(merged, base.subList(baseStart, index), local.subList(localStart, localEnd),
+					remote.subList(remoteStart, remoteEnd));
+			if (!end)
+				merged.add(local.get(localEnd));
+			baseStart = index + 1;
+			localStart = localEnd + 1;
+			remoteStart = remoteEnd + 1;
+		}
+		return merged;
+	}
+
+	/**
+	 * Merges multi-line text line by line. Text missing from any version is merged as a whole
+	 * 
+	 * @param base
+	 *            Base text
+	 * @param local
+	 *            Local text
+	 * @param remote
+	 *            Remote text
+	 * @return The merged text
+	 */
+	private String mergeText(final String base, final String local, final String remote)
+	{
+		if (base == null || local == null || remote == null)
+			return mergeValue(base, local, remote);
+		final List<String> merged = mergeLines(Arrays.asList(base.split(RecipeMerger.LINE_SEPARATOR, -1)),
+				Arrays.asList(local.split(RecipeMerger.LINE_SEPARATOR, -1)),
+				Arrays.asList(remote.split(RecipeMerger.LINE_SEPARATOR, -1)));
+		return TextUtils.join(RecipeMerger.LINE_SEPARATOR, merged);
+	}
+
+	/**
+	 * Merges a single value as a whole
+	 * 
+	 * @param base
+	 *            Base value
+	 * @param local
+	 *            Local value
+	 * @param remote
+	 *            Remote value
+	 * @return The merged value
+	 */
+	private String mergeValue(final String base, final String local, final String remote)
+	{
+		if (TextUtils.equals(local, remote) || TextUtils.equals(base, remote))
+			return local;
+		if (TextUtils.equals(base, local))
+			return remote;
+		conflictCount++;
+		return local;
+	}
+}
@@ -0,0 +1,270 @@
+package com.ianhanniballake.recipebook.provider;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+/**
+ * Scales the quantities of ingredients by an exact factor in a single pass over the ingredient rows, without creating
+ * any model objects. Scaled volumes are moved between teaspoons, tablespoons, and cups so that they read as they would
+ * be measured, such as 48 teaspoons as 1 cup or 1/16 cup as 1 tablespoon, written in the same style (i.e., abbreviated
+ * or not) as the original unit. All other units keep their unit and only have their quantity scaled, as do all units
+ * when the factor is 1.
+ */
+class IngredientScaler
+{
+	/**
+	 * Output column copied from the ingredient rows as is
+	 */
+	private static final int KIND_COPY = 0;
+	/**
+	 * Output column of the whole number part of the scaled quantity
+	 */
+	private static final int KIND_QUANTITY = 1;
+	/**
+	 * Output column of the denominator of the fractional part of the scaled quantity
+	 */
+	private static final int KIND_QUANTITY_DENOMINATOR = 2;
+	/**
+	 * Output column of the numerator of the fractional part of the scaled quantity
+	 */
+	private static final int KIND_QUANTITY_NUMERATOR = 3;
+	/**
+	 * Output column of the scaled quantity as a single number
+	 */
+	private static final int KIND_QUANTITY_VALUE = 4;
+	/**
+	 * Output column of the unit, which changes if the scaled volume is moved to another unit
+	 */
+	private static final int KIND_UNIT = 5;
+	/**
+	 * Output column of the canonical unit, which changes if the scaled volume is moved to another unit
+	 */
+	private static final int KIND_UNIT_ID = 6;
+	/**
+	 * Abbreviation of each of {@link #VOLUME_UNIT_IDS}, used when the original unit was abbreviated
+	 */
+	private static final String[] VOLUME_ABBREVIATIONS = { "c", "tbsp", "tsp" };
+	/**
+	 * Largest denominator of a scaled volume in each of {@link #VOLUME_UNIT_IDS} for it to be measured in that unit,
+	 * matching common measuring cups and spoons
+	 */
+	private static final int[] VOLUME_MAX_DENOMINATORS = { 4, 2, Integer.MAX_VALUE };
+	/**
+	 * Smallest scaled volume in each of {@link #VOLUME_UNIT_IDS} for it to be measured in that unit
+	 */
+	private static final long[] VOLUME_MIN_QUANTITIES = { Rational.reduce(1, 4), Rational.ONE, Rational.ZERO };
+	/**
+	 * Size of each of {@link #VOLUME_UNIT_IDS} in teaspoons
+	 */
+	private static final int[] VOLUME_TEASPOONS = { 48, 3, 1 };
+	/**
+	 * Volume units scaled quantities are moved between, largest first
+	 */
+	private static final int[] VOLUME_UNIT_IDS = { RecipeContract.Units.CUP, RecipeContract.Units.TABLESPOON,
+			RecipeContract.Units.TEASPOON };
+
+	/**
+	 * Gets the kind of the given output column
+	 * 
+	 * @param column
+	 *            Output column name
+	 * @return One of the KIND_ constants
+	 */
+	private static int getKind(final String column)
+	{
+		if (RecipeContract.Ingredients.COLUMN_NAME_QUANTITY.equals(column))
+			return IngredientScaler.KIND_QUANTITY;
+		if (RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR.equals(column))
+			return IngredientScaler.KIND_QUANTITY_DENOMINATOR;
+		if (RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR.equals(column))
+			return IngredientScaler.KIND_QUANTITY_NUMERATOR;
+		if (RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_VALUE.equals(column))
+			return IngredientScaler.KIND_QUANTITY_VALUE;
+		if (RecipeContract.Ingredients.COLUMN_NAME_UNIT.equals(column))
+			return IngredientScaler.KIND_UNIT;
+		if (RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID.equals(column))
+			return IngredientScaler.KIND_UNIT_ID;
+		return IngredientScaler.KIND_COPY;
+	}
+
+	/**
+	 * Gets the value of the given column of the current row, keeping its type
+	 * 
+	 * @param cursor
+	 *            Cursor positioned on the row
+	 * @param columnIndex
+	 *            Index of the column
+	 * @return The value of the column
+	 */
+	private static Object getValue(final Cursor cursor, final int columnIndex)
+	{
+		switch (cursor.getType(columnIndex))
+		{
+			case Cursor.FIELD_TYPE_NULL:
+				return null;
+			case Cursor.FIELD_TYPE_INTEGER:
+				return cursor.getLong(columnIndex);
+			case Cursor.FIELD_TYPE_FLOAT:
+				return cursor.getDouble(columnIndex);
+			case Cursor.FIELD_TYPE_BLOB:
+				return cursor.getBlob(columnIndex);
+			default:
+				return cursor.getString(columnIndex);
+		}
+	}
+
+	/**
+	 * Gets the position of the given unit in {@link #VOLUME_UNIT_IDS}
+	 * 
+	 * @param unitId
+	 *            One of the {@link RecipeContract.Units} constants
+	 * @return The position of the unit, or -1 if it is not a volume unit scaled quantities are moved between
+	 */
+	private static int getVolumeIndex(final int unitId)
+	{
+		for (int index = 0; index < IngredientScaler.VOLUME_UNIT_IDS.length; index++)
+			if (IngredientScaler.VOLUME_UNIT_IDS[index] == unitId)
+				return index;
+		return -1;
+	}
+
+	/**
+	 * Gets how to write the volume unit a scaled volume is moved to, in the same style as the unit it was written in
+	 * 
+	 * @param index
+	 *            Position of the unit moved to in {@link #VOLUME_UNIT_IDS}
+	 * @param volume
+	 *            Packed scaled volume in the unit moved to
+	 * @param sourceIndex
+	 *            Position of the unit moved from in {@link #VOLUME_UNIT_IDS}
+	 * @param sourceUnit
+	 *            Unit moved from as written in the ingredient, possibly null
+	 * @return The unit moved to, abbreviated (keeping any trailing period) if the unit moved from was abbreviated, or
+	 *         its full name, made plural for volumes over 1, if not
+	 */
+	private static String getVolumeUnit(final int index, final long volume, final int sourceIndex,
+			final String sourceUnit)
+	{
+		final String sourceName = UnitLexicon.getName(IngredientScaler.VOLUME_UNIT_IDS[sourceIndex]);
+		if (sourceUnit == null || sourceUnit.regionMatches(true, 0, sourceName, 0, sourceName.length()))
+		{
+			final String name = UnitLexicon.getName(IngredientScaler.VOLUME_UNIT_IDS[index]);
+			return Rational.compare(volume, Rational.ONE) > 0 ? name + "s" : name;
+		}
+		if (sourceUnit.endsWith("."))
+			return IngredientScaler.VOLUME_ABBREVIATIONS[index] + ".";
+		return IngredientScaler.VOLUME_ABBREVIATIONS[index];
+	}
+
+	/**
+	 * Factor to scale quantities by, packed as a {@link Rational}
+	 */
+	private final long scale;
+
+	/**
+	 * Creates a new IngredientScaler
+	 * 
+	 * @param scale
+	 *            Factor to scale quantities by, packed as a {@link Rational}. Must be positive
+	 */
+	IngredientScaler(final long scale)
+	{
+		this.scale = scale;
+	}
+
+	/**
+	 * Scales every ingredient row of the given cursor
+	 * 
+	 * @param ingredients
+	 *            Ingredient rows, with every ingredient column. The cursor is not closed
+	 * @param columns
+	 *            Columns of the returned cursor, each an ingredient column
+	 * @return Cursor of the scaled ingredients, in the order of the given rows
+	 * @throws IllegalArgumentException
+	 *             If a column is not an ingredient column
+	 * @throws ArithmeticException
+	 *             If a scaled quantity is too large to represent exactly
+	 */
+	Cursor scale(final Cursor ingredients, final String[] columns)
+	{
+		final int[] kinds = new int[columns.length];
+		final int[] columnIndexes = new int[columns.length];
+		for (int column = 0; column < columns.length; column++)
+		{
+			kinds[column] = IngredientScaler.getKind(columns[column]);
+			columnIndexes[column] = ingredients.getColumnIndex(columns[column]);
+			if (columnIndexes[column] == -1)
+				throw new IllegalArgumentException("Invalid column " + columns[column]);
+		}
+		final int quantityIndex = ingredients.getColumnIndexOrThrow(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY);
+		final int quantityNumeratorIndex = ingredients
+				.getColumnIndexOrThrow(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR);
+		final int quantityDenominatorIndex = ingredients
+				.getColumnIndexOrThrow(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR);
+		final int unitIndex = ingredients.getColumnIndexOrThrow(RecipeContract.Ingredients.COLUMN_NAME_UNIT);
+		final int unitIdIndex = ingredients.getColumnIndexOrThrow(RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID);
+		final MatrixCursor scaled = new MatrixCursor(columns, ingredients.getCount());
+		// MatrixCursor copies each row, so a single row array serves every row
+		final Object[] row = new Object[columns.length];
+		ingredients.moveToPosition(-1);
+		while (ingredients.moveToNext())
+		{
+			long quantity = Rational.multiply(
+					Rational.fromMixed(ingredients.getInt(quantityIndex), ingredients.getInt(quantityNumeratorIndex),
+							ingredients.getInt(quantityDenominatorIndex)), scale);
+			String unit = ingredients.getString(unitIndex);
+			int unitId = ingredients.getInt(unitIdIndex);
+			final int volumeIndex = IngredientScaler.getVolumeIndex(unitId);
+			// Packed quantities are always reduced, so an unscaled row is one with a scale of exactly ONE
+			if (scale != Rational.ONE && volumeIndex != -1 && Rational.compare(quantity, Rational.ZERO) > 0)
+			{
+				final long teaspoons = Rational.multiply(quantity,
+						Rational.valueOf(IngredientScaler.VOLUME_TEASPOONS[volumeIndex]));
+				// Use the largest unit in which the volume is at least the unit's minimum and a measurable fraction
+				for (int index = 0; index < IngredientScaler.VOLUME_UNIT_IDS.length; index++)
+				{
+					final long volume = Rational.multiply(teaspoons,
+							Rational.reduce(1, IngredientScaler.VOLUME_TEASPOONS[index]));
+					if (Rational.compare(volume, IngredientScaler.VOLUME_MIN_QUANTITIES[index]) < 0
+							|| Rational.denominator(volume) > IngredientScaler.VOLUME_MAX_DENOMINATORS[index])
+						continue;
+					quantity = volume;
+					if (index != volumeIndex)
+					{
+						unitId = IngredientScaler.VOLUME_UNIT_IDS[index];
+						unit = IngredientScaler.getVolumeUnit(index, volume, volumeIndex, unit);
+					}
+					break;
+				}
+			}
+			final int whole = Rational.wholePart(quantity);
+			for (int column = 0; column < columns.length; column++)
+				switch (kinds[column])
+				{
+					case KIND_QUANTITY:
+						row[column] = whole;
+						break;
+					case KIND_QUANTITY_DENOMINATOR:
+						row[column] = Rational.denominator(quantity);
+						break;
+					case KIND_QUANTITY_NUMERATOR:
+						row[column] = Rational.numerator(quantity) - whole * Rational.denominator(quantity);
+						break;
+					case KIND_QUANTITY_VALUE:
+						row[column] = Rational.toDouble(quantity);
+						break;
+					case KIND_UNIT:
+						row[column] = unit;
+						break;
+					case KIND_UNIT_ID:
+						row[column] = unitId;
+						break;
+					default:
+						row[column] = IngredientScaler.getValue(ingredients, columnIndexes[column]);
+						break;
+				}
+			scaled.addRow(row);
+		}
+		return scaled;
+	}
+}
@@ -0,0 +1,230 @@
+package com.ianhanniballake.recipebook.provider;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.text.TextUtils;
+
+/**
+ * Defers change notifications raised while a batch of operations is in progress on the current thread, sending a
+ * single notification per affected URI once the outermost batch completes successfully. Outside of a batch,
+ * notifications are sent immediately.
+ */
+class NotificationCoalescer
+{
+	/**
+	 * State of the batch in progress on a thread
+	 */
+	private static class Batch
+	{
+		/**
+		 * Number of nested batches in progress
+		 */
+		int depth = 0;
+		/**
+		 * Whether any nested batch failed, meaning the whole batch is rolled back
+		 */
+		boolean failed = false;
+		/**
+		 * URIs changed by the sync adapter, which do not need to be synced to the network, in the order they were first
+		 * changed
+		 */
+		final LinkedHashSet<Uri> syncAdapterUris = new LinkedHashSet<Uri>();
+		/**
+		 * URIs changed locally, which need to be synced to the network, in the order they were first changed
+		 */
+		final LinkedHashSet<Uri> uris = new LinkedHashSet<Uri>();
+	}
+
+	/**
+	 * Reduces the given URIs to the fewest URIs that still notify every observer of the changed URIs. URIs with an
+	 * ancestor in the set are dropped, as notifying a URI also notifies observers of its descendants. Multiple row URIs
+	 * (i.e., ending in a numeric ID) of the same table are replaced by the table URI. URIs are compared by their path
+	 * alone, as observers are, so "ingredients/" is the same table URI as "ingredients".
+	 * 
+	 * @param uris
+	 *            Changed URIs
+	 * @return URIs to notify
+	 */
+	private static List<Uri> coalesce(final LinkedHashSet<Uri> uris)
+	{
+		// Group row URIs by their table URI, leaving all other URIs as is
+		final LinkedHashMap<Uri, List<Uri>> groups = new LinkedHashMap<Uri, List<Uri>>();
+		for (final Uri uri : uris)
+		{
+			final int segmentCount = uri.getPathSegments().size();
+			final String lastSegment = uri.getLastPathSegment();
+			final boolean isRow = lastSegment != null && TextUtils.isDigitsOnly(lastSegment);
+			final Uri key = NotificationCoalescer.getAncestor(uri, isRow ? segmentCount - 1 : segmentCount);
+			List<Uri> group = groups.get(key);
+			if (group == null)
+			{
+				group = new ArrayList<Uri>();
+				groups.put(key, group);
+			}
+			group.add(isRow ? NotificationCoalescer.getAncestor(uri, segmentCount) : key);
+		}
+		final ArrayList<Uri> collapsed = new ArrayList<Uri>(groups.size());
+		for (final Map.Entry<Uri, List<Uri>> group : groups.entrySet())
+			if (group.getValue().size() > 1)
+				collapsed.add(group.getKey());
+			else
+				collapsed.add(group.getValue().get(0));
+		final ArrayList<Uri> result = new ArrayList<Uri>(collapsed.size());
+		for (final Uri uri : collapsed)
+		{
+			boolean hasAncestor = false;
+			for (final Uri other : collapsed)
+				if (other != uri && NotificationCoalescer.isAncestor(other, uri))
+				{
+					hasAncestor = true;
+					break;
+				}
+			if (!hasAncestor && !result.contains(uri))
+				result.add(uri);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the URI made of the given number of leading path segments of the given URI, without any query
+	 * 
+	 * @param uri
+	 *            URI to take the path segments from
+	 * @param segmentCount
+	 *            Number of leading path segments to keep, at most the number of path segments of the URI
+	 * @return The ancestor URI, or the URI's path alone if all segments are kept
+	 */
+	private static Uri getAncestor(final Uri uri, final int segmentCount)
+	{
+		final List<String> segments = uri.getPathSegments();
+		final Uri.Builder builder = new Uri.Builder().scheme(uri.getScheme()).authority(uri.getAuthority());
+		for (int index = 0; index < segmentCount; index++)
+			builder.appendPath(segments.get(index));
+		return builder.build();
+	}
+
+	/**
+	 * Returns whether notifying any of the given URIs also notifies observers of the given URI
+	 * 
+	 * @param notified
+	 *            URIs already notified
+	 * @param uri
+	 *            URI to check
+	 * @return Whether the URI is equal to or a descendant of any of the notified URIs
+	 */
+	private static boolean isCovered(final List<Uri> notified, final Uri uri)
+	{
+		for (final Uri other : notified)
+			if (other.equals(uri) || NotificationCoalescer.isAncestor(other, uri))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns whether the first URI is a proper ancestor of the second URI
+	 * 
+	 * @param ancestor
+	 *            Potential ancestor URI
+	 * @param uri
+	 *            Potential descendant URI
+	 * @return Whether notifying the ancestor URI also notifies observers of the descendant URI
+	 */
+	private static boolean isAncestor(final Uri ancestor, final Uri uri)
+	{
+		if (!TextUtils.equals(ancestor.getScheme(), uri.getScheme())
+				|| !TextUtils.equals(ancestor.getAuthority(), uri.getAuthority()))
+			return false;
+		final List<String> ancestorSegments = ancestor.getPathSegments();
+		final List<String> segments = uri.getPathSegments();
+		return ancestorSegments.size() < segments.size()
+				&& ancestorSegments.equals(segments.subList(0, ancestorSegments.size()));
+	}
+
+	/**
+	 * Batch in progress on each thread, if any
+	 */
+	private final ThreadLocal<Batch> batches = new ThreadLocal<Batch>();
+	/**
+	 * ContentResolver used to send notifications
+	 */
+	private final ContentResolver resolver;
+
+	/**
+	 * Creates a new NotificationCoalescer
+	 * 
+	 * @param resolver
+	 *            ContentResolver used to send notifications
+	 */
+	NotificationCoalescer(final ContentResolver resolver)
+	{
+		this.resolver = resolver;
+	}
+
+	/**
+	 * Starts a batch on the current thread. Batches may be nested: notifications are only sent once the outermost
+	 * batch ends. Every call must be paired with a call to {@link #endBatch(boolean)}, usually in a finally block.
+	 */
+	void beginBatch()
+	{
+		Batch batch = batches.get();
+		if (batch == null)
+		{
+			batch = new Batch();
+			batches.set(batch);
+		}
+		batch.depth++;
+	}
+
+	/**
+	 * Ends the current thread's batch. When the outermost batch ends, a notification is sent for each affected URI
+	 * unless any nested batch failed, in which case the changes were rolled back and no notifications are sent. URIs
+	 * changed only by the sync adapter are notified without requesting a sync, as those changes are already synced.
+	 * 
+	 * @param successful
+	 *            Whether the batch's changes were committed
+	 */
+	void endBatch(final boolean successful)
+	{
+		final Batch batch = batches.get();
+		if (batch == null)
+			throw new IllegalStateException("endBatch called without a matching beginBatch");
+		batch.failed |= !successful;
+		if (--batch.depth > 0)
+			return;
+		batches.remove();
+		if (batch.failed)
+			return;
+		final List<Uri> uris = NotificationCoalescer.coalesce(batch.uris);
+		for (final Uri uri : uris)
+			resolver.notifyChange(uri, null, true);
+		for (final Uri uri : NotificationCoalescer.coalesce(batch.syncAdapterUris))
+			if (!NotificationCoalescer.isCovered(uris, uri))
+				resolver.notifyChange(uri, null, false);
+	}
+
+	/**
+	 * Notifies observers that the given URI changed, deferring the notification until the end of the current thread's
+	 * batch if one is in progress
+	 * 
+	 * @param uri
+	 *            Changed URI
+	 * @param syncToNetwork
+	 *            Whether the change should be synced to the network, i.e., false for changes made by the sync adapter
+	 */
+	void notifyChange(final Uri uri, final boolean syncToNetwork)
+	{
+		final Batch batch = batches.get();
+		if (batch == null)
+			resolver.notifyChange(uri, null, syncToNetwork);
+		else if (syncToNetwork)
+			batch.uris.add(uri);
+		else
+			batch.syncAdapterUris.add(uri);
+	}
+}
@@ -0,0 +1,267 @@
+package com.ianhanniballake.recipebook.provider;
+
+/**
+ * Exact arithmetic on rational quantities packed into a single long: the numerator in the high 32 bits and the
+ * denominator in the low 32 bits. Packed values are always reduced with a positive denominator, so equal quantities
+ * have equal packed values (i.e., "1 1/2" and "3/2" are the same), and no objects are created by any operation.
+ */
+public final class Rational
+{
+	/**
+	 * One, packed
+	 */
+	public static final long ONE = (1L << 32) | 1L;
+	/**
+	 * Zero, packed
+	 */
+	public static final long ZERO = 1L;
+
+	/**
+	 * Adds two quantities
+	 * 
+	 * @param a
+	 *            Packed quantity
+	 * @param b
+	 *            Packed quantity
+	 * @return The packed sum
+	 * @throws ArithmeticException
+	 *             If the reduced sum does not fit in a packed quantity
+	 */
+	public static long add(final long a, final long b)
+	{
+		return Rational.reduce((long) Rational.numerator(a) * Rational.denominator(b) + (long) Rational.numerator(b)
+				* Rational.denominator(a), (long) Rational.denominator(a) * Rational.denominator(b));
+	}
+
+	/**
+	 * Compares two quantities
+	 * 
+	 * @param a
+	 *            Packed quantity
+	 * @param b
+	 *            Packed quantity
+	 * @return A negative number, zero, or a positive number as a is less than, equal to, or greater than b
+	 */
+	public static int compare(final long a, final long b)
+	{
+		final long left = (long) Rational.numerator(a) * Rational.denominator(b);
+		final long right = (long) Rational.numerator(b) * Rational.denominator(a);
+		return left < right ? -1 : left == right ? 0 : 1;
+	}
+
+	/**
+	 * Gets the denominator of a quantity
+	 * 
+	 * @param rational
+	 *            Packed quantity
+	 * @return The denominator, always positive
+	 */
+	public static int denominator(final long rational)
+	{
+		return (int) rational;
+	}
+
+	/**
+	 * Packs a mixed number, as stored in the ingredients table
+	 * 
+	 * @param whole
+	 *            Whole number part
+	 * @param numerator
+	 *            Numerator of the fractional part
+	 * @param denominator
+	 *            Denominator of the fractional part. If not positive, the fractional part is ignored
+	 * @return The packed quantity
+	 * @throws ArithmeticException
+	 *             If the reduced quantity does not fit in a packed quantity
+	 */
+	public static long fromMixed(final int whole, final int numerator, final int denominator)
+	{
+		if (denominator <= 0)
+			return Rational.valueOf(whole);
+		return Rational.reduce((long) whole * denominator + numerator, denominator);
+	}
+
+	/**
+	 * Gets the greatest common divisor of two non-negative numbers
+	 * 
+	 * @param a
+	 *            Non-negative number
+	 * @param b
+	 *            Non-negative number
+	 * @return The greatest common divisor, or 0 if both are 0
+	 */
+	private static long gcd(final long a, final long b)
+	{
+		long x = a;
+		long y = b;
+		while (y != 0)
+		{
+			final long remainder = x % y;
+			x = y;
+			y = remainder;
+		}
+		return x;
+	}
+
+	/**
+	 * Multiplies two quantities
+	 * 
+	 * @param a
+	 *            Packed quantity
+	 * @param b
+	 *            Packed quantity
+	 * @return The packed product
+	 * @throws ArithmeticException
+	 *             If the reduced product does not fit in a packed quantity
+	 */
+	public static long multiply(final long a, final long b)
+	{
+		return Rational.reduce((long) Rational.numerator(a) * Rational.numerator(b), (long) Rational.denominator(a)
+				* Rational.denominator(b));
+	}
+
+	/**
+	 * Gets the numerator of a quantity
+	 * 
+	 * @param rational
+	 *            Packed quantity
+	 * @return The numerator, negative for negative quantities
+	 */
+	public static int numerator(final long rational)
+	{
+		return (int) (rational >> 32);
+	}
+
+	/**
+	 * Parses a quantity written as a whole number ("2"), a fraction ("5/2"), a mixed number ("2 1/2"), or a decimal
+	 * ("2.5")
+	 * 
+	 * @param text
+	 *            Text to parse
+	 * @return The packed quantity
+	 * @throws NumberFormatException
+	 *             If the text is not a quantity or the quantity does not fit in a packed quantity
+	 */
+	public static long parse(final String text)
+	{
+		final String trimmed = text.trim();
+		try
+		{
+			final int spaceIndex = trimmed.indexOf(' ');
+			if (spaceIndex != -1)
+				return Rational.add(Rational.valueOf(Integer.parseInt(trimmed.substring(0, spaceIndex))),
+						Rational.parse(trimmed.substring(spaceIndex + 1)));
+			final int slashIndex = trimmed.indexOf('/');
+			if (slashIndex != -1)
+				return Rational.reduce(Integer.parseInt(trimmed.substring(0, slashIndex)),
+						Integer.parseInt(trimmed.substring(slashIndex + 1)));
+			final int pointIndex = trimmed.indexOf('.');
+			if (pointIndex == -1)
+				return Rational.valueOf(Integer.parseInt(trimmed));
+			final String decimals = trimmed.substring(pointIndex + 1);
+			// Beyond 9 decimal places the denominator no longer fits
+			if (decimals.length() > 9)
+				throw new NumberFormatException("Too many decimal places in " + text);
+			long denominator = 1;
+			for (int index = 0; index < decimals.length(); index++)
+				denominator *= 10;
+			return Rational.reduce(Long.parseLong(trimmed.substring(0, pointIndex) + decimals), denominator);
+		} catch (final ArithmeticException e)
+		{
+			throw new NumberFormatException("Invalid quantity " + text + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reduces a fraction to lowest terms with a positive denominator and packs it
+	 * 
+	 * @param numerator
+	 *            Numerator
+	 * @param denominator
+	 *            Denominator, not zero
+	 * @return The packed quantity
+	 * @throws ArithmeticException
+	 *             If the denominator is zero or the reduced fraction does not fit in a packed quantity
+	 */
+	public static long reduce(final long numerator, final long denominator)
+	{
+		if (denominator == 0)
+			throw new ArithmeticException("Zero denominator");
+		final long gcd = Rational.gcd(Math.abs(numerator), Math.abs(denominator));
+		long reducedNumerator = numerator / gcd;
+		long reducedDenominator = denominator / gcd;
+		if (reducedDenominator < 0)
+		{
+			reducedNumerator = -reducedNumerator;
+			reducedDenominator = -reducedDenominator;
+		}
+		if (reducedNumerator < Integer.MIN_VALUE || reducedNumerator > Integer.MAX_VALUE
+				|| reducedDenominator > Integer.MAX_VALUE)
+			throw new ArithmeticException("Overflow reducing " + numerator + "/" + denominator);
+		return reducedNumerator << 32 | reducedDenominator;
+	}
+
+	/**
+	 * Converts a quantity to the nearest double
+	 * 
+	 * @param rational
+	 *            Packed quantity
+	 * @return The quantity as a double
+	 */
+	public static double toDouble(final long rational)
+	{
+		return (double) Rational.numerator(rational) / Rational.denominator(rational);
+	}
+
+	/**
+	 * Formats a quantity as a mixed number, such as "1 1/2", "1/2", or "2"
+	 * 
+	 * @param rational
+	 *            Packed quantity
+	 * @return The formatted quantity
+	 */
+	public static String toString(final long rational)
+	{
+		final int whole = Rational.wholePart(rational);
+		final int remainder = Math.abs(Rational.numerator(rational) - whole * Rational.denominator(rational));
+		if (remainder == 0)
+			return Integer.toString(whole);
+		final StringBuilder sb = new StringBuilder();
+		if (whole != 0)
+			sb.append(whole).append(' ');
+		else if (Rational.numerator(rational) < 0)
+			sb.append('-');
+		return sb.append(remainder).append('/').append(Rational.denominator(rational)).toString();
+	}
+
+	/**
+	 * Packs a whole number
+	 * 
+	 * @param whole
+	 *            Whole number
+	 * @return The packed quantity
+	 */
+	public static long valueOf(final int whole)
+	{
+		return (long) whole << 32 | 1L;
+	}
+
+	/**
+	 * Gets the whole number part of a quantity, rounding toward zero
+	 * 
+	 * @param rational
+	 *            Packed quantity
+	 * @return The whole number part
+	 */
+	public static int wholePart(final long rational)
+	{
+		return Rational.numerator(rational) / Rational.denominator(rational);
+	}
+
+	/**
+	 * This class cannot be instantiated
+	 */
+	private Rational()
+	{
+	}
+}
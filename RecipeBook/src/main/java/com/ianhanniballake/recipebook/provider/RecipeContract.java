@@ -12,6 +12,106 @@ import android.provider.BaseColumns;
  */
 public final class RecipeContract
 {
+	/**
+	 * Deleted recipes contract, listing the Drive file of each recipe deleted locally whose deletion has not yet been
+	 * synced to Drive. Recipes are added automatically as they are deleted (other than through a URI from
+	 * {@link RecipeContract#asSyncAdapter(Uri)}) and should be deleted from here once their Drive file is deleted
+	 */
+	public static final class DeletedRecipes implements BaseColumns
+	{
+		/**
+		 * Column name of the deleted recipe's id on Drive
+		 * <P>
+		 * Type: TEXT
+		 * </P>
+		 */
+		public static final String COLUMN_NAME_DRIVE_ID = "drive_id";
+		/**
+		 * Path part for the Deleted Recipes URI
+		 */
+		private static final String PATH_DELETED_RECIPES = "/deleted_recipes";
+		/**
+		 * The MIME type of {@link #CONTENT_URI} providing a directory of deleted recipes.
+		 */
+		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.ianhanniballake.deleted_recipes";
+		/**
+		 * The content:// style URL for this table
+		 */
+		public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + PATH_DELETED_RECIPES);
+		/**
+		 * The table name offered by this provider
+		 */
+		public static final String TABLE_NAME = "deleted_recipes";
+
+		/**
+		 * This class cannot be instantiated
+		 */
+		private DeletedRecipes()
+		{
+		}
+	}
+
+	/**
+	 * Export contract, returning every recipe followed by its ingredients and instructions in a single cursor. Each row
+	 * is either a recipe, an ingredient, or an instruction as given by its {@link #COLUMN_NAME_ROW_TYPE}. Rows contain
+	 * the columns of their own type, named as in {@link Recipes}, {@link Ingredients}, and {@link Instructions}, with
+	 * the columns of the other types null. {@link BaseColumns#_ID} is the ID of the row within its own table.
+	 */
+	public static final class Export implements BaseColumns
+	{
+		/**
+		 * Column name of the recipe each row belongs to. For recipe rows, this is the recipe's own ID
+		 * <P>
+		 * Type: INTEGER
+		 * </P>
+		 */
+		public static final String COLUMN_NAME_RECIPE_ID = "recipe_id";
+		/**
+		 * Column name of the type of each row, one of {@link #ROW_TYPE_RECIPE}, {@link #ROW_TYPE_INGREDIENT}, or
+		 * {@link #ROW_TYPE_INSTRUCTION}
+		 * <P>
+		 * Type: INTEGER
+		 * </P>
+		 */
+		public static final String COLUMN_NAME_ROW_TYPE = "row_type";
+		/**
+		 * Path part for the Export URI
+		 */
+		private static final String PATH_EXPORT = "/export";
+		/**
+		 * The MIME type of {@link #CONTENT_URI} providing a directory of recipes, ingredients, and instructions.
+		 */
+		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.ianhanniballake.export";
+		/**
+		 * The content:// style URL for this export
+		 */
+		public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + PATH_EXPORT);
+		/**
+		 * The default sort order for this export, grouping each recipe's rows together with the recipe row first,
+		 * followed by its ingredients and then its instructions, each in the order they were added
+		 */
+		public static final String DEFAULT_SORT_ORDER = "recipe_id ASC, row_type ASC, _id ASC";
+		/**
+		 * Row type of ingredient rows
+		 */
+		public static final int ROW_TYPE_INGREDIENT = 1;
+		/**
+		 * Row type of instruction rows
+		 */
+		public static final int ROW_TYPE_INSTRUCTION = 2;
+		/**
+		 * Row type of recipe rows
+		 */
+		public static final int ROW_TYPE_RECIPE = 0;
+
+		/**
+		 * This class cannot be instantiated
+		 */
+		private Export()
+		{
+		}
+	}
+
 	/**
 	 * Ingredients table contract
 	 */
@@ -52,6 +152,15 @@ public final class RecipeContract
 		 * </P>
 		 */
 		public static final String COLUMN_NAME_QUANTITY_NUMERATOR = "quantity_numerator";
+		/**
+		 * Column name of the ingredient quantity as a single number, the whole number quantity plus the fractional
+		 * quantity, for sorting and aggregating in SQL. Kept up to date by the provider from the other quantity
+		 * columns, which remain the exact quantity
+		 * <P>
+		 * Type: REAL
+		 * </P>
+		 */
+		public static final String COLUMN_NAME_QUANTITY_VALUE = "quantity_value";
 		/**
 		 * Column name of the recipe of this ingredient
 		 * <P>
@@ -66,6 +175,14 @@ public final class RecipeContract
 		 * </P>
 		 */
 		public static final String COLUMN_NAME_UNIT = "unit";
+		/**
+		 * Column name of the canonical unit of the ingredient, one of the {@link Units} constants. If not given, it is
+		 * derived from {@link #COLUMN_NAME_UNIT} when the ingredient is inserted or its unit updated
+		 * <P>
+		 * Type: INTEGER
+		 * </P>
+		 */
+		public static final String COLUMN_NAME_UNIT_ID = "unit_id";
 		/**
 		 * Path part for the Recipe ID URI
 		 */
@@ -104,11 +221,43 @@ public final class RecipeContract
 		 * 0-relative position of a recipe ID segment in the path part of a recipe ID URI
 		 */
 		public static final int INGREDIENT_ID_PATH_POSITION = 1;
+		/**
+		 * Query parameter of a {@link #CONTENT_URI} query restricting the ingredients to those of a single recipe,
+		 * given by its ID
+		 */
+		public static final String QUERY_PARAMETER_RECIPE_ID = "recipe_id";
+		/**
+		 * Query parameter of a {@link #CONTENT_URI} or {@link #CONTENT_ID_URI_BASE} query scaling the quantity of each
+		 * ingredient by the given positive factor, written as a whole number, fraction, mixed number, or decimal (i.e.,
+		 * "10", "5/2", "2 1/2", or "2.5"). Scaled quantities are exact, with the fraction in lowest terms, and scaled
+		 * volumes are moved between teaspoons, tablespoons, and cups as they would be measured, changing
+		 * {@link #COLUMN_NAME_UNIT} and {@link #COLUMN_NAME_UNIT_ID} to match. Queries with a factor that is not
+		 * positive or that scales a quantity beyond what can be represented exactly throw an IllegalArgumentException
+		 */
+		public static final String QUERY_PARAMETER_SCALE = "scale";
 		/**
 		 * The table name offered by this provider
 		 */
 		public static final String TABLE_NAME = "ingredients";
 
+		/**
+		 * Builds the URI of the ingredients of a recipe scaled to the given number of servings
+		 * 
+		 * @param recipeId
+		 *            ID of the recipe
+		 * @param recipeServings
+		 *            Number of servings the recipe makes, as in {@link Recipes#COLUMN_NAME_SERVINGS}. Must be positive
+		 * @param servings
+		 *            Number of servings to scale the ingredients to
+		 * @return The URI of the scaled ingredients of the recipe
+		 */
+		public static Uri buildScaledUri(final long recipeId, final int recipeServings, final int servings)
+		{
+			return Ingredients.CONTENT_URI.buildUpon()
+					.appendQueryParameter(Ingredients.QUERY_PARAMETER_RECIPE_ID, Long.toString(recipeId))
+					.appendQueryParameter(Ingredients.QUERY_PARAMETER_SCALE, servings + "/" + recipeServings).build();
+		}
+
 		/**
 		 * This class cannot be instantiated
 		 */
@@ -199,6 +348,15 @@ public final class RecipeContract
 		 * </P>
 		 */
 		public static final String COLUMN_NAME_DESCRIPTION = "description";
+		/**
+		 * Column name of the number of local changes to the recipe, its ingredients, or its instructions that have not
+		 * yet been uploaded to Drive. 0 if the recipe is in sync. Changes made through a URI from
+		 * {@link RecipeContract#asSyncAdapter(Uri)} do not count as local changes
+		 * <P>
+		 * Type: INTEGER
+		 * </P>
+		 */
+		public static final String COLUMN_NAME_DIRTY = "dirty";
 		/**
 		 * Column name of the recipe's id on Drive
 		 * <P>
@@ -206,6 +364,31 @@ public final class RecipeContract
 		 * </P>
 		 */
 		public static final String COLUMN_NAME_DRIVE_ID = "drive_id";
+		/**
+		 * Column name of the number of servings the recipe makes, or 0 if not known. Scale the ingredients to another
+		 * number of servings with {@link Ingredients#buildScaledUri(long, int, int)}
+		 * <P>
+		 * Type: INTEGER
+		 * </P>
+		 */
+		public static final String COLUMN_NAME_SERVINGS = "servings";
+		/**
+		 * Column name of the JSON of the recipe as last synced with Drive, used as the common base when merging local
+		 * and remote changes. Null if the recipe has never been synced
+		 * <P>
+		 * Type: TEXT
+		 * </P>
+		 */
+		public static final String COLUMN_NAME_SYNC_BASE = "sync_base";
+		/**
+		 * Column name of the MD5 checksum of the recipe's Drive file as last synced, matching
+		 * {@link #COLUMN_NAME_SYNC_BASE}. Changes to the Drive file with the same checksum, such as the sync adapter's
+		 * own uploads, are already stored and so are skipped. Null if not known
+		 * <P>
+		 * Type: TEXT
+		 * </P>
+		 */
+		public static final String COLUMN_NAME_SYNC_CHECKSUM = "sync_checksum";
 		/**
 		 * Column name for the title of the recipe
 		 * <P>
@@ -221,6 +404,10 @@ public final class RecipeContract
 		 * Path part for the Recipes URI
 		 */
 		private static final String PATH_RECIPES = "/recipes";
+		/**
+		 * Path part for the Recipe search URI
+		 */
+		private static final String PATH_SEARCH = "/recipes/search/";
 		/**
 		 * The content URI base for a single recipe. Callers must append a numeric recipe id to this Uri to retrieve a
 		 * recipe
@@ -235,6 +422,13 @@ public final class RecipeContract
 		 * The MIME type of a {@link #CONTENT_URI} sub-directory of a single recipe.
 		 */
 		public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.ianhanniballake.recipe";
+		/**
+		 * The content URI base for searching recipes. Callers must append the search query to this Uri (i.e., with
+		 * {@link Uri#withAppendedPath(Uri, String)}) to retrieve the recipes matching every word of the query in their
+		 * title, description, ingredients, or instructions. Each word is matched as a prefix. Unless another sort order
+		 * is given, recipes are ordered by how well they match.
+		 */
+		public static final Uri CONTENT_SEARCH_URI_BASE = Uri.parse(SCHEME + AUTHORITY + PATH_SEARCH);
 		/**
 		 * The MIME type of {@link #CONTENT_URI} providing a directory of recipes.
 		 */
@@ -251,6 +445,10 @@ public final class RecipeContract
 		 * 0-relative position of a recipe ID segment in the path part of a recipe ID URI
 		 */
 		public static final int RECIPE_ID_PATH_POSITION = 1;
+		/**
+		 * 0-relative position of the search query segment in the path part of a recipe search URI
+		 */
+		public static final int SEARCH_QUERY_PATH_POSITION = 2;
 		/**
 		 * Search Mode used for Recent Suggestions
 		 */
@@ -269,15 +467,99 @@ public final class RecipeContract
 		}
 	}
 
+	/**
+	 * Canonical units of ingredients, as stored in {@link Ingredients#COLUMN_NAME_UNIT_ID}. The values are stored in
+	 * the database, so must never be renumbered
+	 */
+	public static final class Units
+	{
+		/**
+		 * Cup
+		 */
+		public static final int CUP = 4;
+		/**
+		 * Gallon
+		 */
+		public static final int GALLON = 7;
+		/**
+		 * Gram
+		 */
+		public static final int GRAM = 8;
+		/**
+		 * Kilogram
+		 */
+		public static final int KILOGRAM = 10;
+		/**
+		 * Liter
+		 */
+		public static final int LITER = 12;
+		/**
+		 * Milliliter
+		 */
+		public static final int MILLILITER = 11;
+		/**
+		 * No unit, or a unit that is not recognized
+		 */
+		public static final int NONE = 0;
+		/**
+		 * Ounce
+		 */
+		public static final int OUNCE = 3;
+		/**
+		 * Pint
+		 */
+		public static final int PINT = 5;
+		/**
+		 * Pound
+		 */
+		public static final int POUND = 9;
+		/**
+		 * Quart
+		 */
+		public static final int QUART = 6;
+		/**
+		 * Tablespoon
+		 */
+		public static final int TABLESPOON = 2;
+		/**
+		 * Teaspoon
+		 */
+		public static final int TEASPOON = 1;
+
+		/**
+		 * This class cannot be instantiated
+		 */
+		private Units()
+		{
+		}
+	}
+
 	/**
 	 * Base authority for this content provider
 	 */
 	public static final String AUTHORITY = "com.ianhanniballake.recipebook";
+	/**
+	 * Query parameter marking a request as coming from the sync adapter, in which case changes are not counted as
+	 * local changes needing to be uploaded
+	 */
+	public static final String CALLER_IS_SYNCADAPTER = "caller_is_syncadapter";
 	/**
 	 * The scheme part for this provider's URI
 	 */
 	private static final String SCHEME = "content://";
 
+	/**
+	 * Marks the given URI as being used by the sync adapter
+	 * 
+	 * @param uri
+	 *            URI of this provider
+	 * @return The URI with {@link #CALLER_IS_SYNCADAPTER} set
+	 */
+	public static Uri asSyncAdapter(final Uri uri)
+	{
+		return uri.buildUpon().appendQueryParameter(RecipeContract.CALLER_IS_SYNCADAPTER, "true").build();
+	}
+
 	/**
 	 * This class cannot be instantiated
 	 */
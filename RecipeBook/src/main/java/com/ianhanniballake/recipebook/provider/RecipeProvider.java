@@ -1,23 +1,38 @@
 package com.ianhanniballake.recipebook.provider;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
 
+import android.annotation.TargetApi;
 import android.app.SearchManager;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.SearchRecentSuggestionsProvider;
 import android.content.UriMatcher;
+import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.MergeCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
 import android.provider.BaseColumns;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.ianhanniballake.recipebook.BuildConfig;
 import com.ianhanniballake.recipebook.R;
@@ -33,14 +48,435 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	static class DatabaseHelper extends SQLiteOpenHelper
 	{
 		/**
-		 * Creates a new DatabaseHelper
+		 * A single step in the database schema, upgrading the database from the immediately preceding version to the
+		 * version it is registered for in {@link DatabaseHelper#buildMigrations()}
+		 */
+		interface Migration
+		{
+			/**
+			 * Upgrades the database in place from the previous version
+			 * 
+			 * @param db
+			 *            database to upgrade
+			 */
+			void migrate(SQLiteDatabase db);
+		}
+
+		/**
+		 * The oldest database version that can be upgraded in place. Anything older is destroyed and recreated
+		 */
+		private static final int MIN_MIGRATION_VERSION = 3;
+		/**
+		 * Registered migrations, keyed by the database version they upgrade to
+		 */
+		private static final SparseArray<Migration> migrations = DatabaseHelper.buildMigrations();
+
+		/**
+		 * Fills in the canonical unit of every ingredient from its unit as written, looking up each distinct unit once
+		 * 
+		 * @param db
+		 *            database to fill in the units in
+		 */
+		private static void backfillUnitIds(final SQLiteDatabase db)
+		{
+			final Cursor units = db.query(true, RecipeContract.Ingredients.TABLE_NAME,
+					new String[] { RecipeContract.Ingredients.COLUMN_NAME_UNIT },
+					RecipeContract.Ingredients.COLUMN_NAME_UNIT + " IS NOT NULL", null, null, null, null, null);
+			final ContentValues values = new ContentValues();
+			try
+			{
+				while (units.moveToNext())
+				{
+					final String unit = units.getString(0);
+					final int unitId = UnitLexicon.getUnitId(unit);
+					if (unitId == RecipeContract.Units.NONE)
+						continue;
+					values.put(RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID, unitId);
+					db.update(RecipeContract.Ingredients.TABLE_NAME, values, RecipeContract.Ingredients.COLUMN_NAME_UNIT
+							+ "=?", new String[] { unit });
+				}
+			} finally
+			{
+				units.close();
+			}
+		}
+
+		/**
+		 * Builds an expression aggregating the item and preparation of every ingredient of a recipe into one string
+		 * 
+		 * @param recipeId
+		 *            SQL expression of the recipe ID to aggregate
+		 * @return Subquery expression of the recipe's ingredient search text
+		 */
+		private static String buildIngredientsSearchText(final String recipeId)
+		{
+			return "(SELECT group_concat(ifnull(" + RecipeContract.Ingredients.COLUMN_NAME_ITEM
+					+ ",'') || ' ' || ifnull(" + RecipeContract.Ingredients.COLUMN_NAME_PREPARATION + ",''), ' ') FROM "
+					+ RecipeContract.Ingredients.TABLE_NAME + " WHERE "
+					+ RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + "=" + recipeId + ")";
+		}
+
+		/**
+		 * Builds an expression aggregating every instruction of a recipe into one string
+		 * 
+		 * @param recipeId
+		 *            SQL expression of the recipe ID to aggregate
+		 * @return Subquery expression of the recipe's instruction search text
+		 */
+		private static String buildInstructionsSearchText(final String recipeId)
+		{
+			return "(SELECT group_concat(" + RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION + ", ' ') FROM "
+					+ RecipeContract.Instructions.TABLE_NAME + " WHERE "
+					+ RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID + "=" + recipeId + ")";
+		}
+
+		/**
+		 * Creates and registers each migration step. Every increase to {@link RecipeProvider#DATABASE_VERSION} must
+		 * register a migration here for the new version
+		 * 
+		 * @return the migrations, keyed by the database version they upgrade to
+		 */
+		private static SparseArray<Migration> buildMigrations()
+		{
+			final SparseArray<Migration> migrations = new SparseArray<Migration>();
+			// Version 4: index the recipe ID of ingredients and instructions
+			migrations.put(4, new Migration()
+			{
+				@Override
+				public void migrate(final SQLiteDatabase db)
+				{
+					DatabaseHelper.createRecipeIdIndexes(db);
+				}
+			});
+			// Version 5: full text search index of recipes
+			migrations.put(5, new Migration()
+			{
+				@Override
+				public void migrate(final SQLiteDatabase db)
+				{
+					DatabaseHelper.createSearchTable(db);
+					DatabaseHelper.populateSearchTable(db);
+				}
+			});
+			// Version 6: add ingredients and instructions to the full text search index. The search table is derived
+			// entirely from the other tables so it can be safely rebuilt from scratch
+			migrations.put(6, new Migration()
+			{
+				@Override
+				public void migrate(final SQLiteDatabase db)
+				{
+					DatabaseHelper.dropSearchTable(db);
+					DatabaseHelper.createSearchTable(db);
+					DatabaseHelper.populateSearchTable(db);
+				}
+			});
+			// Version 7: count local changes not yet uploaded to Drive. No existing recipe has been uploaded yet
+			migrations.put(7, new Migration()
+			{
+				@Override
+				public void migrate(final SQLiteDatabase db)
+				{
+					db.execSQL("ALTER TABLE " + RecipeContract.Recipes.TABLE_NAME + " ADD COLUMN "
+							+ RecipeContract.Recipes.COLUMN_NAME_DIRTY + " INTEGER NOT NULL DEFAULT 0");
+					db.execSQL("UPDATE " + RecipeContract.Recipes.TABLE_NAME + " SET "
+							+ RecipeContract.Recipes.COLUMN_NAME_DIRTY + "=1");
+				}
+			});
+			// Version 8: keep the last synced version of each recipe as the base of three-way merges
+			migrations.put(8, new Migration()
+			{
+				@Override
+				public void migrate(final SQLiteDatabase db)
+				{
+					db.execSQL("ALTER TABLE " + RecipeContract.Recipes.TABLE_NAME + " ADD COLUMN "
+							+ RecipeContract.Recipes.COLUMN_NAME_SYNC_BASE + " TEXT");
+				}
+			});
+			// Version 9: canonical unit of each ingredient, derived from the distinct units already in use
+			migrations.put(9, new Migration()
+			{
+				@Override
+				public void migrate(final SQLiteDatabase db)
+				{
+					db.execSQL("ALTER TABLE " + RecipeContract.Ingredients.TABLE_NAME + " ADD COLUMN "
+							+ RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID + " INTEGER NOT NULL DEFAULT "
+							+ RecipeContract.Units.NONE);
+					DatabaseHelper.backfillUnitIds(db);
+				}
+			});
+			// Version 10: quantity of each ingredient as a single number, for sorting and aggregating in SQL
+			migrations.put(10, new Migration()
+			{
+				@Override
+				public void migrate(final SQLiteDatabase db)
+				{
+					db.execSQL("ALTER TABLE " + RecipeContract.Ingredients.TABLE_NAME + " ADD COLUMN "
+							+ RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_VALUE + " REAL NOT NULL DEFAULT 0");
+					RecipeProvider.updateQuantityValues(db, null, null);
+				}
+			});
+			// Version 11: number of servings of each recipe, the base of scaled ingredients
+			migrations.put(11, new Migration()
+			{
+				@Override
+				public void migrate(final SQLiteDatabase db)
+				{
+					db.execSQL("ALTER TABLE " + RecipeContract.Recipes.TABLE_NAME + " ADD COLUMN "
+							+ RecipeContract.Recipes.COLUMN_NAME_SERVINGS + " INTEGER NOT NULL DEFAULT 0");
+				}
+			});
+			// Version 12: refresh the search text of changed recipes once per write rather than once per changed row
+			migrations.put(12, new Migration()
+			{
+				@Override
+				public void migrate(final SQLiteDatabase db)
+				{
+					DatabaseHelper.dropSearchTable(db);
+					DatabaseHelper.createSearchTable(db);
+					DatabaseHelper.populateSearchTable(db);
+				}
+			});
+			// Version 13: keep the Drive file of deleted recipes until their deletion is synced
+			migrations.put(13, new Migration()
+			{
+				@Override
+				public void migrate(final SQLiteDatabase db)
+				{
+					DatabaseHelper.createDeletedRecipesTable(db);
+				}
+			});
+			// Version 14: checksum of each recipe's Drive file as last synced, to skip changes already stored
+			migrations.put(14, new Migration()
+			{
+				@Override
+				public void migrate(final SQLiteDatabase db)
+				{
+					db.execSQL("ALTER TABLE " + RecipeContract.Recipes.TABLE_NAME + " ADD COLUMN "
+							+ RecipeContract.Recipes.COLUMN_NAME_SYNC_CHECKSUM + " TEXT");
+				}
+			});
+			return migrations;
+		}
+
+		/**
+		 * Builds a statement queueing a recipe for its aggregated ingredients and instructions to be refreshed by
+		 * {@link #refreshSearchTable(SQLiteDatabase)}
+		 * 
+		 * @param recipeId
+		 *            SQL expression of the recipe ID to queue, i.e., new.recipe_id in a trigger
+		 * @return INSERT statement queueing the given recipe
+		 */
+		private static String buildSearchPending(final String recipeId)
+		{
+			return "INSERT OR IGNORE INTO " + RecipeProvider.SEARCH_PENDING_TABLE_NAME + " ("
+					+ RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + ") VALUES (" + recipeId + ");";
+		}
+
+		/**
+		 * Creates the table of deleted recipes whose Drive file has not yet been deleted
+		 * 
+		 * @param db
+		 *            database to create the table in
+		 */
+		private static void createDeletedRecipesTable(final SQLiteDatabase db)
+		{
+			if (BuildConfig.DEBUG)
+				Log.d(RecipeProvider.TAG, "Creating the " + RecipeContract.DeletedRecipes.TABLE_NAME + " table");
+			db.execSQL("CREATE TABLE " + RecipeContract.DeletedRecipes.TABLE_NAME + " (" + BaseColumns._ID
+					+ " INTEGER PRIMARY KEY AUTOINCREMENT," + RecipeContract.DeletedRecipes.COLUMN_NAME_DRIVE_ID
+					+ " TEXT NOT NULL UNIQUE);");
+		}
+
+		/**
+		 * Creates the indexes on the recipe ID of the ingredients and instructions tables. These cover the recipe_id=?
+		 * lookups done when loading a recipe's details as well as the ON DELETE CASCADE from the recipes table.
+		 * 
+		 * @param db
+		 *            database to create the indexes in
+		 */
+		private static void createRecipeIdIndexes(final SQLiteDatabase db)
+		{
+			if (BuildConfig.DEBUG)
+				Log.d(RecipeProvider.TAG, "Creating the " + RecipeContract.Ingredients.TABLE_NAME + " and "
+						+ RecipeContract.Instructions.TABLE_NAME + " recipe ID indexes");
+			db.execSQL("CREATE INDEX IF NOT EXISTS " + RecipeContract.Ingredients.TABLE_NAME + "_"
+					+ RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + "_index ON "
+					+ RecipeContract.Ingredients.TABLE_NAME + " (" + RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID
+					+ ", " + BaseColumns._ID + ");");
+			db.execSQL("CREATE INDEX IF NOT EXISTS " + RecipeContract.Instructions.TABLE_NAME + "_"
+					+ RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID + "_index ON "
+					+ RecipeContract.Instructions.TABLE_NAME + " (" + RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID
+					+ ", " + BaseColumns._ID + ");");
+		}
+
+		/**
+		 * Creates the full text search table mirroring the title and description of each recipe along with the
+		 * aggregated text of its ingredients and instructions, using the recipe's ID as the docid. Triggers on the
+		 * recipes table keep the title and description in sync on every insert, update, and delete. As aggregating a
+		 * recipe's text costs as much as the recipe has lines, triggers on the ingredients and instructions tables only
+		 * queue the changed recipes, which {@link #refreshSearchTable(SQLiteDatabase)} then refreshes once each.
+		 * 
+		 * @param db
+		 *            database to create the search table in
+		 */
+		private static void createSearchTable(final SQLiteDatabase db)
+		{
+			if (BuildConfig.DEBUG)
+				Log.d(RecipeProvider.TAG, "Creating the " + RecipeProvider.SEARCH_TABLE_NAME + " table");
+			db.execSQL("CREATE VIRTUAL TABLE " + RecipeProvider.SEARCH_TABLE_NAME + " USING fts4("
+					+ RecipeContract.Recipes.COLUMN_NAME_TITLE + ", " + RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION
+					+ ", " + RecipeContract.Ingredients.TABLE_NAME + ", " + RecipeContract.Instructions.TABLE_NAME
+					+ ");");
+			db.execSQL("CREATE TABLE " + RecipeProvider.SEARCH_PENDING_TABLE_NAME + " ("
+					+ RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + " INTEGER PRIMARY KEY);");
+			db.execSQL("CREATE TRIGGER " + RecipeProvider.SEARCH_TABLE_NAME + "_insert AFTER INSERT ON "
+					+ RecipeContract.Recipes.TABLE_NAME + " BEGIN INSERT INTO " + RecipeProvider.SEARCH_TABLE_NAME
+					+ " (docid, " + RecipeContract.Recipes.COLUMN_NAME_TITLE + ", "
+					+ RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION + ") VALUES (new." + BaseColumns._ID + ", new."
+					+ RecipeContract.Recipes.COLUMN_NAME_TITLE + ", new."
+					+ RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION + "); END;");
+			db.execSQL("CREATE TRIGGER " + RecipeProvider.SEARCH_TABLE_NAME + "_update AFTER UPDATE OF "
+					+ RecipeContract.Recipes.COLUMN_NAME_TITLE + ", " + RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION
+					+ " ON " + RecipeContract.Recipes.TABLE_NAME + " BEGIN UPDATE " + RecipeProvider.SEARCH_TABLE_NAME
+					+ " SET " + RecipeContract.Recipes.COLUMN_NAME_TITLE + "=new."
+					+ RecipeContract.Recipes.COLUMN_NAME_TITLE + ", " + RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION
+					+ "=new." + RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION + " WHERE docid=old." + BaseColumns._ID
+					+ "; END;");
+			db.execSQL("CREATE TRIGGER " + RecipeProvider.SEARCH_TABLE_NAME + "_delete AFTER DELETE ON "
+					+ RecipeContract.Recipes.TABLE_NAME + " BEGIN DELETE FROM " + RecipeProvider.SEARCH_TABLE_NAME
+					+ " WHERE docid=old." + BaseColumns._ID + "; END;");
+			// Ingredients and Instructions use the same name for their recipe ID column, and only changes to the recipe
+			// ID and searched columns change the search text
+			final String[][] childTables = {
+					{ RecipeContract.Ingredients.TABLE_NAME,
+							RecipeContract.Ingredients.COLUMN_NAME_ITEM + ", "
+									+ RecipeContract.Ingredients.COLUMN_NAME_PREPARATION },
+					{ RecipeContract.Instructions.TABLE_NAME, RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION } };
+			final String newRecipeId = "new." + RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID;
+			final String oldRecipeId = "old." + RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID;
+			for (final String[] childTable : childTables)
+			{
+				db.execSQL("CREATE TRIGGER " + RecipeProvider.SEARCH_TABLE_NAME + "_" + childTable[0]
+						+ "_insert AFTER INSERT ON " + childTable[0] + " BEGIN "
+						+ DatabaseHelper.buildSearchPending(newRecipeId) + " END;");
+				db.execSQL("CREATE TRIGGER " + RecipeProvider.SEARCH_TABLE_NAME + "_" + childTable[0]
+						+ "_update AFTER UPDATE OF " + RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + ", "
+						+ childTable[1] + " ON " + childTable[0] + " BEGIN "
+						+ DatabaseHelper.buildSearchPending(oldRecipeId) + " "
+						+ DatabaseHelper.buildSearchPending(newRecipeId) + " END;");
+				db.execSQL("CREATE TRIGGER " + RecipeProvider.SEARCH_TABLE_NAME + "_" + childTable[0]
+						+ "_delete AFTER DELETE ON " + childTable[0] + " BEGIN "
+						+ DatabaseHelper.buildSearchPending(oldRecipeId) + " END;");
+			}
+		}
+
+		/**
+		 * Drops the full text search table and all of the triggers that keep it in sync
+		 * 
+		 * @param db
+		 *            database to drop the search table from
+		 */
+		private static void dropSearchTable(final SQLiteDatabase db)
+		{
+			if (BuildConfig.DEBUG)
+				Log.d(RecipeProvider.TAG, "Dropping the " + RecipeProvider.SEARCH_TABLE_NAME + " table");
+			for (final String operation : new String[] { "insert", "update", "delete" })
+			{
+				db.execSQL("DROP TRIGGER IF EXISTS " + RecipeProvider.SEARCH_TABLE_NAME + "_" + operation);
+				db.execSQL("DROP TRIGGER IF EXISTS " + RecipeProvider.SEARCH_TABLE_NAME + "_"
+						+ RecipeContract.Ingredients.TABLE_NAME + "_" + operation);
+				db.execSQL("DROP TRIGGER IF EXISTS " + RecipeProvider.SEARCH_TABLE_NAME + "_"
+						+ RecipeContract.Instructions.TABLE_NAME + "_" + operation);
+			}
+			db.execSQL("DROP TABLE IF EXISTS " + RecipeProvider.SEARCH_PENDING_TABLE_NAME);
+			db.execSQL("DROP TABLE IF EXISTS " + RecipeProvider.SEARCH_TABLE_NAME);
+		}
+
+		/**
+		 * Fills the full text search table from the existing recipes, ingredients, and instructions
+		 * 
+		 * @param db
+		 *            database to populate the search table in
+		 */
+		private static void populateSearchTable(final SQLiteDatabase db)
+		{
+			final String recipeId = RecipeContract.Recipes.TABLE_NAME + "." + BaseColumns._ID;
+			db.execSQL("INSERT INTO " + RecipeProvider.SEARCH_TABLE_NAME + " (docid, "
+					+ RecipeContract.Recipes.COLUMN_NAME_TITLE + ", " + RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION
+					+ ", " + RecipeContract.Ingredients.TABLE_NAME + ", " + RecipeContract.Instructions.TABLE_NAME
+					+ ") SELECT " + recipeId + ", " + RecipeContract.Recipes.COLUMN_NAME_TITLE + ", "
+					+ RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION + ", "
+					+ DatabaseHelper.buildIngredientsSearchText(recipeId) + ", "
+					+ DatabaseHelper.buildInstructionsSearchText(recipeId) + " FROM "
+					+ RecipeContract.Recipes.TABLE_NAME);
+		}
+
+		/**
+		 * Refreshes the aggregated ingredients and instructions of every recipe queued by the triggers on the
+		 * ingredients and instructions tables in a single statement, refreshing each recipe once no matter how many of
+		 * its rows changed
+		 * 
+		 * @param db
+		 *            database to refresh the search table in
+		 */
+		static void refreshSearchTable(final SQLiteDatabase db)
+		{
+			final String recipeId = RecipeProvider.SEARCH_TABLE_NAME + ".docid";
+			db.execSQL("UPDATE " + RecipeProvider.SEARCH_TABLE_NAME + " SET " + RecipeContract.Ingredients.TABLE_NAME
+					+ "=" + DatabaseHelper.buildIngredientsSearchText(recipeId) + ", "
+					+ RecipeContract.Instructions.TABLE_NAME + "="
+					+ DatabaseHelper.buildInstructionsSearchText(recipeId) + " WHERE docid IN (SELECT "
+					+ RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + " FROM "
+					+ RecipeProvider.SEARCH_PENDING_TABLE_NAME + ")");
+			db.execSQL("DELETE FROM " + RecipeProvider.SEARCH_PENDING_TABLE_NAME);
+		}
+
+		/**
+		 * Number of pages the write-ahead log may grow to before SQLite automatically checkpoints it
+		 */
+		private final int walAutoCheckpointPages;
+		/**
+		 * Minimum number of operations in a batch for the write-ahead log to be checkpointed once the batch commits, or
+		 * 0 to only rely on automatic checkpoints
+		 */
+		private final int walCheckpointBatchSize;
+
+		/**
+		 * Creates a new DatabaseHelper, using write-ahead logging so that readers (i.e., the UI) are not blocked by
+		 * writers (i.e., sync) and the other way round
 		 * 
 		 * @param context
 		 *            context of this database
 		 */
+		@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
 		DatabaseHelper(final Context context)
 		{
 			super(context, RecipeProvider.DATABASE_NAME, null, RecipeProvider.DATABASE_VERSION);
+			final Resources resources = context.getResources();
+			walAutoCheckpointPages = resources.getInteger(R.integer.database_wal_autocheckpoint_pages);
+			walCheckpointBatchSize = resources.getInteger(R.integer.database_wal_checkpoint_batch_size);
+			// Older versions enable write-ahead logging once the database is open in onOpen
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+				setWriteAheadLoggingEnabled(true);
+		}
+
+		/**
+		 * Checkpoints the write-ahead log after a large batch of operations commits so that the log does not keep
+		 * growing while readers hold it open. The checkpoint is passive: it never waits on readers or writers, copying
+		 * only what it can without blocking.
+		 * 
+		 * @param db
+		 *            database the batch was written to
+		 * @param operationCount
+		 *            number of operations in the batch
+		 */
+		void checkpointAfterBatch(final SQLiteDatabase db, final int operationCount)
+		{
+			if (walCheckpointBatchSize <= 0 || operationCount < walCheckpointBatchSize)
+				return;
+			if (BuildConfig.DEBUG)
+				Log.d(RecipeProvider.TAG, "Checkpointing write-ahead log after batch of " + operationCount);
+			DatabaseUtils.longForQuery(db, "PRAGMA wal_checkpoint(PASSIVE)", null);
 		}
 
 		/**
@@ -54,7 +490,11 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 			db.execSQL("CREATE TABLE " + RecipeContract.Recipes.TABLE_NAME + " (" + BaseColumns._ID
 					+ " INTEGER PRIMARY KEY AUTOINCREMENT," + RecipeContract.Recipes.COLUMN_NAME_TITLE + " TEXT,"
 					+ RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION + " TEXT, "
-					+ RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID + " TEXT" + ");");
+					+ RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID + " TEXT, "
+					+ RecipeContract.Recipes.COLUMN_NAME_DIRTY + " INTEGER NOT NULL DEFAULT 0, "
+					+ RecipeContract.Recipes.COLUMN_NAME_SYNC_BASE + " TEXT, "
+					+ RecipeContract.Recipes.COLUMN_NAME_SYNC_CHECKSUM + " TEXT, "
+					+ RecipeContract.Recipes.COLUMN_NAME_SERVINGS + " INTEGER NOT NULL DEFAULT 0" + ");");
 			if (BuildConfig.DEBUG)
 				Log.d(RecipeProvider.TAG, "Creating the " + RecipeContract.Ingredients.TABLE_NAME + " table");
 			db.execSQL("CREATE TABLE " + RecipeContract.Ingredients.TABLE_NAME + " (" + BaseColumns._ID
@@ -62,8 +502,10 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 					+ " INTEGER," + RecipeContract.Ingredients.COLUMN_NAME_QUANTITY + " INTEGER,"
 					+ RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR + " INTEGER,"
 					+ RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR + " INTEGER,"
+					+ RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_VALUE + " REAL NOT NULL DEFAULT 0,"
 					+ RecipeContract.Ingredients.COLUMN_NAME_UNIT + " TEXT,"
-					+ RecipeContract.Ingredients.COLUMN_NAME_ITEM + " TEXT,"
+					+ RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID + " INTEGER NOT NULL DEFAULT "
+					+ RecipeContract.Units.NONE + "," + RecipeContract.Ingredients.COLUMN_NAME_ITEM + " TEXT,"
 					+ RecipeContract.Ingredients.COLUMN_NAME_PREPARATION + " TEXT,"
 					+ " CONSTRAINT fk_recipe_ingredient FOREIGN KEY ("
 					+ RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + ") REFERENCES "
@@ -76,7 +518,10 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 					+ " CONSTRAINT fk_recipe_instruction FOREIGN KEY ("
 					+ RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID + ") REFERENCES "
 					+ RecipeContract.Recipes.TABLE_NAME + " (" + BaseColumns._ID + ") ON DELETE CASCADE" + ");");
-			// Insert sample data
+			DatabaseHelper.createRecipeIdIndexes(db);
+			DatabaseHelper.createSearchTable(db);
+			DatabaseHelper.createDeletedRecipesTable(db);
+			// Insert sample data, which is not marked as a local change so that it is never uploaded
 			final ContentValues values = new ContentValues();
 			values.put(RecipeContract.Recipes.COLUMN_NAME_TITLE, "Chicken Marsala");
 			values.put(
@@ -533,37 +978,114 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 			values.put(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID, recipeId5);
 			values.put(RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION, "Remove lemon slices before serving.");
 			db.insert(RecipeContract.Instructions.TABLE_NAME, null, values);
+			DatabaseHelper.backfillUnitIds(db);
+			RecipeProvider.updateQuantityValues(db, null, null);
+			DatabaseHelper.refreshSearchTable(db);
 		}
 
 		/**
-		 * 
-		 * Demonstrates that the provider must consider what happens when the underlying database is changed. Note that
-		 * this currently just destroys and recreates the database - should upgrade in place
+		 * Enables write-ahead logging on versions where it cannot be enabled before the database is opened and applies
+		 * the automatic checkpoint policy
+		 */
+		@Override
+		public void onOpen(final SQLiteDatabase db)
+		{
+			super.onOpen(db);
+			if (db.isReadOnly())
+				return;
+			if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+				db.enableWriteAheadLogging();
+			DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint=" + walAutoCheckpointPages, null);
+		}
+
+		/**
+		 * Upgrades the database in place by running each registered migration step between the old and new version in
+		 * turn, each in its own transaction. Databases older than {@link #MIN_MIGRATION_VERSION} are destroyed and
+		 * recreated
 		 */
 		@Override
 		public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion)
 		{
-			Log.w(RecipeProvider.TAG, "Upgrading database from version " + oldVersion + " to " + newVersion
-					+ ", which will destroy all old data");
-			db.execSQL("DROP TABLE IF EXISTS " + RecipeContract.Recipes.TABLE_NAME);
-			db.execSQL("DROP TABLE IF EXISTS " + RecipeContract.Ingredients.TABLE_NAME);
-			db.execSQL("DROP TABLE IF EXISTS " + RecipeContract.Instructions.TABLE_NAME);
-			onCreate(db);
+			if (oldVersion < DatabaseHelper.MIN_MIGRATION_VERSION)
+			{
+				Log.w(RecipeProvider.TAG, "Upgrading database from version " + oldVersion + " to " + newVersion
+						+ ", which will destroy all old data");
+				db.execSQL("DROP TABLE IF EXISTS " + RecipeContract.Recipes.TABLE_NAME);
+				db.execSQL("DROP TABLE IF EXISTS " + RecipeContract.Ingredients.TABLE_NAME);
+				db.execSQL("DROP TABLE IF EXISTS " + RecipeContract.Instructions.TABLE_NAME);
+				onCreate(db);
+				return;
+			}
+			for (int version = oldVersion + 1; version <= newVersion; version++)
+			{
+				final Migration migration = DatabaseHelper.migrations.get(version);
+				if (migration == null)
+					throw new IllegalStateException("No migration registered for database version " + version);
+				Log.i(RecipeProvider.TAG, "Upgrading database in place from version " + (version - 1) + " to "
+						+ version);
+				db.beginTransaction();
+				try
+				{
+					migration.migrate(db);
+					db.setTransactionSuccessful();
+				} finally
+				{
+					db.endTransaction();
+				}
+			}
 		}
 	}
 
 	/**
 	 * The database that the provider uses as its underlying data store
 	 */
-	private static final String DATABASE_NAME = "recipes.db";
+	static final String DATABASE_NAME = "recipes.db";
 	/**
 	 * The database version
 	 */
-	private static final int DATABASE_VERSION = 3;
+	static final int DATABASE_VERSION = 14;
+	/**
+	 * Projection map of all deleted recipe columns
+	 */
+	private static final Map<String, String> DELETED_RECIPE_PROJECTION_MAP = RecipeProvider.buildProjectionMap(
+			BaseColumns._ID, RecipeContract.DeletedRecipes.COLUMN_NAME_DRIVE_ID);
+	/**
+	 * The incoming URI matches the Deleted Recipes URI pattern
+	 */
+	private static final int DELETED_RECIPES = 10;
+	/**
+	 * The incoming URI matches the Export URI pattern
+	 */
+	private static final int EXPORT = 9;
+	/**
+	 * Projection map of all export columns, shared by every export query
+	 */
+	private static final Map<String, String> EXPORT_PROJECTION_MAP = RecipeProvider.buildProjectionMap(
+			BaseColumns._ID, RecipeContract.Export.COLUMN_NAME_ROW_TYPE, RecipeContract.Export.COLUMN_NAME_RECIPE_ID,
+			RecipeContract.Recipes.COLUMN_NAME_TITLE, RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION,
+			RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID, RecipeContract.Ingredients.COLUMN_NAME_QUANTITY,
+			RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR,
+			RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR, RecipeContract.Ingredients.COLUMN_NAME_UNIT,
+			RecipeContract.Ingredients.COLUMN_NAME_ITEM, RecipeContract.Ingredients.COLUMN_NAME_PREPARATION,
+			RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION);
+	/**
+	 * Union of the recipes, ingredients, and instructions tables in the layout of the export contract
+	 */
+	private static final String EXPORT_TABLES = RecipeProvider.buildExportTables();
 	/**
 	 * The incoming URI matches the Ingredient ID URI pattern
 	 */
 	private static final int INGREDIENT_ID = 4;
+	/**
+	 * Projection map of all ingredient columns, shared by every ingredient query
+	 */
+	private static final Map<String, String> INGREDIENT_PROJECTION_MAP = RecipeProvider.buildProjectionMap(
+			BaseColumns._ID, RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID,
+			RecipeContract.Ingredients.COLUMN_NAME_QUANTITY, RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR,
+			RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR,
+			RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_VALUE, RecipeContract.Ingredients.COLUMN_NAME_UNIT,
+			RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID, RecipeContract.Ingredients.COLUMN_NAME_ITEM,
+			RecipeContract.Ingredients.COLUMN_NAME_PREPARATION);
 	/**
 	 * The incoming URI matches the Ingredients URI pattern
 	 */
@@ -572,14 +1094,39 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	 * The incoming URI matches the Instruction ID URI pattern
 	 */
 	private static final int INSTRUCTION_ID = 6;
+	/**
+	 * Projection map of all instruction columns, shared by every instruction query
+	 */
+	private static final Map<String, String> INSTRUCTION_PROJECTION_MAP = RecipeProvider.buildProjectionMap(
+			BaseColumns._ID, RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID,
+			RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION);
 	/**
 	 * The incoming URI matches the Instructions URI pattern
 	 */
 	private static final int INSTRUCTIONS = 5;
+	/**
+	 * SQL expression of an ingredient's quantity as a single number, matching
+	 * {@link #getQuantityValue(ContentValues, int, int, int)}
+	 */
+	private static final String QUANTITY_VALUE_EXPRESSION = RecipeProvider.buildQuantityValueExpression(
+			RecipeContract.Ingredients.COLUMN_NAME_QUANTITY, RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR,
+			RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR);
 	/**
 	 * The incoming URI matches the Recipe ID URI pattern
 	 */
 	private static final int RECIPE_ID = 2;
+	/**
+	 * Projection map of all recipe columns, shared by every recipe query
+	 */
+	private static final Map<String, String> RECIPE_PROJECTION_MAP = RecipeProvider.buildProjectionMap(
+			BaseColumns._ID, RecipeContract.Recipes.COLUMN_NAME_TITLE, RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION,
+			RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID, RecipeContract.Recipes.COLUMN_NAME_DIRTY,
+			RecipeContract.Recipes.COLUMN_NAME_SYNC_BASE, RecipeContract.Recipes.COLUMN_NAME_SYNC_CHECKSUM,
+			RecipeContract.Recipes.COLUMN_NAME_SERVINGS);
+	/**
+	 * The incoming URI matches the Recipe search URI pattern
+	 */
+	private static final int RECIPE_SEARCH = 8;
 	/**
 	 * The incoming URI matches the Recipes URI pattern
 	 */
@@ -588,6 +1135,24 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	 * The incoming URI matches search queries
 	 */
 	private static final int SEARCH = 7;
+	/**
+	 * Columns of the full text search table, in order of decreasing weight when ranking matches
+	 */
+	static final String[] SEARCH_COLUMNS = { RecipeContract.Recipes.COLUMN_NAME_TITLE,
+			RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION, RecipeContract.Ingredients.TABLE_NAME,
+			RecipeContract.Instructions.TABLE_NAME };
+	/**
+	 * Recipes whose ingredients or instructions changed since the full text search table was last refreshed
+	 */
+	private static final String SEARCH_PENDING_TABLE_NAME = "recipes_search_pending";
+	/**
+	 * Column alias of the match score of each recipe in a recipe search
+	 */
+	static final String SEARCH_RANK = "search_rank";
+	/**
+	 * The full text search table mirroring the recipes table
+	 */
+	static final String SEARCH_TABLE_NAME = "recipes_search";
 	/**
 	 * Used for debugging and logging
 	 */
@@ -597,6 +1162,168 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	 */
 	private static final UriMatcher uriMatcher = RecipeProvider.buildUriMatcher();
 
+	/**
+	 * Binds the given column of the values to the statement, falling back to the default value if the column is not
+	 * present
+	 * 
+	 * @param statement
+	 *            Compiled statement to bind to
+	 * @param index
+	 *            1-based index of the bind argument
+	 * @param values
+	 *            Values to read the column from
+	 * @param column
+	 *            Column name to bind
+	 * @param defaultValue
+	 *            Value to bind if the column is not present in values
+	 */
+	private static void bindValue(final SQLiteStatement statement, final int index, final ContentValues values,
+			final String column, final Object defaultValue)
+	{
+		DatabaseUtils.bindObjectToProgram(statement, index, values.containsKey(column) ? values.get(column)
+				: defaultValue);
+	}
+
+	/**
+	 * Builds the selection arguments for a query restricted to a single row by an "_id = ?" clause preceding the
+	 * caller's selection. Binding the ID rather than appending it to the SQL keeps the SQL the same for every ID, so
+	 * the statement compiled for the first lookup is reused from the database connection's statement cache.
+	 * 
+	 * @param id
+	 *            ID of the row to select
+	 * @param selectionArgs
+	 *            The caller's selection arguments, possibly null
+	 * @return The selection arguments with the ID first
+	 */
+	private static String[] buildIdSelectionArgs(final String id, final String[] selectionArgs)
+	{
+		if (selectionArgs == null)
+			return new String[] { id };
+		final String[] idSelectionArgs = new String[selectionArgs.length + 1];
+		idSelectionArgs[0] = id;
+		System.arraycopy(selectionArgs, 0, idSelectionArgs, 1, selectionArgs.length);
+		return idSelectionArgs;
+	}
+
+	/**
+	 * Builds the union of the recipes, ingredients, and instructions tables in the layout of the export contract, with
+	 * each table's rows filling in only their own columns
+	 * 
+	 * @return A subquery usable as the tables of a query
+	 */
+	private static String buildExportTables()
+	{
+		final String recipeColumns = RecipeContract.Recipes.COLUMN_NAME_TITLE + ", "
+				+ RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION + ", " + RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID;
+		final String ingredientColumns = RecipeContract.Ingredients.COLUMN_NAME_QUANTITY + ", "
+				+ RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR + ", "
+				+ RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR + ", "
+				+ RecipeContract.Ingredients.COLUMN_NAME_UNIT + ", " + RecipeContract.Ingredients.COLUMN_NAME_ITEM
+				+ ", " + RecipeContract.Ingredients.COLUMN_NAME_PREPARATION;
+		final String instructionColumns = RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION;
+		// The first select names the columns of the union
+		return "(SELECT " + RecipeContract.Export.ROW_TYPE_RECIPE + " AS " + RecipeContract.Export.COLUMN_NAME_ROW_TYPE
+				+ ", " + BaseColumns._ID + " AS " + RecipeContract.Export.COLUMN_NAME_RECIPE_ID + ", " + BaseColumns._ID
+				+ ", " + recipeColumns + ", NULL AS " + RecipeContract.Ingredients.COLUMN_NAME_QUANTITY + ", NULL AS "
+				+ RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR + ", NULL AS "
+				+ RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR + ", NULL AS "
+				+ RecipeContract.Ingredients.COLUMN_NAME_UNIT + ", NULL AS "
+				+ RecipeContract.Ingredients.COLUMN_NAME_ITEM + ", NULL AS "
+				+ RecipeContract.Ingredients.COLUMN_NAME_PREPARATION + ", NULL AS "
+				+ RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION + " FROM " + RecipeContract.Recipes.TABLE_NAME
+				+ " UNION ALL SELECT " + RecipeContract.Export.ROW_TYPE_INGREDIENT + ", "
+				+ RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + ", " + BaseColumns._ID + ", NULL, NULL, NULL, "
+				+ ingredientColumns + ", NULL FROM " + RecipeContract.Ingredients.TABLE_NAME + " UNION ALL SELECT "
+				+ RecipeContract.Export.ROW_TYPE_INSTRUCTION + ", " + RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID
+				+ ", " + BaseColumns._ID + ", NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL, "
+				+ instructionColumns + " FROM " + RecipeContract.Instructions.TABLE_NAME + ")";
+	}
+
+	/**
+	 * Converts a user entered search query into a full text search MATCH expression that requires every word of the
+	 * query, matching each word as a prefix so that results can be returned as the user types
+	 * 
+	 * @param query
+	 *            User entered search query
+	 * @param column
+	 *            Search table column to restrict every word to, or null to match words in any column
+	 * @return The MATCH expression or an empty string if the query contains no searchable words
+	 */
+	static String buildMatchQuery(final String query, final String column)
+	{
+		final StringBuilder matchQuery = new StringBuilder();
+		for (final String word : RecipeProvider.splitSearchQuery(query))
+		{
+			if (matchQuery.length() > 0)
+				matchQuery.append(' ');
+			if (column != null)
+				matchQuery.append(column).append(':');
+			matchQuery.append(word);
+			matchQuery.append('*');
+		}
+		return matchQuery.toString();
+	}
+
+	/**
+	 * Builds an unmodifiable projection map that maps each of the given columns to itself
+	 * 
+	 * @param columns
+	 *            Columns available to queries
+	 * @return The projection map
+	 */
+	private static Map<String, String> buildProjectionMap(final String... columns)
+	{
+		final HashMap<String, String> projectionMap = new HashMap<String, String>();
+		for (final String column : columns)
+			projectionMap.put(column, column);
+		return Collections.unmodifiableMap(projectionMap);
+	}
+
+	/**
+	 * Builds an SQL expression of an ingredient's quantity as a single number, matching
+	 * {@link #getQuantityValue(ContentValues, int, int, int)}
+	 * 
+	 * @param quantity
+	 *            SQL expression of the whole number quantity
+	 * @param numerator
+	 *            SQL expression of the numerator of the fractional quantity
+	 * @param denominator
+	 *            SQL expression of the denominator of the fractional quantity
+	 * @return The whole number quantity plus the fractional quantity, ignoring a fraction without a positive
+	 *         denominator
+	 */
+	private static String buildQuantityValueExpression(final String quantity, final String numerator,
+			final String denominator)
+	{
+		return "IFNULL(" + quantity + ",0)+CASE WHEN " + denominator + ">0 THEN CAST(IFNULL(" + numerator
+				+ ",0) AS REAL)/" + denominator + " ELSE 0 END";
+	}
+
+	/**
+	 * Builds an expression scoring how well each document in the search table matches the query. Recipes where every
+	 * word matches in the title score highest, followed by the description, ingredients, and finally instructions.
+	 * 
+	 * @param query
+	 *            User entered search query
+	 * @return Expression usable in a query of the search table that evaluates to the match score of each row
+	 */
+	static String buildSearchRank(final String query)
+	{
+		final String[] columns = RecipeProvider.SEARCH_COLUMNS;
+		final StringBuilder rank = new StringBuilder();
+		for (int index = 0; index < columns.length; index++)
+		{
+			if (rank.length() > 0)
+				rank.append(" + ");
+			final int weight = 1 << (columns.length - index - 1);
+			rank.append(weight).append("*(docid IN (SELECT docid FROM ").append(RecipeProvider.SEARCH_TABLE_NAME);
+			rank.append(" WHERE ").append(RecipeProvider.SEARCH_TABLE_NAME).append(" MATCH ");
+			DatabaseUtils.appendEscapedSQLString(rank, RecipeProvider.buildMatchQuery(query, columns[index]));
+			rank.append("))");
+		}
+		return rank.toString();
+	}
+
 	/**
 	 * Creates and initializes the URI matcher
 	 * 
@@ -609,6 +1336,8 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 		matcher.addURI(RecipeContract.AUTHORITY, "recipes", RecipeProvider.RECIPES);
 		// Add a pattern that routes URIs terminated with "recipes" plus an integer to a recipe ID operation
 		matcher.addURI(RecipeContract.AUTHORITY, "recipes/#", RecipeProvider.RECIPE_ID);
+		// Add a pattern that routes URIs terminated with "recipes/search" plus a query to a recipe search operation
+		matcher.addURI(RecipeContract.AUTHORITY, "recipes/search/*", RecipeProvider.RECIPE_SEARCH);
 		// Add a pattern that routes URIs terminated with "ingredients" to a INGREDIENTS operation
 		matcher.addURI(RecipeContract.AUTHORITY, "ingredients", RecipeProvider.INGREDIENTS);
 		// Add a pattern that routes URIs terminated with "ingredients" plus an integer to a Ingredient ID operation
@@ -617,15 +1346,278 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 		matcher.addURI(RecipeContract.AUTHORITY, "instructions", RecipeProvider.INSTRUCTIONS);
 		// Add a pattern that routes URIs terminated with "instructions" plus an integer to a Instruction ID operation
 		matcher.addURI(RecipeContract.AUTHORITY, "instructions/#", RecipeProvider.INSTRUCTION_ID);
+		// Add a pattern that routes URIs terminated with "export" to an EXPORT operation
+		matcher.addURI(RecipeContract.AUTHORITY, "export", RecipeProvider.EXPORT);
+		// Add a pattern that routes URIs terminated with "deleted_recipes" to a DELETED_RECIPES operation
+		matcher.addURI(RecipeContract.AUTHORITY, "deleted_recipes", RecipeProvider.DELETED_RECIPES);
 		// Add a pattern for search queries
 		matcher.addURI(RecipeContract.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY, RecipeProvider.SEARCH);
 		return matcher;
 	}
 
+	/**
+	 * Deletes the matching recipes. Unless the sync adapter is deleting them, the Drive file of each deleted recipe
+	 * that has been uploaded is kept in {@link RecipeContract.DeletedRecipes} in the same transaction, so that the sync
+	 * adapter can delete it from Drive.
+	 * 
+	 * @param db
+	 *            Database to delete from
+	 * @param uri
+	 *            URI of the request
+	 * @param where
+	 *            Selection of the recipes to delete, or null for all recipes
+	 * @param whereArgs
+	 *            Arguments of the selection
+	 * @return The number of recipes deleted
+	 */
+	private static int deleteRecipes(final SQLiteDatabase db, final Uri uri, final String where,
+			final String[] whereArgs)
+	{
+		db.beginTransaction();
+		try
+		{
+			if (!RecipeProvider.isSyncAdapter(uri))
+			{
+				String sql = "INSERT OR IGNORE INTO " + RecipeContract.DeletedRecipes.TABLE_NAME + " ("
+						+ RecipeContract.DeletedRecipes.COLUMN_NAME_DRIVE_ID + ") SELECT "
+						+ RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID + " FROM " + RecipeContract.Recipes.TABLE_NAME
+						+ " WHERE " + RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID + " IS NOT NULL";
+				if (!TextUtils.isEmpty(where))
+					sql = sql + " AND (" + where + ")";
+				if (whereArgs == null)
+					db.execSQL(sql);
+				else
+					db.execSQL(sql, whereArgs);
+			}
+			final int count = db.delete(RecipeContract.Recipes.TABLE_NAME, where, whereArgs);
+			db.setTransactionSuccessful();
+			return count;
+		} finally
+		{
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Gets an ingredient's quantity as a single number, as stored in
+	 * {@link RecipeContract.Ingredients#COLUMN_NAME_QUANTITY_VALUE}
+	 * 
+	 * @param values
+	 *            Values of the ingredient
+	 * @param defaultQuantity
+	 *            Whole number quantity if not present in values
+	 * @param defaultNumerator
+	 *            Numerator of the fractional quantity if not present in values
+	 * @param defaultDenominator
+	 *            Denominator of the fractional quantity if not present in values
+	 * @return The whole number quantity plus the fractional quantity, ignoring a fraction without a positive
+	 *         denominator
+	 */
+	private static double getQuantityValue(final ContentValues values, final int defaultQuantity,
+			final int defaultNumerator, final int defaultDenominator)
+	{
+		final Integer quantity = values.getAsInteger(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY);
+		final Integer numerator = values.getAsInteger(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR);
+		final Integer denominator = values.getAsInteger(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR);
+		final double value = quantity == null ? defaultQuantity : quantity;
+		final int fractionDenominator = denominator == null ? defaultDenominator : denominator;
+		if (fractionDenominator <= 0)
+			return value;
+		return value + (double) (numerator == null ? defaultNumerator : numerator) / fractionDenominator;
+	}
+
+	/**
+	 * Returns whether the given URI was marked by {@link RecipeContract#asSyncAdapter(Uri)}
+	 * 
+	 * @param uri
+	 *            URI of the request
+	 * @return Whether the request comes from the sync adapter
+	 */
+	private static boolean isSyncAdapter(final Uri uri)
+	{
+		return uri.getBooleanQueryParameter(RecipeContract.CALLER_IS_SYNCADAPTER, false);
+	}
+
+	/**
+	 * Counts a local change to the recipes of the matching ingredients or instructions. Called before the change is
+	 * made, so that a change that then fails at worst causes an unnecessary upload rather than a missed one.
+	 * 
+	 * @param db
+	 *            Database to update
+	 * @param uri
+	 *            URI of the request. Changes by the sync adapter are not counted
+	 * @param table
+	 *            Ingredients or instructions table being changed
+	 * @param where
+	 *            Selection of the ingredients or instructions being changed, or null for all rows
+	 * @param whereArgs
+	 *            Arguments of the selection
+	 */
+	private static void markParentRecipesDirty(final SQLiteDatabase db, final Uri uri, final String table,
+			final String where, final String[] whereArgs)
+	{
+		// Ingredients and Instructions use the same name for their recipe ID column
+		String parentWhere = BaseColumns._ID + " IN (SELECT " + RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID
+				+ " FROM " + table;
+		if (!TextUtils.isEmpty(where))
+			parentWhere = parentWhere + " WHERE " + where;
+		RecipeProvider.markRecipesDirty(db, uri, parentWhere + ")", whereArgs);
+	}
+
+	/**
+	 * Counts a local change to the matching recipes so that the sync adapter uploads them
+	 * 
+	 * @param db
+	 *            Database to update
+	 * @param uri
+	 *            URI of the request. Changes by the sync adapter are not counted
+	 * @param where
+	 *            Selection of the changed recipes, or null for all recipes
+	 * @param whereArgs
+	 *            Arguments of the selection
+	 */
+	private static void markRecipesDirty(final SQLiteDatabase db, final Uri uri, final String where,
+			final String[] whereArgs)
+	{
+		if (RecipeProvider.isSyncAdapter(uri))
+			return;
+		String sql = "UPDATE " + RecipeContract.Recipes.TABLE_NAME + " SET " + RecipeContract.Recipes.COLUMN_NAME_DIRTY
+				+ "=" + RecipeContract.Recipes.COLUMN_NAME_DIRTY + "+1";
+		if (!TextUtils.isEmpty(where))
+			sql = sql + " WHERE " + where;
+		if (whereArgs == null)
+			db.execSQL(sql);
+		else
+			db.execSQL(sql, whereArgs);
+	}
+
+	/**
+	 * Splits a user entered search query into its searchable words
+	 * 
+	 * @param query
+	 *            User entered search query
+	 * @return The lowercase words of the query, ignoring any punctuation
+	 */
+	static String[] splitSearchQuery(final String query)
+	{
+		final ArrayList<String> words = new ArrayList<String>();
+		// Strip out any characters with special meaning to MATCH, lowercasing words so that AND/OR/NOT/NEAR are never
+		// treated as operators
+		for (final String word : query.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+"))
+			if (!word.isEmpty())
+				words.add(word);
+		return words.toArray(new String[words.size()]);
+	}
+
+	/**
+	 * Updates the matching ingredients in a single statement, keeping
+	 * {@link RecipeContract.Ingredients#COLUMN_NAME_QUANTITY_VALUE} in step with any changed quantity column. When only
+	 * some of the quantity columns change, the value is computed in SQL from the new values and each row's unchanged
+	 * quantity columns.
+	 * 
+	 * @param db
+	 *            Database to update
+	 * @param initialValues
+	 *            New column values of the ingredients
+	 * @param where
+	 *            Selection of the ingredients to update, or null for all ingredients
+	 * @param whereArgs
+	 *            Arguments of the selection
+	 * @return The number of rows affected
+	 */
+	private static int updateIngredients(final SQLiteDatabase db, final ContentValues initialValues,
+			final String where, final String[] whereArgs)
+	{
+		final boolean hasQuantity = initialValues.containsKey(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY);
+		final boolean hasNumerator = initialValues
+				.containsKey(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR);
+		final boolean hasDenominator = initialValues
+				.containsKey(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR);
+		if (!hasQuantity && !hasNumerator && !hasDenominator)
+			return db.update(RecipeContract.Ingredients.TABLE_NAME, initialValues, where, whereArgs);
+		if (hasQuantity && hasNumerator && hasDenominator)
+		{
+			final ContentValues values = new ContentValues(initialValues);
+			values.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_VALUE,
+					RecipeProvider.getQuantityValue(values, 0, 0, 0));
+			return db.update(RecipeContract.Ingredients.TABLE_NAME, values, where, whereArgs);
+		}
+		final StringBuilder sql = new StringBuilder("UPDATE ");
+		sql.append(RecipeContract.Ingredients.TABLE_NAME).append(" SET ");
+		final ArrayList<Object> bindArgs = new ArrayList<Object>();
+		for (final Map.Entry<String, Object> value : initialValues.valueSet())
+		{
+			sql.append(value.getKey()).append("=?,");
+			bindArgs.add(value.getValue());
+		}
+		// Column references on the right hand side of an UPDATE read each row's values from before the update
+		sql.append(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_VALUE).append('=');
+		sql.append(RecipeProvider.buildQuantityValueExpression(hasQuantity ? "?"
+				: RecipeContract.Ingredients.COLUMN_NAME_QUANTITY, hasNumerator ? "?"
+				: RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR, hasDenominator ? "?"
+				: RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR));
+		// Bind arguments in the order they appear in the expression, the denominator being used twice
+		if (hasQuantity)
+			bindArgs.add(initialValues.get(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY));
+		if (hasDenominator)
+			bindArgs.add(initialValues.get(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR));
+		if (hasNumerator)
+			bindArgs.add(initialValues.get(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR));
+		if (hasDenominator)
+			bindArgs.add(initialValues.get(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR));
+		if (!TextUtils.isEmpty(where))
+			sql.append(" WHERE ").append(where);
+		if (whereArgs != null)
+			for (final String whereArg : whereArgs)
+				bindArgs.add(whereArg);
+		final SQLiteStatement update = db.compileStatement(sql.toString());
+		try
+		{
+			for (int index = 0; index < bindArgs.size(); index++)
+				DatabaseUtils.bindObjectToProgram(update, index + 1, bindArgs.get(index));
+			return update.executeUpdateDelete();
+		} finally
+		{
+			update.close();
+		}
+	}
+
+	/**
+	 * Recomputes {@link RecipeContract.Ingredients#COLUMN_NAME_QUANTITY_VALUE} of the matching ingredients from their
+	 * quantity columns in a single statement, filling in the value of rows written without it
+	 * 
+	 * @param db
+	 *            Database to update
+	 * @param where
+	 *            Selection of the ingredients to update, or null for all ingredients
+	 * @param whereArgs
+	 *            Arguments of the selection
+	 */
+	private static void updateQuantityValues(final SQLiteDatabase db, final String where, final String[] whereArgs)
+	{
+		String sql = "UPDATE " + RecipeContract.Ingredients.TABLE_NAME + " SET "
+				+ RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_VALUE + "="
+				+ RecipeProvider.QUANTITY_VALUE_EXPRESSION;
+		if (!TextUtils.isEmpty(where))
+			sql = sql + " WHERE " + where;
+		if (whereArgs == null)
+			db.execSQL(sql);
+		else
+			db.execSQL(sql, whereArgs);
+	}
+
 	/**
 	 * Handle to a new DatabaseHelper.
 	 */
 	private DatabaseHelper databaseHelper;
+	/**
+	 * Sends change notifications, deferring those raised during a batch until the batch completes
+	 */
+	private NotificationCoalescer notifier;
+	/**
+	 * Produces search suggestions as the user types
+	 */
+	private RecipeSuggestionEngine suggestionEngine;
 
 	/**
 	 * Create a new RecipeProvider
@@ -636,6 +1628,193 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 		setupSuggestions(RecipeContract.AUTHORITY, RecipeContract.Recipes.SEARCH_MODE);
 	}
 
+	/**
+	 * Applies all of the given operations within a single transaction such that either all of the operations succeed or
+	 * none of them are applied. Back references between operations (i.e., inserting ingredients for a newly inserted
+	 * recipe) are resolved by the default implementation. Change notifications are deferred until the transaction
+	 * commits, at which point a single notification is sent per affected URI.
+	 * 
+	 * @see android.content.ContentProvider#applyBatch(java.util.ArrayList)
+	 */
+	@Override
+	public ContentProviderResult[] applyBatch(final ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException
+	{
+		final SQLiteDatabase db = databaseHelper.getWritableDatabase();
+		notifier.beginBatch();
+		boolean successful = false;
+		try
+		{
+			final ContentProviderResult[] results;
+			db.beginTransaction();
+			try
+			{
+				results = super.applyBatch(operations);
+				DatabaseHelper.refreshSearchTable(db);
+				db.setTransactionSuccessful();
+			} finally
+			{
+				db.endTransaction();
+			}
+			successful = true;
+			databaseHelper.checkpointAfterBatch(db, operations.size());
+			return results;
+		} finally
+		{
+			notifier.endBatch(successful);
+		}
+	}
+
+	@Override
+	public int bulkInsert(final Uri uri, final ContentValues[] values)
+	{
+		// Only ingredients and instructions are inserted in bulk - everything else uses the default one by one insert
+		switch (RecipeProvider.uriMatcher.match(uri))
+		{
+			case INGREDIENTS:
+				return bulkInsertIngredients(uri, values);
+			case INSTRUCTIONS:
+				return bulkInsertInstructions(uri, values);
+			default:
+				return super.bulkInsert(uri, values);
+		}
+	}
+
+	/**
+	 * Creates multiple new Ingredient rows in a single transaction, using one compiled insert statement and sending a
+	 * single change notification for the whole batch.
+	 * 
+	 * @param uri
+	 *            The content:// URI of the insertion request.
+	 * @param values
+	 *            An array of sets of column_name/value pairs to add to the database. Each must contain the Recipe ID
+	 *            associated with that ingredient
+	 * @return The number of rows inserted
+	 */
+	private int bulkInsertIngredients(final Uri uri, final ContentValues[] values)
+	{
+		// Load the defaults once for the whole batch rather than once per row
+		final Resources resources = getContext().getResources();
+		final int defaultQuantity = resources.getInteger(R.integer.default_ingredient_quantity);
+		final int defaultQuantityNumerator = resources.getInteger(R.integer.default_ingredient_quantity_numerator);
+		final int defaultQuantityDenominator = resources.getInteger(R.integer.default_ingredient_quantity_denominator);
+		final String defaultUnit = resources.getString(R.string.default_ingredient_unit);
+		final int defaultUnitId = UnitLexicon.getUnitId(defaultUnit);
+		final String defaultItem = resources.getString(R.string.default_ingredient_item);
+		final String defaultPreparation = resources.getString(R.string.default_ingredient_preparation);
+		final SQLiteDatabase db = databaseHelper.getWritableDatabase();
+		final SQLiteStatement insert = db.compileStatement("INSERT INTO " + RecipeContract.Ingredients.TABLE_NAME
+				+ " (" + RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + ","
+				+ RecipeContract.Ingredients.COLUMN_NAME_QUANTITY + ","
+				+ RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR + ","
+				+ RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR + ","
+				+ RecipeContract.Ingredients.COLUMN_NAME_UNIT + "," + RecipeContract.Ingredients.COLUMN_NAME_ITEM + ","
+				+ RecipeContract.Ingredients.COLUMN_NAME_PREPARATION + ","
+				+ RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID + ","
+				+ RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_VALUE + ") VALUES (?,?,?,?,?,?,?,?,?)");
+		final HashSet<String> recipeIds = new HashSet<String>();
+		db.beginTransaction();
+		try
+		{
+			for (final ContentValues ingredientValues : values)
+			{
+				if (!ingredientValues.containsKey(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID))
+					throw new IllegalArgumentException("Initial values must contain Recipe ID " + ingredientValues);
+				recipeIds.add(ingredientValues.getAsString(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID));
+				insert.clearBindings();
+				RecipeProvider.bindValue(insert, 1, ingredientValues,
+						RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID, null);
+				RecipeProvider.bindValue(insert, 2, ingredientValues, RecipeContract.Ingredients.COLUMN_NAME_QUANTITY,
+						defaultQuantity);
+				RecipeProvider.bindValue(insert, 3, ingredientValues,
+						RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR, defaultQuantityNumerator);
+				RecipeProvider.bindValue(insert, 4, ingredientValues,
+						RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR, defaultQuantityDenominator);
+				RecipeProvider.bindValue(insert, 5, ingredientValues, RecipeContract.Ingredients.COLUMN_NAME_UNIT,
+						defaultUnit);
+				RecipeProvider.bindValue(insert, 6, ingredientValues, RecipeContract.Ingredients.COLUMN_NAME_ITEM,
+						defaultItem);
+				RecipeProvider.bindValue(insert, 7, ingredientValues,
+						RecipeContract.Ingredients.COLUMN_NAME_PREPARATION, defaultPreparation);
+				if (ingredientValues.containsKey(RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID))
+					RecipeProvider.bindValue(insert, 8, ingredientValues,
+							RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID, null);
+				else if (ingredientValues.containsKey(RecipeContract.Ingredients.COLUMN_NAME_UNIT))
+					insert.bindLong(8, UnitLexicon.getUnitId(ingredientValues
+							.getAsString(RecipeContract.Ingredients.COLUMN_NAME_UNIT)));
+				else
+					insert.bindLong(8, defaultUnitId);
+				insert.bindDouble(9, RecipeProvider.getQuantityValue(ingredientValues, defaultQuantity,
+						defaultQuantityNumerator, defaultQuantityDenominator));
+				// If the insert didn't succeed, then the rowID is <= 0
+				if (insert.executeInsert() <= 0)
+					throw new SQLException("Failed to insert row into " + uri);
+			}
+			for (final String recipeId : recipeIds)
+				RecipeProvider.markRecipesDirty(db, uri, BaseColumns._ID + "=?", new String[] { recipeId });
+			DatabaseHelper.refreshSearchTable(db);
+			db.setTransactionSuccessful();
+		} finally
+		{
+			db.endTransaction();
+			insert.close();
+		}
+		notifier.notifyChange(uri, !RecipeProvider.isSyncAdapter(uri));
+		notifySearchResults(uri);
+		return values.length;
+	}
+
+	/**
+	 * Creates multiple new Instruction rows in a single transaction, using one compiled insert statement and sending a
+	 * single change notification for the whole batch.
+	 * 
+	 * @param uri
+	 *            The content:// URI of the insertion request.
+	 * @param values
+	 *            An array of sets of column_name/value pairs to add to the database. Each must contain the Recipe ID
+	 *            associated with that instruction
+	 * @return The number of rows inserted
+	 */
+	private int bulkInsertInstructions(final Uri uri, final ContentValues[] values)
+	{
+		final String defaultInstruction = getContext().getResources().getString(
+				R.string.default_instruction_instruction);
+		final SQLiteDatabase db = databaseHelper.getWritableDatabase();
+		final SQLiteStatement insert = db.compileStatement("INSERT INTO " + RecipeContract.Instructions.TABLE_NAME
+				+ " (" + RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID + ","
+				+ RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION + ") VALUES (?,?)");
+		final HashSet<String> recipeIds = new HashSet<String>();
+		db.beginTransaction();
+		try
+		{
+			for (final ContentValues instructionValues : values)
+			{
+				if (!instructionValues.containsKey(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID))
+					throw new IllegalArgumentException("Initial values must contain Recipe ID " + instructionValues);
+				recipeIds.add(instructionValues.getAsString(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID));
+				insert.clearBindings();
+				RecipeProvider.bindValue(insert, 1, instructionValues,
+						RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID, null);
+				RecipeProvider.bindValue(insert, 2, instructionValues,
+						RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION, defaultInstruction);
+				// If the insert didn't succeed, then the rowID is <= 0
+				if (insert.executeInsert() <= 0)
+					throw new SQLException("Failed to insert row into " + uri);
+			}
+			for (final String recipeId : recipeIds)
+				RecipeProvider.markRecipesDirty(db, uri, BaseColumns._ID + "=?", new String[] { recipeId });
+			DatabaseHelper.refreshSearchTable(db);
+			db.setTransactionSuccessful();
+		} finally
+		{
+			db.endTransaction();
+			insert.close();
+		}
+		notifier.notifyChange(uri, !RecipeProvider.isSyncAdapter(uri));
+		notifySearchResults(uri);
+		return values.length;
+	}
+
 	@Override
 	public int delete(final Uri uri, final String where, final String[] whereArgs)
 	{
@@ -643,13 +1822,14 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 		final SQLiteDatabase db = databaseHelper.getWritableDatabase();
 		String finalWhere;
 		int count;
+		final int match = RecipeProvider.uriMatcher.match(uri);
 		// Does the delete based on the incoming URI pattern.
-		switch (RecipeProvider.uriMatcher.match(uri))
+		switch (match)
 		{
 			case RECIPES:
 				// If the incoming pattern matches the general pattern for recipes, does a delete based on the incoming
 				// "where" columns and arguments.
-				count = db.delete(RecipeContract.Recipes.TABLE_NAME, where, whereArgs);
+				count = RecipeProvider.deleteRecipes(db, uri, where, whereArgs);
 				break;
 			case RECIPE_ID:
 				// If the incoming URI matches a single recipe ID, does the delete based on the incoming data, but
@@ -659,11 +1839,12 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 				// If there were additional selection criteria, append them to the final WHERE clause
 				if (where != null)
 					finalWhere = finalWhere + " AND " + where;
-				count = db.delete(RecipeContract.Recipes.TABLE_NAME, finalWhere, whereArgs);
+				count = RecipeProvider.deleteRecipes(db, uri, finalWhere, whereArgs);
 				break;
 			case INGREDIENTS:
 				// If the incoming pattern matches the general pattern for ingredients, does a delete based on the
 				// incoming "where" columns and arguments.
+				RecipeProvider.markParentRecipesDirty(db, uri, RecipeContract.Ingredients.TABLE_NAME, where, whereArgs);
 				count = db.delete(RecipeContract.Ingredients.TABLE_NAME, where, whereArgs);
 				break;
 			case INGREDIENT_ID:
@@ -674,11 +1855,15 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 				// If there were additional selection criteria, append them to the final WHERE clause
 				if (where != null)
 					finalWhere = finalWhere + " AND " + where;
+				RecipeProvider.markParentRecipesDirty(db, uri, RecipeContract.Ingredients.TABLE_NAME, finalWhere,
+						whereArgs);
 				count = db.delete(RecipeContract.Ingredients.TABLE_NAME, finalWhere, whereArgs);
 				break;
 			case INSTRUCTIONS:
 				// If the incoming pattern matches the general pattern for instructions, does a delete based on the
 				// incoming "where" columns and arguments.
+				RecipeProvider.markParentRecipesDirty(db, uri, RecipeContract.Instructions.TABLE_NAME, where,
+						whereArgs);
 				count = db.delete(RecipeContract.Instructions.TABLE_NAME, where, whereArgs);
 				break;
 			case INSTRUCTION_ID:
@@ -689,12 +1874,22 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 				// If there were additional selection criteria, append them to the final WHERE clause
 				if (where != null)
 					finalWhere = finalWhere + " AND " + where;
+				RecipeProvider.markParentRecipesDirty(db, uri, RecipeContract.Instructions.TABLE_NAME, finalWhere,
+						whereArgs);
 				count = db.delete(RecipeContract.Instructions.TABLE_NAME, finalWhere, whereArgs);
 				break;
+			case DELETED_RECIPES:
+				// Deleted recipes are forgotten once their deletion has been synced
+				count = db.delete(RecipeContract.DeletedRecipes.TABLE_NAME, where, whereArgs);
+				break;
 			default:
 				return super.delete(uri, where, whereArgs);
 		}
-		getContext().getContentResolver().notifyChange(uri, null);
+		refreshSearch(db);
+		notifier.notifyChange(uri, !RecipeProvider.isSyncAdapter(uri));
+		if (match == RecipeProvider.INGREDIENTS || match == RecipeProvider.INGREDIENT_ID
+				|| match == RecipeProvider.INSTRUCTIONS || match == RecipeProvider.INSTRUCTION_ID)
+			notifySearchResults(uri);
 		return count;
 	}
 
@@ -712,6 +1907,9 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 			case RECIPE_ID:
 				// If the pattern is for recipe IDs, returns the recipe ID content type.
 				return RecipeContract.Recipes.CONTENT_ITEM_TYPE;
+			case RECIPE_SEARCH:
+				// If the pattern is for recipe searches, returns the general content type.
+				return RecipeContract.Recipes.CONTENT_TYPE;
 			case INGREDIENTS:
 				// If the pattern is for ingredients, returns the general content type.
 				return RecipeContract.Ingredients.CONTENT_TYPE;
@@ -724,6 +1922,12 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 			case INSTRUCTION_ID:
 				// If the pattern is for instruction IDs, returns the instruction ID content type.
 				return RecipeContract.Instructions.CONTENT_ITEM_TYPE;
+			case EXPORT:
+				// If the pattern is for the export, returns the export content type.
+				return RecipeContract.Export.CONTENT_TYPE;
+			case DELETED_RECIPES:
+				// If the pattern is for deleted recipes, returns the general content type.
+				return RecipeContract.DeletedRecipes.CONTENT_TYPE;
 			default:
 				return super.getType(uri);
 		}
@@ -771,9 +1975,15 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 		if (!values.containsKey(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR))
 			values.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR, getContext().getResources()
 					.getInteger(R.integer.default_ingredient_quantity_denominator));
+		// Every quantity column is now present, so the defaults are never used
+		values.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_VALUE,
+				RecipeProvider.getQuantityValue(values, 0, 0, 0));
 		if (!values.containsKey(RecipeContract.Ingredients.COLUMN_NAME_UNIT))
 			values.put(RecipeContract.Ingredients.COLUMN_NAME_UNIT,
 					getContext().getResources().getString(R.string.default_ingredient_unit));
+		if (!values.containsKey(RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID))
+			values.put(RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID,
+					UnitLexicon.getUnitId(values.getAsString(RecipeContract.Ingredients.COLUMN_NAME_UNIT)));
 		if (!values.containsKey(RecipeContract.Ingredients.COLUMN_NAME_ITEM))
 			values.put(RecipeContract.Ingredients.COLUMN_NAME_ITEM,
 					getContext().getResources().getString(R.string.default_ingredient_item));
@@ -788,7 +1998,11 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 		{
 			// Creates a URI with the ingredient ID pattern and the new row ID appended to it.
 			final Uri ingredientUri = ContentUris.withAppendedId(RecipeContract.Ingredients.CONTENT_ID_URI_BASE, rowId);
-			getContext().getContentResolver().notifyChange(ingredientUri, null);
+			RecipeProvider.markRecipesDirty(db, uri, BaseColumns._ID + "=?",
+					new String[] { values.getAsString(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID) });
+			refreshSearch(db);
+			notifier.notifyChange(ingredientUri, !RecipeProvider.isSyncAdapter(uri));
+			notifySearchResults(uri);
 			return ingredientUri;
 		}
 		// If the insert didn't succeed, then the rowID is <= 0
@@ -826,7 +2040,11 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 			// Creates a URI with the instruction ID pattern and the new row ID appended to it.
 			final Uri instructionUri = ContentUris.withAppendedId(RecipeContract.Instructions.CONTENT_ID_URI_BASE,
 					rowId);
-			getContext().getContentResolver().notifyChange(instructionUri, null);
+			RecipeProvider.markRecipesDirty(db, uri, BaseColumns._ID + "=?",
+					new String[] { values.getAsString(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID) });
+			refreshSearch(db);
+			notifier.notifyChange(instructionUri, !RecipeProvider.isSyncAdapter(uri));
+			notifySearchResults(uri);
 			return instructionUri;
 		}
 		// If the insert didn't succeed, then the rowID is <= 0
@@ -855,6 +2073,8 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 		if (!values.containsKey(RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION))
 			values.put(RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION,
 					getContext().getResources().getString(R.string.default_recipe_description));
+		if (!RecipeProvider.isSyncAdapter(uri) && !values.containsKey(RecipeContract.Recipes.COLUMN_NAME_DIRTY))
+			values.put(RecipeContract.Recipes.COLUMN_NAME_DIRTY, 1);
 		final SQLiteDatabase db = databaseHelper.getWritableDatabase();
 		final long rowId = db.insert(RecipeContract.Recipes.TABLE_NAME, RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION,
 				values);
@@ -863,13 +2083,26 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 		{
 			// Creates a URI with the recipe ID pattern and the new row ID appended to it.
 			final Uri recipeUri = ContentUris.withAppendedId(RecipeContract.Recipes.CONTENT_ID_URI_BASE, rowId);
-			getContext().getContentResolver().notifyChange(recipeUri, null);
+			notifier.notifyChange(recipeUri, !RecipeProvider.isSyncAdapter(uri));
 			return recipeUri;
 		}
 		// If the insert didn't succeed, then the rowID is <= 0
 		throw new SQLException("Failed to insert row into " + uri);
 	}
 
+	/**
+	 * Notifies open search results of a change to ingredients or instructions. Search results are notified on
+	 * {@link RecipeContract.Recipes#CONTENT_URI}, which is not an ancestor of the ingredient and instruction URIs.
+	 * Within a batch, the notification is deferred until the search text has been refreshed and the batch committed.
+	 * 
+	 * @param uri
+	 *            The content:// URI of the ingredient or instruction change
+	 */
+	private void notifySearchResults(final Uri uri)
+	{
+		notifier.notifyChange(RecipeContract.Recipes.CONTENT_URI, !RecipeProvider.isSyncAdapter(uri));
+	}
+
 	/**
 	 * Creates the underlying DatabaseHelper
 	 * 
@@ -880,6 +2113,9 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	{
 		super.onCreate();
 		databaseHelper = new DatabaseHelper(getContext());
+		notifier = new NotificationCoalescer(getContext().getContentResolver());
+		suggestionEngine = new RecipeSuggestionEngine(databaseHelper);
+		suggestionEngine.registerObserver(getContext().getContentResolver());
 		return true;
 	}
 
@@ -887,40 +2123,132 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs,
 			final String sortOrder)
 	{
-		if (RecipeProvider.uriMatcher.match(uri) == RecipeProvider.RECIPES
-				|| RecipeProvider.uriMatcher.match(uri) == RecipeProvider.RECIPE_ID)
-			return queryRecipe(uri, projection, selection, selectionArgs, sortOrder);
-		else if (RecipeProvider.uriMatcher.match(uri) == RecipeProvider.INGREDIENTS
-				|| RecipeProvider.uriMatcher.match(uri) == RecipeProvider.INGREDIENT_ID)
-			return queryIngredient(uri, projection, selection, selectionArgs, sortOrder);
-		else if (RecipeProvider.uriMatcher.match(uri) == RecipeProvider.INSTRUCTIONS
-				|| RecipeProvider.uriMatcher.match(uri) == RecipeProvider.INSTRUCTION_ID)
-			return queryInstruction(uri, projection, selection, selectionArgs, sortOrder);
-		else if (RecipeProvider.uriMatcher.match(uri) == RecipeProvider.SEARCH)
+		return query(uri, RecipeProvider.uriMatcher.match(uri), projection, selection, selectionArgs, sortOrder, null);
+	}
+
+	/**
+	 * Allows search suggestion queries to be cancelled, i.e., when the user continues typing
+	 * 
+	 * @see android.content.ContentProvider#query(Uri, String[], String, String[], String, CancellationSignal)
+	 */
+	@Override
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs,
+			final String sortOrder, final CancellationSignal cancellationSignal)
+	{
+		return query(uri, RecipeProvider.uriMatcher.match(uri), projection, selection, selectionArgs, sortOrder,
+				cancellationSignal);
+	}
+
+	/**
+	 * Dispatches a query to the table specific query method, matching the URI only once per query
+	 * 
+	 * @param uri
+	 *            The URI to query
+	 * @param match
+	 *            The code of the URI pattern matched by the uri
+	 * @param projection
+	 *            The list of columns to put into the cursor. If null all columns are included.
+	 * @param selection
+	 *            A selection criteria to apply when filtering rows. If null then all rows are included.
+	 * @param selectionArgs
+	 *            You may include ?s in selection, which will be replaced by the values from selectionArgs, in order
+	 *            that they appear in the selection. The values will be bound as Strings.
+	 * @param sortOrder
+	 *            How the rows in the cursor should be sorted. If null then the provider is free to define the sort
+	 *            order.
+	 * @param cancellationSignal
+	 *            Signal to cancel search suggestion queries, or null if the query cannot be cancelled
+	 * @return A Cursor or null.
+	 */
+	private Cursor query(final Uri uri, final int match, final String[] projection, final String selection,
+			final String[] selectionArgs, final String sortOrder, final CancellationSignal cancellationSignal)
+	{
+		switch (match)
 		{
-			final Cursor recentCursor = super.query(uri, projection, selection, selectionArgs, sortOrder);
-			if (selectionArgs[0].length() < 2)
-				return recentCursor;
-			final String[] searchProjection = new String[] {
-					"0 AS " + SearchManager.SUGGEST_COLUMN_FORMAT,
-					"'" + R.drawable.placeholder + "' AS " + SearchManager.SUGGEST_COLUMN_ICON_1,
-					RecipeContract.Recipes.COLUMN_NAME_TITLE + " AS " + SearchManager.SUGGEST_COLUMN_TEXT_1,
-					RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION + " AS " + SearchManager.SUGGEST_COLUMN_TEXT_2,
-					"'" + RecipeContract.Recipes.CONTENT_ID_URI_BASE + "'||" + BaseColumns._ID + " AS "
-							+ SearchManager.SUGGEST_COLUMN_QUERY,
-					BaseColumns._ID,
-					"'android.intent.action.VIEW' AS " + SearchManager.SUGGEST_COLUMN_INTENT_ACTION,
-					"'" + RecipeContract.Recipes.CONTENT_ID_URI_BASE + "'||" + BaseColumns._ID + " AS "
-							+ SearchManager.SUGGEST_COLUMN_INTENT_DATA };
-			final String searchSelection = RecipeContract.Recipes.COLUMN_NAME_TITLE + " LIKE ? OR "
-					+ RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION + " LIKE ?";
-			final String[] searchSelectionArgs = { "%" + selectionArgs[0] + "%", "%" + selectionArgs[0] + "%" };
-			final Cursor searchCursor = query(RecipeContract.Recipes.CONTENT_URI, searchProjection, searchSelection,
-					searchSelectionArgs, null);
-			return new MergeCursor(new Cursor[] { recentCursor, searchCursor });
+			case RECIPES:
+			case RECIPE_ID:
+			case RECIPE_SEARCH:
+				return queryRecipe(uri, match, projection, selection, selectionArgs, sortOrder);
+			case INGREDIENTS:
+			case INGREDIENT_ID:
+				return queryIngredient(uri, match, projection, selection, selectionArgs, sortOrder);
+			case INSTRUCTIONS:
+			case INSTRUCTION_ID:
+				return queryInstruction(uri, match, projection, selection, selectionArgs, sortOrder);
+			case EXPORT:
+				return queryExport(uri, projection, selection, selectionArgs, sortOrder);
+			case DELETED_RECIPES:
+				return queryDeletedRecipes(uri, projection, selection, selectionArgs, sortOrder);
+			case SEARCH:
+				return querySuggestions(uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+			default:
+				return super.query(uri, projection, selection, selectionArgs, sortOrder);
 		}
+	}
+
+	/**
+	 * Queries for recipes deleted locally whose Drive file has not yet been deleted
+	 * 
+	 * @param uri
+	 *            The URI to query.
+	 * @param projection
+	 *            The list of columns to put into the cursor. If null all columns are included.
+	 * @param selection
+	 *            A selection criteria to apply when filtering rows. If null then all rows are included.
+	 * @param selectionArgs
+	 *            You may include ?s in selection, which will be replaced by the values from selectionArgs, in order
+	 *            that they appear in the selection. The values will be bound as Strings.
+	 * @param sortOrder
+	 *            How the rows in the cursor should be sorted. If null then the provider is free to define the sort
+	 *            order.
+	 * @return A Cursor or null.
+	 */
+	private Cursor queryDeletedRecipes(final Uri uri, final String[] projection, final String selection,
+			final String[] selectionArgs, final String sortOrder)
+	{
+		final SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+		qb.setTables(RecipeContract.DeletedRecipes.TABLE_NAME);
+		qb.setProjectionMap(RecipeProvider.DELETED_RECIPE_PROJECTION_MAP);
+		final SQLiteDatabase db = databaseHelper.getReadableDatabase();
+		final Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+		c.setNotificationUri(getContext().getContentResolver(), uri);
+		return c;
+	}
+
+	/**
+	 * Queries for the export of recipes along with their ingredients and instructions in a single cursor, allowing the
+	 * whole library to be read with one query rather than one query per recipe.
+	 * 
+	 * @param uri
+	 *            The URI to query.
+	 * @param projection
+	 *            The list of columns to put into the cursor. If null all columns are included.
+	 * @param selection
+	 *            A selection criteria to apply when filtering rows (i.e., on the recipe ID to export a single recipe).
+	 *            If null then all rows are included.
+	 * @param selectionArgs
+	 *            You may include ?s in selection, which will be replaced by the values from selectionArgs, in order
+	 *            that they appear in the selection. The values will be bound as Strings.
+	 * @param sortOrder
+	 *            How the rows in the cursor should be sorted. If null then each recipe's rows are grouped together.
+	 * @return A Cursor or null.
+	 */
+	private Cursor queryExport(final Uri uri, final String[] projection, final String selection,
+			final String[] selectionArgs, final String sortOrder)
+	{
+		final SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+		qb.setTables(RecipeProvider.EXPORT_TABLES);
+		qb.setProjectionMap(RecipeProvider.EXPORT_PROJECTION_MAP);
+		String orderBy;
+		if (TextUtils.isEmpty(sortOrder))
+			orderBy = RecipeContract.Export.DEFAULT_SORT_ORDER;
 		else
-			return super.query(uri, projection, selection, selectionArgs, sortOrder);
+			orderBy = sortOrder;
+		final SQLiteDatabase db = databaseHelper.getReadableDatabase();
+		final Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+		c.setNotificationUri(getContext().getContentResolver(), uri);
+		return c;
 	}
 
 	/**
@@ -930,6 +2258,8 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	 *            The URI to query. This will be the full URI sent by the client; if the client is requesting a specific
 	 *            record, the URI will end in a record number that the implementation should parse and add to a WHERE or
 	 *            HAVING clause, specifying that _id value.
+	 * @param match
+	 *            The code of the URI pattern matched by the uri
 	 * @param projection
 	 *            The list of columns to put into the cursor. If null all columns are included.
 	 * @param selection
@@ -942,38 +2272,31 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	 *            order.
 	 * @return A Cursor or null.
 	 */
-	private Cursor queryIngredient(final Uri uri, final String[] projection, final String selection,
+	private Cursor queryIngredient(final Uri uri, final int match, final String[] projection, final String selection,
 			final String[] selectionArgs, final String sortOrder)
 	{
 		// Constructs a new query builder and sets its table name
 		final SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
 		qb.setTables(RecipeContract.Ingredients.TABLE_NAME);
-		final HashMap<String, String> allColumnProjectionMap = new HashMap<String, String>();
-		allColumnProjectionMap.put(BaseColumns._ID, BaseColumns._ID);
-		allColumnProjectionMap.put(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID,
-				RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID);
-		allColumnProjectionMap.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY,
-				RecipeContract.Ingredients.COLUMN_NAME_QUANTITY);
-		allColumnProjectionMap.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR,
-				RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_NUMERATOR);
-		allColumnProjectionMap.put(RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR,
-				RecipeContract.Ingredients.COLUMN_NAME_QUANTITY_DENOMINATOR);
-		allColumnProjectionMap.put(RecipeContract.Ingredients.COLUMN_NAME_UNIT,
-				RecipeContract.Ingredients.COLUMN_NAME_UNIT);
-		allColumnProjectionMap.put(RecipeContract.Ingredients.COLUMN_NAME_ITEM,
-				RecipeContract.Ingredients.COLUMN_NAME_ITEM);
-		allColumnProjectionMap.put(RecipeContract.Ingredients.COLUMN_NAME_PREPARATION,
-				RecipeContract.Ingredients.COLUMN_NAME_PREPARATION);
-		qb.setProjectionMap(allColumnProjectionMap);
-		switch (RecipeProvider.uriMatcher.match(uri))
+		qb.setProjectionMap(RecipeProvider.INGREDIENT_PROJECTION_MAP);
+		String[] finalSelectionArgs = selectionArgs;
+		switch (match)
 		{
 			case INGREDIENTS:
+				final String recipeId = uri.getQueryParameter(RecipeContract.Ingredients.QUERY_PARAMETER_RECIPE_ID);
+				if (recipeId != null)
+				{
+					qb.appendWhere(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + "=?");
+					finalSelectionArgs = RecipeProvider.buildIdSelectionArgs(recipeId, selectionArgs);
+				}
 				break;
 			case INGREDIENT_ID:
-				// If the incoming URI is for a single ingredient identified by its ID, appends "_ID = <ingredientId>"
-				// to the where clause, so that it selects that single ingredient
-				qb.appendWhere(BaseColumns._ID + "="
-						+ uri.getPathSegments().get(RecipeContract.Ingredients.INGREDIENT_ID_PATH_POSITION));
+				// If the incoming URI is for a single ingredient identified by its ID, appends "_ID = ?" to the where
+				// clause, binding the ingredient ID, so that it selects that single ingredient
+				qb.appendWhere(BaseColumns._ID + "=?");
+				finalSelectionArgs = RecipeProvider.buildIdSelectionArgs(
+						uri.getPathSegments().get(RecipeContract.Ingredients.INGREDIENT_ID_PATH_POSITION),
+						selectionArgs);
 				break;
 			default:
 				throw new IllegalArgumentException("Unknown URI " + uri);
@@ -984,9 +2307,38 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 		else
 			orderBy = sortOrder;
 		final SQLiteDatabase db = databaseHelper.getReadableDatabase();
-		final Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
-		c.setNotificationUri(getContext().getContentResolver(), uri);
-		return c;
+		final String scaleParameter = uri.getQueryParameter(RecipeContract.Ingredients.QUERY_PARAMETER_SCALE);
+		if (scaleParameter == null)
+		{
+			final Cursor c = qb.query(db, projection, selection, finalSelectionArgs, null, null, orderBy);
+			c.setNotificationUri(getContext().getContentResolver(), uri);
+			return c;
+		}
+		final long scale;
+		try
+		{
+			scale = Rational.parse(scaleParameter);
+		} catch (final NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Invalid scale " + scaleParameter + " in " + uri, e);
+		}
+		if (Rational.compare(scale, Rational.ZERO) <= 0)
+			throw new IllegalArgumentException("Scale " + scaleParameter + " not positive in " + uri);
+		// Query every column, as scaling reads the quantity and unit columns whether or not they are projected
+		final Cursor ingredients = qb.query(db, null, selection, finalSelectionArgs, null, null, orderBy);
+		try
+		{
+			final Cursor c = new IngredientScaler(scale).scale(ingredients,
+					projection == null ? ingredients.getColumnNames() : projection);
+			c.setNotificationUri(getContext().getContentResolver(), uri);
+			return c;
+		} catch (final ArithmeticException e)
+		{
+			throw new IllegalArgumentException("Scale " + scaleParameter + " too large in " + uri, e);
+		} finally
+		{
+			ingredients.close();
+		}
 	}
 
 	/**
@@ -996,6 +2348,8 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	 *            The URI to query. This will be the full URI sent by the client; if the client is requesting a specific
 	 *            record, the URI will end in a record number that the implementation should parse and add to a WHERE or
 	 *            HAVING clause, specifying that _id value.
+	 * @param match
+	 *            The code of the URI pattern matched by the uri
 	 * @param projection
 	 *            The list of columns to put into the cursor. If null all columns are included.
 	 * @param selection
@@ -1008,28 +2362,25 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	 *            order.
 	 * @return A Cursor or null.
 	 */
-	private Cursor queryInstruction(final Uri uri, final String[] projection, final String selection,
+	private Cursor queryInstruction(final Uri uri, final int match, final String[] projection, final String selection,
 			final String[] selectionArgs, final String sortOrder)
 	{
 		// Constructs a new query builder and sets its table name
 		final SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
 		qb.setTables(RecipeContract.Instructions.TABLE_NAME);
-		final HashMap<String, String> allColumnProjectionMap = new HashMap<String, String>();
-		allColumnProjectionMap.put(BaseColumns._ID, BaseColumns._ID);
-		allColumnProjectionMap.put(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID,
-				RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID);
-		allColumnProjectionMap.put(RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION,
-				RecipeContract.Instructions.COLUMN_NAME_INSTRUCTION);
-		qb.setProjectionMap(allColumnProjectionMap);
-		switch (RecipeProvider.uriMatcher.match(uri))
+		qb.setProjectionMap(RecipeProvider.INSTRUCTION_PROJECTION_MAP);
+		String[] finalSelectionArgs = selectionArgs;
+		switch (match)
 		{
 			case INSTRUCTIONS:
 				break;
 			case INSTRUCTION_ID:
-				// If the incoming URI is for a single instruction identified by its ID, appends "_ID = <instructionId>"
-				// to the where clause, so that it selects that single instruction
-				qb.appendWhere(BaseColumns._ID + "="
-						+ uri.getPathSegments().get(RecipeContract.Instructions.INSTRUCTION_ID_PATH_POSITION));
+				// If the incoming URI is for a single instruction identified by its ID, appends "_ID = ?" to the where
+				// clause, binding the instruction ID, so that it selects that single instruction
+				qb.appendWhere(BaseColumns._ID + "=?");
+				finalSelectionArgs = RecipeProvider.buildIdSelectionArgs(
+						uri.getPathSegments().get(RecipeContract.Instructions.INSTRUCTION_ID_PATH_POSITION),
+						selectionArgs);
 				break;
 			default:
 				throw new IllegalArgumentException("Unknown URI " + uri);
@@ -1040,7 +2391,7 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 		else
 			orderBy = sortOrder;
 		final SQLiteDatabase db = databaseHelper.getReadableDatabase();
-		final Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+		final Cursor c = qb.query(db, projection, selection, finalSelectionArgs, null, null, orderBy);
 		c.setNotificationUri(getContext().getContentResolver(), uri);
 		return c;
 	}
@@ -1052,6 +2403,8 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	 *            The URI to query. This will be the full URI sent by the client; if the client is requesting a specific
 	 *            record, the URI will end in a record number that the implementation should parse and add to a WHERE or
 	 *            HAVING clause, specifying that _id value.
+	 * @param match
+	 *            The code of the URI pattern matched by the uri
 	 * @param projection
 	 *            The list of columns to put into the cursor. If null all columns are included.
 	 * @param selection
@@ -1064,44 +2417,115 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	 *            order.
 	 * @return A Cursor or null.
 	 */
-	private Cursor queryRecipe(final Uri uri, final String[] projection, final String selection,
+	private Cursor queryRecipe(final Uri uri, final int match, final String[] projection, final String selection,
 			final String[] selectionArgs, final String sortOrder)
 	{
 		// Constructs a new query builder and sets its table name
 		final SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
 		qb.setTables(RecipeContract.Recipes.TABLE_NAME);
-		final HashMap<String, String> allColumnProjectionMap = new HashMap<String, String>();
-		allColumnProjectionMap.put(BaseColumns._ID, BaseColumns._ID);
-		allColumnProjectionMap.put(RecipeContract.Recipes.COLUMN_NAME_TITLE, RecipeContract.Recipes.COLUMN_NAME_TITLE);
-		allColumnProjectionMap.put(RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION,
-				RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION);
-		allColumnProjectionMap.put(RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID,
-				RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID);
-		qb.setProjectionMap(allColumnProjectionMap);
-		switch (RecipeProvider.uriMatcher.match(uri))
+		qb.setProjectionMap(RecipeProvider.RECIPE_PROJECTION_MAP);
+		String defaultOrderBy = RecipeContract.Recipes.DEFAULT_SORT_ORDER;
+		String[] finalSelectionArgs = selectionArgs;
+		switch (match)
 		{
 			case RECIPES:
 				break;
 			case RECIPE_ID:
-				// If the incoming URI is for a single recipe identified by its ID, appends "_ID = <recipeID>" to the
-				// where clause, so that it selects that single recipe
-				qb.appendWhere(BaseColumns._ID + "="
-						+ uri.getPathSegments().get(RecipeContract.Recipes.RECIPE_ID_PATH_POSITION));
+				// If the incoming URI is for a single recipe identified by its ID, appends "_ID = ?" to the where
+				// clause, binding the recipe ID, so that it selects that single recipe
+				qb.appendWhere(BaseColumns._ID + "=?");
+				finalSelectionArgs = RecipeProvider.buildIdSelectionArgs(
+						uri.getPathSegments().get(RecipeContract.Recipes.RECIPE_ID_PATH_POSITION), selectionArgs);
+				break;
+			case RECIPE_SEARCH:
+				// If the incoming URI is a search, joins the recipes to the matching documents in the full text
+				// search table, ordering by how well they match. Queries with no searchable words match no recipes
+				final String query = uri.getPathSegments().get(RecipeContract.Recipes.SEARCH_QUERY_PATH_POSITION);
+				final String matchQuery = RecipeProvider.buildMatchQuery(query, null);
+				if (!matchQuery.isEmpty())
+				{
+					qb.setTables(RecipeContract.Recipes.TABLE_NAME + " INNER JOIN (SELECT docid, "
+							+ RecipeProvider.buildSearchRank(query) + " AS " + RecipeProvider.SEARCH_RANK + " FROM "
+							+ RecipeProvider.SEARCH_TABLE_NAME + " WHERE " + RecipeProvider.SEARCH_TABLE_NAME
+							+ " MATCH " + DatabaseUtils.sqlEscapeString(matchQuery) + ") ON "
+							+ RecipeContract.Recipes.TABLE_NAME + "." + BaseColumns._ID + "=docid");
+					defaultOrderBy = RecipeProvider.SEARCH_RANK + " DESC, " + RecipeContract.Recipes.DEFAULT_SORT_ORDER;
+				}
+				else
+					qb.appendWhere("0");
 				break;
 			default:
 				throw new IllegalArgumentException("Unknown URI " + uri);
 		}
 		String orderBy;
 		if (TextUtils.isEmpty(sortOrder))
-			orderBy = RecipeContract.Recipes.DEFAULT_SORT_ORDER;
+			orderBy = defaultOrderBy;
 		else
 			orderBy = sortOrder;
 		final SQLiteDatabase db = databaseHelper.getReadableDatabase();
-		final Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
-		c.setNotificationUri(getContext().getContentResolver(), uri);
+		final Cursor c = qb.query(db, projection, selection, finalSelectionArgs, null, null, orderBy);
+		// Search URIs are not descendants of the recipe URIs changes are notified on, so search results are notified
+		// on every recipe change, including changes to ingredients and instructions (see notifySearchResults)
+		if (match == RecipeProvider.RECIPE_SEARCH)
+			c.setNotificationUri(getContext().getContentResolver(), RecipeContract.Recipes.CONTENT_URI);
+		else
+			c.setNotificationUri(getContext().getContentResolver(), uri);
 		return c;
 	}
 
+	/**
+	 * Queries for search suggestions, returning the recent queries matching the search followed by the best matching
+	 * recipes
+	 * 
+	 * @param uri
+	 *            The search suggestion URI, optionally with a {@link SearchManager#SUGGEST_PARAMETER_LIMIT} parameter
+	 *            capping the number of recipes returned
+	 * @param projection
+	 *            The list of columns to put into the recent query cursor
+	 * @param selection
+	 *            A selection criteria to apply when filtering recent queries
+	 * @param selectionArgs
+	 *            The search query as the first argument
+	 * @param sortOrder
+	 *            How the recent queries should be sorted
+	 * @param cancellationSignal
+	 *            Signal to cancel the query, or null if the query cannot be cancelled
+	 * @return Cursor containing the recent queries and recipes matching the search
+	 */
+	private Cursor querySuggestions(final Uri uri, final String[] projection, final String selection,
+			final String[] selectionArgs, final String sortOrder, final CancellationSignal cancellationSignal)
+	{
+		final Cursor recentCursor = super.query(uri, projection, selection, selectionArgs, sortOrder);
+		if (selectionArgs[0].length() < 2)
+			return recentCursor;
+		int limit = RecipeSuggestionEngine.DEFAULT_LIMIT;
+		final String limitParameter = uri.getQueryParameter(SearchManager.SUGGEST_PARAMETER_LIMIT);
+		if (!TextUtils.isEmpty(limitParameter))
+			try
+			{
+				limit = Integer.parseInt(limitParameter);
+			} catch (final NumberFormatException e)
+			{
+				Log.w(RecipeProvider.TAG, "Invalid suggestion limit " + limitParameter);
+			}
+		final Cursor searchCursor = suggestionEngine.query(selectionArgs[0], limit, cancellationSignal);
+		// MergeCursor skips a null search cursor, returned when this query was superseded by a newer one
+		return new MergeCursor(new Cursor[] { recentCursor, searchCursor });
+	}
+
+	/**
+	 * Refreshes the search text of the recipes changed by a single write. Writes made within a transaction (i.e., by
+	 * {@link #applyBatch(ArrayList)}) are refreshed together just before the transaction commits instead
+	 * 
+	 * @param db
+	 *            Database written to
+	 */
+	private void refreshSearch(final SQLiteDatabase db)
+	{
+		if (!db.inTransaction())
+			DatabaseHelper.refreshSearchTable(db);
+	}
+
 	@Override
 	public int update(final Uri uri, final ContentValues values, final String selection, final String[] selectionArgs)
 	{
@@ -1124,7 +2548,7 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	 * @param uri
 	 *            The URI to query. This can potentially have a record ID if this is an update request for a specific
 	 *            record.
-	 * @param values
+	 * @param initialValues
 	 *            A Bundle mapping from column names to new column values (NULL is a valid value).
 	 * @param selection
 	 *            An optional filter to match rows to update.
@@ -1132,9 +2556,18 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 	 *            Arguments to the optional filter to match rows to update
 	 * @return The number of rows affected.
 	 */
-	private int updateIngredient(final Uri uri, final ContentValues values, final String selection,
+	private int updateIngredient(final Uri uri, final ContentValues initialValues, final String selection,
 			final String[] selectionArgs)
 	{
+		ContentValues values = initialValues;
+		// Keep the canonical unit in step with the unit
+		if (values.containsKey(RecipeContract.Ingredients.COLUMN_NAME_UNIT)
+				&& !values.containsKey(RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID))
+		{
+			values = new ContentValues(initialValues);
+			values.put(RecipeContract.Ingredients.COLUMN_NAME_UNIT_ID,
+					UnitLexicon.getUnitId(values.getAsString(RecipeContract.Ingredients.COLUMN_NAME_UNIT)));
+		}
 		final SQLiteDatabase db = databaseHelper.getWritableDatabase();
 		int count = 0;
 		switch (RecipeProvider.uriMatcher.match(uri))
@@ -1142,7 +2575,9 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 			case INGREDIENTS:
 				// If the incoming URI matches the general ingredients pattern, does the update based on the incoming
 				// data.
-				count = db.update(RecipeContract.Ingredients.TABLE_NAME, values, selection, selectionArgs);
+				RecipeProvider.markParentRecipesDirty(db, uri, RecipeContract.Ingredients.TABLE_NAME, selection,
+						selectionArgs);
+				count = RecipeProvider.updateIngredients(db, values, selection, selectionArgs);
 				break;
 			case INGREDIENT_ID:
 				// If the incoming URI matches a single ingredients ID, does the update based on the incoming data, but
@@ -1153,12 +2588,16 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 				// If there were additional selection criteria, append them to the final WHERE clause
 				if (selection != null)
 					finalWhere = finalWhere + " AND " + selection;
-				count = db.update(RecipeContract.Ingredients.TABLE_NAME, values, finalWhere, selectionArgs);
+				RecipeProvider.markParentRecipesDirty(db, uri, RecipeContract.Ingredients.TABLE_NAME, finalWhere,
+						selectionArgs);
+				count = RecipeProvider.updateIngredients(db, values, finalWhere, selectionArgs);
 				break;
 			default:
 				throw new IllegalArgumentException("Unknown URI " + uri);
 		}
-		getContext().getContentResolver().notifyChange(uri, null);
+		refreshSearch(db);
+		notifier.notifyChange(uri, !RecipeProvider.isSyncAdapter(uri));
+		notifySearchResults(uri);
 		return count;
 	}
 
@@ -1186,6 +2625,8 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 			case INSTRUCTIONS:
 				// If the incoming URI matches the general instructions pattern, does the update based on the incoming
 				// data.
+				RecipeProvider.markParentRecipesDirty(db, uri, RecipeContract.Instructions.TABLE_NAME, selection,
+						selectionArgs);
 				count = db.update(RecipeContract.Instructions.TABLE_NAME, values, selection, selectionArgs);
 				break;
 			case INSTRUCTION_ID:
@@ -1199,12 +2640,16 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 				// the final WHERE clause
 				if (selection != null)
 					finalWhere = finalWhere + " AND " + selection;
+				RecipeProvider.markParentRecipesDirty(db, uri, RecipeContract.Instructions.TABLE_NAME, finalWhere,
+						selectionArgs);
 				count = db.update(RecipeContract.Instructions.TABLE_NAME, values, finalWhere, selectionArgs);
 				break;
 			default:
 				throw new IllegalArgumentException("Unknown URI " + uri);
 		}
-		getContext().getContentResolver().notifyChange(uri, null);
+		refreshSearch(db);
+		notifier.notifyChange(uri, !RecipeProvider.isSyncAdapter(uri));
+		notifySearchResults(uri);
 		return count;
 	}
 
@@ -1231,6 +2676,7 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 		{
 			case RECIPES:
 				// If the incoming URI matches the general recipes pattern, does the update based on the incoming data.
+				RecipeProvider.markRecipesDirty(db, uri, selection, selectionArgs);
 				count = db.update(RecipeContract.Recipes.TABLE_NAME, values, selection, selectionArgs);
 				break;
 			case RECIPE_ID:
@@ -1242,12 +2688,13 @@ public class RecipeProvider extends SearchRecentSuggestionsProvider
 				// If there were additional selection criteria, append them to the final WHERE clause
 				if (selection != null)
 					finalWhere = finalWhere + " AND " + selection;
+				RecipeProvider.markRecipesDirty(db, uri, finalWhere, selectionArgs);
 				count = db.update(RecipeContract.Recipes.TABLE_NAME, values, finalWhere, selectionArgs);
 				break;
 			default:
 				throw new IllegalArgumentException("Unknown URI " + uri);
 		}
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifier.notifyChange(uri, !RecipeProvider.isSyncAdapter(uri));
 		return count;
 	}
 }
@@ -0,0 +1,523 @@
+package com.ianhanniballake.recipebook.provider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.annotation.TargetApi;
+import android.app.SearchManager;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import com.ianhanniballake.recipebook.R;
+
+/**
+ * Produces the recipe search suggestions shown as the user types. The recipes matching each query are cached such that
+ * as the user continues typing, the longer query is narrowed from the recipes matching the shorter query rather than
+ * searching every recipe again. A query is abandoned as soon as it is cancelled or a newer query starts.
+ */
+class RecipeSuggestionEngine
+{
+	/**
+	 * A recipe matching a cached query along with the sorted words of each of its searchable columns
+	 */
+	private static class Candidate
+	{
+		/**
+		 * Returns whether any of the given sorted words starts with the given prefix
+		 * 
+		 * @param words
+		 *            Sorted words to search
+		 * @param prefix
+		 *            Prefix to search for
+		 * @return Whether any word starts with the prefix
+		 */
+		private static boolean hasPrefix(final String[] words, final String prefix)
+		{
+			final int index = Arrays.binarySearch(words, prefix);
+			if (index >= 0)
+				return true;
+			final int insertionPoint = -index - 1;
+			return insertionPoint < words.length && words[insertionPoint].startsWith(prefix);
+		}
+
+		/**
+		 * Recipe description
+		 */
+		final String description;
+		/**
+		 * Recipe ID
+		 */
+		final long id;
+		/**
+		 * Recipe title
+		 */
+		final String title;
+		/**
+		 * Sorted words of each of the {@link RecipeProvider#SEARCH_COLUMNS}
+		 */
+		final String[][] words;
+
+		/**
+		 * Creates a new Candidate that is only used for display
+		 * 
+		 * @param id
+		 *            Recipe ID
+		 * @param title
+		 *            Recipe title
+		 * @param description
+		 *            Recipe description
+		 */
+		Candidate(final long id, final String title, final String description)
+		{
+			this.id = id;
+			this.title = title;
+			this.description = description;
+			words = null;
+		}
+
+		/**
+		 * Creates a new Candidate from the current row of the given search table cursor
+		 * 
+		 * @param data
+		 *            Cursor positioned at a row containing the docid followed by each of the
+		 *            {@link RecipeProvider#SEARCH_COLUMNS}
+		 */
+		Candidate(final Cursor data)
+		{
+			id = data.getLong(0);
+			title = data.getString(1);
+			description = data.getString(2);
+			words = new String[RecipeProvider.SEARCH_COLUMNS.length][];
+			for (int column = 0; column < words.length; column++)
+			{
+				final String text = data.getString(column + 1);
+				words[column] = text == null ? new String[0] : RecipeProvider.splitSearchQuery(text);
+				Arrays.sort(words[column]);
+			}
+		}
+
+		/**
+		 * Scores how well this recipe matches the given query words, using the same weights as the search URI: 8 if
+		 * every word matches in the title, plus 4 for the description, 2 for the ingredients, and 1 for the
+		 * instructions
+		 * 
+		 * @param queryWords
+		 *            Lowercase words of the query, each matched as a prefix
+		 * @return The match score or -1 if any query word does not match in any column
+		 */
+		int rank(final String[] queryWords)
+		{
+			final boolean[] found = new boolean[queryWords.length];
+			int unmatched = queryWords.length;
+			int rank = 0;
+			for (int column = 0; column < words.length; column++)
+			{
+				boolean allMatch = true;
+				for (int index = 0; index < queryWords.length; index++)
+					if (Candidate.hasPrefix(words[column], queryWords[index]))
+					{
+						if (!found[index])
+						{
+							found[index] = true;
+							unmatched--;
+						}
+					}
+					else
+						allMatch = false;
+				if (allMatch)
+					rank += 1 << (words.length - column - 1);
+			}
+			return unmatched == 0 ? rank : -1;
+		}
+	}
+
+	/**
+	 * A candidate along with its score for the current query
+	 */
+	private static class RankedCandidate
+	{
+		/**
+		 * Matching recipe
+		 */
+		final Candidate candidate;
+		/**
+		 * Match score
+		 */
+		final int rank;
+
+		/**
+		 * Creates a new RankedCandidate
+		 * 
+		 * @param candidate
+		 *            Matching recipe
+		 * @param rank
+		 *            Match score
+		 */
+		RankedCandidate(final Candidate candidate, final int rank)
+		{
+			this.candidate = candidate;
+			this.rank = rank;
+		}
+	}
+
+	/**
+	 * Suggestion columns returned, matching the layout of the recent query suggestions so that both can be merged
+	 */
+	private static final String[] COLUMNS = { SearchManager.SUGGEST_COLUMN_FORMAT, SearchManager.SUGGEST_COLUMN_ICON_1,
+			SearchManager.SUGGEST_COLUMN_TEXT_1, SearchManager.SUGGEST_COLUMN_TEXT_2,
+			SearchManager.SUGGEST_COLUMN_QUERY, BaseColumns._ID, SearchManager.SUGGEST_COLUMN_INTENT_ACTION,
+			SearchManager.SUGGEST_COLUMN_INTENT_DATA };
+	/**
+	 * Number of suggestions returned when the caller does not give a limit
+	 */
+	static final int DEFAULT_LIMIT = 10;
+	/**
+	 * Maximum number of matching recipes cached for a single query. Queries matching more recipes than this are
+	 * ranked by the database and not cached
+	 */
+	private static final int MAX_CACHED_CANDIDATES = 250;
+	/**
+	 * Maximum number of queries cached at once
+	 */
+	private static final int MAX_CACHED_QUERIES = 8;
+	/**
+	 * Orders ranked candidates by descending score, then by title
+	 */
+	private static final Comparator<RankedCandidate> RANK_COMPARATOR = new Comparator<RankedCandidate>()
+	{
+		@Override
+		public int compare(final RankedCandidate lhs, final RankedCandidate rhs)
+		{
+			if (lhs.rank != rhs.rank)
+				return lhs.rank > rhs.rank ? -1 : 1;
+			final String lhsTitle = lhs.candidate.title == null ? "" : lhs.candidate.title;
+			final String rhsTitle = rhs.candidate.title == null ? "" : rhs.candidate.title;
+			return lhsTitle.compareTo(rhsTitle);
+		}
+	};
+
+	/**
+	 * Returns whether every word of the cached query is a prefix of a word of the new query, meaning every recipe
+	 * matching the new query also matches the cached query
+	 * 
+	 * @param cachedWords
+	 *            Words of a cached query
+	 * @param queryWords
+	 *            Words of the new query
+	 * @return Whether the new query can be narrowed from the cached query's results
+	 */
+	private static boolean narrows(final String[] cachedWords, final String[] queryWords)
+	{
+		for (final String cachedWord : cachedWords)
+		{
+			boolean covered = false;
+			for (final String queryWord : queryWords)
+				if (queryWord.startsWith(cachedWord))
+				{
+					covered = true;
+					break;
+				}
+			if (!covered)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Cached recipes matching each query, keyed by the query's words separated by a single space and ordered from
+	 * least to most recently used
+	 */
+	private final LinkedHashMap<String, ArrayList<Candidate>> cache = new LinkedHashMap<String, ArrayList<Candidate>>(
+			RecipeSuggestionEngine.MAX_CACHED_QUERIES, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, ArrayList<Candidate>> eldest)
+		{
+			return size() > RecipeSuggestionEngine.MAX_CACHED_QUERIES;
+		}
+	};
+	/**
+	 * Incremented each time the cache is invalidated so that results loaded before a change are not cached
+	 */
+	private int cacheGeneration = 0;
+	/**
+	 * Handle to the database
+	 */
+	private final SQLiteOpenHelper databaseHelper;
+	/**
+	 * Incremented each time a query starts so that superseded queries can be abandoned
+	 */
+	private final AtomicInteger queryGeneration = new AtomicInteger();
+
+	/**
+	 * Creates a new RecipeSuggestionEngine
+	 * 
+	 * @param databaseHelper
+	 *            Handle to the database containing the full text search table
+	 */
+	RecipeSuggestionEngine(final SQLiteOpenHelper databaseHelper)
+	{
+		this.databaseHelper = databaseHelper;
+	}
+
+	/**
+	 * Builds the suggestion cursor from the best matching candidates
+	 * 
+	 * @param ranked
+	 *            Matching candidates, best match first
+	 * @param limit
+	 *            Maximum number of suggestions to return
+	 * @return Cursor containing the suggestions
+	 */
+	private Cursor buildCursor(final ArrayList<RankedCandidate> ranked, final int limit)
+	{
+		final int count = Math.min(ranked.size(), limit);
+		final MatrixCursor cursor = new MatrixCursor(RecipeSuggestionEngine.COLUMNS, count);
+		final String icon = Integer.toString(R.drawable.placeholder);
+		for (int index = 0; index < count; index++)
+		{
+			final Candidate candidate = ranked.get(index).candidate;
+			final String data = RecipeContract.Recipes.CONTENT_ID_URI_BASE.toString() + candidate.id;
+			cursor.addRow(new Object[] { 0, icon, candidate.title, candidate.description, data, candidate.id,
+					Intent.ACTION_VIEW, data });
+		}
+		return cursor;
+	}
+
+	/**
+	 * Returns the cached recipes matching the query, or if none are cached, those of the cached query with the
+	 * fewest matches that the query narrows
+	 * 
+	 * @param key
+	 *            Cache key of the query
+	 * @param queryWords
+	 *            Words of the query
+	 * @return Cached candidates that are a superset of the recipes matching the query, or null if no cached query can
+	 *         be narrowed
+	 */
+	private synchronized ArrayList<Candidate> getCachedCandidates(final String key, final String[] queryWords)
+	{
+		final ArrayList<Candidate> exact = cache.get(key);
+		if (exact != null)
+			return exact;
+		ArrayList<Candidate> best = null;
+		for (final Map.Entry<String, ArrayList<Candidate>> entry : cache.entrySet())
+			if ((best == null || entry.getValue().size() < best.size())
+					&& RecipeSuggestionEngine.narrows(entry.getKey().split(" "), queryWords))
+				best = entry.getValue();
+		return best;
+	}
+
+	/**
+	 * Discards all cached results. Must be called whenever recipes, ingredients, or instructions change
+	 */
+	synchronized void invalidate()
+	{
+		cache.clear();
+		cacheGeneration++;
+	}
+
+	/**
+	 * Returns whether the query should be abandoned, throwing if it was cancelled
+	 * 
+	 * @param generation
+	 *            Query generation when the query started
+	 * @param cancellationSignal
+	 *            Signal to check for cancellation, or null if the query cannot be cancelled
+	 * @return Whether a newer query has started
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private boolean isSuperseded(final int generation, final CancellationSignal cancellationSignal)
+	{
+		if (cancellationSignal != null)
+			cancellationSignal.throwIfCanceled();
+		return queryGeneration.get() != generation;
+	}
+
+	/**
+	 * Loads the recipes matching the query from the full text search table
+	 * 
+	 * @param matchQuery
+	 *            Full text search MATCH expression of the query
+	 * @param generation
+	 *            Query generation when the query started
+	 * @param cancellationSignal
+	 *            Signal to cancel the query, or null if the query cannot be cancelled
+	 * @return The matching candidates, which are incomplete if the query was superseded, or null if more recipes match
+	 *         than can be cached
+	 */
+	private ArrayList<Candidate> loadCandidates(final String matchQuery, final int generation,
+			final CancellationSignal cancellationSignal)
+	{
+		final StringBuilder sql = new StringBuilder("SELECT docid");
+		for (final String column : RecipeProvider.SEARCH_COLUMNS)
+			sql.append(", ").append(column);
+		sql.append(" FROM ").append(RecipeProvider.SEARCH_TABLE_NAME).append(" WHERE ");
+		sql.append(RecipeProvider.SEARCH_TABLE_NAME).append(" MATCH ? LIMIT ");
+		sql.append(RecipeSuggestionEngine.MAX_CACHED_CANDIDATES + 1);
+		final Cursor data = rawQuery(sql.toString(), new String[] { matchQuery }, cancellationSignal);
+		try
+		{
+			if (data.getCount() > RecipeSuggestionEngine.MAX_CACHED_CANDIDATES)
+				return null;
+			final ArrayList<Candidate> candidates = new ArrayList<Candidate>(data.getCount());
+			while (data.moveToNext())
+			{
+				if (isSuperseded(generation, cancellationSignal))
+					break;
+				candidates.add(new Candidate(data));
+			}
+			return candidates;
+		} finally
+		{
+			data.close();
+		}
+	}
+
+	/**
+	 * Returns the best matching recipes as ranked by the database. Used when too many recipes match to be cached
+	 * 
+	 * @param query
+	 *            User entered search query
+	 * @param matchQuery
+	 *            Full text search MATCH expression of the query
+	 * @param limit
+	 *            Maximum number of suggestions to return
+	 * @param cancellationSignal
+	 *            Signal to cancel the query, or null if the query cannot be cancelled
+	 * @return Ranked candidates, best match first
+	 */
+	private ArrayList<RankedCandidate> loadRankedCandidates(final String query, final String matchQuery,
+			final int limit, final CancellationSignal cancellationSignal)
+	{
+		final String sql = "SELECT docid, " + RecipeContract.Recipes.COLUMN_NAME_TITLE + ", "
+				+ RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION + ", " + RecipeProvider.buildSearchRank(query)
+				+ " AS " + RecipeProvider.SEARCH_RANK + " FROM " + RecipeProvider.SEARCH_TABLE_NAME + " WHERE "
+				+ RecipeProvider.SEARCH_TABLE_NAME + " MATCH ? ORDER BY " + RecipeProvider.SEARCH_RANK + " DESC, "
+				+ RecipeContract.Recipes.DEFAULT_SORT_ORDER + " LIMIT " + limit;
+		final Cursor data = rawQuery(sql, new String[] { matchQuery }, cancellationSignal);
+		try
+		{
+			final ArrayList<RankedCandidate> ranked = new ArrayList<RankedCandidate>(data.getCount());
+			while (data.moveToNext())
+				ranked.add(new RankedCandidate(new Candidate(data.getLong(0), data.getString(1), data.getString(2)),
+						data.getInt(3)));
+			return ranked;
+		} finally
+		{
+			data.close();
+		}
+	}
+
+	/**
+	 * Returns suggestions for the given query
+	 * 
+	 * @param query
+	 *            User entered search query
+	 * @param limit
+	 *            Maximum number of suggestions to return
+	 * @param cancellationSignal
+	 *            Signal to cancel the query, or null if the query cannot be cancelled
+	 * @return Cursor containing at most limit suggestions, best match first, or null if a newer query started before
+	 *         this query completed
+	 */
+	Cursor query(final String query, final int limit, final CancellationSignal cancellationSignal)
+	{
+		final int generation = queryGeneration.incrementAndGet();
+		final String[] queryWords = RecipeProvider.splitSearchQuery(query);
+		if (queryWords.length == 0 || limit <= 0)
+			return new MatrixCursor(RecipeSuggestionEngine.COLUMNS, 0);
+		final String key = TextUtils.join(" ", queryWords);
+		final int startingCacheGeneration;
+		synchronized (this)
+		{
+			startingCacheGeneration = cacheGeneration;
+		}
+		ArrayList<Candidate> candidates = getCachedCandidates(key, queryWords);
+		if (candidates == null)
+		{
+			final String matchQuery = RecipeProvider.buildMatchQuery(query, null);
+			candidates = loadCandidates(matchQuery, generation, cancellationSignal);
+			if (candidates == null)
+				return buildCursor(loadRankedCandidates(query, matchQuery, limit, cancellationSignal), limit);
+		}
+		final ArrayList<RankedCandidate> ranked = new ArrayList<RankedCandidate>(candidates.size());
+		final ArrayList<Candidate> matches = new ArrayList<Candidate>(candidates.size());
+		for (final Candidate candidate : candidates)
+		{
+			if (isSuperseded(generation, cancellationSignal))
+				return null;
+			final int rank = candidate.rank(queryWords);
+			if (rank < 0)
+				continue;
+			matches.add(candidate);
+			ranked.add(new RankedCandidate(candidate, rank));
+		}
+		if (isSuperseded(generation, cancellationSignal))
+			return null;
+		synchronized (this)
+		{
+			if (cacheGeneration == startingCacheGeneration)
+				cache.put(key, matches);
+		}
+		Collections.sort(ranked, RecipeSuggestionEngine.RANK_COMPARATOR);
+		return buildCursor(ranked, limit);
+	}
+
+	/**
+	 * Runs the given SQL, passing the cancellation signal through to the database if given
+	 * 
+	 * @param sql
+	 *            SQL query to run
+	 * @param selectionArgs
+	 *            Arguments bound to the query
+	 * @param cancellationSignal
+	 *            Signal to cancel the query, or null if the query cannot be cancelled
+	 * @return Cursor containing the results
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private Cursor rawQuery(final String sql, final String[] selectionArgs, final CancellationSignal cancellationSignal)
+	{
+		final SQLiteDatabase db = databaseHelper.getReadableDatabase();
+		if (cancellationSignal == null)
+			return db.rawQuery(sql, selectionArgs);
+		return db.rawQuery(sql, selectionArgs, cancellationSignal);
+	}
+
+	/**
+	 * Registers an observer that invalidates the cache whenever recipes, ingredients, or instructions change
+	 * 
+	 * @param resolver
+	 *            ContentResolver to register with
+	 */
+	void registerObserver(final ContentResolver resolver)
+	{
+		final ContentObserver observer = new ContentObserver(null)
+		{
+			@Override
+			public void onChange(final boolean selfChange)
+			{
+				invalidate();
+			}
+		};
+		resolver.registerContentObserver(RecipeContract.Recipes.CONTENT_URI, true, observer);
+		resolver.registerContentObserver(RecipeContract.Ingredients.CONTENT_URI, true, observer);
+		resolver.registerContentObserver(RecipeContract.Instructions.CONTENT_URI, true, observer);
+	}
+}
@@ -0,0 +1,216 @@
+package com.ianhanniballake.recipebook.provider;
+
+/**
+ * Maps the ways units are written in ingredients to their canonical {@link RecipeContract.Units}. The lexicon is built
+ * once, when the class is loaded, as an open addressing hash table that is looked up directly over a range of text, so
+ * that recognizing a unit does not create any strings. Aliases are case-insensitive, except for single letter aliases
+ * (as "t" is a teaspoon while "T" is a tablespoon). Plurals of aliases longer than two letters are recognized, as is a
+ * trailing period on any alias.
+ */
+public class UnitLexicon
+{
+	/**
+	 * Aliases of each unit, indexed by unit ID. The first alias of each unit is its canonical name
+	 */
+	private static final String[][] ALIASES = { {}, // NONE
+			{ "teaspoon", "t", "tsp", "tspn" }, // TEASPOON
+			{ "tablespoon", "T", "tbsp", "tbs", "tbl", "tblsp", "tbspn" }, // TABLESPOON
+			{ "oz", "ounce", "ozs" }, // OUNCE
+			{ "cup", "c" }, // CUP
+			{ "pint", "pt", "pts" }, // PINT
+			{ "quart", "qt", "qts" }, // QUART
+			{ "gallon", "gal", "gals" }, // GALLON
+			{ "gram", "g", "gr", "gramme" }, // GRAM
+			{ "lb", "pound", "lbs" }, // POUND
+			{ "kg", "kilogram", "kilo", "kgs" }, // KILOGRAM
+			{ "ml", "milliliter", "millilitre" }, // MILLILITER
+			{ "l", "L", "liter", "litre" } // LITER
+	};
+	/**
+	 * Aliases in the hash table, or null for empty slots
+	 */
+	private static final String[] tableAliases;
+	/**
+	 * Unit ID of each alias in the hash table
+	 */
+	private static final int[] tableUnitIds;
+
+	static
+	{
+		int aliasCount = 0;
+		for (final String[] aliases : UnitLexicon.ALIASES)
+			aliasCount += aliases.length;
+		// Room for every alias and its plural with the table at most half full
+		int size = 1;
+		while (size < aliasCount * 4)
+			size <<= 1;
+		tableAliases = new String[size];
+		tableUnitIds = new int[size];
+		for (int unitId = 0; unitId < UnitLexicon.ALIASES.length; unitId++)
+			for (final String alias : UnitLexicon.ALIASES[unitId])
+			{
+				UnitLexicon.add(alias, unitId);
+				if (alias.length() > 2 && !alias.endsWith("s"))
+					UnitLexicon.add(alias + "s", unitId);
+			}
+	}
+
+	/**
+	 * Adds an alias to the hash table, unless it is already there
+	 * 
+	 * @param alias
+	 *            Alias to add
+	 * @param unitId
+	 *            Unit ID of the alias
+	 */
+	private static void add(final String alias, final int unitId)
+	{
+		if (UnitLexicon.find(alias, 0, alias.length()) >= 0)
+			return;
+		final int mask = UnitLexicon.tableAliases.length - 1;
+		int slot = UnitLexicon.hash(alias, 0, alias.length()) & mask;
+		while (UnitLexicon.tableAliases[slot] != null)
+			slot = slot + 1 & mask;
+		UnitLexicon.tableAliases[slot] = alias;
+		UnitLexicon.tableUnitIds[slot] = unitId;
+	}
+
+	/**
+	 * Finds the slot of the alias spelled by the given range of text
+	 * 
+	 * @param text
+	 *            Text containing the possible alias
+	 * @param start
+	 *            Index of the first character of the possible alias
+	 * @param end
+	 *            Index after the last character of the possible alias
+	 * @return The slot of the alias in the hash table, or -1 if the range is not an alias
+	 */
+	private static int find(final String text, final int start, final int end)
+	{
+		final int length = end - start;
+		if (length <= 0)
+			return -1;
+		final int mask = UnitLexicon.tableAliases.length - 1;
+		int slot = UnitLexicon.hash(text, start, end) & mask;
+		String alias;
+		while ((alias = UnitLexicon.tableAliases[slot]) != null)
+		{
+			if (alias.length() == length && text.regionMatches(length > 1, start, alias, 0, length))
+				return slot;
+			slot = slot + 1 & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the alias spelled by the given range of text, ignoring a trailing period
+	 * 
+	 * @param text
+	 *            Text containing the possible unit
+	 * @param start
+	 *            Index of the first character of the possible unit
+	 * @param end
+	 *            Index after the last character of the possible unit
+	 * @return The slot of the alias in the hash table, or -1 if the range is not a unit
+	 */
+	private static int findUnit(final String text, final int start, final int end)
+	{
+		final int slot = UnitLexicon.find(text, start, end);
+		if (slot >= 0 || end - start < 2 || text.charAt(end - 1) != '.')
+			return slot;
+		return UnitLexicon.find(text, start, end - 1);
+	}
+
+	/**
+	 * Gets the unit spelled by the given range of text as written in the lexicon, without creating a string for the
+	 * range
+	 * 
+	 * @param text
+	 *            Text containing the possible unit
+	 * @param start
+	 *            Index of the first character of the possible unit
+	 * @param end
+	 *            Index after the last character of the possible unit
+	 * @return The alias of the unit, or null if the range is not a unit
+	 */
+	public static String getAlias(final String text, final int start, final int end)
+	{
+		final int slot = UnitLexicon.findUnit(text, start, end);
+		return slot < 0 ? null : UnitLexicon.tableAliases[slot];
+	}
+
+	/**
+	 * Gets the canonical name of the given unit
+	 * 
+	 * @param unitId
+	 *            One of the {@link RecipeContract.Units} constants
+	 * @return The unit's canonical name, or null if unitId is {@link RecipeContract.Units#NONE} or not a unit
+	 */
+	public static String getName(final int unitId)
+	{
+		if (unitId <= RecipeContract.Units.NONE || unitId >= UnitLexicon.ALIASES.length)
+			return null;
+		return UnitLexicon.ALIASES[unitId][0];
+	}
+
+	/**
+	 * Gets the canonical unit of the given unit as written in an ingredient
+	 * 
+	 * @param unit
+	 *            Unit as written, possibly null
+	 * @return One of the {@link RecipeContract.Units} constants, {@link RecipeContract.Units#NONE} if the unit is not
+	 *         recognized
+	 */
+	public static int getUnitId(final String unit)
+	{
+		if (unit == null)
+			return RecipeContract.Units.NONE;
+		return UnitLexicon.getUnitId(unit, 0, unit.length());
+	}
+
+	/**
+	 * Gets the canonical unit spelled by the given range of text, without creating a string for the range
+	 * 
+	 * @param text
+	 *            Text containing the possible unit
+	 * @param start
+	 *            Index of the first character of the possible unit
+	 * @param end
+	 *            Index after the last character of the possible unit
+	 * @return One of the {@link RecipeContract.Units} constants, {@link RecipeContract.Units#NONE} if the range is not
+	 *         a unit
+	 */
+	public static int getUnitId(final String text, final int start, final int end)
+	{
+		final int slot = UnitLexicon.findUnit(text, start, end);
+		return slot < 0 ? RecipeContract.Units.NONE : UnitLexicon.tableUnitIds[slot];
+	}
+
+	/**
+	 * Hashes the given range of text ignoring case, consistently with the case-insensitive comparison of aliases
+	 * 
+	 * @param text
+	 *            Text to hash
+	 * @param start
+	 *            Index of the first character to hash
+	 * @param end
+	 *            Index after the last character to hash
+	 * @return The hash
+	 */
+	private static int hash(final String text, final int start, final int end)
+	{
+		int hash = 0;
+		for (int index = start; index < end; index++)
+			hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(text.charAt(index)));
+		// Spread the low bits, which select the slot
+		return hash ^ hash >>> 16;
+	}
+
+	/**
+	 * This class cannot be instantiated
+	 */
+	private UnitLexicon()
+	{
+	}
+}
@@ -0,0 +1,196 @@
+package com.ianhanniballake.recipebook.sync;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import android.accounts.Account;
+import android.util.Log;
+
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.TokenResponse;
+import com.google.api.client.extensions.android.http.AndroidHttp;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.drive.Drive;
+import com.ianhanniballake.recipebook.BuildConfig;
+
+/**
+ * Keeps what is needed to build a Drive service between syncs: a single HTTP transport and JSON factory shared by every
+ * account, and a credential per account holding its access token until the token expires or is rejected
+ */
+class DriveClientCache
+{
+	/**
+	 * Credential getting its access token from a TokenProvider. When the token expires or is rejected with a 401, the
+	 * token is invalidated and a new one is retrieved
+	 */
+	private static class AccountCredential extends Credential
+	{
+		/**
+		 * Account the credential authorizes
+		 */
+		private final Account account;
+		/**
+		 * Source of access tokens
+		 */
+		private final TokenProvider tokenProvider;
+
+		/**
+		 * Creates a new AccountCredential, without an access token
+		 * 
+		 * @param tokenProvider
+		 *            Source of access tokens
+		 * @param account
+		 *            Account the credential authorizes
+		 */
+		AccountCredential(final TokenProvider tokenProvider, final Account account)
+		{
+			super(BearerToken.authorizationHeaderAccessMethod());
+			this.tokenProvider = tokenProvider;
+			this.account = account;
+		}
+
+		@Override
+		protected TokenResponse executeRefreshToken() throws IOException
+		{
+			try
+			{
+				// The token provider would otherwise hand back the same expired or rejected token
+				final String staleToken = getAccessToken();
+				if (staleToken != null)
+					tokenProvider.invalidateToken(staleToken);
+				return new TokenResponse().setAccessToken(tokenProvider.getToken(account)).setExpiresInSeconds(
+						DriveClientCache.TOKEN_LIFETIME_SECONDS);
+			} catch (final GoogleAuthException e)
+			{
+				throw new IOException(e);
+			}
+		}
+
+		/**
+		 * Sets a newly retrieved access token
+		 * 
+		 * @param accessToken
+		 *            Access token
+		 */
+		void setToken(final String accessToken)
+		{
+			setAccessToken(accessToken);
+			setExpiresInSeconds(DriveClientCache.TOKEN_LIFETIME_SECONDS);
+		}
+	}
+
+	/**
+	 * Minimum remaining lifetime for a cached token to be used for a new sync, in seconds
+	 */
+	private static final long MIN_TOKEN_LIFETIME_SECONDS = 300L;
+	/**
+	 * Time a token is kept for, in seconds. Google access tokens are valid for an hour, so this leaves a margin for
+	 * tokens that were cached by the token provider before being handed out
+	 */
+	static final long TOKEN_LIFETIME_SECONDS = 3000L;
+	/**
+	 * Credential of each account, keyed by account name
+	 */
+	private final HashMap<String, AccountCredential> credentials = new HashMap<String, AccountCredential>();
+	/**
+	 * Root URL of the Drive API, or null to use Google's
+	 */
+	private final String driveRootUrl;
+	/**
+	 * JSON factory shared by all Drive services
+	 */
+	private final JsonFactory jsonFactory = new GsonFactory();
+	/**
+	 * Source of access tokens
+	 */
+	private final TokenProvider tokenProvider;
+	/**
+	 * HTTP transport shared by all Drive services
+	 */
+	private final HttpTransport transport = AndroidHttp.newCompatibleTransport();
+
+	/**
+	 * Creates a new DriveClientCache
+	 * 
+	 * @param tokenProvider
+	 *            Source of access tokens
+	 * @param driveRootUrl
+	 *            Root URL of the Drive API, or null to use Google's
+	 */
+	DriveClientCache(final TokenProvider tokenProvider, final String driveRootUrl)
+	{
+		this.tokenProvider = tokenProvider;
+		this.driveRootUrl = driveRootUrl;
+	}
+
+	/**
+	 * Gets the credential of the given account, retrieving a new access token only if there is no cached token or the
+	 * cached token is about to expire
+	 * 
+	 * @param account
+	 *            Account to authorize
+	 * @return The account's credential
+	 * @throws IOException
+	 *             If the token could not be retrieved due to a transient error
+	 * @throws GoogleAuthException
+	 *             If the account cannot be authorized
+	 */
+	private synchronized Credential getCredential(final Account account) throws IOException, GoogleAuthException
+	{
+		AccountCredential credential = credentials.get(account.name);
+		if (credential == null)
+		{
+			credential = new AccountCredential(tokenProvider, account);
+			credentials.put(account.name, credential);
+		}
+		final Long expiresInSeconds = credential.getExpiresInSeconds();
+		if (credential.getAccessToken() == null || expiresInSeconds == null
+				|| expiresInSeconds < DriveClientCache.MIN_TOKEN_LIFETIME_SECONDS)
+		{
+			final String accessToken = tokenProvider.getToken(account);
+			if (BuildConfig.DEBUG)
+				Log.d(DriveClientCache.class.getSimpleName(), "Token: " + accessToken);
+			credential.setToken(accessToken);
+		}
+		return credential;
+	}
+
+	/**
+	 * Builds a Drive service authorized for the given account, reusing the cached transport, JSON factory, and token
+	 * 
+	 * @param account
+	 *            Account to authorize
+	 * @param retryPolicy
+	 *            Policy retrying the service's failed requests
+	 * @return The Drive service
+	 * @throws IOException
+	 *             If a token could not be retrieved due to a transient error
+	 * @throws GoogleAuthException
+	 *             If the account cannot be authorized
+	 */
+	Drive getDrive(final Account account, final RetryPolicy retryPolicy) throws IOException, GoogleAuthException
+	{
+		final Credential credential = getCredential(account);
+		// The retry policy goes last so that it wraps the credential's handling of unsuccessful responses
+		final HttpRequestInitializer initializer = new HttpRequestInitializer()
+		{
+			@Override
+			public void initialize(final HttpRequest request) throws IOException
+			{
+				credential.initialize(request);
+				retryPolicy.initialize(request);
+			}
+		};
+		final Drive.Builder builder = new Drive.Builder(transport, jsonFactory, initializer)
+				.setApplicationName(SyncAdapter.APP_NAME);
+		if (driveRootUrl != null)
+			builder.setRootUrl(driveRootUrl);
+		return builder.build();
+	}
+}
@@ -0,0 +1,201 @@
+package com.ianhanniballake.recipebook.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+
+/**
+ * Downloads the content of Drive files on a bounded pool of worker threads, handing the contents back to a single
+ * consuming thread in the order the files were given. Only a limited number of downloads are queued ahead of the
+ * consumer, so memory use does not depend on the number of files.
+ */
+class DriveDownloader
+{
+	/**
+	 * Downloads the content of a single file
+	 */
+	private class Download implements Callable<byte[]>
+	{
+		/**
+		 * File to download
+		 */
+		private final File file;
+
+		/**
+		 * Creates a new Download
+		 * 
+		 * @param file
+		 *            File to download
+		 */
+		Download(final File file)
+		{
+			this.file = file;
+		}
+
+		@Override
+		public byte[] call() throws IOException
+		{
+			final String downloadUrl = file.getDownloadUrl();
+			if (downloadUrl == null || downloadUrl.length() == 0)
+				return null;
+			final HttpRequest request = driveService.getRequestFactory().buildGetRequest(new GenericUrl(downloadUrl));
+			request.setConnectTimeout(timeoutMillis);
+			request.setReadTimeout(timeoutMillis);
+			final HttpResponse response = request.execute();
+			try
+			{
+				final ByteArrayOutputStream content = new ByteArrayOutputStream();
+				response.download(content);
+				return content.toByteArray();
+			} finally
+			{
+				response.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Number of downloads queued per worker thread ahead of the consumer, keeping every worker busy while the consumer
+	 * writes
+	 */
+	private static final int QUEUED_DOWNLOADS_PER_THREAD = 2;
+	/**
+	 * Drive service to download with
+	 */
+	private final Drive driveService;
+	/**
+	 * Worker threads
+	 */
+	private final ExecutorService executor;
+	/**
+	 * Maximum number of downloads started but not yet consumed
+	 */
+	private final int maxPendingDownloads;
+	/**
+	 * Downloads started but not yet consumed, in the order of their files
+	 */
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	/**
+	 * Files not yet started
+	 */
+	private Iterator<File> remaining = Collections.<File> emptyList().iterator();
+	/**
+	 * Maximum time in milliseconds to connect and to wait for data on each attempt to download a file
+	 */
+	private final int timeoutMillis;
+
+	/**
+	 * Creates a new DriveDownloader. Call {@link #shutdown()} once done to stop its worker threads
+	 * 
+	 * @param driveService
+	 *            Drive service to download with
+	 * @param concurrency
+	 *            Number of files downloaded at once
+	 * @param timeoutMillis
+	 *            Maximum time in milliseconds to connect and to wait for data on each attempt to download a file.
+	 *            Failed attempts are retried by the Drive service's {@link RetryPolicy}, which alone decides when to
+	 *            give up on a file
+	 */
+	DriveDownloader(final Drive driveService, final int concurrency, final int timeoutMillis)
+	{
+		this.driveService = driveService;
+		this.timeoutMillis = timeoutMillis;
+		executor = Executors.newFixedThreadPool(concurrency);
+		maxPendingDownloads = concurrency * DriveDownloader.QUEUED_DOWNLOADS_PER_THREAD;
+	}
+
+	/**
+	 * Cancels all downloads started but not yet consumed, as well as any files not yet started
+	 */
+	void cancel()
+	{
+		for (final Future<byte[]> download : pending)
+			download.cancel(true);
+		pending.clear();
+		remaining = Collections.<File> emptyList().iterator();
+	}
+
+	/**
+	 * Starts downloads until the maximum number are pending or every file has been started
+	 */
+	private void fill()
+	{
+		while (pending.size() < maxPendingDownloads && remaining.hasNext())
+			pending.add(executor.submit(new Download(remaining.next())));
+	}
+
+	/**
+	 * Waits for the content of the next file in order. There is no overall time limit, as each attempt to download
+	 * the file is bounded by the connect and read timeouts, and retries by the {@link RetryPolicy}, whose backoff may
+	 * legitimately take longer than any single attempt
+	 * 
+	 * @return The content of the next file, or null if the file has no content
+	 * @throws IOException
+	 *             If the file could not be downloaded, in which case all remaining downloads are cancelled
+	 */
+	byte[] next() throws IOException
+	{
+		final Future<byte[]> download = pending.poll();
+		if (download == null)
+			throw new NoSuchElementException();
+		// Keep the workers busy while this thread handles the content
+		fill();
+		try
+		{
+			return download.get();
+		} catch (final InterruptedException e)
+		{
+			cancel();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while downloading");
+		} catch (final ExecutionException e)
+		{
+			cancel();
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException("Error downloading", cause);
+		}
+	}
+
+	/**
+	 * Stops the worker threads, cancelling any downloads in progress
+	 */
+	void shutdown()
+	{
+		cancel();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Starts downloading the given files, cancelling any previous downloads not yet consumed. Call {@link #next()} once
+	 * for each file to get their contents in order
+	 * 
+	 * @param files
+	 *            Files to download
+	 */
+	void start(final List<File> files)
+	{
+		cancel();
+		remaining = files.iterator();
+		fill();
+	}
+}
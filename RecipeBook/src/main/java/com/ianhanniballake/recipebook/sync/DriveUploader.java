@@ -0,0 +1,335 @@
+package com.ianhanniballake.recipebook.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.ParentReference;
+import com.google.gson.stream.JsonWriter;
+import com.ianhanniballake.recipebook.BuildConfig;
+import com.ianhanniballake.recipebook.model.RecipeExporter;
+import com.ianhanniballake.recipebook.provider.RecipeContract;
+
+/**
+ * Uploads recipes with local changes to the Drive appdata folder, one file per recipe, and deletes the files of
+ * recipes deleted locally
+ */
+class DriveUploader
+{
+	/**
+	 * A recipe with local changes, as read before uploading it
+	 */
+	private static class DirtyRecipe
+	{
+		/**
+		 * Number of local changes when the recipe was read
+		 */
+		final long dirty;
+		/**
+		 * ID of the recipe's Drive file, or null if it has never been uploaded
+		 */
+		final String driveId;
+		/**
+		 * Title of the recipe
+		 */
+		final String title;
+
+		/**
+		 * Creates a new DirtyRecipe
+		 * 
+		 * @param title
+		 *            Title of the recipe
+		 * @param driveId
+		 *            ID of the recipe's Drive file, or null if it has never been uploaded
+		 * @param dirty
+		 *            Number of local changes when the recipe was read
+		 */
+		DirtyRecipe(final String title, final String driveId, final long dirty)
+		{
+			this.title = title;
+			this.driveId = driveId;
+			this.dirty = dirty;
+		}
+	}
+
+	/**
+	 * MIME type of recipe files
+	 */
+	private final static String JSON_MIME_TYPE = "application/json";
+	/**
+	 * Maximum number of recipes exported and marked as uploaded together
+	 */
+	private final static int UPLOAD_BATCH_SIZE = 20;
+
+	/**
+	 * Adds the operations recording that the given recipe was uploaded. The Drive file ID is always stored so that the
+	 * next upload updates the same file, as is the uploaded JSON as the base of later merges along with the uploaded
+	 * file's checksum, so that the change made by the upload is skipped by the next sync. The recipe is only marked as
+	 * in sync if it has not changed again while it was being uploaded.
+	 * 
+	 * @param operations
+	 *            Operations to add to
+	 * @param recipeId
+	 *            ID of the uploaded recipe
+	 * @param recipe
+	 *            Recipe as read before uploading it
+	 * @param uploaded
+	 *            Drive file the recipe was uploaded to
+	 * @param json
+	 *            Uploaded JSON of the recipe
+	 */
+	private static void addUploadedOperations(final ArrayList<ContentProviderOperation> operations,
+			final long recipeId, final DirtyRecipe recipe, final File uploaded, final String json)
+	{
+		final Uri recipeUri = RecipeContract.asSyncAdapter(ContentUris.withAppendedId(
+				RecipeContract.Recipes.CONTENT_ID_URI_BASE, recipeId));
+		final ContentProviderOperation.Builder update = ContentProviderOperation.newUpdate(recipeUri)
+				.withValue(RecipeContract.Recipes.COLUMN_NAME_SYNC_BASE, json)
+				.withValue(RecipeContract.Recipes.COLUMN_NAME_SYNC_CHECKSUM, uploaded.getMd5Checksum());
+		if (!uploaded.getId().equals(recipe.driveId))
+			update.withValue(RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID, uploaded.getId());
+		operations.add(update.build());
+		operations.add(ContentProviderOperation.newUpdate(recipeUri)
+				.withSelection(RecipeContract.Recipes.COLUMN_NAME_DIRTY + "=?",
+						new String[] { Long.toString(recipe.dirty) })
+				.withValue(RecipeContract.Recipes.COLUMN_NAME_DIRTY, 0).build());
+	}
+
+	/**
+	 * Deletes the Drive file of every recipe deleted locally since the last sync, then forgets the deleted recipes.
+	 * Files already deleted from Drive are treated as deleted.
+	 * 
+	 * @param driveService
+	 *            Drive service to delete with
+	 * @param provider
+	 *            Client of the RecipeProvider
+	 * @param syncResult
+	 *            SyncResult to record statistics in
+	 * @param metrics
+	 *            Metrics to record upload and database times in
+	 * @throws IOException
+	 *             If a file could not be deleted
+	 * @throws RemoteException
+	 *             If the RecipeProvider could not be reached
+	 * @throws OperationApplicationException
+	 *             If deleted recipes could not be forgotten
+	 */
+	static void deleteRecipes(final Drive driveService, final ContentProviderClient provider,
+			final SyncResult syncResult, final SyncMetrics metrics) throws IOException, RemoteException,
+			OperationApplicationException
+	{
+		final String[] projection = { BaseColumns._ID, RecipeContract.DeletedRecipes.COLUMN_NAME_DRIVE_ID };
+		final Cursor data = provider.query(RecipeContract.DeletedRecipes.CONTENT_URI, projection, null, null,
+				BaseColumns._ID);
+		if (data == null)
+			return;
+		final Uri deletedRecipesUri = RecipeContract.asSyncAdapter(RecipeContract.DeletedRecipes.CONTENT_URI);
+		final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		try
+		{
+			while (data.moveToNext())
+			{
+				final long deleteStart = SystemClock.elapsedRealtime();
+				try
+				{
+					driveService.files().delete(data.getString(1)).execute();
+				} catch (final GoogleJsonResponseException e)
+				{
+					// The file was already deleted from Drive
+					if (e.getStatusCode() != 404)
+						throw e;
+				}
+				metrics.record(SyncMetrics.PHASE_UPLOADS, deleteStart, 1, 0);
+				operations.add(ContentProviderOperation.newDelete(deletedRecipesUri)
+						.withSelection(BaseColumns._ID + "=?", new String[] { Long.toString(data.getLong(0)) })
+						.build());
+				syncResult.stats.numEntries++;
+			}
+		} finally
+		{
+			data.close();
+			// Forget the files deleted so far even if a later delete failed
+			if (!operations.isEmpty())
+				metrics.applyBatch(provider, operations);
+		}
+	}
+
+	/**
+	 * Reads every recipe with local changes
+	 * 
+	 * @param provider
+	 *            Client of the RecipeProvider
+	 * @return Map of recipe ID to the recipe
+	 * @throws RemoteException
+	 *             If the RecipeProvider could not be reached
+	 */
+	private static HashMap<Long, DirtyRecipe> queryDirtyRecipes(final ContentProviderClient provider)
+			throws RemoteException
+	{
+		final HashMap<Long, DirtyRecipe> recipes = new HashMap<Long, DirtyRecipe>();
+		final String[] projection = { BaseColumns._ID, RecipeContract.Recipes.COLUMN_NAME_TITLE,
+				RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID, RecipeContract.Recipes.COLUMN_NAME_DIRTY };
+		final Cursor data = provider.query(RecipeContract.Recipes.CONTENT_URI, projection,
+				RecipeContract.Recipes.COLUMN_NAME_DIRTY + ">0", null, BaseColumns._ID);
+		if (data == null)
+			return recipes;
+		try
+		{
+			while (data.moveToNext())
+				recipes.put(data.getLong(0), new DirtyRecipe(data.getString(1), data.getString(2), data.getLong(3)));
+		} finally
+		{
+			data.close();
+		}
+		return recipes;
+	}
+
+	/**
+	 * Uploads a single recipe's JSON, updating its existing Drive file or creating a new file in the appdata folder.
+	 * Uploads use a single request rather than a resumable upload session, as recipe files are small.
+	 * 
+	 * @param driveService
+	 *            Drive service to upload with
+	 * @param appDataFolderId
+	 *            ID of the appdata folder new files are created in
+	 * @param recipe
+	 *            Recipe being uploaded
+	 * @param json
+	 *            JSON of the recipe
+	 * @return The uploaded Drive file
+	 * @throws IOException
+	 *             If the recipe could not be uploaded
+	 */
+	private static File upload(final Drive driveService, final String appDataFolderId, final DirtyRecipe recipe,
+			final byte[] json) throws IOException
+	{
+		final ByteArrayContent content = new ByteArrayContent(DriveUploader.JSON_MIME_TYPE, json);
+		final File metadata = new File().setTitle(recipe.title + ".json").setMimeType(DriveUploader.JSON_MIME_TYPE);
+		if (recipe.driveId != null)
+			try
+			{
+				final Drive.Files.Update update = driveService.files().update(recipe.driveId, metadata, content);
+				update.getMediaHttpUploader().setDirectUploadEnabled(true);
+				return update.execute();
+			} catch (final GoogleJsonResponseException e)
+			{
+				// The file was deleted from Drive since it was last synced, so recreate it
+				if (e.getStatusCode() != 404)
+					throw e;
+			}
+		metadata.setParents(Collections.singletonList(new ParentReference().setId(appDataFolderId)));
+		final Drive.Files.Insert insert = driveService.files().insert(metadata, content);
+		insert.getMediaHttpUploader().setDirectUploadEnabled(true);
+		return insert.execute();
+	}
+
+	/**
+	 * Uploads every recipe with local changes to the appdata folder, except those excluded. Recipes are exported and
+	 * marked as uploaded in batches of {@link #UPLOAD_BATCH_SIZE}, with a single export query per batch.
+	 * 
+	 * @param driveService
+	 *            Drive service to upload with
+	 * @param provider
+	 *            Client of the RecipeProvider
+	 * @param appDataFolderId
+	 *            ID of the appdata folder new files are created in
+	 * @param excludedRecipeIds
+	 *            IDs of recipes not to upload, i.e., those with remote changes not yet merged
+	 * @param syncResult
+	 *            SyncResult to record statistics in
+	 * @param metrics
+	 *            Metrics to record upload and database times in
+	 * @throws IOException
+	 *             If a recipe could not be uploaded
+	 * @throws RemoteException
+	 *             If the RecipeProvider could not be reached
+	 * @throws OperationApplicationException
+	 *             If recipes could not be marked as uploaded
+	 */
+	static void uploadDirtyRecipes(final Drive driveService, final ContentProviderClient provider,
+			final String appDataFolderId, final Set<Long> excludedRecipeIds, final SyncResult syncResult,
+			final SyncMetrics metrics) throws IOException, RemoteException, OperationApplicationException
+	{
+		final HashMap<Long, DirtyRecipe> recipes = DriveUploader.queryDirtyRecipes(provider);
+		recipes.keySet().removeAll(excludedRecipeIds);
+		if (recipes.isEmpty())
+			return;
+		if (BuildConfig.DEBUG)
+			Log.d(DriveUploader.class.getSimpleName(), "Uploading " + recipes.size() + " recipe"
+					+ (recipes.size() != 1 ? "s" : ""));
+		final List<Long> recipeIds = new ArrayList<Long>(recipes.keySet());
+		Collections.sort(recipeIds);
+		final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		for (int start = 0; start < recipeIds.size(); start += DriveUploader.UPLOAD_BATCH_SIZE)
+		{
+			final List<Long> batch = recipeIds.subList(start,
+					Math.min(start + DriveUploader.UPLOAD_BATCH_SIZE, recipeIds.size()));
+			final StringBuilder selection = new StringBuilder(RecipeContract.Export.COLUMN_NAME_RECIPE_ID);
+			selection.append(" IN (");
+			final String[] selectionArgs = new String[batch.size()];
+			for (int index = 0; index < batch.size(); index++)
+			{
+				selection.append(index == 0 ? "?" : ",?");
+				selectionArgs[index] = Long.toString(batch.get(index));
+			}
+			selection.append(')');
+			final Cursor data = provider.query(RecipeContract.Export.CONTENT_URI, null, selection.toString(),
+					selectionArgs, null);
+			if (data == null)
+				continue;
+			try
+			{
+				final RecipeExporter exporter = new RecipeExporter(data);
+				ByteArrayOutputStream json = new ByteArrayOutputStream();
+				JsonWriter writer = new JsonWriter(new OutputStreamWriter(json, "UTF-8"));
+				// Recipes deleted since they were read are no longer in the export, so are not uploaded
+				while (exporter.writeNext(writer))
+				{
+					writer.flush();
+					final long recipeId = exporter.getRecipeId();
+					final DirtyRecipe recipe = recipes.get(recipeId);
+					final byte[] content = json.toByteArray();
+					final long uploadStart = SystemClock.elapsedRealtime();
+					final File uploaded = DriveUploader.upload(driveService, appDataFolderId, recipe, content);
+					metrics.record(SyncMetrics.PHASE_UPLOADS, uploadStart, 1, content.length);
+					DriveUploader.addUploadedOperations(operations, recipeId, recipe, uploaded, new String(content,
+							"UTF-8"));
+					syncResult.stats.numEntries++;
+					json = new ByteArrayOutputStream();
+					writer = new JsonWriter(new OutputStreamWriter(json, "UTF-8"));
+				}
+			} finally
+			{
+				data.close();
+				// Record the recipes uploaded so far even if a later upload failed, so that new files are not created
+				// again for them on the next sync
+				if (!operations.isEmpty())
+				{
+					metrics.applyBatch(provider, operations);
+					operations.clear();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.ianhanniballake.recipebook.sync;
+
+import java.io.IOException;
+
+import android.accounts.Account;
+import android.content.Context;
+
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.android.gms.auth.GoogleAuthUtil;
+import com.ianhanniballake.recipebook.provider.RecipeContract;
+
+/**
+ * TokenProvider retrieving tokens from Google Play services, notifying the user of any error they need to resolve
+ */
+class GoogleAuthTokenProvider implements TokenProvider
+{
+	/**
+	 * Context used to retrieve tokens
+	 */
+	private final Context context;
+
+	/**
+	 * Creates a new GoogleAuthTokenProvider
+	 * 
+	 * @param context
+	 *            Context used to retrieve tokens
+	 */
+	GoogleAuthTokenProvider(final Context context)
+	{
+		this.context = context;
+	}
+
+	@Override
+	public String getToken(final Account account) throws IOException, GoogleAuthException
+	{
+		return GoogleAuthUtil.getTokenWithNotification(context, account.name, "oauth2:" + SyncAdapter.DRIVE_APPDATA,
+				null, RecipeContract.AUTHORITY, null);
+	}
+
+	@Override
+	public void invalidateToken(final String token) throws IOException, GoogleAuthException
+	{
+		GoogleAuthUtil.clearToken(context, token);
+	}
+}
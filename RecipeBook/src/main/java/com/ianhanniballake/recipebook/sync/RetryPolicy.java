@@ -0,0 +1,266 @@
+package com.ianhanniballake.recipebook.sync;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.ianhanniballake.recipebook.BuildConfig;
+
+/**
+ * Retries failed Drive requests with jittered exponential backoff. Every request of a sync draws from a single retry
+ * budget, so a persistently failing server is given up on quickly rather than retried request by request. Waits asked
+ * for by the server through a Retry-After header are honoured. When the budget runs out or the server asks for a longer
+ * wait than is reasonable to block the sync for, the time at which syncing should resume is recorded for
+ * {@link android.content.SyncResult#delayUntil}.
+ */
+class RetryPolicy implements HttpRequestInitializer
+{
+	/**
+	 * Retries a single request, after first giving the request's existing handler (i.e., the credential refreshing a
+	 * rejected token) one chance to handle the failure
+	 */
+	private class Handler implements HttpUnsuccessfulResponseHandler, HttpIOExceptionHandler
+	{
+		/**
+		 * Number of times this request has been retried
+		 */
+		private int attempt = 0;
+		/**
+		 * Handler installed on the request before this one, if any
+		 */
+		private final HttpUnsuccessfulResponseHandler delegate;
+		/**
+		 * Whether the delegate has handled a failure of this request, in which case it is not consulted again
+		 */
+		private boolean delegated = false;
+
+		/**
+		 * Creates a new Handler
+		 * 
+		 * @param delegate
+		 *            Handler installed on the request before this one, if any
+		 */
+		Handler(final HttpUnsuccessfulResponseHandler delegate)
+		{
+			this.delegate = delegate;
+		}
+
+		/**
+		 * Waits before the next attempt of this request
+		 * 
+		 * @param retryAfterMillis
+		 *            Wait asked for by the server, or a negative value to use exponential backoff
+		 * @return Whether the request should be retried
+		 */
+		private boolean backOff(final long retryAfterMillis)
+		{
+			final long waitMillis = retryAfterMillis >= 0 ? retryAfterMillis : getBackOffMillis(attempt);
+			attempt++;
+			if (waitMillis > maxWaitMillis || remainingRetries.decrementAndGet() < 0)
+			{
+				deferUntil(System.currentTimeMillis() + waitMillis);
+				return false;
+			}
+			retryCount.incrementAndGet();
+			if (BuildConfig.DEBUG)
+				Log.d(RetryPolicy.class.getSimpleName(), "Retrying request in " + waitMillis + "ms");
+			try
+			{
+				Thread.sleep(waitMillis);
+			} catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean handleIOException(final HttpRequest request, final boolean supportsRetry) throws IOException
+		{
+			return supportsRetry && backOff(-1);
+		}
+
+		@Override
+		public boolean handleResponse(final HttpRequest request, final HttpResponse response,
+				final boolean supportsRetry) throws IOException
+		{
+			if (delegate != null && !delegated && delegate.handleResponse(request, response, supportsRetry))
+			{
+				delegated = true;
+				return true;
+			}
+			if (!supportsRetry || !RetryPolicy.isRetryable(response.getStatusCode()))
+				return false;
+			return backOff(RetryPolicy.parseRetryAfter(response.getHeaders().getFirstHeaderStringValue(
+					RetryPolicy.RETRY_AFTER)));
+		}
+	}
+
+	/**
+	 * Name of the header giving how long to wait before retrying
+	 */
+	private static final String RETRY_AFTER = "Retry-After";
+	/**
+	 * Format of Retry-After headers giving a date rather than a number of seconds
+	 */
+	private static final String RETRY_AFTER_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+	/**
+	 * Returns whether a request failing with the given status code may succeed if retried: rate limiting and server
+	 * errors
+	 * 
+	 * @param statusCode
+	 *            HTTP status code of the response
+	 * @return Whether the request should be retried
+	 */
+	private static boolean isRetryable(final int statusCode)
+	{
+		return statusCode == 429 || statusCode >= 500 && statusCode != 501;
+	}
+
+	/**
+	 * Parses a Retry-After header, either a number of seconds or a date
+	 * 
+	 * @param retryAfter
+	 *            Value of the Retry-After header, possibly null
+	 * @return The number of milliseconds to wait, or -1 if there is no valid header
+	 */
+	private static long parseRetryAfter(final String retryAfter)
+	{
+		if (retryAfter == null)
+			return -1;
+		try
+		{
+			return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+		} catch (final NumberFormatException e)
+		{
+			// Not a number of seconds, so try a date
+		}
+		try
+		{
+			final SimpleDateFormat format = new SimpleDateFormat(RetryPolicy.RETRY_AFTER_DATE_FORMAT, Locale.US);
+			return Math.max(0, format.parse(retryAfter.trim()).getTime() - System.currentTimeMillis());
+		} catch (final ParseException e)
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * Time in milliseconds since the epoch until which syncing should be deferred, or 0 if it need not be
+	 */
+	private long delayUntilMillis = 0;
+	/**
+	 * Backoff before the first retry of a request, in milliseconds
+	 */
+	private final int initialIntervalMillis;
+	/**
+	 * Maximum backoff between retries of a request, in milliseconds
+	 */
+	private final int maxIntervalMillis;
+	/**
+	 * Maximum time to block the sync for before a retry, in milliseconds. Longer waits defer the sync instead
+	 */
+	private final int maxWaitMillis;
+	/**
+	 * Source of the jitter added to each backoff
+	 */
+	private final Random random = new Random();
+	/**
+	 * Number of retries left in the budget
+	 */
+	private final AtomicInteger remainingRetries;
+	/**
+	 * Number of retries made
+	 */
+	private final AtomicInteger retryCount = new AtomicInteger();
+
+	/**
+	 * Creates a new RetryPolicy
+	 * 
+	 * @param retryBudget
+	 *            Maximum number of retries across all requests
+	 * @param initialIntervalMillis
+	 *            Backoff before the first retry of a request, in milliseconds
+	 * @param maxIntervalMillis
+	 *            Maximum backoff between retries of a request, in milliseconds
+	 * @param maxWaitMillis
+	 *            Maximum time to block the sync for before a retry, in milliseconds. Longer waits defer the sync instead
+	 */
+	RetryPolicy(final int retryBudget, final int initialIntervalMillis, final int maxIntervalMillis,
+			final int maxWaitMillis)
+	{
+		remainingRetries = new AtomicInteger(retryBudget);
+		this.initialIntervalMillis = initialIntervalMillis;
+		this.maxIntervalMillis = maxIntervalMillis;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/**
+	 * Records that syncing should not resume before the given time
+	 * 
+	 * @param timeMillis
+	 *            Time in milliseconds since the epoch
+	 */
+	synchronized void deferUntil(final long timeMillis)
+	{
+		delayUntilMillis = Math.max(delayUntilMillis, timeMillis);
+	}
+
+	/**
+	 * Gets the backoff before the given retry: the exponentially growing interval, capped at the maximum interval,
+	 * randomized by up to half in either direction so that clients failing together do not retry together
+	 * 
+	 * @param attempt
+	 *            Number of times the request has already been retried
+	 * @return The backoff in milliseconds
+	 */
+	long getBackOffMillis(final int attempt)
+	{
+		final long interval = Math.min(maxIntervalMillis, (long) initialIntervalMillis << Math.min(attempt, 30));
+		return interval / 2 + (long) (interval * random.nextDouble());
+	}
+
+	/**
+	 * Gets the time until which syncing should be deferred
+	 * 
+	 * @return Time in milliseconds since the epoch, or 0 if syncing need not be deferred
+	 */
+	synchronized long getDelayUntilMillis()
+	{
+		return delayUntilMillis;
+	}
+
+	/**
+	 * Gets the number of retries made so far
+	 * 
+	 * @return The number of retries
+	 */
+	int getRetryCount()
+	{
+		return retryCount.get();
+	}
+
+	/**
+	 * Installs the retry handlers on the request. Must be called after any other initializer, so that handlers
+	 * installed by that initializer are kept
+	 */
+	@Override
+	public void initialize(final HttpRequest request) throws IOException
+	{
+		final Handler handler = new Handler(request.getUnsuccessfulResponseHandler());
+		request.setUnsuccessfulResponseHandler(handler);
+		request.setIOExceptionHandler(handler);
+	}
+}
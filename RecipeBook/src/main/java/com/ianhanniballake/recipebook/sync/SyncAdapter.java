@@ -1,33 +1,56 @@
 package com.ianhanniballake.recipebook.sync;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 
 import android.accounts.Account;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncResult;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.provider.BaseColumns;
 import android.util.Log;
 
 import com.google.android.gms.auth.GoogleAuthException;
-import com.google.android.gms.auth.GoogleAuthUtil;
 import com.google.android.gms.auth.UserRecoverableNotifiedException;
-import com.google.api.client.extensions.android.http.AndroidHttp;
-import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.Drive.Changes;
 import com.google.api.services.drive.model.Change;
 import com.google.api.services.drive.model.ChangeList;
 import com.google.api.services.drive.model.File;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 import com.ianhanniballake.recipebook.BuildConfig;
+import com.ianhanniballake.recipebook.R;
+import com.ianhanniballake.recipebook.model.Recipe;
+import com.ianhanniballake.recipebook.model.RecipeExporter;
+import com.ianhanniballake.recipebook.model.RecipeImporter;
+import com.ianhanniballake.recipebook.model.RecipeMerger;
 import com.ianhanniballake.recipebook.provider.RecipeContract;
 
 /**
@@ -35,46 +58,541 @@ import com.ianhanniballake.recipebook.provider.RecipeContract;
  */
 public class SyncAdapter extends AbstractThreadedSyncAdapter
 {
-	private final static String APP_NAME = "RecipeBook";
+	/**
+	 * Application name sent with Drive requests
+	 */
+	final static String APP_NAME = "RecipeBook";
 	private final static String APPDATA_DEFAULT_ID = "appdata";
 	/**
 	 * Scope for Drive AppData access
 	 */
 	public final static String DRIVE_APPDATA = "https://www.googleapis.com/auth/drive.appdata";
 	private final static String FOLDER_MIME_TYPE = "application/vnd.google-apps.folder";
-	private final static String PREF_DRIVE_APPDATA_ID = "com.ianhanniballake.recipebook.DRIVE_APPDATA_ID";
-	private final static String PREF_DRIVE_START_CHANGE_ID = "com.ianhanniballake.recipebook.DRIVE_START_CHANGE_ID";
+	/**
+	 * Gson instance converting between recipe JSON and {@link Recipe} for merging
+	 */
+	private final static Gson GSON = new Gson();
+	/**
+	 * Maximum number of times a recipe is merged in a single sync when it keeps changing locally while being merged
+	 */
+	private final static int MAX_MERGE_ATTEMPTS = 3;
+	final static String PREF_DRIVE_APPDATA_ID = "com.ianhanniballake.recipebook.DRIVE_APPDATA_ID";
+	final static String PREF_DRIVE_START_CHANGE_ID = "com.ianhanniballake.recipebook.DRIVE_START_CHANGE_ID";
+	/**
+	 * Maximum number of recipes written to the RecipeProvider in a single transaction
+	 */
+	private final static int SYNC_BATCH_SIZE = 20;
+
+	/**
+	 * Adds the operations deleting the given recipe along with its ingredients and instructions
+	 * 
+	 * @param operations
+	 *            Operations to add to
+	 * @param recipeId
+	 *            ID of the recipe to delete
+	 */
+	private static void addDeleteOperations(final ArrayList<ContentProviderOperation> operations, final long recipeId)
+	{
+		final String[] selectionArgs = { Long.toString(recipeId) };
+		operations.add(ContentProviderOperation
+				.newDelete(RecipeContract.asSyncAdapter(RecipeContract.Ingredients.CONTENT_URI))
+				.withSelection(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + "=?", selectionArgs).build());
+		operations.add(ContentProviderOperation
+				.newDelete(RecipeContract.asSyncAdapter(RecipeContract.Instructions.CONTENT_URI))
+				.withSelection(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID + "=?", selectionArgs).build());
+		operations.add(ContentProviderOperation.newDelete(
+				RecipeContract.asSyncAdapter(ContentUris.withAppendedId(RecipeContract.Recipes.CONTENT_ID_URI_BASE,
+						recipeId))).build());
+	}
+
+	/**
+	 * Applies a page of Drive changes to the RecipeProvider. Only the last change to each file in the page is applied.
+	 * Changed files are downloaded in parallel while this thread writes the recipes already downloaded in
+	 * transactional batches of at most {@link #SYNC_BATCH_SIZE} recipes, so that a large page neither holds the
+	 * database lock for long nor builds an unbounded list of operations. Files whose recipes also have local changes
+	 * not yet uploaded are merged with the local changes rather than overwriting them, including recipes that change
+	 * locally after they were found to have no local changes.
+	 * 
+	 * @param downloader
+	 *            Downloader to download changed files with
+	 * @param provider
+	 *            Client of the RecipeProvider
+	 * @param changes
+	 *            Page of changes to apply
+	 * @param unmergedRecipeIds
+	 *            Set to add the IDs of recipes that could not be merged to, as they kept changing locally
+	 * @param syncResult
+	 *            SyncResult to record statistics in
+	 * @param metrics
+	 *            Metrics to record download and database times in
+	 * @throws IOException
+	 *             If a changed file could not be downloaded
+	 * @throws RemoteException
+	 *             If the RecipeProvider could not be reached
+	 * @throws OperationApplicationException
+	 *             If a batch could not be applied
+	 */
+	private static void applyChanges(final DriveDownloader downloader, final ContentProviderClient provider,
+			final List<Change> changes, final Set<Long> unmergedRecipeIds, final SyncResult syncResult,
+			final SyncMetrics metrics) throws IOException, RemoteException, OperationApplicationException
+	{
+		final TreeSet<String> deletedFileIds = new TreeSet<String>();
+		final LinkedHashMap<String, File> changedFiles = new LinkedHashMap<String, File>();
+		for (final Change change : changes)
+		{
+			final String fileId = change.getFileId();
+			final File changedFile = change.getFile();
+			if (Boolean.TRUE.equals(change.getDeleted()) || changedFile == null
+					|| changedFile.getLabels() != null && Boolean.TRUE.equals(changedFile.getLabels().getTrashed()))
+			{
+				changedFiles.remove(fileId);
+				deletedFileIds.add(fileId);
+			}
+			else if (Boolean.TRUE.equals(changedFile.getAppDataContents())
+					&& !SyncAdapter.FOLDER_MIME_TYPE.equals(changedFile.getMimeType()))
+			{
+				deletedFileIds.remove(fileId);
+				// Move the file to the end so that files are applied in the order of their last change
+				changedFiles.remove(fileId);
+				changedFiles.put(fileId, changedFile);
+			}
+		}
+		syncResult.stats.numEntries += deletedFileIds.size() + changedFiles.size();
+		if (!changedFiles.isEmpty())
+		{
+			// Recipes deleted locally stay deleted, as their files are deleted from Drive once the changes are applied
+			final Set<String> locallyDeletedFileIds = SyncAdapter.queryDeletedFileIds(provider,
+					changedFiles.keySet());
+			changedFiles.keySet().removeAll(locallyDeletedFileIds);
+			syncResult.stats.numSkippedEntries += locallyDeletedFileIds.size();
+		}
+		if (deletedFileIds.isEmpty() && changedFiles.isEmpty())
+			return;
+		final ArrayList<String> fileIds = new ArrayList<String>(deletedFileIds);
+		fileIds.addAll(changedFiles.keySet());
+		final HashSet<String> dirtyFileIds = new HashSet<String>();
+		final HashMap<String, String> syncChecksums = new HashMap<String, String>();
+		final Map<String, Long> recipeIds = SyncAdapter.queryRecipeIds(provider, fileIds, dirtyFileIds,
+				syncChecksums);
+		// Files unchanged since they were last synced, such as those just uploaded by the previous sync, are skipped
+		final Iterator<File> changedFileIterator = changedFiles.values().iterator();
+		while (changedFileIterator.hasNext())
+		{
+			final File changedFile = changedFileIterator.next();
+			final String md5Checksum = changedFile.getMd5Checksum();
+			if (md5Checksum != null && md5Checksum.equals(syncChecksums.get(changedFile.getId())))
+			{
+				changedFileIterator.remove();
+				syncResult.stats.numSkippedEntries++;
+			}
+		}
+		final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		int pendingRecipes = 0;
+		for (final String fileId : deletedFileIds)
+		{
+			final Long recipeId = recipeIds.get(fileId);
+			if (recipeId == null)
+				continue;
+			SyncAdapter.addDeleteOperations(operations, recipeId);
+			syncResult.stats.numDeletes++;
+			if (++pendingRecipes >= SyncAdapter.SYNC_BATCH_SIZE)
+			{
+				metrics.applyBatch(provider, operations);
+				operations.clear();
+				pendingRecipes = 0;
+			}
+		}
+		// Deletes are applied apart from the changed recipes, whose batches may need to be retried recipe by recipe
+		if (!operations.isEmpty())
+		{
+			metrics.applyBatch(provider, operations);
+			operations.clear();
+		}
+		final ArrayList<File> downloads = new ArrayList<File>(changedFiles.values());
+		downloader.start(downloads);
+		final ArrayList<File> batchFiles = new ArrayList<File>();
+		final ArrayList<byte[]> batchContents = new ArrayList<byte[]>();
+		for (final File changedFile : downloads)
+		{
+			final Long recipeId = recipeIds.get(changedFile.getId());
+			final long downloadStart = SystemClock.elapsedRealtime();
+			final byte[] content = downloader.next();
+			metrics.record(SyncMetrics.PHASE_DOWNLOADS, downloadStart, 1, content == null ? 0 : content.length);
+			if (recipeId != null && dirtyFileIds.contains(changedFile.getId()))
+			{
+				// Recipes with local changes not yet uploaded are merged and stored on their own
+				if (SyncAdapter.mergeRecipe(provider, changedFile, content, recipeId, unmergedRecipeIds, metrics))
+					syncResult.stats.numUpdates++;
+				else
+					syncResult.stats.numParseExceptions++;
+				continue;
+			}
+			if (!SyncAdapter.readRecipe(changedFile, content, recipeId, operations))
+			{
+				syncResult.stats.numParseExceptions++;
+				continue;
+			}
+			if (recipeId == null)
+				syncResult.stats.numInserts++;
+			else
+				syncResult.stats.numUpdates++;
+			batchFiles.add(changedFile);
+			batchContents.add(content);
+			if (batchFiles.size() >= SyncAdapter.SYNC_BATCH_SIZE)
+				SyncAdapter.applyRecipeBatch(provider, operations, batchFiles, batchContents, recipeIds,
+						unmergedRecipeIds, metrics);
+		}
+		if (!batchFiles.isEmpty())
+			SyncAdapter.applyRecipeBatch(provider, operations, batchFiles, batchContents, recipeIds,
+					unmergedRecipeIds, metrics);
+	}
 
-	private static Drive getDriveFromAccount(final Context context, final Account account)
+	/**
+	 * Applies a batch of recipes read from changed Drive files by {@link #readRecipe(File, byte[], Long, ArrayList)}.
+	 * Each recipe replacing an existing recipe asserts that the recipe still has no local changes, so the batch fails
+	 * if any of them changed locally since the changes were read. The recipes are then applied one by one instead,
+	 * merging those that changed with their local changes. The batch's operations, files, and contents are cleared once
+	 * applied.
+	 * 
+	 * @param provider
+	 *            Client of the RecipeProvider
+	 * @param operations
+	 *            Operations storing the recipes of the batch
+	 * @param files
+	 *            Changed Drive files of the batch
+	 * @param contents
+	 *            Downloaded content of each of the files
+	 * @param recipeIds
+	 *            Map of Drive file ID to the ID of the recipe stored from it, for those files that have a recipe
+	 * @param unmergedRecipeIds
+	 *            Set to add the IDs of recipes that could not be merged to, as they kept changing locally
+	 * @param metrics
+	 *            Metrics to record database times in
+	 * @throws IOException
+	 *             If a recipe could not be read or converted to JSON
+	 * @throws RemoteException
+	 *             If the RecipeProvider could not be reached
+	 * @throws OperationApplicationException
+	 *             If a new recipe could not be stored
+	 */
+	private static void applyRecipeBatch(final ContentProviderClient provider,
+			final ArrayList<ContentProviderOperation> operations, final List<File> files, final List<byte[]> contents,
+			final Map<String, Long> recipeIds, final Set<Long> unmergedRecipeIds, final SyncMetrics metrics)
+			throws IOException, RemoteException, OperationApplicationException
 	{
-		String accessToken = "";
 		try
 		{
-			accessToken = GoogleAuthUtil.getTokenWithNotification(context, account.name, "oauth2:" + DRIVE_APPDATA,
-					null, RecipeContract.AUTHORITY, null);
-		} catch (final UserRecoverableNotifiedException e)
+			metrics.applyBatch(provider, operations);
+		} catch (final OperationApplicationException e)
 		{
-			Log.w(SyncAdapter.class.getSimpleName(), "User recoverable error getting token", e);
-			return null;
-		} catch (final IOException e)
+			Log.i(SyncAdapter.class.getSimpleName(), "Recipes changed locally while syncing, applying one by one", e);
+			for (int index = 0; index < files.size(); index++)
+			{
+				final File file = files.get(index);
+				final Long recipeId = recipeIds.get(file.getId());
+				final ArrayList<ContentProviderOperation> recipeOperations = new ArrayList<ContentProviderOperation>();
+				SyncAdapter.readRecipe(file, contents.get(index), recipeId, recipeOperations);
+				try
+				{
+					metrics.applyBatch(provider, recipeOperations);
+				} catch (final OperationApplicationException recipeException)
+				{
+					// Only replacing an existing recipe can fail due to a local change
+					if (recipeId == null)
+						throw recipeException;
+					SyncAdapter.mergeRecipe(provider, file, contents.get(index), recipeId, unmergedRecipeIds,
+							metrics);
+				}
+			}
+		}
+		operations.clear();
+		files.clear();
+		contents.clear();
+	}
+
+	/**
+	 * Merges a changed Drive file into a recipe that also has local changes not yet uploaded, using the version last
+	 * synced as the common base. If the merged recipe differs from the file, the recipe keeps its local changes so that
+	 * the merged recipe is uploaded; otherwise it is marked as in sync. The merge is applied in its own batch, which
+	 * fails if the recipe changed again locally while merging, in which case the merge is redone from the new local
+	 * version. A recipe that still changes after {@link #MAX_MERGE_ATTEMPTS} merges is left unmerged, and must then be
+	 * neither uploaded nor have its change marked as applied, so that it is merged again on the next sync.
+	 * 
+	 * @param provider
+	 *            Client of the RecipeProvider
+	 * @param file
+	 *            Changed Drive file
+	 * @param content
+	 *            Downloaded content of the file, or null if the file has no content
+	 * @param recipeId
+	 *            ID of the recipe previously stored from the file
+	 * @param unmergedRecipeIds
+	 *            Set to add the recipe's ID to if it could not be merged
+	 * @param metrics
+	 *            Metrics to record database times in
+	 * @return Whether the file contains a valid recipe
+	 * @throws IOException
+	 *             If the recipe could not be converted to JSON
+	 * @throws RemoteException
+	 *             If the RecipeProvider could not be reached
+	 */
+	private static boolean mergeRecipe(final ContentProviderClient provider, final File file, final byte[] content,
+			final long recipeId, final Set<Long> unmergedRecipeIds, final SyncMetrics metrics) throws IOException,
+			RemoteException
+	{
+		if (content == null)
+			return false;
+		final String remoteJson = new String(content, "UTF-8");
+		final Recipe remote;
+		try
 		{
-			Log.e(SyncAdapter.class.getSimpleName(), "Error getting token", e);
-			return null;
-		} catch (final GoogleAuthException e)
+			remote = SyncAdapter.GSON.fromJson(remoteJson, Recipe.class);
+		} catch (final JsonParseException e)
 		{
-			Log.e(SyncAdapter.class.getSimpleName(), "Error getting token", e);
-			// Disable syncing until the user relogs in
-			ContentResolver.setIsSyncable(account, RecipeContract.AUTHORITY, 0);
+			Log.w(SyncAdapter.class.getSimpleName(), "Invalid recipe in " + file.getTitle(), e);
+			return false;
+		}
+		if (remote == null)
+			return false;
+		final Uri recipeUri = ContentUris.withAppendedId(RecipeContract.Recipes.CONTENT_ID_URI_BASE, recipeId);
+		final String[] projection = { RecipeContract.Recipes.COLUMN_NAME_DIRTY,
+				RecipeContract.Recipes.COLUMN_NAME_SYNC_BASE };
+		for (int attempt = 1;; attempt++)
+		{
+			final Cursor data = provider.query(recipeUri, projection, null, null, null);
+			if (data == null)
+				return true;
+			final long dirty;
+			final String syncBase;
+			try
+			{
+				// The recipe was deleted locally since the changes were read
+				if (!data.moveToFirst())
+					return true;
+				dirty = data.getLong(0);
+				syncBase = data.getString(1);
+			} finally
+			{
+				data.close();
+			}
+			final Recipe local = SyncAdapter.queryRecipe(provider, recipeId);
+			if (local == null)
+				return true;
+			Recipe base = null;
+			if (syncBase != null)
+				try
+				{
+					base = SyncAdapter.GSON.fromJson(syncBase, Recipe.class);
+				} catch (final JsonParseException e)
+				{
+					Log.w(SyncAdapter.class.getSimpleName(), "Invalid base of " + file.getTitle(), e);
+				}
+			// Without a common base, every difference is treated as a change on both sides
+			if (base == null)
+				base = new Recipe();
+			final RecipeMerger merger = new RecipeMerger();
+			final Recipe merged = merger.merge(base, local, remote);
+			if (BuildConfig.DEBUG)
+				Log.d(SyncAdapter.class.getSimpleName(), "Merged " + file.getTitle() + " with "
+						+ merger.getConflictCount() + " conflict" + (merger.getConflictCount() != 1 ? "s" : ""));
+			final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+			operations.add(ContentProviderOperation.newAssertQuery(recipeUri)
+					.withSelection(RecipeContract.Recipes.COLUMN_NAME_DIRTY + "=?",
+							new String[] { Long.toString(dirty) }).withExpectedCount(1).build());
+			final RecipeImporter importer = new RecipeImporter(new ByteArrayInputStream(SyncAdapter.GSON.toJson(
+					merged).getBytes("UTF-8")));
+			importer.readNext(operations, file.getId(), recipeId, remoteJson, file.getMd5Checksum());
+			if (merged.equals(remote))
+				operations.add(ContentProviderOperation.newUpdate(RecipeContract.asSyncAdapter(recipeUri))
+						.withValue(RecipeContract.Recipes.COLUMN_NAME_DIRTY, 0).build());
+			try
+			{
+				metrics.applyBatch(provider, operations);
+				return true;
+			} catch (final OperationApplicationException e)
+			{
+				if (attempt >= SyncAdapter.MAX_MERGE_ATTEMPTS)
+				{
+					Log.w(SyncAdapter.class.getSimpleName(), "Recipe " + file.getTitle()
+							+ " kept changing while merging", e);
+					unmergedRecipeIds.add(recipeId);
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Looks up which of the given Drive files belong to recipes deleted locally whose files have not yet been deleted
+	 * from Drive, in a single query
+	 * 
+	 * @param provider
+	 *            Client of the RecipeProvider
+	 * @param fileIds
+	 *            Drive file IDs to look up
+	 * @return The Drive file IDs of recipes deleted locally
+	 * @throws RemoteException
+	 *             If the RecipeProvider could not be reached
+	 */
+	private static Set<String> queryDeletedFileIds(final ContentProviderClient provider,
+			final Collection<String> fileIds) throws RemoteException
+	{
+		final HashSet<String> deletedFileIds = new HashSet<String>();
+		final StringBuilder selection = new StringBuilder(RecipeContract.DeletedRecipes.COLUMN_NAME_DRIVE_ID);
+		selection.append(" IN (");
+		for (int index = 0; index < fileIds.size(); index++)
+			selection.append(index == 0 ? "?" : ",?");
+		selection.append(')');
+		final String[] projection = { RecipeContract.DeletedRecipes.COLUMN_NAME_DRIVE_ID };
+		final Cursor data = provider.query(RecipeContract.DeletedRecipes.CONTENT_URI, projection,
+				selection.toString(), fileIds.toArray(new String[fileIds.size()]), null);
+		if (data == null)
+			return deletedFileIds;
+		try
+		{
+			while (data.moveToNext())
+				deletedFileIds.add(data.getString(0));
+		} finally
+		{
+			data.close();
+		}
+		return deletedFileIds;
+	}
+
+	/**
+	 * Looks up the local recipes stored from the given Drive files in a single query
+	 * 
+	 * @param provider
+	 *            Client of the RecipeProvider
+	 * @param fileIds
+	 *            Drive file IDs to look up
+	 * @param dirtyFileIds
+	 *            Set to add the Drive file IDs of recipes with local changes not yet uploaded to
+	 * @param syncChecksums
+	 *            Map to add the checksum of each Drive file as last synced to, for those files whose checksum is known
+	 * @return Map of Drive file ID to the ID of the recipe stored from it, for those files that have a recipe
+	 * @throws RemoteException
+	 *             If the RecipeProvider could not be reached
+	 */
+	private static Map<String, Long> queryRecipeIds(final ContentProviderClient provider, final List<String> fileIds,
+			final Set<String> dirtyFileIds, final Map<String, String> syncChecksums) throws RemoteException
+	{
+		final HashMap<String, Long> recipeIds = new HashMap<String, Long>();
+		final StringBuilder selection = new StringBuilder(RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID);
+		selection.append(" IN (");
+		for (int index = 0; index < fileIds.size(); index++)
+			selection.append(index == 0 ? "?" : ",?");
+		selection.append(')');
+		final String[] projection = { BaseColumns._ID, RecipeContract.Recipes.COLUMN_NAME_DRIVE_ID,
+				RecipeContract.Recipes.COLUMN_NAME_DIRTY, RecipeContract.Recipes.COLUMN_NAME_SYNC_CHECKSUM };
+		final Cursor data = provider.query(RecipeContract.Recipes.CONTENT_URI, projection, selection.toString(),
+				fileIds.toArray(new String[fileIds.size()]), null);
+		if (data == null)
+			return recipeIds;
+		try
+		{
+			while (data.moveToNext())
+			{
+				recipeIds.put(data.getString(1), data.getLong(0));
+				if (data.getLong(2) > 0)
+					dirtyFileIds.add(data.getString(1));
+				if (!data.isNull(3))
+					syncChecksums.put(data.getString(1), data.getString(3));
+			}
+		} finally
+		{
+			data.close();
+		}
+		return recipeIds;
+	}
+
+	/**
+	 * Reads the current local version of a recipe
+	 * 
+	 * @param provider
+	 *            Client of the RecipeProvider
+	 * @param recipeId
+	 *            ID of the recipe
+	 * @return The recipe, or null if it no longer exists
+	 * @throws IOException
+	 *             If the recipe could not be converted to JSON
+	 * @throws RemoteException
+	 *             If the RecipeProvider could not be reached
+	 */
+	private static Recipe queryRecipe(final ContentProviderClient provider, final long recipeId) throws IOException,
+			RemoteException
+	{
+		final Cursor data = provider.query(RecipeContract.Export.CONTENT_URI, null,
+				RecipeContract.Export.COLUMN_NAME_RECIPE_ID + "=?", new String[] { Long.toString(recipeId) }, null);
+		if (data == null)
 			return null;
+		final StringWriter json = new StringWriter();
+		try
+		{
+			final JsonWriter writer = new JsonWriter(json);
+			if (!new RecipeExporter(data).writeNext(writer))
+				return null;
+			writer.flush();
+		} finally
+		{
+			data.close();
+		}
+		return SyncAdapter.GSON.fromJson(json.toString(), Recipe.class);
+	}
+
+	/**
+	 * Reads the recipe contained in the given Drive file, adding the operations that store it. Replacing an existing
+	 * recipe also asserts that the recipe has no local changes, as the replaced recipe must otherwise be merged instead
+	 * 
+	 * @param file
+	 *            Drive file containing a single recipe
+	 * @param content
+	 *            Downloaded content of the file, or null if the file has no content
+	 * @param recipeId
+	 *            ID of the recipe previously stored from the file, or null if there is none
+	 * @param operations
+	 *            Operations to add to
+	 * @return Whether a recipe was read, false if the file has no content or does not contain a valid recipe
+	 * @throws IOException
+	 *             If the content could not be read
+	 */
+	private static boolean readRecipe(final File file, final byte[] content, final Long recipeId,
+			final ArrayList<ContentProviderOperation> operations) throws IOException
+	{
+		if (content == null)
+			return false;
+		try
+		{
+			final RecipeImporter importer = new RecipeImporter(new ByteArrayInputStream(content));
+			if (!importer.readNext(operations, file.getId(), recipeId == null ? -1 : recipeId, new String(content,
+					"UTF-8"), file.getMd5Checksum()))
+				return false;
+			// The sync adapter's writes leave the dirty count as is, so checking it after the writes in the same
+			// transaction is the same as checking it before
+			if (recipeId != null)
+			{
+				final Uri recipeUri = ContentUris.withAppendedId(RecipeContract.Recipes.CONTENT_ID_URI_BASE, recipeId);
+				operations.add(ContentProviderOperation.newAssertQuery(recipeUri)
+						.withSelection(RecipeContract.Recipes.COLUMN_NAME_DIRTY + "=0", null).withExpectedCount(1)
+						.build());
+			}
+			return true;
+		} catch (final MalformedJsonException e)
+		{
+			Log.w(SyncAdapter.class.getSimpleName(), "Invalid recipe in " + file.getTitle(), e);
+			return false;
+		} catch (final IllegalStateException e)
+		{
+			Log.w(SyncAdapter.class.getSimpleName(), "Invalid recipe in " + file.getTitle(), e);
+			return false;
 		}
-		if (BuildConfig.DEBUG)
-			Log.d(SyncAdapter.class.getSimpleName(), "Token: " + accessToken);
-		final GoogleCredential credential = new GoogleCredential();
-		credential.setAccessToken(accessToken);
-		return new Drive.Builder(AndroidHttp.newCompatibleTransport(), new GsonFactory(), credential)
-				.setApplicationName(APP_NAME).build();
 	}
 
+	/**
+	 * Drive clients and access tokens kept between syncs
+	 */
+	private final DriveClientCache driveClients;
+
 	/**
 	 * Create a new SyncAdapter
 	 * 
@@ -84,8 +602,60 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter
 	 *            Whether this service should be auto initialized
 	 */
 	public SyncAdapter(final Context context, final boolean autoInitialize)
+	{
+		this(context, autoInitialize, new GoogleAuthTokenProvider(context), null);
+	}
+
+	/**
+	 * Create a new SyncAdapter using the given source of access tokens and Drive endpoint, such as a local stand-in for
+	 * the Drive API
+	 * 
+	 * @param context
+	 *            Context to use
+	 * @param autoInitialize
+	 *            Whether this service should be auto initialized
+	 * @param tokenProvider
+	 *            Source of the access tokens authorizing Drive requests
+	 * @param driveRootUrl
+	 *            Root URL of the Drive API (i.e., "http://localhost:8080/"), or null to use Google's
+	 */
+	SyncAdapter(final Context context, final boolean autoInitialize, final TokenProvider tokenProvider,
+			final String driveRootUrl)
 	{
 		super(context, autoInitialize);
+		driveClients = new DriveClientCache(tokenProvider, driveRootUrl);
+	}
+
+	/**
+	 * Builds a Drive service authorized for the given account, reusing the account's access token from previous syncs
+	 * if it is still valid
+	 * 
+	 * @param account
+	 *            Account to sync
+	 * @param retryPolicy
+	 *            Policy retrying the service's failed requests
+	 * @return The Drive service, or null if no access token could be retrieved
+	 */
+	private Drive getDriveFromAccount(final Account account, final RetryPolicy retryPolicy)
+	{
+		try
+		{
+			return driveClients.getDrive(account, retryPolicy);
+		} catch (final UserRecoverableNotifiedException e)
+		{
+			Log.w(SyncAdapter.class.getSimpleName(), "User recoverable error getting token", e);
+			return null;
+		} catch (final IOException e)
+		{
+			Log.e(SyncAdapter.class.getSimpleName(), "Error getting token", e);
+			return null;
+		} catch (final GoogleAuthException e)
+		{
+			Log.e(SyncAdapter.class.getSimpleName(), "Error getting token", e);
+			// Disable syncing until the user relogs in
+			ContentResolver.setIsSyncable(account, RecipeContract.AUTHORITY, 0);
+			return null;
+		}
 	}
 
 	@Override
@@ -95,9 +665,20 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter
 		if (BuildConfig.DEBUG)
 			Log.d(SyncAdapter.class.getSimpleName(), "onPerformSync");
 		final SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(getContext());
-		final Drive driveService = getDriveFromAccount(getContext(), account);
+		final Resources resources = getContext().getResources();
+		final RetryPolicy retryPolicy = new RetryPolicy(resources.getInteger(R.integer.sync_retry_budget),
+				resources.getInteger(R.integer.sync_retry_initial_interval_millis),
+				resources.getInteger(R.integer.sync_retry_max_interval_millis),
+				resources.getInteger(R.integer.sync_retry_max_wait_millis));
+		final SyncMetrics metrics = new SyncMetrics();
+		final long tokenStart = SystemClock.elapsedRealtime();
+		final Drive driveService = getDriveFromAccount(account, retryPolicy);
+		metrics.record(SyncMetrics.PHASE_TOKEN, tokenStart, driveService == null ? 0 : 1, 0);
 		if (driveService == null)
+		{
+			metrics.save(getContext(), retryPolicy.getRetryCount());
 			return;
+		}
 		String appDataFolderId = sharedPreferences.getString(PREF_DRIVE_APPDATA_ID + "_" + account.name,
 				APPDATA_DEFAULT_ID);
 		if (APPDATA_DEFAULT_ID.equals(appDataFolderId))
@@ -112,49 +693,72 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter
 				Log.e(SyncAdapter.class.getSimpleName(), "Error getting appdata folder", e);
 				syncResult.stats.numIoExceptions++;
 			}
-		final Long startChangeId = sharedPreferences.getLong(PREF_DRIVE_START_CHANGE_ID + "_" + account.name, 0L);
-		final List<Change> changeList = new ArrayList<Change>();
-		Long newChangeId = -1L;
+		final String startChangeIdKey = PREF_DRIVE_START_CHANGE_ID + "_" + account.name;
+		final long startChangeId = sharedPreferences.getLong(startChangeIdKey, 0L);
+		final DriveDownloader downloader = new DriveDownloader(driveService,
+				resources.getInteger(R.integer.sync_download_concurrency),
+				resources.getInteger(R.integer.sync_download_timeout_millis));
 		try
 		{
 			final Changes.List request = driveService.changes().list();
-			if (startChangeId != null && startChangeId > 0L)
+			if (startChangeId > 0L)
 				request.setStartChangeId(startChangeId);
+			int changeCount = 0;
+			// Recipes whose changes could not be merged, which must be merged again on the next sync
+			final HashSet<Long> unmergedRecipeIds = new HashSet<Long>();
+			ChangeList changes;
 			do
 			{
-				final ChangeList changes = request.execute();
-				newChangeId = Math.max(newChangeId, changes.getLargestChangeId());
-				changeList.addAll(changes.getItems());
+				final long pageStart = SystemClock.elapsedRealtime();
+				changes = request.execute();
+				final List<Change> items = changes.getItems();
+				metrics.record(SyncMetrics.PHASE_CHANGES, pageStart, items == null ? 0 : items.size(), 0);
+				if (items != null && !items.isEmpty())
+				{
+					changeCount += items.size();
+					applyChanges(downloader, provider, items, unmergedRecipeIds, syncResult, metrics);
+					// The page has been committed, so an interrupted sync can resume after its last change. Once a
+					// change could not be merged, it and every later change are read again on the next sync
+					long largestChangeId = -1L;
+					for (final Change change : items)
+						if (change.getId() != null)
+							largestChangeId = Math.max(largestChangeId, change.getId());
+					if (unmergedRecipeIds.isEmpty() && largestChangeId >= startChangeId)
+						sharedPreferences.edit().putLong(startChangeIdKey, largestChangeId + 1).commit();
+				}
 				request.setPageToken(changes.getNextPageToken());
 			} while (request.getPageToken() != null && request.getPageToken().length() > 0);
-			final TreeSet<String> deletedFileIds = new TreeSet<String>();
-			final List<File> remoteChanges = new ArrayList<File>();
+			if (unmergedRecipeIds.isEmpty() && changes.getLargestChangeId() != null
+					&& changes.getLargestChangeId() >= startChangeId)
+				sharedPreferences.edit().putLong(startChangeIdKey, changes.getLargestChangeId() + 1).commit();
 			if (BuildConfig.DEBUG)
-				Log.d(SyncAdapter.class.getSimpleName(), "Found " + changeList.size() + " change"
-						+ (changeList.size() != 1 ? "s" : "") + " on Drive");
-			for (final Change change : changeList)
-				if (change.getDeleted())
-					deletedFileIds.add(change.getFileId());
-				else
-				{
-					final File changedFile = change.getFile();
-					if (BuildConfig.DEBUG)
-						Log.d(SyncAdapter.class.getSimpleName(), "Change of file named " + changedFile.getTitle());
-					final boolean isFolder = FOLDER_MIME_TYPE.equals(changedFile.getMimeType());
-					if (changedFile.getAppDataContents() && !isFolder)
-					{
-						remoteChanges.add(changedFile);
-						if (BuildConfig.DEBUG)
-							Log.d(SyncAdapter.class.getSimpleName(), "File " + changedFile.getTitle()
-									+ " changed in AppData folder");
-					}
-				}
-			Log.d(SyncAdapter.class.getSimpleName(), "Found " + deletedFileIds.size() + " deleted change"
-					+ (deletedFileIds.size() != 1 ? "s" : ""));
+				Log.d(SyncAdapter.class.getSimpleName(), "Processed " + changeCount + " change"
+						+ (changeCount != 1 ? "s" : "") + " from Drive");
+			syncResult.stats.numSkippedEntries += unmergedRecipeIds.size();
+			DriveUploader.deleteRecipes(driveService, provider, syncResult, metrics);
+			// Uploading an unmerged recipe would overwrite the remote changes it has not been merged with
+			DriveUploader.uploadDirtyRecipes(driveService, provider, appDataFolderId, unmergedRecipeIds, syncResult,
+					metrics);
 		} catch (final IOException e)
 		{
-			Log.e(SyncAdapter.class.getSimpleName(), "Error getting changes", e);
+			Log.e(SyncAdapter.class.getSimpleName(), "Error syncing with Drive", e);
 			syncResult.stats.numIoExceptions++;
+		} catch (final RemoteException e)
+		{
+			Log.e(SyncAdapter.class.getSimpleName(), "Error applying changes", e);
+			syncResult.databaseError = true;
+		} catch (final OperationApplicationException e)
+		{
+			Log.e(SyncAdapter.class.getSimpleName(), "Error applying changes", e);
+			syncResult.databaseError = true;
+		} finally
+		{
+			downloader.shutdown();
+			metrics.save(getContext(), retryPolicy.getRetryCount());
+			// Despite its name, the sync manager treats delayUntil as a number of seconds from now
+			final long delayMillis = retryPolicy.getDelayUntilMillis() - System.currentTimeMillis();
+			if (delayMillis > 0)
+				syncResult.delayUntil = (delayMillis + 999) / 1000;
 		}
 	}
 }
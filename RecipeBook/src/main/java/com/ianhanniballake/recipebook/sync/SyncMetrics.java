@@ -0,0 +1,164 @@
+package com.ianhanniballake.recipebook.sync;
+
+import java.util.ArrayList;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ianhanniballake.recipebook.BuildConfig;
+
+/**
+ * Wall time, item counts, and byte counts of each phase of a single sync, along with the retries made and the rows
+ * written. Metrics of the last sync are saved to the {@link #PREFS_NAME} shared preferences so that they can be
+ * compared across releases. Only to be used from the sync thread.
+ */
+class SyncMetrics
+{
+	/**
+	 * Phase writing downloaded recipes and upload results to the RecipeProvider. Items are operations applied
+	 */
+	static final int PHASE_APPLY = 0;
+	/**
+	 * Phase paging through the Drive changes feed. Items are changes read
+	 */
+	static final int PHASE_CHANGES = 1;
+	/**
+	 * Phase waiting on changed files to download. Items are files downloaded
+	 */
+	static final int PHASE_DOWNLOADS = 2;
+	/**
+	 * Names of each phase, as used in the saved metrics
+	 */
+	private static final String[] PHASE_NAMES = { "apply", "changes", "downloads", "token", "uploads" };
+	/**
+	 * Phase authorizing the account and building the Drive service. Items are the number of services built
+	 */
+	static final int PHASE_TOKEN = 3;
+	/**
+	 * Phase uploading recipes with local changes. Items are recipes uploaded
+	 */
+	static final int PHASE_UPLOADS = 4;
+	/**
+	 * Name of the shared preferences the metrics of the last sync are saved in
+	 */
+	static final String PREFS_NAME = "sync_metrics";
+
+	/**
+	 * Bytes transferred in each phase
+	 */
+	private final long[] bytes = new long[SyncMetrics.PHASE_NAMES.length];
+	/**
+	 * Items handled in each phase
+	 */
+	private final int[] items = new int[SyncMetrics.PHASE_NAMES.length];
+	/**
+	 * Wall time spent in each phase, in milliseconds
+	 */
+	private final long[] millis = new long[SyncMetrics.PHASE_NAMES.length];
+	/**
+	 * Number of retries made by the sync's retry policy
+	 */
+	private int retries = 0;
+	/**
+	 * Number of rows inserted, updated, or deleted in the RecipeProvider
+	 */
+	private int rows = 0;
+	/**
+	 * Time the sync started, in milliseconds since boot
+	 */
+	private final long startMillis = SystemClock.elapsedRealtime();
+
+	/**
+	 * Applies the given operations, recording the time taken and the rows written in {@link #PHASE_APPLY}
+	 * 
+	 * @param provider
+	 *            Client of the RecipeProvider
+	 * @param operations
+	 *            Operations to apply
+	 * @throws RemoteException
+	 *             If the RecipeProvider could not be reached
+	 * @throws OperationApplicationException
+	 *             If an operation could not be applied
+	 */
+	void applyBatch(final ContentProviderClient provider, final ArrayList<ContentProviderOperation> operations)
+			throws RemoteException, OperationApplicationException
+	{
+		final long start = SystemClock.elapsedRealtime();
+		final ContentProviderResult[] results = provider.applyBatch(operations);
+		record(SyncMetrics.PHASE_APPLY, start, operations.size(), 0);
+		for (final ContentProviderResult result : results)
+			if (result.uri != null)
+				rows++;
+			else if (result.count != null)
+				rows += result.count;
+	}
+
+	/**
+	 * Records time spent in a phase, ending now
+	 * 
+	 * @param phase
+	 *            Phase, one of the PHASE_ constants
+	 * @param start
+	 *            Time the phase started, from {@link SystemClock#elapsedRealtime()}
+	 * @param itemCount
+	 *            Number of items handled
+	 * @param byteCount
+	 *            Number of bytes transferred
+	 */
+	void record(final int phase, final long start, final int itemCount, final long byteCount)
+	{
+		millis[phase] += SystemClock.elapsedRealtime() - start;
+		items[phase] += itemCount;
+		bytes[phase] += byteCount;
+	}
+
+	/**
+	 * Saves these metrics as those of the last sync, replacing any previously saved metrics
+	 * 
+	 * @param context
+	 *            Context to get the shared preferences with
+	 * @param retryCount
+	 *            Number of retries made by the sync's retry policy
+	 */
+	void save(final Context context, final int retryCount)
+	{
+		retries = retryCount;
+		if (BuildConfig.DEBUG)
+			Log.d(SyncMetrics.class.getSimpleName(), toString());
+		final SharedPreferences.Editor editor = context.getSharedPreferences(SyncMetrics.PREFS_NAME,
+				Context.MODE_PRIVATE).edit();
+		editor.clear();
+		editor.putLong("finished", System.currentTimeMillis());
+		editor.putLong("total_millis", SystemClock.elapsedRealtime() - startMillis);
+		editor.putInt("version_code", BuildConfig.VERSION_CODE);
+		editor.putInt("retries", retries);
+		editor.putInt("rows", rows);
+		for (int phase = 0; phase < SyncMetrics.PHASE_NAMES.length; phase++)
+		{
+			final String name = SyncMetrics.PHASE_NAMES[phase];
+			editor.putLong(name + "_millis", millis[phase]);
+			editor.putInt(name + "_items", items[phase]);
+			editor.putLong(name + "_bytes", bytes[phase]);
+		}
+		editor.commit();
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder builder = new StringBuilder("Sync took ");
+		builder.append(SystemClock.elapsedRealtime() - startMillis).append("ms");
+		for (int phase = 0; phase < SyncMetrics.PHASE_NAMES.length; phase++)
+			builder.append(", ").append(SyncMetrics.PHASE_NAMES[phase]).append(": ").append(millis[phase])
+					.append("ms/").append(items[phase]).append(" items/").append(bytes[phase]).append(" bytes");
+		builder.append(", ").append(retries).append(" retries, ").append(rows).append(" rows");
+		return builder.toString();
+	}
+}
@@ -0,0 +1,41 @@
+package com.ianhanniballake.recipebook.sync;
+
+import java.io.IOException;
+
+import android.accounts.Account;
+
+import com.google.android.gms.auth.GoogleAuthException;
+
+/**
+ * Source of the OAuth access tokens authorizing SyncAdapter's Drive requests
+ */
+interface TokenProvider
+{
+	/**
+	 * Gets an access token for the Drive appdata scope of the given account
+	 * 
+	 * @param account
+	 *            Account to authorize
+	 * @return The access token
+	 * @throws IOException
+	 *             If the token could not be retrieved due to a transient error, such as a network error
+	 * @throws GoogleAuthException
+	 *             If the account cannot be authorized. A
+	 *             {@link com.google.android.gms.auth.UserRecoverableNotifiedException} means the user has been notified
+	 *             of how to resolve the error
+	 */
+	String getToken(Account account) throws IOException, GoogleAuthException;
+
+	/**
+	 * Invalidates a token that has expired or been rejected, so that the next call to {@link #getToken(Account)}
+	 * retrieves a new token
+	 * 
+	 * @param token
+	 *            Token to invalidate
+	 * @throws IOException
+	 *             If the token could not be invalidated due to a transient error
+	 * @throws GoogleAuthException
+	 *             If the token could not be invalidated
+	 */
+	void invalidateToken(String token) throws IOException, GoogleAuthException;
+}
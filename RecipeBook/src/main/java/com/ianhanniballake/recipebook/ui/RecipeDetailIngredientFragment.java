@@ -29,6 +29,7 @@ import android.widget.ImageButton;
 
 import com.ianhanniballake.recipebook.R;
 import com.ianhanniballake.recipebook.model.Ingredient;
+import com.ianhanniballake.recipebook.model.IngredientParser;
 import com.ianhanniballake.recipebook.provider.RecipeContract;
 
 /**
@@ -90,7 +91,7 @@ public class RecipeDetailIngredientFragment extends ListFragment implements Load
 					public void onTextChanged(final CharSequence s, final int start, final int before, final int count)
 					{
 						final int savedPosition = view.getTag() == null ? position : (Integer) view.getTag();
-						getItem(savedPosition).setFromRaw(view.getResources(), s.toString());
+						getItem(savedPosition).setFromRaw(parser, s.toString());
 					}
 				});
 				final ImageButton deleteIngredient = (ImageButton) view.findViewById(R.id.delete_ingredient);
@@ -116,15 +117,20 @@ public class RecipeDetailIngredientFragment extends ListFragment implements Load
 	 * Current list of ingredients
 	 */
 	List<Ingredient> ingredients = new ArrayList<Ingredient>();
+	/**
+	 * Parser for ingredients as they are edited, reused so that its default values are only loaded once
+	 */
+	private IngredientParser parser;
 
 	/**
 	 * Gets a ContentValues object for each ingredient
 	 * 
+	 * @param recipeId
+	 *            Recipe ID to associate with each ingredient
 	 * @return ContentValues for each ingredient
 	 */
-	public ContentValues[] getContentValuesArray()
+	public ContentValues[] getContentValuesArray(final long recipeId)
 	{
-		final long recipeId = ContentUris.parseId(getActivity().getIntent().getData());
 		final int ingredientCount = adapter.getCount();
 		final List<ContentValues> ingredientContentValuesList = new ArrayList<ContentValues>();
 		for (int position = 0; position < ingredientCount; position++)
@@ -145,6 +151,7 @@ public class RecipeDetailIngredientFragment extends ListFragment implements Load
 		final boolean isEdit = Intent.ACTION_INSERT.equals(action) || Intent.ACTION_EDIT.equals(action);
 		final int layoutId = isEdit ? R.layout.list_item_ingredient_edit : R.layout.list_item_ingredient;
 		setHasOptionsMenu(isEdit);
+		parser = new IngredientParser(getResources());
 		adapter = new IngredientArrayAdapter(getActivity(), layoutId, R.id.raw);
 		setListAdapter(adapter);
 		getListView().setChoiceMode(AbsListView.CHOICE_MODE_NONE);
@@ -155,7 +162,7 @@ public class RecipeDetailIngredientFragment extends ListFragment implements Load
 			final List<String> rawIngredients = savedInstanceState
 					.getStringArrayList(RecipeContract.Ingredients.COLUMN_NAME_ITEM);
 			for (final String rawText : rawIngredients)
-				ingredients.add(new Ingredient(getResources(), rawText));
+				ingredients.add(parser.parse(rawText));
 			updateViews();
 		}
 		else if (!Intent.ACTION_INSERT.equals(getActivity().getIntent().getAction()))
@@ -208,7 +215,7 @@ public class RecipeDetailIngredientFragment extends ListFragment implements Load
 		switch (item.getItemId())
 		{
 			case R.id.add_ingredient:
-				final Ingredient newIngredient = new Ingredient(getResources(), "");
+				final Ingredient newIngredient = parser.parse("");
 				ingredients.add(newIngredient);
 				adapter.add(newIngredient);
 				getListView().setSelection(adapter.getPosition(newIngredient));
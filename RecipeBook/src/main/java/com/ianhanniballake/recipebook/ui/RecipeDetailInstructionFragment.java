@@ -120,11 +120,12 @@ public class RecipeDetailInstructionFragment extends ListFragment implements Loa
 	/**
 	 * Gets a ContentValues object for each instruction
 	 * 
+	 * @param recipeId
+	 *            Recipe ID to associate with each instruction
 	 * @return ContentValues for each instruction
 	 */
-	public ContentValues[] getContentValuesArray()
+	public ContentValues[] getContentValuesArray(final long recipeId)
 	{
-		final long recipeId = ContentUris.parseId(getActivity().getIntent().getData());
 		final int instructionCount = adapter.getCount();
 		final List<ContentValues> instructionContentValuesList = new ArrayList<ContentValues>();
 		for (int position = 0; position < instructionCount; position++)
@@ -1,6 +1,7 @@
 package com.ianhanniballake.recipebook.ui;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Locale;
 
 import android.app.ActionBar;
@@ -8,15 +9,20 @@ import android.app.Activity;
 import android.app.Fragment;
 import android.app.FragmentManager;
 import android.app.FragmentTransaction;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.support.v13.app.FragmentPagerAdapter;
 import android.support.v4.view.ViewPager;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -226,43 +232,67 @@ public class RecipeEditActivity extends AuthorizedActivity
 			final RecipeDetailSummaryFragment summaryFragment = (RecipeDetailSummaryFragment) params[0];
 			final ContentValues recipeValues = summaryFragment.getContentValues();
 			final boolean isInsert = Intent.ACTION_INSERT.equals(activity.getIntent().getAction());
+			// Save the recipe, ingredients, and instructions as a single all or nothing batch
+			final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
 			long recipeId;
 			if (isInsert)
 			{
-				final Uri newRow = resolver.insert(RecipeContract.Recipes.CONTENT_ID_URI_BASE, recipeValues);
-				if (newRow == null)
-					return -1L;
-				recipeId = ContentUris.parseId(newRow);
-				activity.getIntent().setData(newRow);
+				// The recipe ID isn't known until the insert is applied so the ingredients and instructions use a back
+				// reference to the result of this first operation
+				recipeId = -1L;
+				operations.add(ContentProviderOperation.newInsert(RecipeContract.Recipes.CONTENT_ID_URI_BASE)
+						.withValues(recipeValues).build());
 			}
 			else
 			{
 				final Uri recipeUri = activity.getIntent().getData();
 				recipeId = ContentUris.parseId(recipeUri);
-				resolver.update(recipeUri, recipeValues, null, null);
+				operations.add(ContentProviderOperation.newUpdate(recipeUri).withValues(recipeValues).build());
+				final String[] recipeSelectionArgs = { Long.toString(recipeId) };
+				operations.add(ContentProviderOperation.newDelete(RecipeContract.Ingredients.CONTENT_ID_URI_BASE)
+						.withSelection(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + "=?", recipeSelectionArgs)
+						.build());
+				operations.add(ContentProviderOperation.newDelete(RecipeContract.Instructions.CONTENT_ID_URI_BASE)
+						.withSelection(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID + "=?", recipeSelectionArgs)
+						.build());
 			}
 			// Insert ingredients
 			final RecipeDetailIngredientFragment ingredientFragment = (RecipeDetailIngredientFragment) params[1];
-			final ContentValues[] ingredientValuesArray = ingredientFragment.getContentValuesArray();
-			final String ingredientSelection = RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID + "=?";
-			final String[] ingredientSelectionArgs = { Long.toString(recipeId) };
-			resolver.delete(RecipeContract.Ingredients.CONTENT_ID_URI_BASE, ingredientSelection,
-					ingredientSelectionArgs);
-			final int insertedIngredientCount = resolver.bulkInsert(RecipeContract.Ingredients.CONTENT_ID_URI_BASE,
-					ingredientValuesArray);
-			if (insertedIngredientCount != ingredientValuesArray.length)
-				return -1L;
+			for (final ContentValues ingredientValues : ingredientFragment.getContentValuesArray(recipeId))
+			{
+				final ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(
+						RecipeContract.Ingredients.CONTENT_ID_URI_BASE).withValues(ingredientValues);
+				if (isInsert)
+					builder.withValueBackReference(RecipeContract.Ingredients.COLUMN_NAME_RECIPE_ID, 0);
+				operations.add(builder.build());
+			}
 			// Insert instructions
 			final RecipeDetailInstructionFragment instructionFragment = (RecipeDetailInstructionFragment) params[2];
-			final ContentValues[] instructionValuesArray = instructionFragment.getContentValuesArray();
-			final String instructionSelection = RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID + "=?";
-			final String[] instructionSelectionArgs = { Long.toString(recipeId) };
-			resolver.delete(RecipeContract.Instructions.CONTENT_ID_URI_BASE, instructionSelection,
-					instructionSelectionArgs);
-			final int insertedInstructionCount = resolver.bulkInsert(RecipeContract.Instructions.CONTENT_ID_URI_BASE,
-					instructionValuesArray);
-			if (insertedInstructionCount != instructionValuesArray.length)
+			for (final ContentValues instructionValues : instructionFragment.getContentValuesArray(recipeId))
+			{
+				final ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(
+						RecipeContract.Instructions.CONTENT_ID_URI_BASE).withValues(instructionValues);
+				if (isInsert)
+					builder.withValueBackReference(RecipeContract.Instructions.COLUMN_NAME_RECIPE_ID, 0);
+				operations.add(builder.build());
+			}
+			try
+			{
+				final ContentProviderResult[] results = resolver.applyBatch(RecipeContract.AUTHORITY, operations);
+				if (isInsert)
+				{
+					recipeId = ContentUris.parseId(results[0].uri);
+					activity.getIntent().setData(results[0].uri);
+				}
+			} catch (final RemoteException e)
+			{
+				Log.e(RecipeEditActivity.class.getSimpleName(), "Error saving recipe", e);
 				return -1L;
+			} catch (final OperationApplicationException e)
+			{
+				Log.e(RecipeEditActivity.class.getSimpleName(), "Error saving recipe", e);
+				return -1L;
+			}
 			return recipeId;
 		}
 
@@ -157,10 +157,9 @@ public class RecipeListActivity extends AuthorizedActivity implements LoaderMana
 				suggestions.saveRecentQuery(userQuery.toString(), null);
 			}
 			final String query = getIntent().getStringExtra(SearchManager.QUERY);
-			final String selection = RecipeContract.Recipes.COLUMN_NAME_TITLE + " LIKE ? OR "
-					+ RecipeContract.Recipes.COLUMN_NAME_DESCRIPTION + " LIKE ?";
-			final String[] selectionArgs = { "%" + query + "%", "%" + query + "%" };
-			return new CursorLoader(this, RecipeContract.Recipes.CONTENT_URI, null, selection, selectionArgs, null);
+			if (!TextUtils.isEmpty(query))
+				return new CursorLoader(this, Uri.withAppendedPath(RecipeContract.Recipes.CONTENT_SEARCH_URI_BASE,
+						query), null, null, null, null);
 		}
 		return new CursorLoader(this, RecipeContract.Recipes.CONTENT_URI, null, null, null, null);
 	}